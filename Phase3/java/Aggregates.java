@@ -0,0 +1,137 @@
+/*
+ * Maintained Aggregates
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The aggregate tables create.sql keeps current with row triggers, read by
+ * the reports instead of their base tables:
+ *
+ *   CUSTOMER_REVENUE  CustomerRevenue, booking total and count per customer,
+ *                     hotel and day (totalCostForCustomer)
+ *   COMPANY_REPAIRS   CompanyRepairs, repairs per maintenance company
+ *                     (topKMaintenanceCompany)
+ *
+ * The triggers cover every client.  This class rebuilds a table from
+ * scratch (after a load with triggers disabled, or to repair it) and
+ * checks it against its base table.
+ */
+public enum Aggregates {
+
+   CUSTOMER_REVENUE ("CustomerRevenue", "Booking",
+      "INSERT INTO CustomerRevenue(customer, hotelID, day, total, bookings) " +
+      "SELECT customer, hotelID, bookingDate, SUM(price), COUNT(*) FROM Booking " +
+      "GROUP BY customer, hotelID, bookingDate",
+      "SELECT COALESCE(b.customer, r.customer) AS customer, COALESCE(b.hotelID, r.hotelID) AS hotelID, " +
+      "COALESCE(b.day, r.day) AS day, b.total AS bookingTotal, b.bookings AS bookingCount, " +
+      "r.total AS aggregateTotal, r.bookings AS aggregateCount " +
+      "FROM (SELECT customer, hotelID, bookingDate AS day, SUM(price) AS total, COUNT(*) AS bookings " +
+      "      FROM Booking GROUP BY customer, hotelID, bookingDate) b " +
+      "FULL OUTER JOIN CustomerRevenue r ON r.customer = b.customer AND r.hotelID = b.hotelID AND r.day = b.day " +
+      "WHERE b.total IS DISTINCT FROM r.total OR b.bookings IS DISTINCT FROM r.bookings " +
+      "ORDER BY 1, 2, 3"),
+
+   COMPANY_REPAIRS ("CompanyRepairs", "Repair",
+      "INSERT INTO CompanyRepairs(cmpID, repairs) SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany",
+      "SELECT COALESCE(b.cmpID, r.cmpID) AS cmpID, b.repairs AS repairCount, r.repairs AS aggregateCount " +
+      "FROM (SELECT mCompany AS cmpID, COUNT(*) AS repairs FROM Repair GROUP BY mCompany) b " +
+      "FULL OUTER JOIN (SELECT * FROM CompanyRepairs WHERE repairs > 0) r ON r.cmpID = b.cmpID " +
+      "WHERE b.repairs IS DISTINCT FROM r.repairs ORDER BY 1");
+
+   // mismatches printed by check
+   private static final int SHOWN = 20;
+
+   // the aggregate table and the table it summarizes
+   public final String table, source;
+   private final String _rebuild;
+   // every aggregate row that differs from the source
+   private final String _check;
+
+   Aggregates (String table, String source, String rebuild, String check) {
+      this.table = table;
+      this.source = source;
+      this._rebuild = rebuild;
+      this._check = check;
+   }//end Aggregates
+
+   /**
+    * Recomputes the table from its source in one transaction.  Writes to
+    * the source are blocked meanwhile, so no row is counted twice or
+    * missed.
+    *
+    * @return the number of aggregate rows written
+    */
+   public int rebuild (ConnectionPool pool) throws SQLException {
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      Connection conn = pc.connection();
+      SQLException failure = null;
+      try {
+         conn.setAutoCommit(false);
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.execute("LOCK TABLE " + this.source + " IN SHARE MODE");
+            stmt.executeUpdate("DELETE FROM " + this.table);
+            int rows = stmt.executeUpdate(this._rebuild);
+            conn.commit();
+            return rows;
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         pool.release(pc, failure);
+      }//end try
+   }//end rebuild
+
+   /**
+    * Compares the table with its source and prints the first differences.
+    *
+    * @return the number of aggregate rows that differ
+    */
+   public int check (ConnectionPool pool) throws SQLException {
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(this._check);
+            ResultSetMetaData md = rs.getMetaData();
+            int mismatches = 0;
+            while (rs.next()) {
+               if (++mismatches > SHOWN) continue;
+               StringBuilder sb = new StringBuilder(this.table).append(':');
+               for (int i = 1; i <= md.getColumnCount(); ++i)
+                  sb.append(' ').append(md.getColumnName(i)).append('=').append(rs.getString(i));
+               System.out.println(sb);
+            }//end while
+            rs.close();
+            if (mismatches > SHOWN) System.out.println("... " + (mismatches - SHOWN) + " more");
+            return mismatches;
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         pool.release(pc, failure);
+      }//end try
+   }//end check
+
+}//end Aggregates
@@ -0,0 +1,337 @@
+/*
+ * Asynchronous Operations
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Non-blocking facade over the DBProject operations: every call returns a
+ * CompletableFuture at once and runs on a worker thread.
+ *
+ * Workers are virtual threads when the JVM has them (Java 21 and later),
+ * so thousands of waiting sessions cost little memory; older JVMs get a
+ * fixed pool of platform threads instead.  Either way at most
+ * dbproject.async.maxConcurrency calls (default: the connection pool size)
+ * reach the database at a time, and the rest wait for a permit rather
+ * than for a connection.
+ *
+ * Queries complete with their rows collected in memory.  The fan-out
+ * helpers run one query per hotel in parallel and merge the answers.
+ */
+public class AsyncDBProject {
+
+   private final DBProject _esql;
+   private final ExecutorService _executor;
+   private final Semaphore _permits;
+   private final boolean _virtual;
+
+   public AsyncDBProject (DBProject esql) {
+      this._esql = esql;
+      int limit = Math.max(1, Integer.getInteger("dbproject.async.maxConcurrency", esql.poolStats().maxSize));
+      this._permits = new Semaphore(limit, true);
+      ExecutorService virtual = virtualThreadExecutor();
+      this._virtual = virtual != null;
+      this._executor = virtual != null ? virtual : Executors.newFixedThreadPool(limit, new ThreadFactory() {
+         private final AtomicInteger _n = new AtomicInteger();
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "dbproject-async-" + this._n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+         }
+      });
+   }//end AsyncDBProject
+
+   /*
+    * Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21.
+    */
+   private static ExecutorService virtualThreadExecutor () {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }catch (Exception e) {
+         return null;
+      }//end try
+   }//end virtualThreadExecutor
+
+   /**
+    * @return true when calls run on virtual threads
+    */
+   public boolean virtualThreads () {
+      return this._virtual;
+   }//end virtualThreads
+
+   /**
+    * Runs a call on a worker once a permit is free.  The future completes
+    * with the call's result, or exceptionally with what it threw.
+    */
+   public <T> CompletableFuture<T> submit (final Callable<T> call) {
+      final CompletableFuture<T> future = new CompletableFuture<T>();
+      // the worker's reports see the caller's writes
+      final ReplicaRouter replicas = this._esql.replicas();
+      final long written = replicas == null ? 0 : replicas.lastWrite();
+      this._executor.execute(() -> {
+         try {
+            this._permits.acquire();
+         }catch (InterruptedException e) {
+            future.completeExceptionally(e);
+            return;
+         }//end try
+         try {
+            if (replicas != null) replicas.inherit(written);
+            future.complete(call.call());
+         }catch (Throwable t) {
+            future.completeExceptionally(t);
+         }finally {
+            this._permits.release();
+         }//end try
+      });
+      return future;
+   }//end submit
+
+   /**
+    * Runs a query and collects its rows.
+    */
+   public CompletableFuture<ResultSinks.Collector> query (final Sql op, final Object... params) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.streamQuery(op, rows, params);
+         return rows;
+      });
+   }//end query
+
+   /*
+    * The operations.
+    */
+
+   public CompletableFuture<Void> addCustomerAsync (int customerID, String fName, String lName, String address,
+                                                    long phNo, String dob, String gender) {
+      return submit(() -> { this._esql.addCustomer(customerID, fName, lName, address, phNo, dob, gender); return null; });
+   }//end addCustomerAsync
+
+   public CompletableFuture<Void> addRoomAsync (int hotelID, int roomNo, String roomType) {
+      return submit(() -> { this._esql.addRoom(hotelID, roomNo, roomType); return null; });
+   }//end addRoomAsync
+
+   public CompletableFuture<Void> addMaintenanceCompanyAsync (int cmpID, String name, String address,
+                                                              boolean isCertified) {
+      return submit(() -> { this._esql.addMaintenanceCompany(cmpID, name, address, isCertified); return null; });
+   }//end addMaintenanceCompanyAsync
+
+   public CompletableFuture<Void> addRepairAsync (int rID, int hotelID, int roomNo, int mCompany,
+                                                  java.sql.Date repairDate, String description, String repairType) {
+      return submit(() -> {
+         this._esql.addRepair(rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+         return null;
+      });
+   }//end addRepairAsync
+
+   /**
+    * @return completes with the booking once it is committed
+    */
+   public CompletableFuture<BookingRequest> bookRoomAsync (BookingRequest booking) {
+      return submit(() -> { this._esql.bookRoom(booking); return booking; });
+   }//end bookRoomAsync
+
+   /**
+    * Books through the booking engine, which picks the bID.
+    *
+    * @return completes with the new bID, or BookingEngine.TAKEN when the
+    *         room is already booked that night
+    */
+   public CompletableFuture<Integer> bookRoomAsync (int customer, int hotelID, int roomNo, String bookingDate,
+                                                    int noOfPeople, double price) {
+      return submit(() -> this._esql.bookRoom(customer, hotelID, roomNo, bookingDate, noOfPeople, price));
+   }//end bookRoomAsync
+
+   public CompletableFuture<BookingBatchResult> bookRoomsAsync (List<BookingRequest> bookings) {
+      return submit(() -> this._esql.bookRooms(bookings));
+   }//end bookRoomsAsync
+
+   public CompletableFuture<Void> assignHouseCleaningToRoomAsync (int asgID, int staffID, int hotelID, int roomNo) {
+      return submit(() -> { this._esql.assignHouseCleaningToRoom(asgID, staffID, hotelID, roomNo); return null; });
+   }//end assignHouseCleaningToRoomAsync
+
+   public CompletableFuture<Void> repairRequestAsync (int reqID, int managerID, int repairID, String requestDate,
+                                                      String description) {
+      return submit(() -> { this._esql.repairRequest(reqID, managerID, repairID, requestDate, description); return null; });
+   }//end repairRequestAsync
+
+   /**
+    * @return completes with the number of rooms of the hotel never booked
+    */
+   public CompletableFuture<Integer> availableRoomsAsync (int hotelID) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.numberOfAvailableRooms(hotelID, rows);
+         return rows.rows().isEmpty() ? 0 : Integer.valueOf(rows.rows().get(0)[0].trim());
+      });
+   }//end availableRoomsAsync
+
+   /**
+    * @return completes with the number of bookings of the hotel
+    */
+   public CompletableFuture<Integer> bookedRoomsAsync (int hotelID) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.numberOfBookedRooms(hotelID, rows);
+         return rows.rows().isEmpty() ? 0 : Integer.valueOf(rows.rows().get(0)[1].trim());
+      });
+   }//end bookedRoomsAsync
+
+   public CompletableFuture<ResultSinks.Collector> freeRoomsForWeekAsync (int hotelID, LocalDate from) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.listHotelRoomBookingsForAWeek(hotelID, from, rows);
+         return rows;
+      });
+   }//end freeRoomsForWeekAsync
+
+   public CompletableFuture<ResultSinks.Collector> topKHighestRoomPriceAsync (DateRange range, int k) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.topKHighestRoomPriceForADateRange(range, k, rows);
+         return rows;
+      });
+   }//end topKHighestRoomPriceAsync
+
+   public CompletableFuture<ResultSinks.Collector> topKHighestPriceBookingsAsync (String fName, String lName, int k) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.topKHighestPriceBookingsForACustomer(fName, lName, k, rows);
+         return rows;
+      });
+   }//end topKHighestPriceBookingsAsync
+
+   public CompletableFuture<ResultSinks.Collector> totalCostForCustomerAsync (int hotelID, int customerID,
+                                                                             DateRange range) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.totalCostForCustomer(hotelID, customerID, range, rows);
+         return rows;
+      });
+   }//end totalCostForCustomerAsync
+
+   public CompletableFuture<ResultSinks.Collector> listRepairsMadeAsync (String companyName) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.listRepairsMade(companyName, rows);
+         return rows;
+      });
+   }//end listRepairsMadeAsync
+
+   public CompletableFuture<ResultSinks.Collector> topKMaintenanceCompanyAsync (int k) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.topKMaintenanceCompany(k, rows);
+         return rows;
+      });
+   }//end topKMaintenanceCompanyAsync
+
+   public CompletableFuture<ResultSinks.Collector> repairsPerYearAsync (int hotelID, int roomNo) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.numberOfRepairsForEachRoomPerYear(hotelID, roomNo, rows);
+         return rows;
+      });
+   }//end repairsPerYearAsync
+
+   public CompletableFuture<ResultSinks.Collector> repairsPerYearForHotelAsync (int hotelID) {
+      return submit(() -> {
+         ResultSinks.Collector rows = ResultSinks.collect();
+         this._esql.repairsPerYearForHotel(hotelID, rows);
+         return rows;
+      });
+   }//end repairsPerYearForHotelAsync
+
+   /*
+    * Fan-out over many hotels.
+    */
+
+   /**
+    * Starts one call per key and completes, once all have, with their
+    * results in key order.  Fails with the first failure.
+    */
+   public static <K, V> CompletableFuture<Map<K, V>> fanOut (Collection<K> keys,
+                                                            Function<K, CompletableFuture<V>> call) {
+      final List<K> order = new ArrayList<K>(keys);
+      final List<CompletableFuture<V>> futures = new ArrayList<CompletableFuture<V>>(order.size());
+      for (K k : order) futures.add(call.apply(k));
+      return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+         Map<K, V> results = new LinkedHashMap<K, V>();
+         for (int i = 0; i < order.size(); ++i) results.put(order.get(i), futures.get(i).join());
+         return results;
+      });
+   }//end fanOut
+
+   /**
+    * @return completes with the number of never-booked rooms per hotel
+    */
+   public CompletableFuture<Map<Integer, Integer>> availableRoomsByHotel (Collection<Integer> hotelIDs) {
+      return fanOut(hotelIDs, this::availableRoomsAsync);
+   }//end availableRoomsByHotel
+
+   /**
+    * @return completes with the rooms of all the hotels free for the week
+    *         starting at from, hotel by hotel in the order given
+    */
+   public CompletableFuture<ResultSinks.Collector> freeRoomsForWeek (Collection<Integer> hotelIDs,
+                                                                    final LocalDate from) {
+      return fanOut(hotelIDs, id -> freeRoomsForWeekAsync(id, from)).thenApply(AsyncDBProject::merge);
+   }//end freeRoomsForWeek
+
+   /**
+    * @return completes with the repairs per room and year of all the
+    *         hotels, hotel by hotel in the order given
+    */
+   public CompletableFuture<ResultSinks.Collector> repairsPerYearByHotel (Collection<Integer> hotelIDs) {
+      return fanOut(hotelIDs, this::repairsPerYearForHotelAsync).thenApply(AsyncDBProject::merge);
+   }//end repairsPerYearByHotel
+
+   /**
+    * Concatenates query answers with the same columns.
+    */
+   public static ResultSinks.Collector merge (Map<?, ResultSinks.Collector> answers) {
+      ResultSinks.Collector merged = ResultSinks.collect();
+      boolean begun = false;
+      for (ResultSinks.Collector c : answers.values()) {
+         if (!begun && c.columns().length > 0) {
+            merged.begin(c.columns());
+            begun = true;
+         }//end if
+         for (String[] row : c.rows()) merged.row(row);
+      }//end for
+      merged.end(merged.rows().size());
+      return merged;
+   }//end merge
+
+   /**
+    * Stops accepting calls and waits for the running ones.
+    */
+   public void close () throws InterruptedException {
+      this._executor.shutdown();
+      this._executor.awaitTermination(1, TimeUnit.MINUTES);
+   }//end close
+
+}//end AsyncDBProject
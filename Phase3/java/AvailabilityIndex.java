@@ -0,0 +1,357 @@
+/*
+ * Room Availability Index
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process answer to "which rooms of hotel H are free", kept so that the
+ * front desk does not rescan Booking on every refresh.
+ *
+ * For each hotel the index holds its rooms, a bitmap of rooms that have
+ * ever been booked and, per booked day, a bitmap of the rooms booked that
+ * day.  It is built once from Room and Booking and then updated by the
+ * DBProject write paths (addRoom, bookRoom, bookRooms).  Bookings made by
+ * other processes are only seen after {@link #rebuild()}.  Updates made
+ * while a rebuild reads the tables are logged and replayed onto the new
+ * maps before they replace the old ones, so none is lost.
+ *
+ * Enabled with -Ddbproject.availabilityIndex=true.
+ */
+public class AvailabilityIndex {
+
+   /*
+    * Rooms of one hotel, numbered in load order.
+    */
+   private static class HotelRooms {
+      final List<Integer> roomNos = new ArrayList<Integer>();
+      final List<String> roomTypes = new ArrayList<String>();
+      final Map<Integer, Integer> slotOf = new HashMap<Integer, Integer>();
+      final BitSet everBooked = new BitSet();
+      final Map<Long, BitSet> bookedOn = new HashMap<Long, BitSet>(); // epoch day -> rooms
+
+      int addRoom (int roomNo, String roomType) {
+         Integer slot = this.slotOf.get(roomNo);
+         if (slot != null) return slot;
+         int s = this.roomNos.size();
+         this.roomNos.add(roomNo);
+         this.roomTypes.add(roomType);
+         this.slotOf.put(roomNo, s);
+         return s;
+      }//end addRoom
+
+      boolean book (int roomNo, long day) {
+         Integer slot = this.slotOf.get(roomNo);
+         if (slot == null) return false;
+         this.everBooked.set(slot);
+         BitSet rooms = this.bookedOn.get(day);
+         if (rooms == null) {
+            rooms = new BitSet(this.roomNos.size());
+            this.bookedOn.put(day, rooms);
+         }//end if
+         rooms.set(slot);
+         return true;
+      }//end book
+   }//end HotelRooms
+
+   /*
+    * A roomAdded (roomType set) or roomBooked made during a rebuild.
+    */
+   private static class Update {
+      final int hotelID, roomNo;
+      final String roomType;
+      final LocalDate date;
+
+      Update (int hotelID, int roomNo, String roomType, LocalDate date) {
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.roomType = roomType;
+         this.date = date;
+      }//end Update
+   }//end Update
+
+   private final DBProject _esql;
+   private Map<Integer, HotelRooms> _hotels = null;
+   private boolean _stale = true;
+   // updates since the oldest running rebuild started, guarded by this
+   private final List<Update> _during = new ArrayList<Update>();
+   private int _rebuilding = 0;
+   private long _invalidations = 0;
+
+   // metrics, guarded by this
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _updates = 0;
+   private long _rebuilds = 0;
+   private double _lastRebuildMillis = 0;
+   private double _totalRebuildMillis = 0;
+
+   public AvailabilityIndex (DBProject esql) {
+      this._esql = esql;
+   }//end AvailabilityIndex
+
+   /**
+    * Reloads every hotel from Room and Booking, then replays the updates
+    * made while it read them.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void rebuild () throws SQLException {
+      long start = System.nanoTime();
+      int logged;
+      long invalidations;
+      synchronized (this) {
+         ++this._rebuilding;
+         logged = this._during.size();
+         invalidations = this._invalidations;
+      }//end synchronized
+      try {
+         load(start, logged, invalidations);
+      }finally {
+         synchronized (this) {
+            if (--this._rebuilding == 0) this._during.clear();
+         }//end synchronized
+      }//end try
+   }//end rebuild
+
+   private void load (long start, int logged, long invalidations) throws SQLException {
+      final Map<Integer, HotelRooms> hotels = new HashMap<Integer, HotelRooms>();
+      this._esql.streamQuery(Sql.ALL_ROOMS, new ResultSink() {
+         public void begin (String[] columns) {}
+         public void row (String[] v) {
+            int hotelID = Integer.parseInt(v[0]);
+            HotelRooms h = hotels.get(hotelID);
+            if (h == null) {
+               h = new HotelRooms();
+               hotels.put(hotelID, h);
+            }//end if
+            h.addRoom(Integer.parseInt(v[1]), v[2]);
+         }
+         public void end (int rowCount) {}
+      });
+      this._esql.streamQuery(Sql.ALL_BOOKING_NIGHTS, new ResultSink() {
+         public void begin (String[] columns) {}
+         public void row (String[] v) {
+            HotelRooms h = hotels.get(Integer.parseInt(v[0]));
+            if (h != null) h.book(Integer.parseInt(v[1]), LocalDate.parse(v[2]).toEpochDay());
+         }
+         public void end (int rowCount) {}
+      });
+      synchronized (this) {
+         // a booking the tables already held is set again, which is harmless
+         boolean placed = true;
+         for (Update u : this._during.subList(logged, this._during.size())) {
+            placed &= apply(hotels, u);
+         }//end for
+         double millis = (System.nanoTime() - start) / 1e6;
+         this._hotels = hotels;
+         // an invalidate during the load may cover writes it did not read
+         this._stale = !placed || this._invalidations != invalidations;
+         ++this._rebuilds;
+         this._lastRebuildMillis = millis;
+         this._totalRebuildMillis += millis;
+      }//end synchronized
+   }//end load
+
+   /*
+    * Applies a logged update to a set of hotels.
+    *
+    * @return false when the booking cannot be placed
+    */
+   private static boolean apply (Map<Integer, HotelRooms> hotels, Update u) {
+      HotelRooms h = hotels.get(u.hotelID);
+      if (u.roomType != null) {
+         if (h == null) {
+            h = new HotelRooms();
+            hotels.put(u.hotelID, h);
+         }//end if
+         h.addRoom(u.roomNo, u.roomType);
+         return true;
+      }//end if
+      return u.date != null && h != null && h.book(u.roomNo, u.date.toEpochDay());
+   }//end apply
+
+   /**
+    * Records a room added through DBProject.
+    */
+   public synchronized void roomAdded (int hotelID, int roomNo, String roomType) {
+      Update u = new Update(hotelID, roomNo, roomType, null);
+      if (this._rebuilding > 0) this._during.add(u);
+      if (this._hotels == null) return;
+      apply(this._hotels, u);
+      ++this._updates;
+   }//end roomAdded
+
+   /**
+    * Records a booking committed through DBProject.  A booking the index
+    * cannot place (unknown room or unparsable date) marks it stale so the
+    * next lookup rebuilds it.
+    */
+   public synchronized void roomBooked (int hotelID, int roomNo, LocalDate date) {
+      Update u = new Update(hotelID, roomNo, null, date);
+      if (this._rebuilding > 0) this._during.add(u);
+      if (this._hotels == null) return;
+      if (!apply(this._hotels, u)) {
+         this._stale = true;
+         return;
+      }//end if
+      ++this._updates;
+   }//end roomBooked
+
+   /**
+    * Marks the index stale; the next lookup rebuilds it.
+    */
+   public synchronized void invalidate () {
+      this._stale = true;
+      ++this._invalidations;
+   }//end invalidate
+
+   /**
+    * Counts the rooms of a hotel that have never been booked, the answer
+    * of {@link Sql#AVAILABLE_ROOMS}.
+    */
+   public int availableRooms (int hotelID) throws SQLException {
+      HotelRooms h = hotel(hotelID);
+      if (h == null) return 0;
+      synchronized (this) {
+         return h.roomNos.size() - h.everBooked.cardinality();
+      }//end synchronized
+   }//end availableRooms
+
+   /**
+    * Lists the rooms of a hotel with no booking in [from, from + days), the
+    * answer of {@link Sql#AVAILABLE_ROOMS_FOR_WEEK}.
+    *
+    * @return row values: hotelID, roomNo, roomType
+    */
+   public List<String[]> freeRooms (int hotelID, LocalDate from, int days) throws SQLException {
+      List<String[]> free = new ArrayList<String[]>();
+      HotelRooms h = hotel(hotelID);
+      if (h == null) return free;
+      synchronized (this) {
+         BitSet busy = new BitSet(h.roomNos.size());
+         long first = from.toEpochDay();
+         for (long d = first; d < first + days; ++d) {
+            BitSet booked = h.bookedOn.get(d);
+            if (booked != null) busy.or(booked);
+         }//end for
+         String hotel = String.valueOf(hotelID);
+         for (int s = busy.nextClearBit(0); s < h.roomNos.size(); s = busy.nextClearBit(s + 1)) {
+            free.add(new String[] { hotel, String.valueOf(h.roomNos.get(s)), h.roomTypes.get(s) });
+         }//end for
+      }//end synchronized
+      return free;
+   }//end freeRooms
+
+   /**
+    * Writes {@link #availableRooms(int)} to a sink in the shape of the SQL
+    * result.
+    */
+   public void printAvailableRooms (int hotelID, ResultSink sink) throws SQLException, IOException {
+      sink.begin(new String[] { "count" });
+      sink.row(new String[] { String.valueOf(availableRooms(hotelID)) });
+      sink.end(1);
+   }//end printAvailableRooms
+
+   /**
+    * Writes {@link #freeRooms(int, LocalDate, int)} to a sink in the shape
+    * of the SQL result.
+    *
+    * @return the number of rooms written
+    */
+   public int printFreeRooms (int hotelID, LocalDate from, int days, ResultSink sink) throws SQLException, IOException {
+      List<String[]> rows = freeRooms(hotelID, from, days);
+      sink.begin(new String[] { "hotelid", "roomno", "roomtype" });
+      for (String[] r : rows) sink.row(r);
+      sink.end(rows.size());
+      return rows.size();
+   }//end printFreeRooms
+
+   /**
+    * Compares the index with the SQL answers for every hotel and, for each,
+    * the week starting at each of the given dates.
+    *
+    * @return the number of mismatching answers (0 when consistent)
+    */
+   public int verify (List<LocalDate> weekStarts) throws SQLException {
+      List<Integer> hotelIDs;
+      synchronized (this) {
+         if (this._hotels == null || this._stale) {
+            hotelIDs = null;
+         }else {
+            hotelIDs = new ArrayList<Integer>(this._hotels.keySet());
+         }//end if
+      }//end synchronized
+      if (hotelIDs == null) {
+         rebuild();
+         synchronized (this) { hotelIDs = new ArrayList<Integer>(this._hotels.keySet()); }
+      }//end if
+
+      int mismatches = 0;
+      for (int hotelID : hotelIDs) {
+         ResultSinks.Collector count = ResultSinks.collect();
+         this._esql.streamQuery(Sql.AVAILABLE_ROOMS, count, hotelID, hotelID);
+         int expected = Integer.parseInt(count.rows().get(0)[0]);
+         int actual = availableRooms(hotelID);
+         if (expected != actual) {
+            ++mismatches;
+            System.out.println("hotel " + hotelID + ": available rooms sql=" + expected + " index=" + actual);
+         }//end if
+         for (LocalDate from : weekStarts) {
+            ResultSinks.Collector week = ResultSinks.collect();
+            this._esql.streamQuery(Sql.AVAILABLE_ROOMS_FOR_WEEK, week, hotelID, hotelID,
+                                   java.sql.Date.valueOf(from), java.sql.Date.valueOf(from.plusDays(7)));
+            int free = freeRooms(hotelID, from, 7).size();
+            if (week.rows().size() != free) {
+               ++mismatches;
+               System.out.println("hotel " + hotelID + " week of " + from + ": free rooms sql=" +
+                                  week.rows().size() + " index=" + free);
+            }//end if
+         }//end for
+      }//end for
+      return mismatches;
+   }//end verify
+
+   public synchronized String stats () {
+      int hotels = this._hotels == null ? 0 : this._hotels.size();
+      return String.format(
+         "availability index: hotels=%d hits=%d misses=%d updates=%d rebuilds=%d " +
+         "lastRebuild=%.1fms totalRebuild=%.1fms%s",
+         hotels, _hits, _misses, _updates, _rebuilds, _lastRebuildMillis, _totalRebuildMillis,
+         _stale ? " (stale)" : "");
+   }//end stats
+
+   /*
+    * Returns a hotel's rooms, rebuilding the index first when it is stale.
+    * A lookup served without a rebuild is a hit.
+    */
+   private HotelRooms hotel (int hotelID) throws SQLException {
+      boolean rebuild;
+      synchronized (this) {
+         rebuild = this._hotels == null || this._stale;
+         if (rebuild) ++this._misses;
+         else ++this._hits;
+      }//end synchronized
+      if (rebuild) rebuild();
+      synchronized (this) {
+         return this._hotels.get(hotelID);
+      }//end synchronized
+   }//end hotel
+
+}//end AvailabilityIndex
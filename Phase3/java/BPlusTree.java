@@ -0,0 +1,180 @@
+/*
+ * B+Tree Index
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * A unique index from long keys to record numbers.  Keys sit in sorted
+ * leaves of up to ORDER entries, linked left to right so a key range is
+ * read by one descent and a walk along the leaves; inner nodes hold the
+ * smallest key of each child but the first.  Entries are never removed,
+ * matching the insert-only tables of the {@link EmbeddedStore}.
+ *
+ * Not synchronized; the store guards it with its table lock.
+ */
+public class BPlusTree {
+
+   private static final int ORDER = 64;
+
+   /**
+    * Receives the entries of a range scan; returning false stops it.
+    */
+   public interface Visitor {
+      boolean visit (long key, int value);
+   }//end Visitor
+
+   private static class Node {
+      long[] keys = new long[ORDER];
+      int size = 0;
+      // leaves
+      int[] values;
+      Node next;
+      // inner nodes: size keys, size + 1 children
+      Node[] children;
+
+      boolean leaf () {
+         return this.children == null;
+      }//end leaf
+   }//end Node
+
+   private Node _root;
+   private int _size = 0;
+
+   public BPlusTree () {
+      this._root = leaf();
+   }//end BPlusTree
+
+   private static Node leaf () {
+      Node n = new Node();
+      n.values = new int[ORDER];
+      return n;
+   }//end leaf
+
+   public int size () {
+      return this._size;
+   }//end size
+
+   /**
+    * @return the value of the key, or -1 when it is absent
+    */
+   public int get (long key) {
+      Node n = this._root;
+      while (!n.leaf()) n = n.children[child(n, key)];
+      int i = Arrays.binarySearch(n.keys, 0, n.size, key);
+      return i >= 0 ? n.values[i] : -1;
+   }//end get
+
+   public boolean contains (long key) {
+      return get(key) >= 0;
+   }//end contains
+
+   /**
+    * Adds a key unless it is present.
+    *
+    * @return false when the key was already in the index
+    */
+   public boolean insert (long key, int value) {
+      Node[] split = new Node[1];
+      long[] separator = new long[1];
+      if (!insert(this._root, key, value, split, separator)) return false;
+      if (split[0] != null) {
+         Node root = new Node();
+         root.children = new Node[ORDER + 1];
+         root.keys[0] = separator[0];
+         root.children[0] = this._root;
+         root.children[1] = split[0];
+         root.size = 1;
+         this._root = root;
+      }//end if
+      ++this._size;
+      return true;
+   }//end insert
+
+   /*
+    * Inserts below a node; a node that overflows is split in two and the
+    * new right half and its smallest key are handed to the parent.
+    */
+   private boolean insert (Node n, long key, int value, Node[] split, long[] separator) {
+      split[0] = null;
+      if (n.leaf()) {
+         int i = Arrays.binarySearch(n.keys, 0, n.size, key);
+         if (i >= 0) return false;
+         i = -i - 1;
+         System.arraycopy(n.keys, i, n.keys, i + 1, n.size - i);
+         System.arraycopy(n.values, i, n.values, i + 1, n.size - i);
+         n.keys[i] = key;
+         n.values[i] = value;
+         if (++n.size == ORDER) {
+            Node right = leaf();
+            int half = ORDER / 2;
+            right.size = ORDER - half;
+            System.arraycopy(n.keys, half, right.keys, 0, right.size);
+            System.arraycopy(n.values, half, right.values, 0, right.size);
+            n.size = half;
+            right.next = n.next;
+            n.next = right;
+            split[0] = right;
+            separator[0] = right.keys[0];
+         }//end if
+         return true;
+      }//end if
+
+      int c = child(n, key);
+      if (!insert(n.children[c], key, value, split, separator)) return false;
+      if (split[0] == null) return true;
+      System.arraycopy(n.keys, c, n.keys, c + 1, n.size - c);
+      System.arraycopy(n.children, c + 1, n.children, c + 2, n.size - c);
+      n.keys[c] = separator[0];
+      n.children[c + 1] = split[0];
+      split[0] = null;
+      if (++n.size == ORDER) {
+         // the middle key moves up; the right half keeps the keys after it
+         Node right = new Node();
+         right.children = new Node[ORDER + 1];
+         int half = ORDER / 2;
+         separator[0] = n.keys[half];
+         right.size = ORDER - half - 1;
+         System.arraycopy(n.keys, half + 1, right.keys, 0, right.size);
+         System.arraycopy(n.children, half + 1, right.children, 0, right.size + 1);
+         Arrays.fill(n.children, half + 1, ORDER + 1, null);
+         n.size = half;
+         split[0] = right;
+      }//end if
+      return true;
+   }//end insert
+
+   /*
+    * The child of an inner node whose keys may hold the key.
+    */
+   private static int child (Node n, long key) {
+      int i = Arrays.binarySearch(n.keys, 0, n.size, key);
+      return i >= 0 ? i + 1 : -i - 1;
+   }//end child
+
+   /**
+    * Visits the entries with keys in [from, to) in key order.
+    */
+   public void scan (long from, long to, Visitor visitor) {
+      Node n = this._root;
+      while (!n.leaf()) n = n.children[child(n, from)];
+      int i = Arrays.binarySearch(n.keys, 0, n.size, from);
+      i = i >= 0 ? i : -i - 1;
+      for (; n != null; n = n.next, i = 0) {
+         for (; i < n.size; ++i) {
+            if (n.keys[i] >= to) return;
+            if (!visitor.visit(n.keys[i], n.values[i])) return;
+         }//end for
+      }//end for
+   }//end scan
+
+}//end BPlusTree
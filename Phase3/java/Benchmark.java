@@ -0,0 +1,348 @@
+/*
+ * Operation Benchmark
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures every DBProject operation against a running database, with a
+ * warmup phase followed by a timed phase per operation, and reports
+ * throughput, latency percentiles, bytes allocated per call and the
+ * transactions the server committed per second (pg_stat_database).
+ *
+ * Usage: java Benchmark <dbname> <port> <user> [<operation> ...]
+ *
+ *   bench.scale     when > 0, load data/ multiplied by this factor first;
+ *                   the tables must exist and be empty (0)
+ *   bench.data      the data directory to scale (../data)
+ *   bench.history   spread the scaled copies over the past instead of
+ *                   stacking them on the same dates, so the date-range
+ *                   reports read the same rows at every scale (false)
+ *   bench.warmup    warmup seconds per operation (2)
+ *   bench.measure   measured seconds per operation (5)
+ *   bench.threads   concurrent callers (1)
+ *
+ * See bench.sh for a run over several scale factors.
+ */
+public class Benchmark {
+
+   private static final LocalDate FIRST_DAY = LocalDate.of(2000, 1, 1);
+   private static final int DAYS = 19 * 365;
+
+   /*
+    * One benchmarked call with random, valid parameters.
+    */
+   interface Op {
+      void run (DBProject esql, Workload w, Random rnd) throws Exception;
+   }//end Op
+
+   /*
+    * Keys and names sampled from the loaded data, plus counters for the
+    * room numbers and booking nights the insert operations need fresh.
+    * Other keys are generated.
+    */
+   static class Workload {
+      int maxHotel, maxStaff, maxCustomer, maxCompany, maxRepair;
+      final List<int[]> rooms = new ArrayList<int[]>();
+      final List<String[]> customerNames = new ArrayList<String[]>();
+      final List<String> companyNames = new ArrayList<String>();
+      final AtomicLong nextRoomNo = new AtomicLong(), nextNight = new AtomicLong();
+
+      int[] room (Random rnd) {
+         return this.rooms.get(rnd.nextInt(this.rooms.size()));
+      }//end room
+
+      static String date (Random rnd) {
+         return FIRST_DAY.plusDays(rnd.nextInt(DAYS)).format(Dates.USER);
+      }//end date
+
+      // far past the loaded data, so new bookings do not take sold nights
+      static String futureDate (long n) {
+         return LocalDate.of(2100, 1, 1).plusDays(n % 36500).format(Dates.USER);
+      }//end futureDate
+
+      static String word (Random rnd) {
+         char[] c = new char[6];
+         for (int i = 0; i < c.length; ++i) c[i] = (char) ('a' + rnd.nextInt(26));
+         return new String(c);
+      }//end word
+   }//end Workload
+
+   static final Map<String, Op> OPS = new LinkedHashMap<String, Op>();
+
+   static {
+      OPS.put("addCustomer", (esql, w, rnd) ->
+         esql.addCustomer(Workload.word(rnd), Workload.word(rnd),
+                          Workload.word(rnd), 1000000000L + rnd.nextInt(999999999), Workload.date(rnd), "Other"));
+      OPS.put("addRoom", (esql, w, rnd) ->
+         esql.addRoom(1 + rnd.nextInt(w.maxHotel), (int) w.nextRoomNo.getAndIncrement(), "Suite"));
+      OPS.put("addMaintenanceCompany", (esql, w, rnd) ->
+         esql.addMaintenanceCompany(Workload.word(rnd), Workload.word(rnd), true));
+      OPS.put("addRepair", (esql, w, rnd) -> {
+         int[] r = w.room(rnd);
+         esql.addRepair(r[0], r[1], 1 + rnd.nextInt(w.maxCompany),
+                        java.sql.Date.valueOf(FIRST_DAY.plusDays(rnd.nextInt(DAYS))), Workload.word(rnd), "Small");
+      });
+      OPS.put("bookRoom", (esql, w, rnd) -> {
+         int[] r = w.room(rnd);
+         esql.bookRoom(1 + rnd.nextInt(w.maxCustomer), r[0], r[1], Workload.futureDate(w.nextNight.getAndIncrement()),
+                       1 + rnd.nextInt(4), 100 + rnd.nextInt(900));
+      });
+      OPS.put("assignHouseCleaningToRoom", (esql, w, rnd) -> {
+         int[] r = w.room(rnd);
+         esql.assignHouseCleaningToRoom(1 + rnd.nextInt(w.maxStaff), r[0], r[1]);
+      });
+      OPS.put("repairRequest", (esql, w, rnd) ->
+         esql.repairRequest(1 + rnd.nextInt(w.maxStaff),
+                            1 + rnd.nextInt(w.maxRepair), Workload.date(rnd), Workload.word(rnd)));
+      OPS.put("numberOfAvailableRooms", (esql, w, rnd) ->
+         esql.numberOfAvailableRooms(1 + rnd.nextInt(w.maxHotel), ResultSinks.discard()));
+      OPS.put("numberOfBookedRooms", (esql, w, rnd) ->
+         esql.numberOfBookedRooms(1 + rnd.nextInt(w.maxHotel), ResultSinks.discard()));
+      OPS.put("listHotelRoomBookingsForAWeek", (esql, w, rnd) ->
+         esql.listHotelRoomBookingsForAWeek(1 + rnd.nextInt(w.maxHotel),
+            FIRST_DAY.plusDays(rnd.nextInt(DAYS)), ResultSinks.discard()));
+      OPS.put("topKHighestRoomPriceForADateRange", (esql, w, rnd) -> {
+         LocalDate from = FIRST_DAY.plusDays(rnd.nextInt(DAYS));
+         esql.topKHighestRoomPriceForADateRange(DateRange.days(from, 31), 10, ResultSinks.discard());
+      });
+      OPS.put("topKHighestPriceBookingsForACustomer", (esql, w, rnd) -> {
+         String[] n = w.customerNames.get(rnd.nextInt(w.customerNames.size()));
+         esql.topKHighestPriceBookingsForACustomer(n[0], n[1], 5, ResultSinks.discard());
+      });
+      OPS.put("totalCostForCustomer", (esql, w, rnd) -> {
+         LocalDate from = FIRST_DAY.plusDays(rnd.nextInt(DAYS));
+         esql.totalCostForCustomer(1 + rnd.nextInt(w.maxHotel), 1 + rnd.nextInt(w.maxCustomer),
+                                   DateRange.days(from, 366), ResultSinks.discard());
+      });
+      OPS.put("listRepairsMade", (esql, w, rnd) ->
+         esql.listRepairsMade(w.companyNames.get(rnd.nextInt(w.companyNames.size())), ResultSinks.discard()));
+      OPS.put("topKMaintenanceCompany", (esql, w, rnd) ->
+         esql.topKMaintenanceCompany(5, ResultSinks.discard()));
+      OPS.put("numberOfRepairsForEachRoomPerYear", (esql, w, rnd) -> {
+         int[] r = w.room(rnd);
+         esql.numberOfRepairsForEachRoomPerYear(r[0], r[1], ResultSinks.discard());
+      });
+   }//end static
+
+   /*
+    * Calls, latencies and allocation of one measured run.
+    */
+   static class Result {
+      long calls, errors, allocatedBytes;
+      double seconds;
+      long[] latencies = new long[0];
+      String lastError;
+
+      synchronized void merge (long calls, long errors, long allocated, long[] lat, int n, String lastError) {
+         this.calls += calls;
+         this.errors += errors;
+         this.allocatedBytes += allocated;
+         long[] all = Arrays.copyOf(this.latencies, this.latencies.length + n);
+         System.arraycopy(lat, 0, all, this.latencies.length, n);
+         this.latencies = all;
+         if (lastError != null) this.lastError = lastError;
+      }//end merge
+
+      double percentileMillis (double p) {
+         if (this.latencies.length == 0) return 0;
+         int i = (int) Math.ceil(p / 100.0 * this.latencies.length) - 1;
+         return this.latencies[Math.max(0, Math.min(i, this.latencies.length - 1))] / 1e6;
+      }//end percentileMillis
+   }//end Result
+
+   /**
+    * Calls an operation from the configured number of threads for the
+    * given time.
+    */
+   static Result measure (final DBProject esql, final Workload w, final Op op,
+                          int threads, final double seconds) throws InterruptedException {
+      final Result result = new Result();
+      final long deadline = System.nanoTime() + (long) (seconds * 1e9);
+      final com.sun.management.ThreadMXBean mx =
+         (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         final long seed = 42 + t;
+         workers[t] = new Thread(() -> {
+            Random rnd = new Random(seed);
+            long[] lat = new long[1024];
+            int n = 0;
+            long calls = 0, errors = 0;
+            String lastError = null;
+            long id = Thread.currentThread().getId();
+            long alloc0 = mx.getThreadAllocatedBytes(id);
+            while (System.nanoTime() < deadline) {
+               long start = System.nanoTime();
+               try {
+                  op.run(esql, w, rnd);
+               }catch (Exception e) {
+                  ++errors;
+                  lastError = e.getMessage();
+               }//end try
+               long nanos = System.nanoTime() - start;
+               if (n == lat.length) lat = Arrays.copyOf(lat, n * 2);
+               lat[n++] = nanos;
+               ++calls;
+            }//end while
+            long allocated = mx.getThreadAllocatedBytes(id) - alloc0;
+            result.merge(calls, errors, allocated, lat, n, lastError);
+         }, "bench-" + t);
+         workers[t].start();
+      }//end for
+      for (Thread t : workers) t.join();
+      Arrays.sort(result.latencies);
+      result.seconds = seconds;
+      return result;
+   }//end measure
+
+   /**
+    * Samples keys and names from the database and positions the room and
+    * night counters past the existing rows.
+    */
+   static Workload sample (ConnectionPool pool) throws SQLException {
+      Workload w = new Workload();
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         ResultSet rs = stmt.executeQuery(
+            "SELECT (SELECT MAX(hotelID) FROM Hotel), (SELECT MAX(SSN) FROM Staff), " +
+            "(SELECT MAX(customerID) FROM Customer), (SELECT MAX(cmpID) FROM MaintenanceCompany), " +
+            "(SELECT MAX(rID) FROM Repair), (SELECT MAX(bID) FROM Booking), " +
+            "(SELECT MAX(asgID) FROM Assigned), (SELECT MAX(reqID) FROM Request), " +
+            "(SELECT MAX(roomNo) FROM Room)");
+         rs.next();
+         w.maxHotel = rs.getInt(1);
+         w.maxStaff = rs.getInt(2);
+         w.maxCustomer = rs.getInt(3);
+         w.maxCompany = rs.getInt(4);
+         w.maxRepair = rs.getInt(5);
+         // each run books nights after the previous run's
+         w.nextNight.set(rs.getLong(6) + 1);
+         w.nextRoomNo.set(rs.getLong(9) + 1);
+         rs.close();
+
+         rs = stmt.executeQuery("SELECT hotelID, roomNo FROM Room WHERE hotelID > 0 ORDER BY random() LIMIT 10000");
+         while (rs.next()) w.rooms.add(new int[] { rs.getInt(1), rs.getInt(2) });
+         rs.close();
+         rs = stmt.executeQuery("SELECT fName, lName FROM Customer WHERE customerID > 0 ORDER BY random() LIMIT 10000");
+         while (rs.next()) w.customerNames.add(new String[] { rs.getString(1).trim(), rs.getString(2).trim() });
+         rs.close();
+         rs = stmt.executeQuery("SELECT DISTINCT name FROM MaintenanceCompany WHERE cmpID > 0");
+         while (rs.next()) w.companyNames.add(rs.getString(1).trim());
+         rs.close();
+         stmt.close();
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         pool.release(pc, failure);
+      }//end try
+      if (w.rooms.isEmpty() || w.customerNames.isEmpty() || w.companyNames.isEmpty())
+         throw new SQLException("The database holds no data to benchmark against");
+      return w;
+   }//end sample
+
+   /**
+    * @return the transactions committed in the database so far; the server
+    *         publishes the counts with a delay of up to a second
+    */
+   static long commits (ConnectionPool pool) throws SQLException {
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         ResultSet rs = stmt.executeQuery(
+            "SELECT xact_commit FROM pg_stat_database WHERE datname = current_database()");
+         long commits = rs.next() ? rs.getLong(1) : 0;
+         rs.close();
+         stmt.close();
+         return commits;
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         pool.release(pc, failure);
+      }//end try
+   }//end commits
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java Benchmark <dbname> <port> <user> [<operation> ...]");
+         System.err.println("Operations: " + OPS.keySet());
+         return;
+      }//end if
+      int scale = Integer.getInteger("bench.scale", 0);
+      double warmup = Double.parseDouble(System.getProperty("bench.warmup", "2"));
+      double seconds = Double.parseDouble(System.getProperty("bench.measure", "5"));
+      int threads = Math.max(1, Integer.getInteger("bench.threads", 1));
+
+      List<String> names = new ArrayList<String>();
+      for (int i = 3; i < args.length; ++i) {
+         if (!OPS.containsKey(args[i])) throw new IllegalArgumentException("Unknown operation " + args[i]);
+         names.add(args[i]);
+      }//end for
+      if (names.isEmpty()) names.addAll(OPS.keySet());
+
+      Class.forName("org.postgresql.Driver");
+      DBProject esql = new DBProject(args[0], args[1], args[2], "");
+      try {
+         if (scale > 0) {
+            File data = new File(System.getProperty("bench.data", "../data"));
+            File scaled = new File(System.getProperty("java.io.tmpdir"), "dbproject-bench-x" + scale);
+            System.out.println("Scaling " + data + " x" + scale + " into " + scaled);
+            DataScaler.scale(data, scaled, scale, Boolean.getBoolean("bench.history"));
+            new CsvLoader(esql.pool(), scaled).loadAll();
+            // dates before the create.sql partitions landed in the default ones
+            new PartitionManager(esql.pool()).createAhead(LocalDate.now().plusMonths(12));
+         }//end if
+
+         Workload w = sample(esql.pool());
+         System.out.println(String.format("scale=%d threads=%d warmup=%.0fs measure=%.0fs hotels=%d driver=%s%s",
+                                          scale, threads, warmup, seconds, w.maxHotel,
+                                          JdbcSettings.driverVersion(), JdbcSettings.tuned() ? " tuned" : ""));
+         System.out.println(String.format("%-38s %10s %10s %9s %9s %9s %12s %7s",
+                                          "operation", "ops/s", "commits/s", "p50 ms", "p99 ms", "max ms",
+                                          "alloc B/op", "errors"));
+         for (String name : names) {
+            Op op = OPS.get(name);
+            measure(esql, w, op, threads, warmup);
+            long commits = commits(esql.pool());
+            Result r = measure(esql, w, op, threads, seconds);
+            commits = commits(esql.pool()) - commits;
+            System.out.println(String.format("%-38s %10.1f %10.1f %9.3f %9.3f %9.3f %12d %7d",
+               name, r.calls / r.seconds, commits / r.seconds, r.percentileMillis(50), r.percentileMillis(99),
+               r.percentileMillis(100), r.calls == 0 ? 0 : r.allocatedBytes / r.calls, r.errors));
+            if (r.lastError != null) System.out.println("   last error: " + r.lastError);
+         }//end for
+         System.out.println(esql.poolStats());
+         if (esql.groupCommit() != null) System.out.println(esql.groupCommit().stats());
+         if (esql.replicas() != null) System.out.println(esql.replicas().stats());
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end main
+
+}//end Benchmark
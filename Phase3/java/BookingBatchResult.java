@@ -0,0 +1,83 @@
+/*
+ * Booking Batch Result
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link DBProject#bookRooms(List, int)}: how many bookings were
+ * committed and which ones were rejected, with the database's reason.
+ */
+public class BookingBatchResult {
+
+   /**
+    * A booking the database refused.
+    */
+   public static class Failure {
+      public final int index;             // position in the submitted list
+      public final BookingRequest request;
+      public final String message;
+
+      Failure (int index, BookingRequest request, String message) {
+         this.index = index;
+         this.request = request;
+         this.message = message;
+      }//end Failure
+
+      public String toString () {
+         return "#" + index + " " + request + ": " + message;
+      }//end toString
+   }//end Failure
+
+   private int _committed = 0;
+   private int _attempts = 0;
+   private long _elapsedNanos = 0;
+   private final List<Failure> _failures = new ArrayList<Failure>();
+
+   void reject (int index, BookingRequest request, String message) {
+      this._failures.add(new Failure(index, request, message));
+   }//end reject
+
+   void finish (int committed, int attempts, long elapsedNanos) {
+      this._committed = committed;
+      this._attempts = attempts;
+      this._elapsedNanos = elapsedNanos;
+   }//end finish
+
+   public int committed () {
+      return this._committed;
+   }//end committed
+
+   /**
+    * @return how many batches were sent; a rejected booking costs a
+    *         resend of the rest of its chunk
+    */
+   public int attempts () {
+      return this._attempts;
+   }//end attempts
+
+   public List<Failure> failures () {
+      return Collections.unmodifiableList(this._failures);
+   }//end failures
+
+   public double elapsedMillis () {
+      return this._elapsedNanos / 1e6;
+   }//end elapsedMillis
+
+   public String toString () {
+      return String.format("%d booked, %d rejected in %d batch(es), %.1fms",
+                           _committed, _failures.size(), _attempts, elapsedMillis());
+   }//end toString
+
+}//end BookingBatchResult
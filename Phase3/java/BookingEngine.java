@@ -0,0 +1,90 @@
+/*
+ * Booking Engine
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+/**
+ * Sells room-nights without double booking and without asking the caller
+ * for a booking ID.
+ *
+ * IDs come from the key allocator, so a booking costs a single round
+ * trip.  The room-night is claimed by the
+ * insert itself: Booking is UNIQUE(hotelID, roomNo, bookingDate) and the
+ * insert does nothing on that conflict, so two agents racing for the same
+ * night never see a lock held longer than the one statement, and exactly
+ * one of them wins.  An insert that collides on the key instead (a row
+ * entered with an ID of its own, on any day: create.sql keeps bID unique
+ * across the partitions in BookingKeys) is retried with the next ID.
+ *
+ *   dbproject.booking.retries   attempts per booking on an ID collision (5)
+ */
+public class BookingEngine {
+
+   // the room-night is sold
+   public static final int TAKEN = -1;
+
+   private final DBProject _esql;
+   private final int _retries;
+
+   // metrics, guarded by this
+   private long _booked = 0;
+   private long _taken = 0;
+   private long _collisions = 0;
+
+   public BookingEngine (DBProject esql) {
+      this._esql = esql;
+      this._retries = Math.max(1, Integer.getInteger("dbproject.booking.retries", 5));
+   }//end BookingEngine
+
+   /**
+    * Books a room-night if it is free.
+    *
+    * @return the new booking's ID, or {@link #TAKEN} when the room is
+    *         already booked that day
+    * @throws java.sql.SQLException when the booking is invalid (unknown
+    *         room or customer, ...) or the database fails
+    */
+   public int book (int customer, int hotelID, int roomNo, String bookingDate, int noOfPeople,
+                    double price) throws SQLException {
+      for (int attempt = 1; ; ++attempt) {
+         int bID = this._esql.ids().next(IdAllocator.Key.BOOKING);
+         try {
+            int rows = this._esql.executeUpdate(Sql.INSERT_BOOKING_IF_FREE, bID, customer, hotelID, roomNo,
+                                                bookingDate, noOfPeople, price);
+            synchronized (this) {
+               if (rows == 0) ++this._taken;
+               else ++this._booked;
+            }//end synchronized
+            return rows == 0 ? TAKEN : bID;
+         }catch (SQLException e) {
+            if (attempt == this._retries || !isUniqueViolation(e)) throw e;
+            synchronized (this) { ++this._collisions; }
+         }//end try
+      }//end for
+   }//end book
+
+   /*
+    * True for a duplicate key error; the bundled driver does not always
+    * set the SQL state.
+    */
+   static boolean isUniqueViolation (SQLException e) {
+      String m = e.getMessage();
+      return "23505".equals(e.getSQLState()) || (m != null && m.indexOf("duplicate key") >= 0);
+   }//end isUniqueViolation
+
+   public synchronized String stats () {
+      return String.format("booking engine: booked=%d taken=%d idCollisions=%d",
+                           this._booked, this._taken, this._collisions);
+   }//end stats
+
+}//end BookingEngine
@@ -0,0 +1,50 @@
+/*
+ * Booking Request
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * One row to insert into Booking, as supplied by a bulk feed.
+ */
+public class BookingRequest {
+
+   public final int bID;
+   public final int customer;
+   public final int hotelID;
+   public final int roomNo;
+   public final String bookingDate; // MM/DD/YYYY
+   public final int noOfPeople;
+   public final double price;
+
+   public BookingRequest (int bID, int customer, int hotelID, int roomNo,
+                          String bookingDate, int noOfPeople, double price) {
+      this.bID = bID;
+      this.customer = customer;
+      this.hotelID = hotelID;
+      this.roomNo = roomNo;
+      this.bookingDate = bookingDate;
+      this.noOfPeople = noOfPeople;
+      this.price = price;
+   }//end BookingRequest
+
+   /**
+    * @return the values bound to {@link Sql#INSERT_BOOKING}
+    */
+   public Object[] params () {
+      return new Object[] { bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price };
+   }//end params
+
+   public String toString () {
+      return "Booking(" + bID + ", customer " + customer + ", hotel " + hotelID +
+             ", room " + roomNo + ", " + bookingDate + ")";
+   }//end toString
+
+}//end BookingRequest
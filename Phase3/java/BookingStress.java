@@ -0,0 +1,178 @@
+/*
+ * Booking Stress Test
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many agents racing to sell the same few room-nights through the booking
+ * engine.  Checks that no night was sold twice, neither by the answers the
+ * agents got nor by the rows in Booking, and reports the booking rate.
+ *
+ * Usage: java BookingStress <dbname> <port> <user>
+ *
+ *   stress.writers   concurrent booking agents (64)
+ *   stress.seconds   how long they book (10)
+ *   stress.rooms     rooms fought over (16)
+ *   stress.days      nights per room fought over (30)
+ *   stress.keep      keep the test bookings instead of deleting them (false)
+ *
+ * The nights are in 2300, far past the loaded data and the benchmark's
+ * bookings; any bookings left there by an earlier run are deleted first.
+ * The connection pool is sized to the number of writers unless
+ * dbproject.pool.maxSize is set.
+ */
+public class BookingStress {
+
+   private static final LocalDate FIRST_NIGHT = LocalDate.of(2300, 1, 1);
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java BookingStress <dbname> <port> <user>");
+         return;
+      }//end if
+      final int writers = Math.max(1, Integer.getInteger("stress.writers", 64));
+      final double seconds = Double.parseDouble(System.getProperty("stress.seconds", "10"));
+      final int days = Math.max(1, Integer.getInteger("stress.days", 30));
+      if (System.getProperty("dbproject.pool.maxSize") == null)
+         System.setProperty("dbproject.pool.maxSize", String.valueOf(writers));
+
+      Class.forName("org.postgresql.Driver");
+      final DBProject esql = new DBProject(args[0], args[1], args[2], "");
+      boolean passed = false;
+      try {
+         Benchmark.Workload w = Benchmark.sample(esql.pool());
+         final List<int[]> rooms = new ArrayList<int[]>(
+            w.rooms.subList(0, Math.min(w.rooms.size(), Math.max(1, Integer.getInteger("stress.rooms", 16)))));
+         final int maxCustomer = w.maxCustomer;
+         LocalDate end = FIRST_NIGHT.plusDays(days);
+         deleteNights(esql.pool(), end);
+
+         // room-night -> the bID an agent was told it got
+         final ConcurrentHashMap<String, Integer> sold = new ConcurrentHashMap<String, Integer>();
+         final AtomicLong attempts = new AtomicLong(), booked = new AtomicLong(), taken = new AtomicLong(),
+                          errors = new AtomicLong(), doubleSold = new AtomicLong();
+         final AtomicLong lastBookingNanos = new AtomicLong();
+         final String[] lastError = new String[1];
+         final long start = System.nanoTime();
+         final long deadline = start + (long) (seconds * 1e9);
+
+         Thread[] agents = new Thread[writers];
+         for (int t = 0; t < writers; ++t) {
+            final Random rnd = new Random(t);
+            agents[t] = new Thread(() -> {
+               while (System.nanoTime() < deadline) {
+                  int[] r = rooms.get(rnd.nextInt(rooms.size()));
+                  LocalDate night = FIRST_NIGHT.plusDays(rnd.nextInt(days));
+                  attempts.incrementAndGet();
+                  try {
+                     int bID = esql.bookRoom(1 + rnd.nextInt(maxCustomer), r[0], r[1], night.format(Dates.USER),
+                                             1 + rnd.nextInt(4), 100 + rnd.nextInt(900));
+                     if (bID == BookingEngine.TAKEN) {
+                        taken.incrementAndGet();
+                        continue;
+                     }//end if
+                     booked.incrementAndGet();
+                     lastBookingNanos.set(System.nanoTime());
+                     if (sold.putIfAbsent(r[0] + "/" + r[1] + "/" + night, bID) != null) doubleSold.incrementAndGet();
+                  }catch (SQLException e) {
+                     errors.incrementAndGet();
+                     lastError[0] = e.getMessage();
+                  }//end try
+               }//end while
+            }, "booking-agent-" + t);
+            agents[t].start();
+         }//end for
+         for (Thread a : agents) a.join();
+         double elapsed = (System.nanoTime() - start) / 1e9;
+         double selling = lastBookingNanos.get() == 0 ? 0 : (lastBookingNanos.get() - start) / 1e9;
+
+         long[] stored = check(esql.pool(), end);
+         System.out.println(String.format("writers=%d seconds=%.1f rooms=%d nights=%d",
+                                          writers, elapsed, rooms.size(), rooms.size() * days));
+         System.out.println(String.format("attempts=%d (%.1f/s) booked=%d taken=%d errors=%d",
+                                          attempts.get(), attempts.get() / elapsed, booked.get(), taken.get(),
+                                          errors.get()));
+         System.out.println(String.format("bookings/s=%.1f until the last night was sold (%.2fs)",
+                                          selling == 0 ? 0 : booked.get() / selling, selling));
+         System.out.println(String.format("double bookings: reported=%d stored=%d; rows stored=%d",
+                                          doubleSold.get(), stored[1], stored[0]));
+         if (lastError[0] != null) System.out.println("last error: " + lastError[0]);
+         System.out.println(esql.bookings().stats());
+         System.out.println(esql.poolStats());
+         passed = doubleSold.get() == 0 && stored[1] == 0 && stored[0] == booked.get();
+         System.out.println(passed ? "PASS" : "FAIL");
+         if (!Boolean.getBoolean("stress.keep")) deleteNights(esql.pool(), end);
+      }finally {
+         esql.cleanup();
+      }//end try
+      if (!passed) System.exit(1);
+   }//end main
+
+   /*
+    * The bookings on the test nights, and the room-nights booked more than
+    * once.
+    */
+   private static long[] check (ConnectionPool pool, LocalDate end) throws SQLException {
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            String range = "bookingDate >= DATE '" + FIRST_NIGHT + "' AND bookingDate < DATE '" + end + "'";
+            ResultSet rs = stmt.executeQuery(
+               "SELECT (SELECT COUNT(*) FROM Booking WHERE " + range + "), " +
+               "(SELECT COUNT(*) FROM (SELECT 1 FROM Booking WHERE " + range +
+               " GROUP BY hotelID, roomNo, bookingDate HAVING COUNT(*) > 1) d)");
+            rs.next();
+            long[] counts = { rs.getLong(1), rs.getLong(2) };
+            rs.close();
+            return counts;
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         pool.release(pc, failure);
+      }//end try
+   }//end check
+
+   private static void deleteNights (ConnectionPool pool, LocalDate end) throws SQLException {
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            stmt.executeUpdate("DELETE FROM Booking WHERE bookingDate >= DATE '" + FIRST_NIGHT +
+                               "' AND bookingDate < DATE '" + end + "'");
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         pool.release(pc, failure);
+      }//end try
+   }//end deleteNights
+
+}//end BookingStress
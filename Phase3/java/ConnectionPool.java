@@ -0,0 +1,422 @@
+/*
+ * Connection Pool
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A bounded pool of physical PostgreSQL connections shared by every
+ * DBProject operation.  Connections are validated on borrow once they have
+ * been idle for a while, idle connections above the minimum are evicted by a
+ * background thread, and new connections are opened with exponential backoff
+ * so a restarted server does not take the whole program down with it.
+ *
+ * The pool is configured through system properties (all optional):
+ *   dbproject.pool.maxSize          maximum open connections (8)
+ *   dbproject.pool.minIdle          idle connections kept open (1)
+ *   dbproject.pool.borrowTimeout    ms to wait for a free connection (30000)
+ *   dbproject.pool.validateAfter    idle ms after which a borrow validates (1000)
+ *   dbproject.pool.maxIdle          idle ms after which a connection is evicted (300000)
+ *   dbproject.pool.connectAttempts  attempts per physical connect (5)
+ *   dbproject.pool.backoff          initial reconnect backoff in ms (100)
+ */
+public class ConnectionPool {
+
+   // validation query; the bundled driver predates Connection.isValid().
+   private static final String VALIDATION_QUERY = "SELECT 1";
+   private static final long MAX_BACKOFF_MILLIS = 5000;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   private final int _maxSize;
+   private final int _minIdle;
+   private final long _borrowTimeoutMillis;
+   private final long _validateAfterMillis;
+   private final long _maxIdleMillis;
+   private final int _connectAttempts;
+   private final long _backoffMillis;
+
+   // most recently released connection first, so hot connections stay hot
+   private final Deque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+   private int _open = 0;
+   private int _active = 0;
+   private int _waiting = 0;
+   private boolean _closed = false;
+   private final Thread _evictor;
+
+   // metrics, guarded by this
+   private long _borrows = 0;
+   private long _waits = 0;
+   private long _waitNanosTotal = 0;
+   private long _waitNanosMax = 0;
+   private long _timeouts = 0;
+   private long _created = 0;
+   private long _evicted = 0;
+   private long _invalidated = 0;
+   private long _reconnects = 0;
+
+   /**
+    * A physical connection handed out by the pool.  Callers must give it back
+    * through {@link ConnectionPool#release(PooledConnection, SQLException)}.
+    */
+   public static class PooledConnection {
+      private final Connection _connection;
+      private StatementCache _statements = null;
+      private long _lastUsed;
+
+      PooledConnection (Connection connection){
+         this._connection = connection;
+         this._lastUsed = System.currentTimeMillis();
+      }//end PooledConnection
+
+      public Connection connection (){
+         return this._connection;
+      }//end connection
+
+      /**
+       * @return the prepared statements cached on this connection
+       */
+      public StatementCache statements (){
+         if (this._statements == null)
+            this._statements = new StatementCache(this._connection);
+         return this._statements;
+      }//end statements
+   }//end PooledConnection
+
+   /**
+    * Point-in-time view of the pool counters.
+    */
+   public static class Stats {
+      public final int open, active, idle, waiting, maxSize;
+      public final long borrows, waits, timeouts, created, evicted, invalidated, reconnects;
+      public final double avgWaitMillis, maxWaitMillis;
+
+      Stats (ConnectionPool p){
+         this.open = p._open;
+         this.active = p._active;
+         this.idle = p._idle.size();
+         this.waiting = p._waiting;
+         this.maxSize = p._maxSize;
+         this.borrows = p._borrows;
+         this.waits = p._waits;
+         this.timeouts = p._timeouts;
+         this.created = p._created;
+         this.evicted = p._evicted;
+         this.invalidated = p._invalidated;
+         this.reconnects = p._reconnects;
+         this.avgWaitMillis = p._waits == 0 ? 0.0 : p._waitNanosTotal / 1e6 / p._waits;
+         this.maxWaitMillis = p._waitNanosMax / 1e6;
+      }//end Stats
+
+      public String toString (){
+         return String.format(
+            "pool: open=%d/%d active=%d idle=%d waiting=%d borrows=%d waits=%d " +
+            "avgWait=%.2fms maxWait=%.2fms timeouts=%d created=%d evicted=%d " +
+            "invalidated=%d reconnects=%d",
+            open, maxSize, active, idle, waiting, borrows, waits, avgWaitMillis,
+            maxWaitMillis, timeouts, created, evicted, invalidated, reconnects);
+      }//end toString
+   }//end Stats
+
+   /**
+    * Creates a new pool.  No connection is opened until {@link #prime()} or
+    * the first borrow.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    */
+   public ConnectionPool (String url, String user, String passwd) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = Math.max(1, Integer.getInteger("dbproject.pool.maxSize", 8));
+      this._minIdle = Math.min(this._maxSize, Math.max(0, Integer.getInteger("dbproject.pool.minIdle", 1)));
+      this._borrowTimeoutMillis = Long.getLong("dbproject.pool.borrowTimeout", 30000L);
+      this._validateAfterMillis = Long.getLong("dbproject.pool.validateAfter", 1000L);
+      this._maxIdleMillis = Long.getLong("dbproject.pool.maxIdle", 300000L);
+      this._connectAttempts = Math.max(1, Integer.getInteger("dbproject.pool.connectAttempts", 5));
+      this._backoffMillis = Math.max(1L, Long.getLong("dbproject.pool.backoff", 100L));
+
+      this._evictor = new Thread(new Runnable() {
+         public void run() { evictLoop(); }
+      }, "connection-pool-evictor");
+      this._evictor.setDaemon(true);
+      this._evictor.start();
+   }//end ConnectionPool
+
+   /**
+    * Opens the minimum number of idle connections so that a bad URL or a
+    * stopped server is reported at startup rather than on the first query.
+    *
+    * @throws java.sql.SQLException when no connection can be made
+    */
+   public void prime () throws SQLException {
+      int wanted = Math.max(1, this._minIdle);
+      for (int i = 0; i < wanted; ++i) {
+         synchronized (this) {
+            if (this._open >= wanted) return;
+            ++this._open;
+         }
+         PooledConnection pc;
+         try {
+            pc = new PooledConnection(connect(1));
+         }catch (SQLException e) {
+            synchronized (this) { --this._open; notifyAll(); }
+            throw e;
+         }
+         synchronized (this) {
+            this._idle.push(pc);
+            notifyAll();
+         }
+      }//end for
+   }//end prime
+
+   /**
+    * Borrows a connection, waiting up to the configured timeout when every
+    * connection is in use.
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when the pool is exhausted or the server
+    *         cannot be reached
+    */
+   public PooledConnection borrow () throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + this._borrowTimeoutMillis * 1000000L;
+      boolean waited = false;
+      while (true) {
+         PooledConnection pc = null;
+         boolean create = false;
+         synchronized (this) {
+            if (this._closed) throw new SQLException("Connection pool is closed");
+            if (!this._idle.isEmpty()) {
+               pc = this._idle.pop();
+               ++this._active;
+            }else if (this._open < this._maxSize) {
+               ++this._open;
+               ++this._active;
+               create = true;
+            }else {
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0) {
+                  ++this._timeouts;
+                  throw new SQLException("Timed out after " + this._borrowTimeoutMillis +
+                                         "ms waiting for a database connection");
+               }//end if
+               waited = true;
+               ++this._waiting;
+               try {
+                  wait(Math.max(1L, remaining / 1000000L));
+               }catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }finally {
+                  --this._waiting;
+               }//end try
+               continue;
+            }//end if
+         }//end synchronized
+
+         if (create) {
+            try {
+               pc = new PooledConnection(connect(this._connectAttempts));
+            }catch (SQLException e) {
+               discard(null);
+               throw e;
+            }//end try
+         }else if (System.currentTimeMillis() - pc._lastUsed >= this._validateAfterMillis && !isValid(pc)) {
+            synchronized (this) { ++this._invalidated; }
+            discard(pc);
+            continue;
+         }//end if
+
+         recordBorrow(start, waited);
+         return pc;
+      }//end while
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool.  An open transaction is
+    * rolled back first; then, when the caller saw an error, the connection
+    * is validated and dropped if it is broken, so the next borrow
+    * transparently reconnects.  (A transaction the error aborted fails
+    * every statement until the rollback, so validating before it would
+    * drop healthy connections.)
+    *
+    * @param pc the connection obtained from {@link #borrow()}
+    * @param failure the error raised while using it, or null
+    */
+   public void release (PooledConnection pc, SQLException failure) {
+      if (pc == null) return;
+      boolean healthy;
+      try {
+         healthy = !pc._connection.isClosed();
+         if (healthy && !pc._connection.getAutoCommit()) {
+            // never hand out a connection in the middle of a transaction
+            pc._connection.rollback();
+            pc._connection.setAutoCommit(true);
+         }//end if
+         healthy = healthy && (failure == null || isValid(pc));
+      }catch (SQLException e) {
+         healthy = false;
+      }//end try
+
+      if (!healthy) {
+         synchronized (this) { ++this._invalidated; }
+         discard(pc);
+         return;
+      }//end if
+
+      pc._lastUsed = System.currentTimeMillis();
+      synchronized (this) {
+         --this._active;
+         if (this._closed) {
+            --this._open;
+            closeQuietly(pc);
+         }else {
+            this._idle.push(pc);
+         }//end if
+         notify();
+      }//end synchronized
+   }//end release
+
+   /**
+    * @return a snapshot of the pool metrics
+    */
+   public synchronized Stats stats () {
+      return new Stats(this);
+   }//end stats
+
+   /**
+    * Closes every idle connection and stops the evictor.  Connections still
+    * borrowed are closed as they are released.
+    */
+   public void close () {
+      synchronized (this) {
+         this._closed = true;
+         for (PooledConnection pc : this._idle) {
+            closeQuietly(pc);
+            --this._open;
+         }//end for
+         this._idle.clear();
+         notifyAll();
+      }//end synchronized
+      this._evictor.interrupt();
+   }//end close
+
+   /*
+    * Opens a physical connection, retrying with exponential backoff.
+    */
+   private Connection connect (int attempts) throws SQLException {
+      long backoff = this._backoffMillis;
+      SQLException last = null;
+      for (int attempt = 1; attempt <= attempts; ++attempt) {
+         try {
+            Connection c = DriverManager.getConnection(this._url, this._user, this._passwd);
+            synchronized (this) { ++this._created; }
+            return c;
+         }catch (SQLException e) {
+            last = e;
+         }//end try
+         if (attempt == attempts) break;
+         synchronized (this) { ++this._reconnects; }
+         try {
+            Thread.sleep(backoff);
+         }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+         }//end try
+         backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+      }//end for
+      throw last != null ? last : new SQLException("Unable to connect to " + this._url);
+   }//end connect
+
+   private boolean isValid (PooledConnection pc) {
+      Statement stmt = null;
+      try {
+         stmt = pc._connection.createStatement();
+         ResultSet rs = stmt.executeQuery(VALIDATION_QUERY);
+         boolean ok = rs.next();
+         rs.close();
+         return ok;
+      }catch (SQLException e) {
+         return false;
+      }finally {
+         try { if (stmt != null) stmt.close(); }catch (SQLException e) { /* ignored. */ }
+      }//end try
+   }//end isValid
+
+   /*
+    * Drops a borrowed (or reserved, when pc is null) connection slot.
+    */
+   private void discard (PooledConnection pc) {
+      if (pc != null) closeQuietly(pc);
+      synchronized (this) {
+         --this._active;
+         --this._open;
+         notify();
+      }//end synchronized
+   }//end discard
+
+   private synchronized void recordBorrow (long start, boolean waited) {
+      ++this._borrows;
+      if (waited) {
+         long nanos = System.nanoTime() - start;
+         ++this._waits;
+         this._waitNanosTotal += nanos;
+         this._waitNanosMax = Math.max(this._waitNanosMax, nanos);
+      }//end if
+   }//end recordBorrow
+
+   private void evictLoop () {
+      long interval = Math.max(1000L, Math.min(this._maxIdleMillis / 2, 30000L));
+      while (true) {
+         try {
+            Thread.sleep(interval);
+         }catch (InterruptedException e) {
+            return;
+         }//end try
+         long now = System.currentTimeMillis();
+         synchronized (this) {
+            if (this._closed) return;
+            // oldest idle connections sit at the tail of the deque
+            Iterator<PooledConnection> it = this._idle.descendingIterator();
+            while (it.hasNext() && this._idle.size() > this._minIdle) {
+               PooledConnection pc = it.next();
+               if (now - pc._lastUsed < this._maxIdleMillis) break;
+               it.remove();
+               closeQuietly(pc);
+               --this._open;
+               ++this._evicted;
+            }//end while
+         }//end synchronized
+      }//end while
+   }//end evictLoop
+
+   private static void closeQuietly (PooledConnection pc) {
+      try {
+         pc._connection.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end ConnectionPool
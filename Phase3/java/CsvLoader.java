@@ -0,0 +1,384 @@
+/*
+ * CSV Loader
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the files in Phase3/data from the client side, so the data files
+ * never have to be copied onto the database host.  Each file is streamed
+ * through COPY ... FROM STDIN with a fixed size buffer; tables whose
+ * foreign keys are already satisfied are loaded in parallel.
+ *
+ * The bundled pg73jdbc3 driver predates the CopyManager API, so the loader
+ * looks it up at runtime and falls back to batched INSERTs when it is not
+ * available.
+ *
+ *   dbproject.load.threads           tables loaded at once (4)
+ *   dbproject.load.bufferSize        bytes buffered per file (65536)
+ *   dbproject.load.batchSize         rows per batch without COPY (1000)
+ *   dbproject.load.progressInterval  ms between progress lines, 0 = off (2000)
+ */
+public class CsvLoader {
+
+   private static final int BUFFER_SIZE = Integer.getInteger("dbproject.load.bufferSize", 65536);
+   private static final int BATCH_SIZE = Integer.getInteger("dbproject.load.batchSize", 1000);
+
+   /**
+    * A table, the file it is loaded from and the tables it references.
+    */
+   static class Table {
+      final String name;
+      final String file;
+      final String columns;
+      final String[] dependsOn;
+      final String afterLoad; // SQL run once the table is loaded, or null
+
+      Table (String name, String file, String columns, String afterLoad, String... dependsOn) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+         this.afterLoad = afterLoad;
+         this.dependsOn = dependsOn;
+      }//end Table
+
+      int columnCount () {
+         return this.columns.split(",").length;
+      }//end columnCount
+   }//end Table
+
+   // the tables of create.sql with their foreign key dependencies
+   static final Table[] TABLES = {
+      new Table("Hotel", "hotel.csv", "hotelID, address, manager", null),
+      new Table("Customer", "customer.csv", "customerID, fName, lName, Address, phNo, DOB, gender", null),
+      new Table("MaintenanceCompany", "maintenanceCompany.csv", "cmpID, name, address, isCertified", null),
+      new Table("Staff", "staff.csv", "SSN, fName, lName, address, role, employerID",
+                "UPDATE Hotel SET manager = Staff.SSN FROM Staff " +
+                "WHERE Hotel.hotelID = Staff.employerID AND Staff.role = 'Manager'",
+                "Hotel"),
+      new Table("Room", "room.csv", "hotelID, roomNo, roomType", null, "Hotel"),
+      new Table("Booking", "booking.csv", "bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price",
+                null, "Customer", "Room"),
+      new Table("Repair", "repair.csv", "rID, hotelID, roomNo, mCompany, repairDate, description, repairType",
+                null, "Room", "MaintenanceCompany"),
+      new Table("Assigned", "assigned.csv", "asgID, staffID, hotelID, roomNo", null, "Staff", "Room"),
+      new Table("Request", "request.csv", "reqID, managerID, repairID, requestDate, description",
+                null, "Staff", "Repair"),
+   };
+
+   /**
+    * Per-table progress, updated by the loading thread and read by the
+    * progress reporter.
+    */
+   static class Progress {
+      final Table table;
+      final long fileBytes;
+      final AtomicLong bytes = new AtomicLong();
+      final AtomicLong rows = new AtomicLong();
+      volatile long startNanos = 0;
+      volatile long endNanos = 0;
+
+      Progress (Table table, long fileBytes) {
+         this.table = table;
+         this.fileBytes = fileBytes;
+      }//end Progress
+
+      String describe (long now) {
+         long end = this.endNanos != 0 ? this.endNanos : now;
+         double secs = this.startNanos == 0 ? 0 : (end - this.startNanos) / 1e9;
+         double pct = this.fileBytes == 0 ? 100.0 : 100.0 * this.bytes.get() / this.fileBytes;
+         return String.format("%-18s %10d rows %6.1f%% %9.0f rows/s %7.2f MB/s%s",
+            this.table.name, this.rows.get(), pct,
+            secs > 0 ? this.rows.get() / secs : 0.0,
+            secs > 0 ? this.bytes.get() / secs / 1e6 : 0.0,
+            this.endNanos != 0 ? "  done" : (this.startNanos != 0 ? "" : "  waiting"));
+      }//end describe
+   }//end Progress
+
+   /*
+    * Counts characters (bytes for the ASCII data files) and lines as COPY
+    * pulls them from the file.
+    */
+   private static class CountingReader extends FilterReader {
+      private final Progress _progress;
+
+      CountingReader (Reader in, Progress progress) {
+         super(in);
+         this._progress = progress;
+      }//end CountingReader
+
+      public int read () throws IOException {
+         int c = super.read();
+         if (c >= 0) count(c);
+         return c;
+      }//end read
+
+      public int read (char[] buf, int off, int len) throws IOException {
+         int n = super.read(buf, off, len);
+         for (int i = 0; i < n; ++i) {
+            if (buf[off + i] == '\n') this._progress.rows.incrementAndGet();
+         }//end for
+         if (n > 0) this._progress.bytes.addAndGet(n);
+         return n;
+      }//end read
+
+      private void count (int c) {
+         this._progress.bytes.incrementAndGet();
+         if (c == '\n') this._progress.rows.incrementAndGet();
+      }//end count
+   }//end CountingReader
+
+   private final ConnectionPool _pool;
+   private final File _dataDir;
+   private final int _threads;
+   private final long _progressInterval;
+
+   public CsvLoader (ConnectionPool pool, File dataDir) {
+      this._pool = pool;
+      this._dataDir = dataDir;
+      this._threads = Math.max(1, Integer.getInteger("dbproject.load.threads", 4));
+      this._progressInterval = Long.getLong("dbproject.load.progressInterval", 2000L);
+   }//end CsvLoader
+
+   /**
+    * Loads every table, running each as soon as the tables it references
+    * are loaded.  The tables must exist and be empty.
+    *
+    * @return the rows loaded per table
+    * @throws java.sql.SQLException when a table fails to load
+    */
+   public Map<String, Long> loadAll () throws SQLException {
+      final Map<String, Progress> progress = new LinkedHashMap<String, Progress>();
+      for (Table t : TABLES) {
+         File f = new File(this._dataDir, t.file);
+         if (!f.isFile()) throw new SQLException("Missing data file " + f.getPath());
+         progress.put(t.name, new Progress(t, f.length()));
+      }//end for
+
+      ExecutorService pool = Executors.newFixedThreadPool(this._threads);
+      Thread reporter = startReporter(progress);
+      long start = System.nanoTime();
+      try {
+         Map<String, CompletableFuture<Void>> done = new HashMap<String, CompletableFuture<Void>>();
+         for (final Table t : TABLES) {
+            List<CompletableFuture<Void>> deps = new ArrayList<CompletableFuture<Void>>();
+            for (String d : t.dependsOn) deps.add(done.get(d));
+            final Progress p = progress.get(t.name);
+            CompletableFuture<Void> f = CompletableFuture
+               .allOf(deps.toArray(new CompletableFuture<?>[0]))
+               .thenRunAsync(new Runnable() {
+                  public void run() {
+                     try {
+                        load(p);
+                     }catch (Exception e) {
+                        throw new CompletionException(
+                           new SQLException("Loading " + t.name + " failed: " + e.getMessage()));
+                     }//end try
+                  }
+               }, pool);
+            done.put(t.name, f);
+         }//end for
+         CompletableFuture.allOf(done.values().toArray(new CompletableFuture<?>[0])).join();
+      }catch (CompletionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException) throw (SQLException) cause;
+         throw new SQLException(String.valueOf(cause));
+      }finally {
+         pool.shutdownNow();
+         if (reporter != null) reporter.interrupt();
+      }//end try
+
+      long now = System.nanoTime();
+      Map<String, Long> rows = new LinkedHashMap<String, Long>();
+      long total = 0;
+      for (Progress p : progress.values()) {
+         System.out.println(p.describe(now));
+         rows.put(p.table.name, p.rows.get());
+         total += p.rows.get();
+      }//end for
+      double secs = (now - start) / 1e9;
+      System.out.println(String.format("Loaded %d rows in %.2fs (%.0f rows/s)", total, secs, total / secs));
+      return rows;
+   }//end loadAll
+
+   /*
+    * Loads one table on a pooled connection.
+    */
+   private void load (Progress p) throws SQLException, IOException {
+      p.startNanos = System.nanoTime();
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      SQLException failure = null;
+      Reader in = new CountingReader(
+         new BufferedReader(new InputStreamReader(
+            new FileInputStream(new File(this._dataDir, p.table.file)), StandardCharsets.UTF_8),
+            BUFFER_SIZE), p);
+      try {
+         Connection conn = pc.connection();
+         long rows;
+         Object copyApi = copyApi(conn);
+         if (copyApi != null) {
+            rows = copyIn(copyApi, "COPY " + p.table.name + "(" + p.table.columns + ") " +
+                          "FROM STDIN WITH DELIMITER ','", in);
+         }else {
+            rows = insertBatches(conn, p.table, new BufferedReader(in, BUFFER_SIZE));
+         }//end if
+         if (p.table.afterLoad != null) {
+            Statement stmt = conn.createStatement();
+            stmt.execute(p.table.afterLoad);
+            stmt.close();
+         }//end if
+         // generated keys continue after the loaded ones
+         IdAllocator.Key key = IdAllocator.Key.of(p.table.name);
+         if (key != null) {
+            Statement stmt = conn.createStatement();
+            stmt.execute(key.resetSql());
+            stmt.close();
+         }//end if
+         p.rows.set(rows);
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         in.close();
+         this._pool.release(pc, failure);
+         p.endNanos = System.nanoTime();
+      }//end try
+   }//end load
+
+   /*
+    * Returns the driver's CopyManager for a connection, or null when the
+    * driver does not provide one.
+    */
+   private static Object copyApi (Connection conn) {
+      try {
+         Method m = conn.getClass().getMethod("getCopyAPI");
+         return m.invoke(conn);
+      }catch (Exception e) {
+         return null;
+      }//end try
+   }//end copyApi
+
+   private static long copyIn (Object copyApi, String sql, Reader in) throws SQLException, IOException {
+      try {
+         Method m = copyApi.getClass().getMethod("copyIn", String.class, Reader.class, int.class);
+         return ((Long) m.invoke(copyApi, sql, in, BUFFER_SIZE)).longValue();
+      }catch (InvocationTargetException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException) throw (SQLException) cause;
+         if (cause instanceof IOException) throw (IOException) cause;
+         throw new SQLException(String.valueOf(cause));
+      }catch (ReflectiveOperationException e) {
+         throw new SQLException("CopyManager.copyIn is not available: " + e);
+      }//end try
+   }//end copyIn
+
+   /*
+    * Fallback for drivers without COPY support: parses the COPY text
+    * format (',' delimited, \N for NULL) and inserts in batches inside one
+    * transaction.  The connection is back in autocommit afterwards, so the
+    * table's afterLoad statement commits on its own.
+    */
+   private static long insertBatches (Connection conn, Table t, BufferedReader in) throws SQLException, IOException {
+      int n = t.columnCount();
+      StringBuilder sql = new StringBuilder("INSERT INTO " + t.name + "(" + t.columns + ") VALUES (");
+      for (int i = 0; i < n; ++i) sql.append(i == 0 ? "?" : ", ?");
+      sql.append(")");
+
+      conn.setAutoCommit(false);
+      PreparedStatement stmt = conn.prepareStatement(sql.toString());
+      long rows = 0;
+      int batched = 0;
+      boolean committed = false;
+      try {
+         String line;
+         while ((line = in.readLine()) != null) {
+            if (line.length() == 0) continue;
+            String[] fields = line.split(",", -1);
+            if (fields.length != n)
+               throw new SQLException(t.file + ":" + (rows + 1) + ": expected " + n + " fields");
+            for (int i = 0; i < n; ++i) {
+               if (fields[i].equals("\\N")) stmt.setNull(i + 1, java.sql.Types.VARCHAR);
+               else stmt.setString(i + 1, fields[i]);
+            }//end for
+            stmt.addBatch();
+            ++rows;
+            if (++batched == BATCH_SIZE) {
+               stmt.executeBatch();
+               batched = 0;
+            }//end if
+         }//end while
+         if (batched > 0) stmt.executeBatch();
+         conn.commit();
+         committed = true;
+         return rows;
+      }finally {
+         stmt.close();
+         // turning autocommit on commits; a failed load is rolled back first
+         if (!committed) {
+            try {
+               conn.rollback();
+            }catch (SQLException e) {
+               // the load's own failure is the one reported.
+            }//end try
+         }//end if
+         conn.setAutoCommit(true);
+      }//end try
+   }//end insertBatches
+
+   private Thread startReporter (final Map<String, Progress> progress) {
+      if (this._progressInterval <= 0) return null;
+      Thread t = new Thread(new Runnable() {
+         public void run() {
+            while (true) {
+               try {
+                  Thread.sleep(_progressInterval);
+               }catch (InterruptedException e) {
+                  return;
+               }//end try
+               long now = System.nanoTime();
+               StringBuilder sb = new StringBuilder("--- loading ---\n");
+               for (Progress p : progress.values()) {
+                  if (p.startNanos != 0 && p.endNanos == 0) sb.append(p.describe(now)).append('\n');
+               }//end for
+               System.out.print(sb);
+            }//end while
+         }
+      }, "csv-loader-progress");
+      t.setDaemon(true);
+      t.start();
+      return t;
+   }//end startReporter
+
+}//end CsvLoader
@@ -14,30 +14,68 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.BatchUpdateException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
-import java.text.SimpleDateFormat;
-import java.text.DateFormat;
-import java.util.Date;
-import java.util.Calendar;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
  *
  */
-public class DBProject {
+public class DBProject implements HotelStore {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // rows fetched per round trip by streamQuery; 0 reads the whole result at once.
+   private static final int FETCH_SIZE = Integer.getInteger ("dbproject.fetchSize", 1000);
+
+   // pool of physical database connections shared by all operations.
+   private ConnectionPool _pool = null;
+
+   // told about every named statement executed
+   private final List<StatementListener> _listeners = new CopyOnWriteArrayList<StatementListener> ();
+
+   // statement latencies and counts, null unless dbproject.metrics is set.
+   private QueryMetrics _metrics = null;
+
+   // Hotel, Room, MaintenanceCompany and Staff rows, null unless dbproject.cache is set.
+   private ReferenceCache _references = null;
+
+   // in-process room availability, null unless dbproject.availabilityIndex is set.
+   private AvailabilityIndex _availability = null;
+
+   // column-wise copy the reports read, null unless dbproject.snapshot is set.
+   private ReportSnapshot _snapshot = null;
+
+   // streaming replicas answering the reports, null unless dbproject.replicas is set.
+   private ReplicaRouter _replicas = null;
+
+   // shares one commit among concurrent add* inserts, null unless
+   // dbproject.groupCommit is set.
+   private GroupCommitter _groupCommit = null;
+
+   // logs Request and Assigned rows and inserts them in the background,
+   // null unless dbproject.writeBehind is set.
+   private WriteBehindQueue _writeBehind = null;
+
+   // generated primary keys, fetched from the create.sql sequences in blocks
+   private final IdAllocator _ids = new IdAllocator (this);
+
+   // claims room-nights for bookings with generated IDs
+   private final BookingEngine _bookings = new BookingEngine (this);
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -58,11 +96,30 @@ public class DBProject {
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
-
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         String url = JdbcSettings.url (dbname, dbport);
+         System.out.println ("Connection URL: " + url);
+         System.out.println ("JDBC driver: " + JdbcSettings.driverVersion () + "\n");
+
+         // open the connection pool and make sure the server is reachable
+         this._pool = new ConnectionPool(url, user, passwd);
+         this._pool.prime();
+         if (Boolean.getBoolean("dbproject.availabilityIndex"))
+            this._availability = new AvailabilityIndex(this);
+         if (Boolean.getBoolean("dbproject.cache"))
+            this._references = new ReferenceCache(this);
+         if (Boolean.getBoolean("dbproject.snapshot"))
+            this._snapshot = new ReportSnapshot(this);
+         if (System.getProperty("dbproject.replicas", "").length() > 0)
+            this._replicas = new ReplicaRouter(this._pool, System.getProperty("dbproject.replicas"), dbname, user, passwd);
+         if (Boolean.getBoolean("dbproject.groupCommit"))
+            this._groupCommit = new GroupCommitter(this._pool);
+         if (Boolean.getBoolean("dbproject.writeBehind"))
+            this._writeBehind = new WriteBehindQueue(this._pool);
+         if (QueryMetrics.enabled()){
+            this._metrics = new QueryMetrics();
+            addStatementListener(this._metrics);
+            this._metrics.start();
+         }//end if
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -79,14 +136,24 @@ public class DBProject {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      SQLException failure = null;
+      try{
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         stmt.executeUpdate (sql);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+         wrote (pc.connection ());
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         this._pool.release (pc, failure);
+      }//end try
    }//end executeUpdate
 
    /**
@@ -99,50 +166,747 @@ public class DBProject {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      SQLException failure = null;
+      try{
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
+         try{
+            // issues the query instruction
+            ResultSet rs = stmt.executeQuery (query);
+            return stream (rs, ResultSinks.stdout (), new long[1]);
+         }finally{
+            stmt.close ();
+         }//end try
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         this._pool.release (pc, failure);
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Method to execute one of the named update operations (INSERT, UPDATE,
+    * DELETE) through the prepared statement cache of a pooled connection.
+    *
+    * @param op the operation to run
+    * @param params the values bound to the operation's placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (Sql op, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      int rows = 0;
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc = null;
+      try{
+         pc = this._pool.borrow ();
+         PreparedStatement stmt = pc.statements ().prepare (op);
+         Sql.bind (stmt, params);
+         rows = stmt.executeUpdate ();
+         wrote (pc.connection ());
+         return rows;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         this._pool.release (pc, failure);
+         fireExecuted (op, params, start, rows, 0, failure);
+      }//end try
+   }//end executeUpdate
+
+   /*
+    * Runs an add* insert, in a group sharing one commit with the concurrent
+    * ones when dbproject.groupCommit is set.
+    */
+   private int executeInsert (Sql op, Object... params) throws SQLException {
+      if (this._groupCommit == null) return executeUpdate (op, params);
+      long start = System.nanoTime ();
+      int rows = 0;
+      SQLException failure = null;
+      try{
+         rows = this._groupCommit.execute (op, params);
+         wrote ();
+         return rows;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         fireExecuted (op, params, start, rows, 0, failure);
+      }//end try
+   }//end executeInsert
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute one of the named query operations and output the
+    * results to standard out in the configured format (dbproject.output).
+    *
+    * @param op the operation to run
+    * @param params the values bound to the operation's placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (Sql op, Object... params) throws SQLException {
+      return streamQuery (op, ResultSinks.stdout (), params);
+   }//end executeQuery
 
+   /**
+    * Method to execute one of the named query operations and hand the rows
+    * to a sink as they arrive.  With a positive dbproject.fetchSize (the
+    * default) the query runs inside a transaction so the driver fetches the
+    * result through a cursor, keeping memory constant however many rows
+    * come back.
+    *
+    * @param op the operation to run
+    * @param sink receives the rows
+    * @param params the values bound to the operation's placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamQuery (Sql op, ResultSink sink, Object... params) throws SQLException {
+      ConnectionPool replica = this._replicas != null && op.readOnly () ? this._replicas.route () : null;
+      if (replica != null){
+         boolean[] streaming = new boolean[1];
+         try{
+            return streamQuery (replica, op, sink, streaming, params);
+         }catch (SQLException e){
+            // the primary answers when the replica failed before any row reached the sink
+            if (streaming[0] || !this._replicas.failed (replica, e)) throw e;
+         }//end try
+      }//end if
+      return streamQuery (this._pool, op, sink, new boolean[1], params);
+   }//end streamQuery
+
+   /*
+    * Runs a query on a pool's connection; streaming is set once rows may
+    * have been handed to the sink.
+    */
+   private int streamQuery (ConnectionPool pool, Sql op, ResultSink sink, boolean[] streaming,
+                            Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      int rowCount = 0;
+      long[] bytes = new long[1];
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc;
+      try{
+         pc = pool.borrow ();
+      }catch (SQLException e){
+         fireExecuted (op, params, start, 0, 0, e);
+         throw e;
+      }//end try
+      Connection conn = pc.connection ();
+      boolean cursor = FETCH_SIZE > 0;
+      try{
+         // the driver only uses a cursor outside autocommit
+         if (cursor) conn.setAutoCommit (false);
+         PreparedStatement stmt = pc.statements ().prepare (op);
+         stmt.setFetchSize (Math.max (0, FETCH_SIZE));
+         Sql.bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         streaming[0] = true;
+         try{
+            rowCount = stream (rs, sink, bytes);
+         }finally{
+            rs.close ();
+         }//end try
+         if (cursor) conn.commit ();
+         return rowCount;
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         try{
+            if (cursor && failure == null) conn.setAutoCommit (true);
+         }catch (SQLException e){
+            failure = e;
+         }//end try
+         pool.release (pc, failure);
+         fireExecuted (op, params, start, rowCount, bytes[0], failure);
+      }//end try
+   }//end streamQuery
+
+   /*
+    * Keeps the calling thread's reports on the primary until the replicas
+    * have replayed its write.
+    */
+   private void wrote () {
+      if (this._replicas != null)
+         this._replicas.wrote ();
+   }//end wrote
+
+   private void wrote (Connection conn) {
+      if (this._replicas != null)
+         this._replicas.wrote (conn);
+   }//end wrote
+
+   /**
+    * Registers a listener told about every named statement executed, for
+    * instrumentation and workload capture.
+    */
+   public void addStatementListener (StatementListener listener) {
+      this._listeners.add (listener);
+   }//end addStatementListener
+
+   public void removeStatementListener (StatementListener listener) {
+      this._listeners.remove (listener);
+   }//end removeStatementListener
+
+   private void fireExecuted (Sql op, Object[] params, long start, int rows, long bytes, SQLException failure) {
+      if (this._listeners.isEmpty ()) return;
+      long nanos = System.nanoTime () - start;
+      for (StatementListener l : this._listeners)
+         l.executed (op, params, nanos, rows, bytes, failure);
+   }//end fireExecuted
+
+   /*
+    * Hands every row of a result set to a sink and returns the number of
+    * rows; bytes[0] is increased by the characters fetched.
+    */
+   private static int stream (ResultSet rs, ResultSink sink, long[] bytes) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+      String[] columns = new String[numCol];
+      for (int i = 1; i <= numCol; ++i)
+         columns[i - 1] = rsmd.getColumnName (i);
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-   if(outputHeader){
-      for(int i = 1; i <= numCol; i++){
-    System.out.print(rsmd.getColumnName(i) + "\t");
-      }
-      System.out.println();
-      outputHeader = false;
-   }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
+      int rowCount = 0;
+      try{
+         sink.begin (columns);
+         String[] values = new String[numCol];
+         while (rs.next ()){
+            for (int i = 1; i <= numCol; ++i){
+               values[i - 1] = rs.getString (i);
+               if (values[i - 1] != null) bytes[0] += values[i - 1].length ();
+            }//end for
+            sink.row (values);
+            ++rowCount;
+         }//end while
+         sink.end (rowCount);
+      }catch (IOException e){
+         throw new SQLException ("Unable to write query output: " + e.getMessage ());
+      }//end try
       return rowCount;
-   }//end executeQuery
+   }//end stream
 
    /**
-    * Method to close the physical connection if it is open.
+    * Inserts many bookings in a single transaction using JDBC batching.
+    * Rows the database rejects (duplicate bID, unknown room, ...) are
+    * reported in the result instead of failing the whole feed.  Each chunk
+    * of batchSize rows runs behind a savepoint; when the database refuses
+    * a row, only that chunk is rolled back and sent again without it (or
+    * split in halves when the driver cannot tell which row it was), so the
+    * other chunks are sent once and the commit contains every valid row.
+    *
+    * @param requests the bookings to insert
+    * @param batchSize number of rows sent per executeBatch round trip
+    * @return the committed count and the rejected bookings
+    * @throws java.sql.SQLException when the database fails for a reason
+    *         other than a rejected row
     */
-   public void cleanup(){
+   public BookingBatchResult bookRooms (List<BookingRequest> requests, int batchSize) throws SQLException {
+      long start = System.nanoTime ();
+      batchSize = Math.max (1, batchSize);
+      BookingBatchResult result = new BookingBatchResult ();
+      // a rewritten multi-row INSERT fails as a whole; its update counts do not point at the row
+      boolean counted = !JdbcSettings.rewritesBatches ();
+      List<Integer> booked = new ArrayList<Integer> ();
+      // [from, to) ranges of requests still to send, in order
+      Deque<int[]> chunks = new ArrayDeque<int[]> ();
+      for (int from = 0; from < requests.size (); from += batchSize)
+         chunks.addLast (new int[] { from, Math.min (requests.size (), from + batchSize) });
+
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      Connection conn = pc.connection ();
+      SQLException failure = null;
+      int batches = 0;
       try{
-         if (this._connection != null){
-            this._connection.close ();
+         conn.setAutoCommit (false);
+         PreparedStatement stmt = pc.statements ().prepare (Sql.INSERT_BOOKING);
+         Statement sp = conn.createStatement ();
+         try{
+            while (!chunks.isEmpty ()){
+               int[] chunk = chunks.pollFirst ();
+               ++batches;
+               sp.execute ("SAVEPOINT book_rooms");
+               try{
+                  for (int i = chunk[0]; i < chunk[1]; ++i){
+                     Sql.bind (stmt, requests.get (i).params ());
+                     stmt.addBatch ();
+                  }//end for
+                  stmt.executeBatch ();
+                  sp.execute ("RELEASE SAVEPOINT book_rooms");
+                  for (int i = chunk[0]; i < chunk[1]; ++i) booked.add (i);
+               }catch (BatchUpdateException e){
+                  stmt.clearBatch ();
+                  sp.execute ("ROLLBACK TO SAVEPOINT book_rooms");
+                  int refused = chunk[1] - chunk[0] == 1 ? chunk[0]
+                              : counted ? chunk[0] + refusedRow (e) : -1;
+                  if (refused >= chunk[0] && refused < chunk[1]){
+                     SQLException cause = e.getNextException () != null ? e.getNextException () : e;
+                     result.reject (refused, requests.get (refused), cause.getMessage ());
+                     if (refused + 1 < chunk[1]) chunks.addFirst (new int[] { refused + 1, chunk[1] });
+                     if (chunk[0] < refused) chunks.addFirst (new int[] { chunk[0], refused });
+                  }else{
+                     int mid = (chunk[0] + chunk[1]) >>> 1;
+                     chunks.addFirst (new int[] { mid, chunk[1] });
+                     chunks.addFirst (new int[] { chunk[0], mid });
+                  }//end if
+               }//end try
+            }//end while
+         }finally{
+            sp.close ();
+         }//end try
+         conn.commit ();
+         wrote (conn);
+         result.finish (booked.size (), batches, System.nanoTime () - start);
+         if (!booked.isEmpty ())
+            fireExecuted (Sql.INSERT_BOOKING, requests.get (booked.get (booked.size () - 1)).params (),
+                          start, booked.size (), 0, null);
+         if (this._snapshot != null)
+            this._snapshot.written ();
+         if (this._availability != null){
+            for (int i : booked){
+               BookingRequest r = requests.get (i);
+               this._availability.roomBooked (r.hotelID, r.roomNo, Dates.parseOrNull (r.bookingDate));
+            }//end for
          }//end if
+         return result;
       }catch (SQLException e){
-         // ignored.
+         failure = e;
+         try{ conn.rollback (); }catch (SQLException ignored){ /* ignored. */ }
+         if (!requests.isEmpty ())
+            fireExecuted (Sql.INSERT_BOOKING, requests.get (0).params (), start, 0, 0, e);
+         throw e;
+      }finally{
+         this._pool.release (pc, failure);
       }//end try
+   }//end bookRooms
+
+   /*
+    * The position in its batch of the row the database refused:
+    * PostgreSQL stops there, so the update counts end at it or mark it
+    * EXECUTE_FAILED.  -1 when the driver gives no counts.
+    */
+   private static int refusedRow (BatchUpdateException e) {
+      int[] counts = e.getUpdateCounts ();
+      if (counts == null) return -1;
+      for (int i = 0; i < counts.length; ++i)
+         if (counts[i] == Statement.EXECUTE_FAILED) return i;
+      return counts.length;
+   }//end refusedRow
+
+   /**
+    * Inserts many bookings using the configured batch size
+    * (dbproject.booking.batchSize, default 500).
+    *
+    * @param requests the bookings to insert
+    * @return the committed count and the rejected bookings
+    * @throws java.sql.SQLException when the database fails
+    */
+   public BookingBatchResult bookRooms (List<BookingRequest> requests) throws SQLException {
+      return bookRooms (requests, Integer.getInteger ("dbproject.booking.batchSize", 500));
+   }//end bookRooms
+
+   /*
+    * The operations behind the menu, callable with structured parameters
+    * (see ScriptRunner).  Queries write their rows to the given sink.
+    */
+
+   public void addCustomer (int customerID, String fName, String lName, String address,
+                            long phNo, String dob, String gender) throws SQLException {
+      executeInsert (Sql.INSERT_CUSTOMER, customerID, fName, lName, address, phNo, dob, gender);
+   }//end addCustomer
+
+   /**
+    * Adds a customer under a generated ID.
+    *
+    * @return the customer's ID
+    */
+   public int addCustomer (String fName, String lName, String address, long phNo, String dob,
+                           String gender) throws SQLException {
+      int customerID = this._ids.next (IdAllocator.Key.CUSTOMER);
+      addCustomer (customerID, fName, lName, address, phNo, dob, gender);
+      return customerID;
+   }//end addCustomer
+
+   public void addRoom (int hotelID, int roomNo, String roomType) throws SQLException {
+      if (this._references != null)
+         this._references.requireHotel (hotelID);
+      executeInsert (Sql.INSERT_ROOM, hotelID, roomNo, roomType);
+      if (this._references != null)
+         this._references.roomAdded (hotelID, roomNo);
+      if (this._snapshot != null)
+         this._snapshot.written ();
+      if (this._availability != null)
+         this._availability.roomAdded (hotelID, roomNo, roomType);
+   }//end addRoom
+
+   public void addMaintenanceCompany (int cmpID, String name, String address, boolean isCertified) throws SQLException {
+      executeInsert (Sql.INSERT_MAINTENANCE_COMPANY, cmpID, name, address, isCertified);
+      if (this._references != null)
+         this._references.companyAdded (cmpID, name);
+      if (this._snapshot != null)
+         this._snapshot.written ();
+   }//end addMaintenanceCompany
+
+   /**
+    * Adds a maintenance company under a generated ID.
+    *
+    * @return the company's ID
+    */
+   public int addMaintenanceCompany (String name, String address, boolean isCertified) throws SQLException {
+      int cmpID = this._ids.next (IdAllocator.Key.COMPANY);
+      addMaintenanceCompany (cmpID, name, address, isCertified);
+      return cmpID;
+   }//end addMaintenanceCompany
+
+   public void addRepair (int rID, int hotelID, int roomNo, int mCompany, java.sql.Date repairDate,
+                          String description, String repairType) throws SQLException {
+      if (this._references != null){
+         this._references.requireRoom (hotelID, roomNo);
+         this._references.requireCompany (mCompany);
+      }//end if
+      executeInsert (Sql.INSERT_REPAIR, rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+      if (this._snapshot != null)
+         this._snapshot.written ();
+   }//end addRepair
+
+   /**
+    * Adds a repair under a generated ID.
+    *
+    * @return the repair's ID
+    */
+   public int addRepair (int hotelID, int roomNo, int mCompany, java.sql.Date repairDate,
+                         String description, String repairType) throws SQLException {
+      int rID = this._ids.next (IdAllocator.Key.REPAIR);
+      addRepair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+      return rID;
+   }//end addRepair
+
+   public void bookRoom (BookingRequest booking) throws SQLException {
+      if (this._references != null)
+         this._references.requireRoom (booking.hotelID, booking.roomNo);
+      executeUpdate (Sql.INSERT_BOOKING, booking.params ());
+      if (this._snapshot != null)
+         this._snapshot.written ();
+      if (this._availability != null)
+         this._availability.roomBooked (booking.hotelID, booking.roomNo, Dates.parseOrNull (booking.bookingDate));
+   }//end bookRoom
+
+   /**
+    * Books a room-night unless it is already sold, under a generated ID.
+    * Safe to call from many threads at once.
+    *
+    * @return the new booking's ID, or BookingEngine.TAKEN
+    */
+   public int bookRoom (int customer, int hotelID, int roomNo, String bookingDate, int noOfPeople,
+                        double price) throws SQLException {
+      if (this._references != null)
+         this._references.requireRoom (hotelID, roomNo);
+      int bID = this._bookings.book (customer, hotelID, roomNo, bookingDate, noOfPeople, price);
+      if (bID != BookingEngine.TAKEN)
+         wrote ();
+      if (bID != BookingEngine.TAKEN && this._snapshot != null)
+         this._snapshot.written ();
+      if (bID != BookingEngine.TAKEN && this._availability != null)
+         this._availability.roomBooked (hotelID, roomNo, Dates.parseOrNull (bookingDate));
+      return bID;
+   }//end bookRoom
+
+   public void assignHouseCleaningToRoom (int asgID, int staffID, int hotelID, int roomNo) throws SQLException {
+      if (this._references != null){
+         this._references.requireStaff (staffID);
+         this._references.requireRoom (hotelID, roomNo);
+      }//end if
+      if (this._writeBehind != null)
+         this._writeBehind.assign (asgID, staffID, hotelID, roomNo);
+      else
+         executeUpdate (Sql.INSERT_ASSIGNED, asgID, staffID, hotelID, roomNo);
+   }//end assignHouseCleaningToRoom
+
+   /**
+    * Assigns house cleaning under a generated ID.
+    *
+    * @return the assignment's ID
+    */
+   public int assignHouseCleaningToRoom (int staffID, int hotelID, int roomNo) throws SQLException {
+      int asgID = this._ids.next (IdAllocator.Key.ASSIGNED);
+      assignHouseCleaningToRoom (asgID, staffID, hotelID, roomNo);
+      return asgID;
+   }//end assignHouseCleaningToRoom
+
+   public void repairRequest (int reqID, int managerID, int repairID, String requestDate,
+                              String description) throws SQLException {
+      if (this._references != null)
+         this._references.requireStaff (managerID);
+      if (this._writeBehind != null)
+         this._writeBehind.request (reqID, managerID, repairID, requestDate, description);
+      else
+         executeUpdate (Sql.INSERT_REQUEST, reqID, managerID, repairID, requestDate, description);
+   }//end repairRequest
+
+   /**
+    * Files a repair request under a generated ID.
+    *
+    * @return the request's ID
+    */
+   public int repairRequest (int managerID, int repairID, String requestDate, String description) throws SQLException {
+      int reqID = this._ids.next (IdAllocator.Key.REQUEST);
+      repairRequest (reqID, managerID, repairID, requestDate, description);
+      return reqID;
+   }//end repairRequest
+
+   public int numberOfAvailableRooms (int hotelID, ResultSink sink) throws SQLException {
+      if (this._availability == null && this._snapshot != null)
+         return this._snapshot.availableRooms (hotelID, sink);
+      if (this._availability == null)
+         return streamQuery (Sql.AVAILABLE_ROOMS, sink, hotelID, hotelID);
+      try{
+         this._availability.printAvailableRooms (hotelID, sink);
+         return 1;
+      }catch (IOException e){
+         throw new SQLException ("Unable to write query output: " + e.getMessage ());
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public int numberOfBookedRooms (int hotelID, ResultSink sink) throws SQLException {
+      if (this._snapshot != null)
+         return this._snapshot.bookedRooms (hotelID, sink);
+      return streamQuery (Sql.BOOKED_ROOMS, sink, hotelID);
+   }//end numberOfBookedRooms
+
+   public int listHotelRoomBookingsForAWeek (int hotelID, java.sql.Date from, ResultSink sink) throws SQLException {
+      return listHotelRoomBookingsForAWeek (hotelID, from.toLocalDate (), sink);
+   }//end listHotelRoomBookingsForAWeek
+
+   public int listHotelRoomBookingsForAWeek (int hotelID, LocalDate from, ResultSink sink) throws SQLException {
+      if (this._availability == null && this._snapshot != null)
+         return this._snapshot.freeRooms (hotelID, DateRange.days (from, 7), sink);
+      if (this._availability == null){
+         DateRange week = DateRange.days (from, 7);
+         return streamQuery (Sql.AVAILABLE_ROOMS_FOR_WEEK, sink, hotelID, hotelID, week.from (), week.until ());
+      }//end if
+      try{
+         return this._availability.printFreeRooms (hotelID, from, 7, sink);
+      }catch (IOException e){
+         throw new SQLException ("Unable to write query output: " + e.getMessage ());
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   public int topKHighestRoomPriceForADateRange (String firstDate, String secondDate, int k,
+                                                 ResultSink sink) throws SQLException {
+      return topKHighestRoomPriceForADateRange (DateRange.parse (firstDate, secondDate), k, sink);
+   }//end topKHighestRoomPriceForADateRange
+
+   public int topKHighestRoomPriceForADateRange (DateRange range, int k, ResultSink sink) throws SQLException {
+      if (this._snapshot != null)
+         return this._snapshot.topKRoomPrice (range, k, sink);
+      return streamQuery (Sql.TOP_K_ROOM_PRICE, sink, range.from (), range.until (), k);
+   }//end topKHighestRoomPriceForADateRange
+
+   public int topKHighestPriceBookingsForACustomer (String fName, String lName, int k,
+                                                    ResultSink sink) throws SQLException {
+      return streamQuery (Sql.TOP_K_CUSTOMER_BOOKINGS, sink, fName, lName, k);
+   }//end topKHighestPriceBookingsForACustomer
+
+   public int totalCostForCustomer (int hotelID, int customerID, String firstDate, String secondDate,
+                                    ResultSink sink) throws SQLException {
+      return totalCostForCustomer (hotelID, customerID, DateRange.parse (firstDate, secondDate), sink);
+   }//end totalCostForCustomer
+
+   public int totalCostForCustomer (int hotelID, int customerID, DateRange range,
+                                    ResultSink sink) throws SQLException {
+      if (this._snapshot != null)
+         return this._snapshot.totalCost (hotelID, customerID, range, sink);
+      return streamQuery (Sql.CUSTOMER_TOTAL_COST, sink, customerID, hotelID, range.from (), range.until ());
+   }//end totalCostForCustomer
+
+   /**
+    * Runs a query and writes only its k rows with the highest value in one
+    * column, ranked in process over the cursor, for rankings the SQL does
+    * not order by.
+    *
+    * @param column the index of the ranking column, from 0
+    * @return the number of rows written
+    */
+   public int topKRows (Sql op, int column, int k, ResultSink sink, Object... params) throws SQLException {
+      return Math.min (k, streamQuery (op, new TopK.Sink (column, k, sink), params));
+   }//end topKRows
+
+   public int listRepairsMade (String companyName, ResultSink sink) throws SQLException {
+      if (this._snapshot != null)
+         return this._snapshot.repairsMade (companyName, sink);
+      if (this._references != null){
+         // resolve the name locally and skip the join with MaintenanceCompany
+         List<Integer> ids = this._references.companyIDs (companyName);
+         if (ids.size () == 1)
+            return streamQuery (Sql.REPAIRS_BY_COMPANY_ID, sink, ids.get (0));
+      }//end if
+      return streamQuery (Sql.REPAIRS_BY_COMPANY, sink, companyName);
+   }//end listRepairsMade
+
+   public int topKMaintenanceCompany (int k, ResultSink sink) throws SQLException {
+      if (this._snapshot != null)
+         return this._snapshot.topKMaintenanceCompany (k, sink);
+      return streamQuery (Sql.TOP_K_MAINTENANCE_COMPANY, sink, k);
+   }//end topKMaintenanceCompany
+
+   public int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, ResultSink sink) throws SQLException {
+      if (this._snapshot != null)
+         return this._snapshot.repairsPerYear (hotelID, roomNo, sink);
+      return streamQuery (Sql.REPAIRS_PER_YEAR, sink, hotelID, roomNo);
+   }//end numberOfRepairsForEachRoomPerYear
+
+   /**
+    * Repairs per year of every room in one grouped scan, streamed to the
+    * sink as hotelID, roomNo, Year, repairs, ordered by room and year.
+    * Rooms never repaired are left out.
+    *
+    * @return the number of rows written
+    */
+   public int repairsPerYearForAllRooms (ResultSink sink) throws SQLException {
+      return streamQuery (Sql.REPAIRS_PER_YEAR_ALL_ROOMS, sink);
+   }//end repairsPerYearForAllRooms
+
+   /**
+    * Repairs per year of every room of one hotel, as
+    * {@link #repairsPerYearForAllRooms(ResultSink)}.
+    */
+   public int repairsPerYearForHotel (int hotelID, ResultSink sink) throws SQLException {
+      return streamQuery (Sql.REPAIRS_PER_YEAR_HOTEL_ROOMS, sink, hotelID);
+   }//end repairsPerYearForHotel
+
+   /**
+    * @return the room availability index, or null when it is disabled
+    */
+   public AvailabilityIndex availabilityIndex(){
+      return this._availability;
+   }//end availabilityIndex
+
+   /**
+    * @return the reporting snapshot, or null when it is disabled
+    */
+   public ReportSnapshot snapshot(){
+      return this._snapshot;
+   }//end snapshot
+
+   /*
+    * The pool backing this instance, for the bulk tools that manage their
+    * own connections.
+    */
+   ConnectionPool pool(){
+      return this._pool;
+   }//end pool
+
+   /**
+    * @return the current connection pool metrics (active/idle/wait time)
+    */
+   public ConnectionPool.Stats poolStats(){
+      return this._pool.stats ();
+   }//end poolStats
+
+   /**
+    * @return the reference table cache, or null when it is not enabled
+    */
+   public ReferenceCache references(){
+      return this._references;
+   }//end references
+
+   /**
+    * @return the replica router of the reports, or null when it is not enabled
+    */
+   public ReplicaRouter replicas(){
+      return this._replicas;
+   }//end replicas
+
+   /**
+    * @return the group committer of the add* inserts, or null when it is not enabled
+    */
+   public GroupCommitter groupCommit(){
+      return this._groupCommit;
+   }//end groupCommit
+
+   /**
+    * @return the write-behind queue, or null when it is not enabled
+    */
+   public WriteBehindQueue writeBehind(){
+      return this._writeBehind;
+   }//end writeBehind
+
+   /**
+    * @return the allocator of generated primary keys
+    */
+   public IdAllocator ids(){
+      return this._ids;
+   }//end ids
+
+   /**
+    * @return the booking engine behind bookRoom without an ID
+    */
+   public BookingEngine bookings(){
+      return this._bookings;
+   }//end bookings
+
+   /**
+    * @return the statement metrics, or null when they are not enabled
+    */
+   public QueryMetrics metrics(){
+      return this._metrics;
+   }//end metrics
+
+   public void close(){
+      cleanup ();
+   }//end close
+
+   /**
+    * The PostgreSQL store behind a HotelStore, for what only it does:
+    * generated keys, the booking engine, batches and the maintenance
+    * reports.
+    *
+    * @param what the operation, for the error
+    * @throws java.sql.SQLException when the store is another one
+    */
+   static DBProject server(HotelStore store, String what) throws SQLException {
+      if (store instanceof DBProject) return (DBProject) store;
+      throw new SQLException (what + " needs the PostgreSQL store");
+   }//end server
+
+   /**
+    * Method to close the physical connections if they are open.
+    */
+   public void cleanup(){
+      this._ids.close ();
+      if (this._replicas != null){
+         this._replicas.close ();
+         this._replicas = null;
+      }//end if
+      if (this._groupCommit != null){
+         this._groupCommit.close ();
+         this._groupCommit = null;
+      }//end if
+      if (this._writeBehind != null){
+         this._writeBehind.close ();
+         this._writeBehind = null;
+      }//end if
+      if (this._snapshot != null){
+         this._snapshot.close ();
+         this._snapshot = null;
+      }//end if
+      if (this._references != null){
+         this._references.close ();
+         this._references = null;
+      }//end if
+      if (this._metrics != null){
+         this._metrics.close ();
+         this._metrics = null;
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -151,26 +915,50 @@ public class DBProject {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      // -Ddbproject.store=embedded:<dir> runs on an EmbeddedStore, without a server
+      String backend = System.getProperty ("dbproject.store", "postgres");
+      boolean embedded = backend.startsWith ("embedded:");
+      // where a command starts: after <dbname> <port> <user> on the server
+      int at = embedded ? 0 : 3;
+      if (args.length < at || (args.length > at && !(embedded ? isStoreCommand (args[at]) : isCommand (args[at])))) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             DBProject.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [load [<data dir>] | verify-availability [<date> ...]" +
+            " | revenue|leaderboard [check|rebuild] | verify-topk [<date> ...]" +
+            " | repairs-per-year [<hotelID> ...] | verify-snapshot [<date> ...] | replicas" +
+            " | script <file|-> | run <command> [<name>=<value> ...]]\n" +
+            "   or: java -Ddbproject.store=embedded:<dir> " + DBProject.class.getName () +
+            " [script <file|-> | run <command> [<name>=<value> ...]]\n" + ScriptRunner.usage ());
          return;
       }//end if
       
-      Greeting();
+      if (args.length == at) Greeting();
       DBProject esql = null;
+      HotelStore store = null;
+      // exit status of a maintenance command
+      int status = 0;
       try{
-         // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
-         // instantiate the DBProject object and creates a physical
-         // connection.
-         String dbname = args[0];
-         String dbport = args[1];
-         String user = args[2];
-         esql = new DBProject (dbname, dbport, user, "");
+         if (embedded) {
+            store = new EmbeddedStore (new File (backend.substring ("embedded:".length ())));
+         }else {
+            // use postgres JDBC driver.
+            Class.forName ("org.postgresql.Driver").newInstance ();
+            // instantiate the DBProject object and creates a physical
+            // connection.
+            String dbname = args[0];
+            String dbport = args[1];
+            String user = args[2];
+            esql = new DBProject (dbname, dbport, user, "");
+            store = esql;
+         }//end if
+
+         if (args.length > at) {
+            // run a maintenance command instead of showing the menu
+            if (!(embedded ? runStoreCommand (store, args, at) : runCommand (esql, args))) status = 1;
+            return;
+         }//end if
 
          boolean keepon = true;
          while(keepon) {
@@ -196,32 +984,43 @@ public class DBProject {
         System.out.println("17. < EXIT");
 
             switch (readChoice()){
-           case 1: addCustomer(esql); break;
-           case 2: addRoom(esql); break;
-           case 3: addMaintenanceCompany(esql); break;
-           case 4: addRepair(esql); break;
-           case 5: bookRoom(esql); break;
-           case 6: assignHouseCleaningToRoom(esql); break;
-           case 7: repairRequest(esql); break;
-           case 8: numberOfAvailableRooms(esql); break;
-           case 9: numberOfBookedRooms(esql); break;
-           case 10: listHotelRoomBookingsForAWeek(esql); break;
-           case 11: topKHighestRoomPriceForADateRange(esql); break;
-           case 12: topKHighestPriceBookingsForACustomer(esql); break;
-           case 13: totalCostForCustomer(esql); break;
-           case 14: listRepairsMade(esql); break;
-           case 15: topKMaintenanceCompany(esql); break;
-           case 16: numberOfRepairsForEachRoomPerYear(esql); break;
+           case 1: addCustomer(store); break;
+           case 2: addRoom(store); break;
+           case 3: addMaintenanceCompany(store); break;
+           case 4: addRepair(store); break;
+           case 5: bookRoom(store); break;
+           case 6: assignHouseCleaningToRoom(store); break;
+           case 7: repairRequest(store); break;
+           case 8: numberOfAvailableRooms(store); break;
+           case 9: numberOfBookedRooms(store); break;
+           case 10: listHotelRoomBookingsForAWeek(store); break;
+           case 11: topKHighestRoomPriceForADateRange(store); break;
+           case 12: topKHighestPriceBookingsForACustomer(store); break;
+           case 13: totalCostForCustomer(store); break;
+           case 14: listRepairsMade(store); break;
+           case 15: topKMaintenanceCompany(store); break;
+           case 16: numberOfRepairsForEachRoomPerYear(store); break;
            case 17: keepon = false; break;
            default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
       }catch(Exception e) {
          System.err.println (e.getMessage ());
+         if (args.length > at) status = 1;
       }finally{
          // make sure to cleanup the created table and close the connection.
          try{
+            if (esql == null && store != null) store.close ();
             if(esql != null) {
+               if (Boolean.getBoolean("dbproject.pool.verbose")) {
+                  System.out.println(esql.poolStats ());
+                  if (esql.availabilityIndex () != null)
+                     System.out.println(esql.availabilityIndex ().stats ());
+                  if (esql.references () != null)
+                     System.out.println(esql.references ().stats ());
+                  System.out.println(esql.ids ().stats ());
+                  System.out.println(esql.bookings ().stats ());
+               }//end if
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -229,9 +1028,145 @@ public class DBProject {
          }catch (Exception e) {
             // ignored.
          }//end try
+         if (status != 0) System.exit (status);
       }//end try
    }//end main
    
+   /*
+    * The maintenance commands accepted after <dbname> <port> <user>.
+    */
+   static boolean isCommand(String name){
+      return name.equals ("load") || name.equals ("verify-availability")
+          || name.equals ("revenue") || name.equals ("leaderboard") || name.equals ("verify-topk")
+          || name.equals ("repairs-per-year") || name.equals ("verify-snapshot") || name.equals ("replicas")
+          || name.equals ("script") || name.equals ("run");
+   }//end isCommand
+
+   /*
+    * The commands that run on any store.
+    */
+   static boolean isStoreCommand(String name){
+      return name.equals ("script") || name.equals ("run");
+   }//end isStoreCommand
+
+   /*
+    * Runs a maintenance command given on the command line.
+    *
+    * @return false when a script or run command failed
+    */
+   static boolean runCommand(DBProject esql, String[] args) throws Exception {
+      String command = args[3];
+      // the checks compare with the primary, not with a replica behind it
+      if (command.startsWith ("verify-") && esql.replicas () != null)
+         esql.replicas ().pin (true);
+      if (command.equals ("load")) {
+         // load the CSV files into the (empty) tables
+         File dataDir = new File (args.length > 4 ? args[4] : "../data");
+         new CsvLoader (esql.pool (), dataDir).loadAll ();
+      }else if (command.equals ("verify-availability")) {
+         // compare the availability index with the SQL answers
+         AvailabilityIndex index = new AvailabilityIndex (esql);
+         List<LocalDate> weeks = new ArrayList<LocalDate> ();
+         for (int i = 4; i < args.length; ++i) weeks.add (LocalDate.parse (args[i], Dates.USER));
+         index.rebuild ();
+         System.out.println (index.stats ());
+         int mismatches = index.verify (weeks);
+         System.out.println (mismatches == 0 ? "Index matches the database"
+                                             : mismatches + " answer(s) differ from the database");
+      }else if (command.equals ("revenue") || command.equals ("leaderboard")) {
+         // rebuild and/or check the CustomerRevenue or CompanyRepairs aggregates
+         Aggregates aggregate = command.equals ("revenue") ? Aggregates.CUSTOMER_REVENUE
+                                                           : Aggregates.COMPANY_REPAIRS;
+         String action = args.length > 4 ? args[4] : "check";
+         if (action.equals ("rebuild"))
+            System.out.println ("Rebuilt " + aggregate.rebuild (esql.pool ()) + " aggregate rows");
+         int mismatches = aggregate.check (esql.pool ());
+         System.out.println (mismatches == 0 ? "Aggregates match " + aggregate.source
+                                             : mismatches + " aggregate(s) differ from " + aggregate.source);
+      }else if (command.equals ("verify-topk")) {
+         // compare the top-k reports with an in-process ranking
+         List<LocalDate> from = new ArrayList<LocalDate> ();
+         for (int i = 4; i < args.length; ++i) from.add (LocalDate.parse (args[i], Dates.USER));
+         if (from.isEmpty ()) for (int year = 2000; year <= 2018; year += 3) from.add (LocalDate.of (year, 6, 1));
+         int mismatches = TopK.verify (esql, Integer.getInteger ("dbproject.topk.k", 10), from);
+         System.out.println (mismatches == 0 ? "Top-k reports match"
+                                             : mismatches + " top-k answer(s) differ");
+      }else if (command.equals ("verify-snapshot")) {
+         // compare the reporting snapshot with the SQL answers
+         ReportSnapshot snapshot = new ReportSnapshot (esql);
+         List<LocalDate> weeks = new ArrayList<LocalDate> ();
+         for (int i = 4; i < args.length; ++i) weeks.add (LocalDate.parse (args[i], Dates.USER));
+         int mismatches = snapshot.verify (weeks, Integer.getInteger ("dbproject.topk.k", 10));
+         System.out.println (snapshot.stats ());
+         System.out.println (mismatches == 0 ? "Snapshot matches the database"
+                                             : mismatches + " answer(s) differ from the database");
+      }else if (command.equals ("replicas")) {
+         // where the reports go and how far behind each replica is
+         System.out.println (esql.replicas () == null ? "No replicas (set -Ddbproject.replicas=host:port,...)"
+                                                      : esql.replicas ().stats ());
+      }else if (command.equals ("repairs-per-year")) {
+         // repairs per room and year, written in the dbproject.output format
+         repairsPerYear (esql, args);
+      }else if (isStoreCommand (command)) {
+         return runStoreCommand (esql, args, 3);
+      }//end if
+      return true;
+   }//end runCommand
+
+   /*
+    * Runs the script or run command starting at args[at] on a store.
+    *
+    * @return false when a command failed
+    */
+   static boolean runStoreCommand(HotelStore store, String[] args, int at) throws Exception {
+      if (args[at].equals ("script")) {
+         // run the commands of a file (or standard input), one per line
+         return new ScriptRunner (store).runFile (args.length > at + 1 ? args[at + 1] : "-") == 0;
+      }//end if
+      // run one command given as the remaining arguments
+      if (args.length == at + 1){
+         System.err.println ("Usage: run <command> [<name>=<value> ...]\n" + ScriptRunner.usage ());
+         return false;
+      }//end if
+      List<String> words = new ArrayList<String> ();
+      for (int i = at + 1; i < args.length; ++i) words.add (args[i]);
+      return new ScriptRunner (store).runCommand (words);
+   }//end runStoreCommand
+
+   /*
+    * Writes the repairs per year of every room, or of the rooms of the
+    * hotels given, to standard out.  One grouped scan by default; with
+    * dbproject.repairs.parallel (or hotels given) one query per hotel, run
+    * concurrently and written in hotel order.
+    */
+   static void repairsPerYear(DBProject esql, String[] args) throws Exception {
+      long start = System.nanoTime ();
+      ResultSink out = ResultSinks.stdout ();
+      List<Integer> hotels = new ArrayList<Integer> ();
+      for (int i = 4; i < args.length; ++i) hotels.add (Integer.valueOf (args[i]));
+      int rows;
+      if (hotels.isEmpty () && !Boolean.getBoolean ("dbproject.repairs.parallel")){
+         rows = esql.repairsPerYearForAllRooms (out);
+      }else{
+         if (hotels.isEmpty ()){
+            ResultSinks.Collector ids = ResultSinks.collect ();
+            esql.streamQuery (Sql.HOTEL_IDS, ids);
+            for (String[] r : ids.rows ()) hotels.add (Integer.valueOf (r[0].trim ()));
+         }//end if
+         AsyncDBProject async = new AsyncDBProject (esql);
+         try{
+            ResultSinks.Collector all = async.repairsPerYearByHotel (hotels).get ();
+            out.begin (all.columns ());
+            for (String[] r : all.rows ()) out.row (r);
+            out.end (all.rows ().size ());
+            rows = all.rows ().size ();
+         }finally{
+            async.close ();
+         }//end try
+      }//end if
+      System.err.println (String.format ("%d rows in %.1f ms", rows, (System.nanoTime () - start) / 1e6));
+   }//end repairsPerYear
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -259,8 +1194,25 @@ public class DBProject {
       return input;
    }//end readChoice
 
+   /*
+    * Reads a primary key; a blank line leaves it to the key allocator.
+    *
+    * @return the key, or null when none was given
+    */
+   static Integer readOptionalID(String prompt) {
+      do{
+         System.out.print(prompt + " (blank to generate): ");
+         try{
+            String line = in.readLine().trim();
+            return line.isEmpty() ? null : Integer.valueOf(line);
+         }catch(Exception e){
+            System.out.print("Input is invalid. " + e.getMessage());
+         }//end try
+      }while(true);
+   }//end readOptionalID
+
    
-  public static void addCustomer(DBProject esql){ // me = DONE 
+  public static void addCustomer(HotelStore esql){ // me = DONE 
     // Given customer details add the customer in the DB 
 
 
@@ -272,22 +1224,12 @@ public class DBProject {
              DOB Date,
              gender GenderType,*/
 
-      int customerID; // Assuming customerId will only be integers based on the given CSV file
+      Integer customerID; // Assuming customerId will only be integers based on the given CSV file
       String fname,lname, addr, dob, gender;
-      double phNo; // to allow for numbers up to 999-999-9999
+      long phNo; // to allow for numbers up to 999-999-9999
       
       //customerID
-      do{
-          System.out.print("Enter Customer ID: ");
-          try{
-              customerID = Integer.parseInt(in.readLine());
-              break;
-          }
-          catch(Exception e){
-              System.out.print("Input is invalid. " + e.getMessage());
-              continue;
-          }
-      }while(true);
+      customerID = readOptionalID("Enter Customer ID");
 
       // fname
       do{
@@ -338,7 +1280,7 @@ public class DBProject {
       do{
           System.out.print("Enter Customer Phone Number: ");
           try{
-              phNo = Integer.parseInt(in.readLine());
+              phNo = Long.parseLong(in.readLine());
               break;
           }
           catch(Exception e){
@@ -382,15 +1324,17 @@ public class DBProject {
       }while(true);
 
       try{
-        String query = "INSERT INTO Customer(customerID, fname, lName, Address, phNo, DOB, gender) VALUES (" + customerID + ", \'"  + fname + "\', \'"  + lname + "\', \'" + addr + "\', \'" + phNo + "\', \'" + dob + "\', \'" + gender + "\' );";
-        esql.executeUpdate(query);
+        if (customerID == null)
+           System.out.println("Customer ID: " + server(esql, "A generated customer ID").addCustomer(fname, lname, addr, phNo, dob, gender));
+        else
+           esql.addCustomer(customerID, fname, lname, addr, phNo, dob, gender);
       }
       catch(Exception e){
         System.err.print("Query failed: " + e.getMessage());
       }
    }//end addCustomer*/
 
-   public static void addRoom(DBProject esql){ // steph
+   public static void addRoom(HotelStore esql){ // steph
     // Given room details add the room in the DB
     int HotelID;
     int roomNum;
@@ -436,15 +1380,14 @@ public class DBProject {
        }
     }while(true);
     try{
-       String query = "INSERT INTO Room (hotelID, roomNo, roomType) VALUES (" + HotelID + ", \'" + roomNum +"\', \'" + roomtype + "\')";
-       esql.executeQuery(query);
+       esql.addRoom(HotelID, roomNum, roomtype);
     }
     catch(Exception e){
        System.err.println(e.getMessage());
     }
    }//end addRoom
 
-   public static void addMaintenanceCompany(DBProject esql){ // me = DONE 
+   public static void addMaintenanceCompany(HotelStore esql){ // me = DONE 
       // Given maintenance Company details add the maintenance company in the DB
       
        /* cmpID Numeric NOT NULL,
@@ -452,23 +1395,13 @@ public class DBProject {
         address TEXT,
         isCertified Boolean NOT NULL*/
 
-        int cmpID;
+        Integer cmpID;
         String name;
         String addr;
        Boolean isCertified;
 
         //cmpID
-         do{
-          System.out.print("Enter Maintenance Company ID: ");
-          try{
-              cmpID = Integer.parseInt(in.readLine());
-              break;
-          }
-          catch(Exception e){
-              System.out.print("Input is invalid. " + e.getMessage());
-              continue;
-          }
-      }while(true);
+         cmpID = readOptionalID("Enter Maintenance Company ID");
         //name
          do{
           System.out.print("Enter Maintenance Company name: ");
@@ -518,16 +1451,17 @@ public class DBProject {
           }
       }while(true);
        try{
-        String query = "INSERT INTO MaintenanceCompany(cmpID, name, address, isCertified) VALUES (" + cmpID + ", \'" + name + "\', \'" + addr + "\',\'" + isCertified + "\' );";
-        
-         esql.executeUpdate(query);
+         if (cmpID == null)
+            System.out.println("Maintenance Company ID: " + server(esql, "A generated company ID").addMaintenanceCompany(name, addr, isCertified));
+         else
+            esql.addMaintenanceCompany(cmpID, name, addr, isCertified);
       }
       catch(Exception e){
         System.err.print("Query failed: " + e.getMessage());
       }
    }//end addMaintenanceCompany
 
-   public static void addRepair(DBProject esql){ // steph
+   public static void addRepair(HotelStore esql){ // steph
     // Given repair details add repair in the DB
     /*
       rID Numeric NOT NULL,
@@ -539,25 +1473,15 @@ public class DBProject {
       repairType CHAR(10),
     */
 
-      int rID;
+      Integer rID;
       int HotelID;
       int roomNo;
       int mCompany;
-      Date repairDate;
+      LocalDate repairDate;
       String description;
       String repairType;
 
-      do{
-         System.out.print("Enter Repair ID: ");
-         try{
-             rID = Integer.parseInt(in.readLine());
-             break;
-         }
-         catch(Exception e){
-            System.out.print("Input is invalid. " + e.getMessage());
-            continue;
-         }
-      }while(true);
+      rID = readOptionalID("Enter Repair ID");
 
       do{
          System.out.print("Enter Hotel ID: ");
@@ -596,10 +1520,9 @@ public class DBProject {
       }while(true);
 
       do{
-        System.out.print("Enter Repair Date: ");
+        System.out.print("Enter Repair Date (MM/DD/YYYY): ");
         try{
-           SimpleDateFormat dateFormat = new SimpleDateFormat("mm/dd/yyyy");
-           repairDate = dateFormat.parse(in.readLine());
+           repairDate = Dates.parse(in.readLine());
            break;
         }
         catch(Exception e){
@@ -636,8 +1559,11 @@ public class DBProject {
       }while(true);
 
       try{
-         String query = "INSERT INTO Repair(rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (" + rID + ", \'" + HotelID + "\',\'" + roomNo  + "\',\'" + mCompany + "\',\'" + repairDate + "\',\'" + description + "\',\'" + repairType + "\' );";
-         esql.executeQuery(query);
+         java.sql.Date day = Dates.sql(repairDate);
+         if (rID == null)
+            System.out.println("Repair ID: " + server(esql, "A generated repair ID").addRepair(HotelID, roomNo, mCompany, day, description, repairType));
+         else
+            esql.addRepair(rID, HotelID, roomNo, mCompany, day, description, repairType);
       }
       catch(Exception e){
          System.err.println(e.getMessage());
@@ -645,7 +1571,7 @@ public class DBProject {
 
    }//end addRepair
 
-   public static void bookRoom(DBProject esql){   // me = DONE 
+   public static void bookRoom(HotelStore esql){   // me = DONE 
     // Given hotelID, roomNo and customer Name create a booking in the DB 
       /*
       bID Numeric NOT NULL,
@@ -656,22 +1582,13 @@ public class DBProject {
       noOfPeople Numeric,
       price Numeric(6,2) NOT NULL,
       */
-      int bID, customer, hotelID, roomNo, noOfPeople;
+      Integer bID;
+      int customer, hotelID, roomNo, noOfPeople;
       double price;
       String bookingDate;
 
        //bID
-         do{
-          System.out.print("Enter Booking ID: ");
-          try{
-              bID = Integer.parseInt(in.readLine());
-              break;
-          }
-          catch(Exception e){
-              System.out.print("Input is invalid. " + e.getMessage());
-              continue;
-          }
-      }while(true);
+         bID = readOptionalID("Enter Booking ID");
       
        //customer
          do{
@@ -764,33 +1681,25 @@ public class DBProject {
       }while(true);
 
       try{
-        String query = "INSERT INTO Booking(bID, hotelID, roomNo, bookingDate, noOfPeople, price) VALUES (" + bID+ ", \'" + hotelID + "\', \'" + roomNo + "\',\'" + bookingDate + "\',\'"  + noOfPeople + "\', \'" + price + "\');";
-        
-         esql.executeUpdate(query);
+         if (bID == null){
+            bID = server(esql, "A generated booking ID").bookRoom(customer, hotelID, roomNo, bookingDate, noOfPeople, price);
+            System.out.println(bID == BookingEngine.TAKEN ? "The room is already booked that day" : "Booking ID: " + bID);
+         }else
+            esql.bookRoom(new BookingRequest(bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price));
       }
       catch(Exception e){
         System.err.print("Query failed: " + e.getMessage());
       }
    }//end bookRoom
 
-   public static void assignHouseCleaningToRoom(DBProject esql){ //steph 
+   public static void assignHouseCleaningToRoom(HotelStore esql){ //steph 
     // Given Staff SSN, HotelID, roomNo Assign the staff to the room 
-      int asgID;
+      Integer asgID;
       int SSN;
       int HotelID;
       int roomNum;
 
-      do{
-         System.out.print("Enter Assignment ID: ");
-         try{
-             asgID = Integer.parseInt(in.readLine());
-             break;
-         }
-         catch(Exception e){
-            System.out.print("Input is invalid. " + e.getMessage());
-            continue;
-         }
-      }while(true);
+      asgID = readOptionalID("Enter Assignment ID");
 
       do{
          System.out.print("Enter Staff SSN: ");
@@ -829,35 +1738,28 @@ public class DBProject {
       }while(true);
 
       try{
-         String query = "INSERT INTO Assigned(asgID, staffID, hotelID, roomNo) VALUES (" + asgID + ",\'" + SSN + "\',\'" + HotelID + "\',\'" + roomNum + "\' );";
-         esql.executeQuery(query);
+         if (asgID == null)
+            System.out.println("Assignment ID: " + server(esql, "A generated assignment ID").assignHouseCleaningToRoom(SSN, HotelID, roomNum));
+         else
+            esql.assignHouseCleaningToRoom(asgID, SSN, HotelID, roomNum);
       }
       catch(Exception e){
          System.err.println(e.getMessage());
       }
    }//end assignHouseCleaningToRoom
    
-   public static void repairRequest(DBProject esql){  // me = DONE 
+   public static void repairRequest(HotelStore esql){  // me = DONE 
     // Given a hotelID, Staff SSN, roomNo, repairID , date create a repair request in the DB
       
       //int hotelID, SSN, roomNo,rID;
       //String repairDate;
       
-      int reqID,managerID, repairID;
+      Integer reqID;
+      int managerID, repairID;
       String requestDate, description;
 
       //reqID
-       do{
-          System.out.print("Enter Request ID: ");
-          try{
-              reqID = Integer.parseInt(in.readLine());
-              break;
-          }
-          catch(Exception e){
-              System.out.print("Input is invalid. " + e.getMessage());
-              continue;
-          }
-      }while(true);
+       reqID = readOptionalID("Enter Request ID");
 
 
       //managerID
@@ -918,15 +1820,17 @@ public class DBProject {
       }while(true);
 
       try{
-        String query = "INSERT INTO Request(reqID, managerID, repairID, requestDate, description) VALUES (" + reqID+ ", \'" + managerID + "\', \'" + repairID + "\',\'" + requestDate + "\',\'"  + description + "\');";
-         esql.executeUpdate(query);
+         if (reqID == null)
+            System.out.println("Request ID: " + server(esql, "A generated request ID").repairRequest(managerID, repairID, requestDate, description));
+         else
+            esql.repairRequest(reqID, managerID, repairID, requestDate, description);
       }
       catch(Exception e){
         System.err.print("Query failed: " + e.getMessage());
       }
    }//end repairRequest
    
-   public static void numberOfAvailableRooms(DBProject esql){ // steph
+   public static void numberOfAvailableRooms(HotelStore esql){ // steph
     // Given a hotelID, get the count of rooms available 
       int hotelID;
 
@@ -942,8 +1846,7 @@ public class DBProject {
          }
       }while(true);
       try{
-         String query = "SELECT COUNT(*) FROM Room r WHERE r.hotelID='" + hotelID + "' AND r.roomNo NOT IN (SELECT b.roomNo FROM Booking b WHERE b.hotelID = '" + hotelID + "');";
-         esql.executeQuery(query);
+         esql.numberOfAvailableRooms(hotelID, ResultSinks.stdout());
       }
       catch(Exception e){
          System.err.println(e.getMessage());
@@ -951,7 +1854,7 @@ public class DBProject {
    }//end numberOfAvailableRooms
 
    
-  public static void numberOfBookedRooms(DBProject esql){ // me = DONE 
+  public static void numberOfBookedRooms(HotelStore esql){ // me = DONE 
     // Given a hotelID, get the count of rooms booked
       int hotelID;
       
@@ -970,8 +1873,7 @@ public class DBProject {
 
       try{
 
-        String query = "SELECT B.hotelID, COUNT(B.roomNo) FROM  Booking B WHERE B.hotelID = "  + hotelID + " GROUP BY B.hotelID";
-         int bookedRoom = esql.executeQuery(query);
+         int bookedRoom = esql.numberOfBookedRooms(hotelID, ResultSinks.stdout());
          System.out.println ("Number of Booked Rooms: " + bookedRoom);
 
         //String query = "SELECT FROM *;";
@@ -985,11 +1887,10 @@ public class DBProject {
 
    }//end numberOfBookedRooms
    
-   public static void listHotelRoomBookingsForAWeek(DBProject esql){ // steph
+   public static void listHotelRoomBookingsForAWeek(HotelStore esql){ // steph
     // Given a hotelID, date - list all the rooms available for a week(including the input date) 
       int hotelID;
-      Date date;
-      String newDate;
+      LocalDate date;
       do{
          System.out.print("Enter Hotel ID: ");
          try{
@@ -1003,14 +1904,9 @@ public class DBProject {
       }while(true);
 
        do{
-        System.out.print("Enter Date: ");
+        System.out.print("Enter Date (MM/DD/YYYY): ");
         try{
-           SimpleDateFormat dateFormat = new SimpleDateFormat("mm/dd/yyyy");
-           date = dateFormat.parse(in.readLine());
-           Calendar c = Calendar.getInstance();
-           c.setTime(date);
-           c.add(Calendar.DATE, 7);
-           newDate = dateFormat.format(c.getTime());
+           date = Dates.parse(in.readLine());
            break;
         }
         catch(Exception e){
@@ -1020,17 +1916,17 @@ public class DBProject {
       }while(true);
 
        try{
-         String query = "SELECT * FROM Room r WHERE r.hotelID='" + hotelID + "' AND r.roomNo NOT IN (SELECT b.roomNo FROM Booking b WHERE b.hotelID='" + hotelID + "' AND b.bookingDate BETWEEN'" + date +"' AND '" + newDate + "');";
-         esql.executeQuery(query);
+         esql.listHotelRoomBookingsForAWeek(hotelID, date, ResultSinks.stdout());
       }
       catch(Exception e){
          System.err.println(e.getMessage());
       }
    }//end listHotelRoomBookingsForAWeek
    
-   public static void topKHighestRoomPriceForADateRange(DBProject esql){ // me = TO DO 
+   public static void topKHighestRoomPriceForADateRange(HotelStore esql){ // me = TO DO 
     // List Top K Rooms with the highest price for a given date range 
-      String firstDate, secondDate, range;
+      String firstDate, secondDate;
+      int range;
 
       //first date
       do{
@@ -1072,7 +1968,7 @@ public class DBProject {
       do{
         System.out.print("Enter range (not 0): ");
         try{
-          range = in.readLine();
+          range = Integer.parseInt(in.readLine());
           break;
         }
         catch(Exception e){
@@ -1086,8 +1982,7 @@ public class DBProject {
       
       try{
         //String query = "SELECT R.roomNo, MAX(B.price) FROM Room R, Booking B WHERE R.roomNo = B.roomNo  AND R.hotelID = B.HotelID GROUP BY R.roomNo ORDER BY MAX(B.price) DESC LIMIT " + range + ";";
-        String query = "SELECT R.roomNo, B.price FROM Booking B, Room R WHERE B.bookingDate >= ' "+firstDate + " ' AND B.bookingDate <= '" + secondDate + "' ORDER BY B.price DESC LIMIT '" + range + "';";
-        esql.executeQuery(query);
+        esql.topKHighestRoomPriceForADateRange(DateRange.parse(firstDate, secondDate), range, ResultSinks.stdout());
         //System.out.println ("Number of Booked Rooms: " );
       }
       catch(Exception e){
@@ -1097,7 +1992,7 @@ public class DBProject {
 
    }//end topKHighestRoomPriceForADateRange
    
-   public static void topKHighestPriceBookingsForACustomer(DBProject esql){ // steph
+   public static void topKHighestPriceBookingsForACustomer(HotelStore esql){ // steph
     // Given a customer Name, List Top K highest booking price for a customer 
       String fName;
       String lName;
@@ -1146,15 +2041,14 @@ public class DBProject {
       }while(true);
 
       try{
-         String query = "SELECT b.price FROM Customer c, Booking b WHERE c.fName='" + fName + "' AND c.lName='" + lName + "' AND c.customerID=b.customer ORDER BY b.price DESC LIMIT '" + k + "';";
-         esql.executeQuery(query);
+         esql.topKHighestPriceBookingsForACustomer(fName, lName, k, ResultSinks.stdout());
       }
       catch(Exception e){
          System.err.println(e.getMessage());
       }
    }//end topKHighestPriceBookingsForACustomer
    
-   public static void totalCostForCustomer(DBProject esql){  // me = TO DO 
+   public static void totalCostForCustomer(HotelStore esql){  // me = TO DO 
     // Given a hotelID, customer Name and date range get the total cost incurred by the customer
       int hotelID, customerID;
       String firstDate,secondDate;
@@ -1226,8 +2120,7 @@ public class DBProject {
 
       try{
         //String query = "SELECT R.roomNo, MAX(B.price) FROM Room R, Booking B WHERE R.roomNo = B.roomNo  AND R.hotelID = B.HotelID GROUP BY R.roomNo ORDER BY MAX(B.price) DESC LIMIT " + range + ";";
-        String query = "SELECT C.customerID, SUM(B.price) FROM Customer C, Booking B WHERE C.customerID = '" + customerID + "' AND B.hotelID = '" + hotelID +"'AND B.bookingDate >= '" + firstDate + "' AND B.bookingDate <= '" + secondDate + "' GROUP BY C.customerID; ";
-        esql.executeQuery(query);
+        esql.totalCostForCustomer(hotelID, customerID, DateRange.parse(firstDate, secondDate), ResultSinks.stdout());
         //System.out.println ("Number of Booked Rooms: " );
       }
       catch(Exception e){
@@ -1236,7 +2129,7 @@ public class DBProject {
       // total cost of customer id  per booking for the date range
    }//end totalCostForCustomer
    
-   public static void listRepairsMade(DBProject esql){ //steph
+   public static void listRepairsMade(HotelStore esql){ //steph
     // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
       String name;
 
@@ -1253,23 +2146,22 @@ public class DBProject {
       }while(true);
 
       try{
-         String query = "SELECT r.description, r.repairType, o.hotelID, o.roomNo FROM Repair r, Room o, MaintenanceCompany m WHERE m.name='" + name + "'AND r.mCompany=m.cmpID AND r.roomNo=o.roomNo AND r.hotelID=o.hotelID;";
-         esql.executeQuery(query);
+         esql.listRepairsMade(name, ResultSinks.stdout());
       }
       catch(Exception e){
          System.err.println(e.getMessage());
       }
    }//end listRepairsMade
    
-   public static void topKMaintenanceCompany(DBProject esql){ // me = DONE  
+   public static void topKMaintenanceCompany(HotelStore esql){ // me = DONE  
     // List Top K Maintenance Company Names based on total repair count (descending order)
-      String range;
+      int range;
 
       //range
       do{
         System.out.print("Enter range (not 0): ");
         try{
-          range = in.readLine();
+          range = Integer.parseInt(in.readLine());
           break;
         }
         catch(Exception e){
@@ -1278,15 +2170,14 @@ public class DBProject {
           }
       }while(true);
       try{
-        String query = "SELECT M.name, COUNT(R.rID) FROM  MaintenanceCompany M, Repair R WHERE M.cmpID = R.mCompany GROUP BY M.name ORDER BY COUNT(r.rID) DESC LIMIT " + range + ";";
-        esql.executeQuery(query); 
+        esql.topKMaintenanceCompany(range, ResultSinks.stdout());
       }
       catch(Exception e){
         System.err.print("Query failed: " + e.getMessage());
       }
    }//end topKMaintenanceCompany
    
-   public static void numberOfRepairsForEachRoomPerYear(DBProject esql){ // steph
+   public static void numberOfRepairsForEachRoomPerYear(HotelStore esql){ // steph
     // Given a hotelID, roomNo, get the count of repairs per year
       int hotelID;
       int roomNo;
@@ -1316,8 +2207,7 @@ public class DBProject {
       }while(true);
 
       try{
-         String query = "SELECT EXTRACT (year FROM r.repairDate) as \"Year\", COUNT(r.rid) FROM Repair r WHERE r.hotelID='" + hotelID + "' AND r.roomNo='" + roomNo + "' GROUP BY \"Year\" ORDER BY COUNT ASC;";
-         esql.executeQuery(query);
+         esql.numberOfRepairsForEachRoomPerYear(hotelID, roomNo, ResultSinks.stdout());
       }
       catch(Exception e){
          System.err.println(e.getMessage());
@@ -0,0 +1,163 @@
+/*
+ * Data Scaler
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a copy of the Phase3/data files multiplied by a scale factor.
+ * Copy c of every row has its keys shifted by c times the key range of the
+ * original file, and its foreign keys shifted the same way, so the scaled
+ * data set loads with all constraints intact: copy 1 of hotel 7 owns copy 1
+ * of hotel 7's rooms, bookings and staff.
+ *
+ * With history, copy c also has its booking, repair and request dates moved
+ * c times 19 years (the span of the original data) into the past, so the
+ * rows per day stay the same and only the history grows.
+ *
+ * Usage: java DataScaler <data dir> <output dir> <scale> [history]
+ */
+public class DataScaler {
+
+   /*
+    * Which columns of a file hold keys, and of which key space.
+    */
+   private static class Layout {
+      final String file;
+      final String[] keyOf; // per column: key space name, DATE or null
+
+      Layout (String file, String... keyOf) {
+         this.file = file;
+         this.keyOf = keyOf;
+      }//end Layout
+   }//end Layout
+
+   // marks a date column in a layout
+   private static final String DATE = "date";
+   // years between the history copies
+   private static final int HISTORY_YEARS = 19;
+
+   private static final Layout[] LAYOUTS = {
+      new Layout("hotel.csv", "hotel", null, "staff"),
+      new Layout("staff.csv", "staff", null, null, null, null, "hotel"),
+      new Layout("room.csv", "hotel", null, null),
+      new Layout("customer.csv", "customer", null, null, null, null, null, null),
+      new Layout("maintenanceCompany.csv", "company", null, null, null),
+      new Layout("booking.csv", "booking", "customer", "hotel", null, DATE, null, null),
+      new Layout("repair.csv", "repair", "hotel", null, "company", DATE, null, null),
+      new Layout("request.csv", "request", "staff", "repair", DATE, null),
+      new Layout("assigned.csv", "assigned", "staff", "hotel", null),
+   };
+
+   // the file and column defining the size of each key space
+   private static final String[][] KEY_SPACES = {
+      { "hotel", "hotel.csv" }, { "staff", "staff.csv" }, { "customer", "customer.csv" },
+      { "company", "maintenanceCompany.csv" }, { "booking", "booking.csv" },
+      { "repair", "repair.csv" }, { "request", "request.csv" }, { "assigned", "assigned.csv" },
+   };
+
+   private DataScaler () {
+   }//end DataScaler
+
+   /**
+    * Writes every data file of in, scaled, to out.
+    *
+    * @param in the directory holding the original csv files
+    * @param out the directory to write (created if needed)
+    * @param scale how many copies of the data to write (1 copies as is)
+    */
+   public static void scale (File in, File out, int scale) throws IOException {
+      scale(in, out, scale, false);
+   }//end scale
+
+   /**
+    * Writes every data file of in, scaled, to out.
+    *
+    * @param history also spread the copies over the past, one per 19 years
+    */
+   public static void scale (File in, File out, int scale, boolean history) throws IOException {
+      if (!out.isDirectory() && !out.mkdirs()) throw new IOException("Cannot create " + out);
+
+      // key range of each key space: max key + 1 of its defining file
+      Map<String, Long> span = new HashMap<String, Long>();
+      for (String[] ks : KEY_SPACES) span.put(ks[0], maxFirstColumn(new File(in, ks[1])) + 1);
+
+      for (Layout l : LAYOUTS) {
+         BufferedWriter w = new BufferedWriter(new FileWriter(new File(out, l.file)), 65536);
+         try {
+            for (int copy = 0; copy < scale; ++copy) {
+               BufferedReader r = new BufferedReader(new FileReader(new File(in, l.file)), 65536);
+               try {
+                  String line;
+                  while ((line = r.readLine()) != null) {
+                     if (line.length() == 0) continue;
+                     w.write(copy == 0 ? line : shift(line, l, span, copy, history));
+                     w.write('\n');
+                  }//end while
+               }finally {
+                  r.close();
+               }//end try
+            }//end for
+         }finally {
+            w.close();
+         }//end try
+      }//end for
+   }//end scale
+
+   private static String shift (String line, Layout l, Map<String, Long> span, int copy, boolean history) {
+      String[] f = line.split(",", -1);
+      StringBuilder sb = new StringBuilder(line.length() + 16);
+      for (int i = 0; i < f.length; ++i) {
+         if (i > 0) sb.append(',');
+         String ks = i < l.keyOf.length ? l.keyOf[i] : null;
+         if (ks == null || f[i].equals("\\N")) sb.append(f[i]);
+         else if (ks.equals(DATE)) sb.append(history ? LocalDate.parse(f[i].trim(), Dates.USER)
+                                                          .minusYears((long) copy * HISTORY_YEARS).format(Dates.USER)
+                                                : f[i]);
+         else sb.append(Long.parseLong(f[i].trim()) + copy * span.get(ks));
+      }//end for
+      return sb.toString();
+   }//end shift
+
+   private static long maxFirstColumn (File f) throws IOException {
+      long max = 0;
+      BufferedReader r = new BufferedReader(new FileReader(f));
+      try {
+         String line;
+         while ((line = r.readLine()) != null) {
+            int comma = line.indexOf(',');
+            if (comma > 0) max = Math.max(max, Long.parseLong(line.substring(0, comma).trim()));
+         }//end while
+      }finally {
+         r.close();
+      }//end try
+      return max;
+   }//end maxFirstColumn
+
+   public static void main (String[] args) throws IOException {
+      if (args.length < 3) {
+         System.err.println("Usage: java DataScaler <data dir> <output dir> <scale> [history]");
+         return;
+      }//end if
+      scale(new File(args[0]), new File(args[1]), Integer.parseInt(args[2]),
+            args.length > 3 && args[3].equals("history"));
+   }//end main
+
+}//end DataScaler
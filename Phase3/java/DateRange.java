@@ -0,0 +1,96 @@
+/*
+ * Date Range
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The days from first to last, both included, as the range reports take
+ * them.  Queries bind it half open, date &gt;= {@link #from()} AND date &lt;
+ * {@link #until()}, which reads one index range and needs no end-of-day
+ * arithmetic.  Immutable.
+ */
+public final class DateRange {
+
+   public final LocalDate first, last;
+
+   private DateRange (LocalDate first, LocalDate last) {
+      this.first = first;
+      this.last = last;
+   }//end DateRange
+
+   /**
+    * @throws IllegalArgumentException when last is before first
+    */
+   public static DateRange of (LocalDate first, LocalDate last) {
+      if (last.isBefore(first)) throw new IllegalArgumentException("Range ends " + last + " before it starts " + first);
+      return new DateRange(first, last);
+   }//end of
+
+   /**
+    * @return the given number of days starting at first
+    */
+   public static DateRange days (LocalDate first, int days) {
+      return of(first, first.plusDays(Math.max(1, days) - 1));
+   }//end days
+
+   /**
+    * Reads a range typed as two MM/DD/YYYY dates.
+    *
+    * @throws java.sql.SQLException when a date is invalid or the range ends
+    *         before it starts
+    */
+   public static DateRange parse (String first, String last) throws SQLException {
+      LocalDate a = Dates.parse(first), b = Dates.parse(last);
+      if (b.isBefore(a)) throw new SQLException("The range ends " + last + " before it starts " + first);
+      return new DateRange(a, b);
+   }//end parse
+
+   /**
+    * @return the first day, as the inclusive lower bound
+    */
+   public java.sql.Date from () {
+      return Dates.sql(this.first);
+   }//end from
+
+   /**
+    * @return the day after the last, as the exclusive upper bound
+    */
+   public java.sql.Date until () {
+      return Dates.sql(this.last.plusDays(1));
+   }//end until
+
+   public boolean contains (LocalDate d) {
+      return !d.isBefore(this.first) && !d.isAfter(this.last);
+   }//end contains
+
+   public long lengthInDays () {
+      return ChronoUnit.DAYS.between(this.first, this.last) + 1;
+   }//end lengthInDays
+
+   public boolean equals (Object o) {
+      if (!(o instanceof DateRange)) return false;
+      DateRange r = (DateRange) o;
+      return this.first.equals(r.first) && this.last.equals(r.last);
+   }//end equals
+
+   public int hashCode () {
+      return this.first.hashCode() * 31 + this.last.hashCode();
+   }//end hashCode
+
+   public String toString () {
+      return Dates.format(this.first) + "-" + Dates.format(this.last);
+   }//end toString
+
+}//end DateRange
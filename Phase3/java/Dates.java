@@ -0,0 +1,91 @@
+/*
+ * Dates
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * The one place dates are read, written and bound.  Users type MM/DD/YYYY
+ * (leading zeros optional); the operations work on LocalDate and bind
+ * java.sql.Date, so the server compares dates with dates and never parses
+ * text.  The formatter is immutable and shared by every thread.
+ */
+public final class Dates {
+
+   /**
+    * MM/DD/YYYY as typed at the prompts and in the data files.  Strict, so
+    * 2/30/2015 is refused rather than read as 2/28; strict resolution needs
+    * the proleptic year (u), as yyyy is a year of era.
+    */
+   public static final DateTimeFormatter USER =
+      DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+   private Dates () {
+   }//end Dates
+
+   /**
+    * @throws java.sql.SQLException when the text is not a MM/DD/YYYY date
+    */
+   public static LocalDate parse (String date) throws SQLException {
+      LocalDate d = parseOrNull(date);
+      if (d == null) throw new SQLException("Invalid date " + date + ", expected MM/DD/YYYY");
+      return d;
+   }//end parse
+
+   /**
+    * @return the date, or null when the text is not a MM/DD/YYYY date
+    */
+   public static LocalDate parseOrNull (String date) {
+      if (date == null) return null;
+      try {
+         return LocalDate.parse(date.trim(), USER);
+      }catch (DateTimeParseException e) {
+         return null;
+      }//end try
+   }//end parseOrNull
+
+   /**
+    * Reads a date the way CAST(? AS DATE) does on a server with the
+    * default DateStyle: MM/DD/YYYY or YYYY-MM-DD.  For the writes that
+    * send the text as typed, so a check made before the server sees it
+    * accepts what the server would.
+    *
+    * @return the date, or null when the text is null
+    * @throws java.sql.SQLException when the server would refuse the text
+    */
+   public static LocalDate cast (String date) throws SQLException {
+      if (date == null) return null;
+      LocalDate d = parseOrNull(date);
+      if (d != null) return d;
+      try {
+         return LocalDate.parse(date.trim());
+      }catch (DateTimeParseException e) {
+         throw new SQLException("invalid input syntax for type date: \"" + date + "\"");
+      }//end try
+   }//end cast
+
+   public static String format (LocalDate date) {
+      return date.format(USER);
+   }//end format
+
+   /**
+    * @return the date as a statement parameter
+    */
+   public static java.sql.Date sql (LocalDate date) {
+      return java.sql.Date.valueOf(date);
+   }//end sql
+
+}//end Dates
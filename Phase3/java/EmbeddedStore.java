@@ -0,0 +1,848 @@
+/*
+ * Embedded Storage Engine
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The operations of the menu on files of their own, for a property that
+ * cannot run a PostgreSQL server.
+ *
+ * Each table of create.sql is a {@link RecordFile} of fixed-width records
+ * in the store's directory, with a {@link BPlusTree} on its primary key;
+ * Booking has a second, unique one on (hotelID, roomNo, bookingDate),
+ * which also finds a hotel's bookings.  Every write is logged to the
+ * {@link WriteAheadLog} before it reaches a table file; opening the store
+ * replays the log, rebuilds the indexes from the files and checkpoints.
+ * The constraints of create.sql are checked: keys, foreign keys, lengths
+ * of CHAR columns and the enum values.  TEXT columns hold up to 126 bytes
+ * and Numeric(6,2) prices are kept as cents.  Reports scan the mapped
+ * files.  One writer at a time; readers share the store.
+ *
+ *   embedded.sync              force the log at every write (true)
+ *   embedded.checkpointBytes   log size that triggers a checkpoint (8388608)
+ *
+ * Usage: java EmbeddedStore <dir> load [<data dir>] | stats
+ */
+public class EmbeddedStore implements HotelStore {
+
+   private static final int TEXT_WIDTH = 126;
+   private static final long CHECKPOINT_BYTES = Long.getLong("embedded.checkpointBytes", 8L << 20);
+
+   // days before 1970 are kept as positive offsets in the room-night key
+   private static final long DAY_BIAS = 1L << 19;
+
+   /**
+    * How a column is stored; nulls are the smallest value, or length -1.
+    */
+   enum Kind {
+      LONG (8), DATE (4), MONEY (8), BOOL (1), CHAR (2), TEXT (2);
+
+      final int fixed;
+
+      Kind (int fixed) {
+         this.fixed = fixed;
+      }//end Kind
+   }//end Kind
+
+   static class Column {
+      final String name;
+      final Kind kind;
+      final int length;        // characters of CHAR and TEXT
+      final String[] allowed;  // enum values, or null
+      int offset;
+
+      Column (String name, Kind kind, int length, String... allowed) {
+         this.name = name;
+         this.kind = kind;
+         this.length = length;
+         this.allowed = allowed.length == 0 ? null : allowed;
+      }//end Column
+
+      int width () {
+         return this.kind.fixed + (this.kind == Kind.CHAR || this.kind == Kind.TEXT ? this.length : 0);
+      }//end width
+   }//end Column
+
+   private static Column id (String name) { return new Column(name, Kind.LONG, 0); }
+   private static Column day (String name) { return new Column(name, Kind.DATE, 0); }
+   private static Column chars (String name, int n) { return new Column(name, Kind.CHAR, n); }
+   private static Column text (String name) { return new Column(name, Kind.TEXT, TEXT_WIDTH); }
+
+   /**
+    * The tables of create.sql; the ordinal numbers them in the log.
+    */
+   enum Table {
+      HOTEL ("Hotel", "hotel.csv", id("hotelID"), text("address"), id("manager")),
+      STAFF ("Staff", "staff.csv", id("SSN"), chars("fName", 30), chars("lName", 30), text("address"),
+             new Column("role", Kind.TEXT, 16, "Receptionist", "HouseCleaning", "Manager"), id("employerID")),
+      ROOM ("Room", "room.csv", id("hotelID"), id("roomNo"), chars("roomType", 10)),
+      CUSTOMER ("Customer", "customer.csv", id("customerID"), chars("fName", 30), chars("lName", 30),
+                text("Address"), id("phNo"), day("DOB"),
+                new Column("gender", Kind.TEXT, 8, "Male", "Female", "Other")),
+      COMPANY ("MaintenanceCompany", "maintenanceCompany.csv", id("cmpID"), chars("name", 30), text("address"),
+               new Column("isCertified", Kind.BOOL, 0)),
+      BOOKING ("Booking", "booking.csv", id("bID"), id("customer"), id("hotelID"), id("roomNo"),
+               day("bookingDate"), id("noOfPeople"), new Column("price", Kind.MONEY, 0)),
+      REPAIR ("Repair", "repair.csv", id("rID"), id("hotelID"), id("roomNo"), id("mCompany"), day("repairDate"),
+              text("description"), chars("repairType", 10)),
+      REQUEST ("Request", "request.csv", id("reqID"), id("managerID"), id("repairID"), day("requestDate"),
+               text("description")),
+      ASSIGNED ("Assigned", "assigned.csv", id("asgID"), id("staffID"), id("hotelID"), id("roomNo"));
+
+      final String name, file;
+      final Column[] columns;
+      final int recordSize;
+
+      Table (String name, String file, Column... columns) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+         int offset = 1; // the live flag
+         for (Column c : columns) {
+            c.offset = offset;
+            offset += c.width();
+         }//end for
+         this.recordSize = offset;
+      }//end Table
+   }//end Table
+
+   // the load order, referenced tables first
+   private static final Table[] LOAD_ORDER = { Table.HOTEL, Table.CUSTOMER, Table.COMPANY, Table.STAFF, Table.ROOM,
+                                               Table.BOOKING, Table.REPAIR, Table.ASSIGNED, Table.REQUEST };
+
+   private final File _dir;
+   private final RecordFile[] _files = new RecordFile[Table.values().length];
+   private final BPlusTree[] _primary = new BPlusTree[Table.values().length];
+   private final BPlusTree _roomNights = new BPlusTree();
+   private final WriteAheadLog _wal;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+   private final double _openMillis;
+   private int _replayed = 0;
+   private boolean _loading = false; // force the log per table, not per row
+
+   /**
+    * Opens the store in a directory, creating empty tables when there are
+    * none, and recovers the writes in the log.
+    *
+    * @throws java.sql.SQLException when the files cannot be opened
+    */
+   public EmbeddedStore (File dir) throws SQLException {
+      long start = System.nanoTime();
+      this._dir = dir;
+      try {
+         if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+         for (Table t : Table.values())
+            this._files[t.ordinal()] = new RecordFile(new File(dir, t.name + ".tbl"), t.recordSize);
+         this._wal = new WriteAheadLog(new File(dir, "wal.log"), !"false".equals(System.getProperty("embedded.sync")));
+         for (WriteAheadLog.Entry e : this._wal.entries()) {
+            this._files[e.table].write(e.slot, e.record);
+            ++this._replayed;
+         }//end for
+         for (Table t : Table.values()) index(t);
+         if (this._replayed > 0 || this._wal.size() > 0) checkpoint();
+      }catch (IOException e) {
+         throw new SQLException("Unable to open the store in " + dir + ": " + e.getMessage());
+      }//end try
+      this._openMillis = (System.nanoTime() - start) / 1e6;
+   }//end EmbeddedStore
+
+   /*
+    * Builds the indexes of a table from its file.
+    */
+   private void index (Table t) throws IOException {
+      BPlusTree pk = new BPlusTree();
+      RecordFile f = this._files[t.ordinal()];
+      for (int slot = 0; slot < f.count(); ++slot) {
+         if (f.buffer().get(f.offset(slot)) == 0) continue;
+         try {
+            if (!pk.insert(primaryKey(t, slot), slot)) throw new IOException(t.name + " holds a key twice");
+            if (t == Table.BOOKING)
+               this._roomNights.insert(night(getLong(t, slot, 2), getLong(t, slot, 3), getDate(t, slot, 4)), slot);
+         }catch (SQLException e) {
+            throw new IOException(e.getMessage());
+         }//end try
+      }//end for
+      this._primary[t.ordinal()] = pk;
+   }//end index
+
+   private long primaryKey (Table t, int slot) throws SQLException {
+      return t == Table.ROOM ? roomKey(getLong(t, slot, 0), getLong(t, slot, 1)) : getLong(t, slot, 0);
+   }//end primaryKey
+
+   private static long roomKey (long hotelID, long roomNo) throws SQLException {
+      if (hotelID < 0 || hotelID > Integer.MAX_VALUE || roomNo < 0 || roomNo > Integer.MAX_VALUE)
+         throw new SQLException("room " + hotelID + "/" + roomNo + " is out of the embedded store's range");
+      return (hotelID << 32) | roomNo;
+   }//end roomKey
+
+   /*
+    * The room-night key: 23 bits of hotel, 20 of room and 20 of day.
+    */
+   private static long night (long hotelID, long roomNo, long epochDay) throws SQLException {
+      long day = epochDay + DAY_BIAS;
+      if (hotelID < 0 || hotelID >= 1L << 23 || roomNo < 0 || roomNo >= 1L << 20 || day < 0 || day >= 1L << 20)
+         throw new SQLException("booking " + hotelID + "/" + roomNo + " on day " + epochDay +
+                                " is out of the embedded store's range");
+      return (hotelID << 40) | (roomNo << 20) | day;
+   }//end night
+
+   /*
+    * Reading columns from the mapped files.
+    */
+
+   private long getLong (Table t, int slot, int column) {
+      RecordFile f = this._files[t.ordinal()];
+      return f.buffer().getLong(f.offset(slot) + t.columns[column].offset);
+   }//end getLong
+
+   private int getDate (Table t, int slot, int column) {
+      RecordFile f = this._files[t.ordinal()];
+      return f.buffer().getInt(f.offset(slot) + t.columns[column].offset);
+   }//end getDate
+
+   /*
+    * The column as the server prints it: CHAR padded to its length,
+    * booleans as t/f, prices with two decimals; null for NULL.
+    */
+   private String getText (Table t, int slot, int column) {
+      RecordFile f = this._files[t.ordinal()];
+      Column c = t.columns[column];
+      int at = f.offset(slot) + c.offset;
+      ByteBuffer buf = f.buffer();
+      switch (c.kind) {
+      case LONG:
+         long v = buf.getLong(at);
+         return v == Long.MIN_VALUE ? null : String.valueOf(v);
+      case MONEY:
+         long cents = buf.getLong(at);
+         return cents == Long.MIN_VALUE ? null : BigDecimal.valueOf(cents, 2).toPlainString();
+      case DATE:
+         int day = buf.getInt(at);
+         return day == Integer.MIN_VALUE ? null : LocalDate.ofEpochDay(day).toString();
+      case BOOL:
+         byte b = buf.get(at);
+         return b < 0 ? null : (b == 1 ? "t" : "f");
+      default:
+         short length = buf.getShort(at);
+         if (length < 0) return null;
+         byte[] bytes = new byte[length];
+         for (int i = 0; i < length; ++i) bytes[i] = buf.get(at + 2 + i);
+         String s = new String(bytes, StandardCharsets.UTF_8);
+         if (c.kind == Kind.CHAR) {
+            StringBuilder sb = new StringBuilder(s);
+            while (sb.length() < c.length) sb.append(' ');
+            s = sb.toString();
+         }//end if
+         return s;
+      }//end switch
+   }//end getText
+
+   /*
+    * Encodes a row of Long, LocalDate, Long cents, Boolean and String
+    * values, checking lengths and enum values.
+    */
+   private static byte[] encode (Table t, Object[] row) throws SQLException {
+      ByteBuffer buf = ByteBuffer.allocate(t.recordSize);
+      buf.put(0, (byte) 1);
+      for (int i = 0; i < t.columns.length; ++i) {
+         Column c = t.columns[i];
+         Object v = row[i];
+         int at = c.offset;
+         switch (c.kind) {
+         case LONG:
+         case MONEY:
+            buf.putLong(at, v == null ? Long.MIN_VALUE : (Long) v);
+            break;
+         case DATE:
+            buf.putInt(at, v == null ? Integer.MIN_VALUE : (int) ((LocalDate) v).toEpochDay());
+            break;
+         case BOOL:
+            buf.put(at, (byte) (v == null ? -1 : ((Boolean) v) ? 1 : 0));
+            break;
+         default:
+            if (v == null) {
+               buf.putShort(at, (short) -1);
+               break;
+            }//end if
+            String s = (String) v;
+            if (c.kind == Kind.CHAR) {
+               int end = s.length();
+               while (end > 0 && s.charAt(end - 1) == ' ') --end;
+               s = s.substring(0, end);
+            }//end if
+            if (c.allowed != null && !Arrays.asList(c.allowed).contains(s))
+               throw new SQLException("invalid input value for enum " + c.name + ": \"" + s + "\"");
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > c.length)
+               throw new SQLException("value too long for " + t.name + "." + c.name + " (" + c.length + ")");
+            buf.putShort(at, (short) bytes.length);
+            for (int j = 0; j < bytes.length; ++j) buf.put(at + 2 + j, bytes[j]);
+         }//end switch
+      }//end for
+      return buf.array();
+   }//end encode
+
+   /*
+    * Logs and applies the writes of one operation; the caller holds the
+    * write lock.
+    */
+   private void apply (List<WriteAheadLog.Entry> writes) throws SQLException {
+      try {
+         this._wal.commit(writes, !this._loading);
+         for (WriteAheadLog.Entry e : writes) this._files[e.table].write(e.slot, e.record);
+         if (this._wal.size() > CHECKPOINT_BYTES) checkpoint();
+      }catch (IOException e) {
+         throw new SQLException("Unable to write the store: " + e.getMessage());
+      }//end try
+   }//end apply
+
+   /*
+    * Inserts a row after checking its keys; foreign keys are checked by
+    * the caller.
+    */
+   private void insert (Table t, Object... row) throws SQLException {
+      byte[] record = encode(t, row);
+      int slot = this._files[t.ordinal()].count();
+      long key = t == Table.ROOM ? roomKey((Long) row[0], (Long) row[1]) : (Long) row[0];
+      BPlusTree pk = this._primary[t.ordinal()];
+      if (pk.contains(key))
+         throw new SQLException("duplicate key value violates unique constraint on " + t.name + "(" +
+                                t.columns[0].name + (t == Table.ROOM ? ", roomNo" : "") + ")");
+      long roomNight = 0;
+      if (t == Table.BOOKING) {
+         roomNight = night((Long) row[2], (Long) row[3], ((LocalDate) row[4]).toEpochDay());
+         if (this._roomNights.contains(roomNight))
+            throw new SQLException("duplicate key value violates unique constraint \"bookingroomnight\"");
+      }//end if
+      List<WriteAheadLog.Entry> writes = new ArrayList<WriteAheadLog.Entry>();
+      writes.add(new WriteAheadLog.Entry(t.ordinal(), slot, record));
+      apply(writes);
+      pk.insert(key, slot);
+      if (t == Table.BOOKING) this._roomNights.insert(roomNight, slot);
+   }//end insert
+
+   private void requireKey (Table t, long key, String constraint) throws SQLException {
+      if (!this._primary[t.ordinal()].contains(key))
+         throw new SQLException("insert or update violates foreign key constraint \"" + constraint + "\"");
+   }//end requireKey
+
+   private void requireRoom (long hotelID, long roomNo, String constraint) throws SQLException {
+      requireKey(Table.ROOM, roomKey(hotelID, roomNo), constraint);
+   }//end requireRoom
+
+   /*
+    * A date as the server casts it: MM/DD/YYYY or YYYY-MM-DD.
+    */
+   private static LocalDate date (String text) throws SQLException {
+      return Dates.cast(text);
+   }//end date
+
+   /*
+    * A Numeric(6,2) in cents.
+    */
+   private static Long cents (BigDecimal price) throws SQLException {
+      BigDecimal c = price.setScale(2, RoundingMode.HALF_UP);
+      if (c.abs().compareTo(new BigDecimal("9999.99")) > 0) throw new SQLException("numeric field overflow");
+      return c.unscaledValue().longValue();
+   }//end cents
+
+   /*
+    * The writes: the checks of create.sql, then the insert.
+    */
+
+   public void addCustomer (int customerID, String fName, String lName, String address, long phNo, String dob,
+                            String gender) throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         insert(Table.CUSTOMER, (long) customerID, fName, lName, address, phNo, date(dob), gender);
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addCustomer
+
+   public void addRoom (int hotelID, int roomNo, String roomType) throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         requireKey(Table.HOTEL, hotelID, "roomhotelconstraint");
+         insert(Table.ROOM, (long) hotelID, (long) roomNo, roomType);
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addRoom
+
+   public void addMaintenanceCompany (int cmpID, String name, String address, boolean isCertified) throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         insert(Table.COMPANY, (long) cmpID, name, address, isCertified);
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addMaintenanceCompany
+
+   public void addRepair (int rID, int hotelID, int roomNo, int mCompany, java.sql.Date repairDate,
+                          String description, String repairType) throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         requireRoom(hotelID, roomNo, "repairroomconstraint");
+         requireKey(Table.COMPANY, mCompany, "repaircompanyconstraint");
+         insert(Table.REPAIR, (long) rID, (long) hotelID, (long) roomNo, (long) mCompany,
+                repairDate == null ? null : repairDate.toLocalDate(), description, repairType);
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addRepair
+
+   public void bookRoom (BookingRequest b) throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         requireKey(Table.CUSTOMER, b.customer, "bookingcustomerconstraint");
+         requireRoom(b.hotelID, b.roomNo, "bookingroomconstraint");
+         LocalDate day = date(b.bookingDate);
+         if (day == null) throw new SQLException("null value in column \"bookingdate\"");
+         insert(Table.BOOKING, (long) b.bID, (long) b.customer, (long) b.hotelID, (long) b.roomNo, day,
+                (long) b.noOfPeople, cents(BigDecimal.valueOf(b.price)));
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end bookRoom
+
+   public void assignHouseCleaningToRoom (int asgID, int staffID, int hotelID, int roomNo) throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         requireKey(Table.STAFF, staffID, "assignedstaffconstraint");
+         requireRoom(hotelID, roomNo, "assignedroomconstraint");
+         insert(Table.ASSIGNED, (long) asgID, (long) staffID, (long) hotelID, (long) roomNo);
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   public void repairRequest (int reqID, int managerID, int repairID, String requestDate,
+                              String description) throws SQLException {
+      this._lock.writeLock().lock();
+      try {
+         requireKey(Table.STAFF, managerID, "requeststaffconstraint");
+         requireKey(Table.REPAIR, repairID, "requestrepairconstraint");
+         LocalDate day = date(requestDate);
+         if (day == null) throw new SQLException("null value in column \"requestdate\"");
+         insert(Table.REQUEST, (long) reqID, (long) managerID, (long) repairID, day, description);
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end repairRequest
+
+   /*
+    * The reports, in the shape of the Sql results.
+    */
+
+   public int numberOfAvailableRooms (int hotelID, ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         final Set<Long> booked = new HashSet<Long>();
+         this._roomNights.scan(night(hotelID, 0, -DAY_BIAS), night(hotelID + 1, 0, -DAY_BIAS), (key, slot) -> {
+            booked.add((key >>> 20) & 0xFFFFF);
+            return true;
+         });
+         final int[] count = new int[1];
+         this._primary[Table.ROOM.ordinal()].scan(roomKey(hotelID, 0), roomKey(hotelID + 1, 0), (key, slot) -> {
+            if (!booked.contains(key & 0xFFFFFFFFL)) ++count[0];
+            return true;
+         });
+         List<String[]> rows = new ArrayList<String[]>();
+         rows.add(new String[] { String.valueOf(count[0]) });
+         return write(sink, new String[] { "count" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public int numberOfBookedRooms (int hotelID, ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         final long[] count = new long[1];
+         this._roomNights.scan(night(hotelID, 0, -DAY_BIAS), night(hotelID + 1, 0, -DAY_BIAS), (key, slot) -> {
+            ++count[0];
+            return true;
+         });
+         List<String[]> rows = new ArrayList<String[]>();
+         if (count[0] > 0) rows.add(new String[] { String.valueOf(hotelID), String.valueOf(count[0]) });
+         return write(sink, new String[] { "hotelid", "count" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end numberOfBookedRooms
+
+   public int listHotelRoomBookingsForAWeek (final int hotelID, LocalDate from, ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         final DateRange week = DateRange.days(from, 7);
+         final List<String[]> rows = new ArrayList<String[]>();
+         final SQLException[] failure = new SQLException[1];
+         this._primary[Table.ROOM.ordinal()].scan(roomKey(hotelID, 0), roomKey(hotelID + 1, 0), (key, slot) -> {
+            long roomNo = key & 0xFFFFFFFFL;
+            final boolean[] busy = new boolean[1];
+            try {
+               this._roomNights.scan(night(hotelID, roomNo, week.first.toEpochDay()),
+                                     night(hotelID, roomNo, week.last.toEpochDay() + 1), (k, s) -> {
+                  busy[0] = true;
+                  return false;
+               });
+            }catch (SQLException e) {
+               failure[0] = e;
+               return false;
+            }//end try
+            if (!busy[0])
+               rows.add(new String[] { getText(Table.ROOM, slot, 0), getText(Table.ROOM, slot, 1),
+                                       getText(Table.ROOM, slot, 2) });
+            return true;
+         });
+         if (failure[0] != null) throw failure[0];
+         return write(sink, new String[] { "hotelid", "roomno", "roomtype" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   public int topKHighestRoomPriceForADateRange (DateRange range, int k, ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         long first = range.first.toEpochDay(), last = range.last.toEpochDay();
+         // each room's highest priced booking, then the k highest of those
+         Map<Long, Integer> best = new HashMap<Long, Integer>();
+         for (int slot : live(Table.BOOKING)) {
+            int day = getDate(Table.BOOKING, slot, 4);
+            if (day < first || day > last) continue;
+            long room = roomKey(getLong(Table.BOOKING, slot, 2), getLong(Table.BOOKING, slot, 3));
+            Integer seen = best.get(room);
+            if (seen == null || getLong(Table.BOOKING, slot, 6) > getLong(Table.BOOKING, seen, 6)) best.put(room, slot);
+         }//end for
+         TopK<Integer> top = new TopK<Integer>(k, (a, b) -> Long.compare(getLong(Table.BOOKING, a, 6),
+                                                                         getLong(Table.BOOKING, b, 6)));
+         for (int slot : best.values()) top.offer(slot);
+         List<String[]> rows = new ArrayList<String[]>();
+         for (int slot : top.sorted())
+            rows.add(new String[] { getText(Table.BOOKING, slot, 2), getText(Table.BOOKING, slot, 3),
+                                    getText(Table.BOOKING, slot, 6) });
+         return write(sink, new String[] { "hotelid", "roomno", "price" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   public int topKHighestPriceBookingsForACustomer (String fName, String lName, int k,
+                                                    ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         Set<Long> customers = new HashSet<Long>();
+         for (int slot : live(Table.CUSTOMER))
+            if (trimmed(getText(Table.CUSTOMER, slot, 1)).equals(fName)
+                && trimmed(getText(Table.CUSTOMER, slot, 2)).equals(lName))
+               customers.add(getLong(Table.CUSTOMER, slot, 0));
+         TopK<Integer> top = new TopK<Integer>(k, (a, b) -> Long.compare(getLong(Table.BOOKING, a, 6),
+                                                                         getLong(Table.BOOKING, b, 6)));
+         if (!customers.isEmpty())
+            for (int slot : live(Table.BOOKING))
+               if (customers.contains(getLong(Table.BOOKING, slot, 1))) top.offer(slot);
+         List<String[]> rows = new ArrayList<String[]>();
+         for (int slot : top.sorted()) rows.add(new String[] { getText(Table.BOOKING, slot, 6) });
+         return write(sink, new String[] { "price" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   public int totalCostForCustomer (int hotelID, int customerID, DateRange range,
+                                    ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         long first = range.first.toEpochDay(), last = range.last.toEpochDay();
+         long cents = 0;
+         boolean any = false;
+         for (int slot : live(Table.BOOKING)) {
+            int day = getDate(Table.BOOKING, slot, 4);
+            if (getLong(Table.BOOKING, slot, 1) == customerID && getLong(Table.BOOKING, slot, 2) == hotelID
+                && day >= first && day <= last) {
+               cents += getLong(Table.BOOKING, slot, 6);
+               any = true;
+            }//end if
+         }//end for
+         List<String[]> rows = new ArrayList<String[]>();
+         if (any) rows.add(new String[] { String.valueOf(customerID), BigDecimal.valueOf(cents, 2).toPlainString() });
+         return write(sink, new String[] { "customerid", "sum" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end totalCostForCustomer
+
+   public int listRepairsMade (String companyName, ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         Set<Long> companies = new HashSet<Long>();
+         for (int slot : live(Table.COMPANY))
+            if (trimmed(getText(Table.COMPANY, slot, 1)).equals(companyName))
+               companies.add(getLong(Table.COMPANY, slot, 0));
+         List<String[]> rows = new ArrayList<String[]>();
+         if (!companies.isEmpty())
+            for (int slot : live(Table.REPAIR))
+               if (companies.contains(getLong(Table.REPAIR, slot, 3)))
+                  rows.add(new String[] { getText(Table.REPAIR, slot, 5), getText(Table.REPAIR, slot, 6),
+                                          getText(Table.REPAIR, slot, 1), getText(Table.REPAIR, slot, 2) });
+         return write(sink, new String[] { "description", "repairtype", "hotelid", "roomno" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end listRepairsMade
+
+   public int topKMaintenanceCompany (int k, ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         Map<Long, Long> perCompany = new HashMap<Long, Long>();
+         for (int slot : live(Table.REPAIR)) perCompany.merge(getLong(Table.REPAIR, slot, 3), 1L, Long::sum);
+         final Map<String, Long> perName = new HashMap<String, Long>();
+         for (int slot : live(Table.COMPANY)) {
+            Long n = perCompany.get(getLong(Table.COMPANY, slot, 0));
+            if (n != null) perName.merge(getText(Table.COMPANY, slot, 1), n, Long::sum);
+         }//end for
+         TopK<String> top = new TopK<String>(k, (a, b) -> Long.compare(perName.get(a), perName.get(b)));
+         for (String name : perName.keySet()) top.offer(name);
+         List<String[]> rows = new ArrayList<String[]>();
+         for (String name : top.sorted()) rows.add(new String[] { name, String.valueOf(perName.get(name)) });
+         return write(sink, new String[] { "name", "count" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topKMaintenanceCompany
+
+   public int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, ResultSink sink) throws SQLException {
+      this._lock.readLock().lock();
+      try {
+         Map<Integer, Long> years = new HashMap<Integer, Long>();
+         for (int slot : live(Table.REPAIR))
+            if (getLong(Table.REPAIR, slot, 1) == hotelID && getLong(Table.REPAIR, slot, 2) == roomNo)
+               years.merge(LocalDate.ofEpochDay(getDate(Table.REPAIR, slot, 4)).getYear(), 1L, Long::sum);
+         List<Map.Entry<Integer, Long>> counts = new ArrayList<Map.Entry<Integer, Long>>(years.entrySet());
+         Collections.sort(counts, (a, b) -> Long.compare(a.getValue(), b.getValue()));
+         List<String[]> rows = new ArrayList<String[]>();
+         for (Map.Entry<Integer, Long> e : counts)
+            rows.add(new String[] { String.valueOf(e.getKey()), String.valueOf(e.getValue()) });
+         return write(sink, new String[] { "Year", "count" }, rows);
+      }finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   /*
+    * The slots of a table's records.
+    */
+   private List<Integer> live (Table t) {
+      RecordFile f = this._files[t.ordinal()];
+      List<Integer> slots = new ArrayList<Integer>(f.count());
+      for (int slot = 0; slot < f.count(); ++slot)
+         if (f.buffer().get(f.offset(slot)) != 0) slots.add(slot);
+      return slots;
+   }//end live
+
+   private static String trimmed (String s) {
+      if (s == null) return "";
+      int end = s.length();
+      while (end > 0 && s.charAt(end - 1) == ' ') --end;
+      return s.substring(0, end);
+   }//end trimmed
+
+   private static int write (ResultSink sink, String[] columns, List<String[]> rows) throws SQLException {
+      try {
+         sink.begin(columns);
+         for (String[] r : rows) sink.row(r);
+         sink.end(rows.size());
+         return rows.size();
+      }catch (IOException e) {
+         throw new SQLException("Unable to write query output: " + e.getMessage());
+      }//end try
+   }//end write
+
+   /**
+    * Loads the files of Phase3/data into the (empty) tables, as
+    * "DBProject ... load" does for the server, and sets each hotel's
+    * manager.  The log is forced once per table rather than per row.
+    *
+    * @return the number of rows loaded
+    */
+   public long load (File dataDir) throws SQLException, IOException {
+      long rows = 0;
+      this._lock.writeLock().lock();
+      this._loading = true;
+      try {
+         for (Table t : LOAD_ORDER) {
+            long start = System.nanoTime();
+            long n = 0;
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+               new FileInputStream(new File(dataDir, t.file)), StandardCharsets.UTF_8));
+            try {
+               String line;
+               while ((line = in.readLine()) != null) {
+                  if (line.trim().isEmpty()) continue;
+                  String[] v = line.split(",", -1);
+                  if (v.length != t.columns.length)
+                     throw new SQLException(t.file + ": " + v.length + " values in \"" + line + "\"");
+                  loadRow(t, v);
+                  ++n;
+               }//end while
+            }finally {
+               in.close();
+            }//end try
+            this._wal.force();
+            rows += n;
+            System.out.println(String.format("%-18s %8d rows %8.1f ms", t.name, n, (System.nanoTime() - start) / 1e6));
+            if (t == Table.STAFF) setManagers();
+         }//end for
+         checkpoint();
+      }finally {
+         this._loading = false;
+         this._lock.writeLock().unlock();
+      }//end try
+      return rows;
+   }//end load
+
+   private void loadRow (Table t, String[] v) throws SQLException {
+      Object[] row = new Object[v.length];
+      for (int i = 0; i < v.length; ++i) {
+         String s = v[i].equals("\\N") ? null : v[i];
+         Kind kind = t.columns[i].kind;
+         if (s == null) row[i] = null;
+         else if (kind == Kind.LONG) row[i] = Long.valueOf(s.trim());
+         else if (kind == Kind.DATE) row[i] = date(s);
+         else if (kind == Kind.MONEY) row[i] = cents(new BigDecimal(s.trim()));
+         else if (kind == Kind.BOOL) row[i] = s.trim().equalsIgnoreCase("true") || s.trim().equals("t");
+         else row[i] = s;
+      }//end for
+      switch (t) {
+      case STAFF: requireKey(Table.HOTEL, (Long) row[5], "staffhotelconstraint"); break;
+      case ROOM: requireKey(Table.HOTEL, (Long) row[0], "roomhotelconstraint"); break;
+      case BOOKING:
+         requireKey(Table.CUSTOMER, (Long) row[1], "bookingcustomerconstraint");
+         requireRoom((Long) row[2], (Long) row[3], "bookingroomconstraint");
+         break;
+      case REPAIR:
+         requireRoom((Long) row[1], (Long) row[2], "repairroomconstraint");
+         requireKey(Table.COMPANY, (Long) row[3], "repaircompanyconstraint");
+         break;
+      case REQUEST:
+         requireKey(Table.STAFF, (Long) row[1], "requeststaffconstraint");
+         requireKey(Table.REPAIR, (Long) row[2], "requestrepairconstraint");
+         break;
+      case ASSIGNED:
+         requireKey(Table.STAFF, (Long) row[1], "assignedstaffconstraint");
+         requireRoom((Long) row[2], (Long) row[3], "assignedroomconstraint");
+         break;
+      default:
+      }//end switch
+      insert(t, row);
+   }//end loadRow
+
+   /*
+    * Hotel.manager is the SSN of the hotel's Manager, as load.sql sets it.
+    */
+   private void setManagers () throws SQLException {
+      List<WriteAheadLog.Entry> writes = new ArrayList<WriteAheadLog.Entry>();
+      RecordFile hotels = this._files[Table.HOTEL.ordinal()];
+      for (int slot : live(Table.STAFF)) {
+         if (!"Manager".equals(getText(Table.STAFF, slot, 4))) continue;
+         int hotel = this._primary[Table.HOTEL.ordinal()].get(getLong(Table.STAFF, slot, 5));
+         if (hotel < 0) continue;
+         byte[] record = hotels.read(hotel);
+         ByteBuffer.wrap(record).putLong(Table.HOTEL.columns[2].offset, getLong(Table.STAFF, slot, 0));
+         writes.add(new WriteAheadLog.Entry(Table.HOTEL.ordinal(), hotel, record));
+      }//end for
+      if (!writes.isEmpty()) apply(writes);
+   }//end setManagers
+
+   /**
+    * Writes the table files to disk and empties the log.
+    */
+   public void checkpoint () throws SQLException {
+      try {
+         for (RecordFile f : this._files) f.force();
+         this._wal.truncate();
+      }catch (IOException e) {
+         throw new SQLException("Unable to checkpoint the store: " + e.getMessage());
+      }//end try
+   }//end checkpoint
+
+   /**
+    * @return the milliseconds the constructor took, recovery included
+    */
+   public double openMillis () {
+      return this._openMillis;
+   }//end openMillis
+
+   public String stats () {
+      StringBuilder sb = new StringBuilder(String.format("embedded store %s: opened in %.1f ms, %d log entries replayed",
+                                                         this._dir, this._openMillis, this._replayed));
+      for (Table t : Table.values())
+         sb.append(String.format("%n   %-18s %8d rows %5d bytes/row", t.name, this._files[t.ordinal()].count(),
+                                 t.recordSize));
+      sb.append(String.format("%n   %s", this._wal.stats()));
+      return sb.toString();
+   }//end stats
+
+   public void close () {
+      this._lock.writeLock().lock();
+      try {
+         checkpoint();
+         for (RecordFile f : this._files) f.close();
+         this._wal.close();
+      }catch (Exception e) {
+         System.err.println("Unable to close the store: " + e.getMessage());
+      }finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end close
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 2) {
+         System.err.println("Usage: java EmbeddedStore <dir> load [<data dir>] | stats");
+         return;
+      }//end if
+      EmbeddedStore store = new EmbeddedStore(new File(args[0]));
+      try {
+         if (args[1].equals("load")) {
+            long start = System.nanoTime();
+            long rows = store.load(new File(args.length > 2 ? args[2] : "../data"));
+            System.out.println(String.format("%d rows loaded in %.1f ms", rows, (System.nanoTime() - start) / 1e6));
+         }//end if
+         System.out.println(store.stats());
+      }finally {
+         store.close();
+      }//end try
+   }//end main
+
+}//end EmbeddedStore
@@ -0,0 +1,256 @@
+/*
+ * Group Commit
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets concurrent inserts share a transaction, so they pay for one commit
+ * (one WAL flush on the server) instead of one each.
+ *
+ * Callers hand their statement to a committer thread and wait.  The
+ * committer takes the statements queued, waits up to the window for the
+ * other callers to queue theirs, sends each kind of statement as one batch
+ * and commits.  A lone caller is never held back by the window.  While
+ * one group commits the next one gathers.
+ *
+ * Every caller gets its own result.  When a statement of the group fails,
+ * the group is rolled back and run again with a savepoint per statement,
+ * so only that caller sees the error; when the commit itself fails, every
+ * caller of the group does.
+ *
+ *   dbproject.groupCommit.window     ms the committer waits to fill a group (2)
+ *   dbproject.groupCommit.maxGroup   statements per transaction at most (256)
+ */
+public class GroupCommitter {
+
+   /*
+    * One caller's statement and, once the group is done, its result.
+    */
+   private static class Pending {
+      final Sql op;
+      final Object[] params;
+      int rows = 0;
+      SQLException failure = null;
+      boolean done = false;
+
+      Pending (Sql op, Object[] params) {
+         this.op = op;
+         this.params = params;
+      }//end Pending
+   }//end Pending
+
+   private final ConnectionPool _pool;
+   private final long _windowNanos;
+   private final int _maxGroup;
+   private final Deque<Pending> _queue = new ArrayDeque<Pending>();
+   private final Thread _committer;
+   private int _callers = 0;
+   private boolean _closed = false;
+
+   private long _groups = 0, _statements = 0, _replays = 0, _failedCommits = 0;
+   private int _largest = 0;
+
+   public GroupCommitter (ConnectionPool pool) {
+      this._pool = pool;
+      double window = Double.parseDouble(System.getProperty("dbproject.groupCommit.window", "2"));
+      this._windowNanos = (long) (Math.max(0, window) * 1e6);
+      this._maxGroup = Math.max(1, Integer.getInteger("dbproject.groupCommit.maxGroup", 256));
+      this._committer = new Thread(new Runnable() {
+         public void run () { commitLoop(); }
+      }, "dbproject-group-commit");
+      this._committer.setDaemon(true);
+      this._committer.start();
+   }//end GroupCommitter
+
+   /**
+    * Runs an insert in the next group and waits for its commit.
+    *
+    * @return the number of rows inserted
+    * @throws java.sql.SQLException when the statement or its group's
+    *         commit failed
+    */
+   public int execute (Sql op, Object... params) throws SQLException {
+      Pending p = new Pending(op, params);
+      synchronized (this) {
+         if (this._closed) throw new SQLException("Group commit is closed");
+         ++this._callers;
+         this._queue.add(p);
+         notifyAll();
+      }//end synchronized
+      try {
+         synchronized (p) {
+            while (!p.done) p.wait();
+         }//end synchronized
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted waiting for the group commit");
+      }finally {
+         synchronized (this) { --this._callers; }
+      }//end try
+      if (p.failure != null) throw p.failure;
+      return p.rows;
+   }//end execute
+
+   private void commitLoop () {
+      while (true) {
+         List<Pending> group = new ArrayList<Pending>();
+         synchronized (this) {
+            try {
+               while (this._queue.isEmpty() && !this._closed) wait();
+               // callers not queued yet are about to be; wait for them, not for the whole window
+               long deadline = System.nanoTime() + this._windowNanos;
+               long left = this._windowNanos;
+               while (this._queue.size() < Math.min(this._callers, this._maxGroup) && left > 0) {
+                  wait(left / 1000000, (int) (left % 1000000));
+                  left = deadline - System.nanoTime();
+               }//end while
+            }catch (InterruptedException e) {
+               // closing; commit what is queued.
+            }//end try
+            if (this._queue.isEmpty()) return;
+            while (!this._queue.isEmpty() && group.size() < this._maxGroup) group.add(this._queue.poll());
+         }//end synchronized
+         commit(group);
+      }//end while
+   }//end commitLoop
+
+   /*
+    * Runs a group in one transaction and hands every caller its result.
+    */
+   private void commit (List<Pending> group) {
+      ConnectionPool.PooledConnection pc = null;
+      SQLException failure = null;
+      boolean replayed = false;
+      try {
+         pc = this._pool.borrow();
+         Connection conn = pc.connection();
+         conn.setAutoCommit(false);
+         try {
+            runBatched(pc, group);
+         }catch (SQLException e) {
+            conn.rollback();
+            replayed = true;
+            runIsolated(pc, group);
+         }//end try
+         conn.commit();
+      }catch (SQLException e) {
+         failure = e;
+         for (Pending p : group) {
+            if (p.failure == null) p.failure = e;
+            p.rows = 0;
+         }//end for
+      }finally {
+         this._pool.release(pc, failure);
+      }//end try
+      synchronized (this) {
+         ++this._groups;
+         this._statements += group.size();
+         this._largest = Math.max(this._largest, group.size());
+         if (replayed) ++this._replays;
+         if (failure != null) ++this._failedCommits;
+      }//end synchronized
+      for (Pending p : group) {
+         synchronized (p) {
+            p.done = true;
+            p.notifyAll();
+         }//end synchronized
+      }//end for
+   }//end commit
+
+   /*
+    * Sends the statements of each kind as one batch, in Sql order, so the
+    * rows a group's inserts reference are inserted first.
+    */
+   private static void runBatched (ConnectionPool.PooledConnection pc, List<Pending> group) throws SQLException {
+      Map<Sql, List<Pending>> byOp = new EnumMap<Sql, List<Pending>>(Sql.class);
+      for (Pending p : group) {
+         List<Pending> same = byOp.get(p.op);
+         if (same == null) byOp.put(p.op, same = new ArrayList<Pending>());
+         same.add(p);
+      }//end for
+      for (Map.Entry<Sql, List<Pending>> e : byOp.entrySet()) {
+         PreparedStatement stmt = pc.statements().prepare(e.getKey());
+         List<Pending> same = e.getValue();
+         try {
+            for (Pending p : same) {
+               Sql.bind(stmt, p.params);
+               stmt.addBatch();
+            }//end for
+            int[] counts = stmt.executeBatch();
+            for (int i = 0; i < same.size(); ++i)
+               same.get(i).rows = i < counts.length && counts[i] >= 0 ? counts[i] : 1;
+         }catch (SQLException x) {
+            stmt.clearBatch();
+            throw x;
+         }//end try
+      }//end for
+   }//end runBatched
+
+   /*
+    * Runs the statements one at a time behind savepoints, failing only the
+    * ones the server refuses.
+    */
+   private static void runIsolated (ConnectionPool.PooledConnection pc, List<Pending> group) throws SQLException {
+      Statement sp = pc.connection().createStatement();
+      try {
+         for (Pending p : group) {
+            sp.execute("SAVEPOINT group_commit");
+            try {
+               PreparedStatement stmt = pc.statements().prepare(p.op);
+               Sql.bind(stmt, p.params);
+               p.rows = stmt.executeUpdate();
+               p.failure = null;
+               sp.execute("RELEASE SAVEPOINT group_commit");
+            }catch (SQLException e) {
+               p.rows = 0;
+               p.failure = e;
+               sp.execute("ROLLBACK TO SAVEPOINT group_commit");
+            }//end try
+         }//end for
+      }finally {
+         sp.close();
+      }//end try
+   }//end runIsolated
+
+   public synchronized String stats () {
+      return String.format("group commit: groups=%d statements=%d avgGroup=%.1f largest=%d replays=%d failedCommits=%d",
+                           this._groups, this._statements,
+                           this._groups == 0 ? 0.0 : (double) this._statements / this._groups,
+                           this._largest, this._replays, this._failedCommits);
+   }//end stats
+
+   /**
+    * Commits the statements queued and stops the committer.
+    */
+   public void close () {
+      synchronized (this) {
+         this._closed = true;
+         notifyAll();
+      }//end synchronized
+      try {
+         this._committer.join();
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+}//end GroupCommitter
@@ -0,0 +1,70 @@
+/*
+ * Hotel Storage Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * The sixteen operations of the menu, independent of where the tables are
+ * kept.  {@link DBProject} runs them on a PostgreSQL server and
+ * {@link EmbeddedStore} on files of its own; {@link StoreConformance}
+ * checks that both give the same answers.
+ *
+ * Queries write their rows to the sink in the shape of the SQL result and
+ * return the number of rows written.  Writes fail with an SQLException
+ * where the create.sql constraints (keys, foreign keys, one booking per
+ * room and night) would reject them.
+ */
+public interface HotelStore {
+
+   void addCustomer (int customerID, String fName, String lName, String address, long phNo, String dob,
+                     String gender) throws SQLException;
+
+   void addRoom (int hotelID, int roomNo, String roomType) throws SQLException;
+
+   void addMaintenanceCompany (int cmpID, String name, String address, boolean isCertified) throws SQLException;
+
+   void addRepair (int rID, int hotelID, int roomNo, int mCompany, java.sql.Date repairDate, String description,
+                   String repairType) throws SQLException;
+
+   void bookRoom (BookingRequest booking) throws SQLException;
+
+   void assignHouseCleaningToRoom (int asgID, int staffID, int hotelID, int roomNo) throws SQLException;
+
+   void repairRequest (int reqID, int managerID, int repairID, String requestDate,
+                       String description) throws SQLException;
+
+   int numberOfAvailableRooms (int hotelID, ResultSink sink) throws SQLException;
+
+   int numberOfBookedRooms (int hotelID, ResultSink sink) throws SQLException;
+
+   int listHotelRoomBookingsForAWeek (int hotelID, LocalDate from, ResultSink sink) throws SQLException;
+
+   int topKHighestRoomPriceForADateRange (DateRange range, int k, ResultSink sink) throws SQLException;
+
+   int topKHighestPriceBookingsForACustomer (String fName, String lName, int k, ResultSink sink) throws SQLException;
+
+   int totalCostForCustomer (int hotelID, int customerID, DateRange range, ResultSink sink) throws SQLException;
+
+   int listRepairsMade (String companyName, ResultSink sink) throws SQLException;
+
+   int topKMaintenanceCompany (int k, ResultSink sink) throws SQLException;
+
+   int numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo, ResultSink sink) throws SQLException;
+
+   /**
+    * Releases the connections or files of the store.
+    */
+   void close ();
+
+}//end HotelStore
@@ -0,0 +1,231 @@
+/*
+ * Key Allocator
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out primary keys for the insert operations so nobody has to type
+ * them.
+ *
+ * Every surrogate key has a create.sql sequence, which is also the column
+ * default for clients inserting with plain SQL.  This class takes keys
+ * from the sequence a block at a time and serves the block from memory.
+ * Once a block is down to its last quarter a background thread fetches
+ * the next one, so an insert waits for a fetch only when the block ran out
+ * first, and concurrent inserters, in this process or others, never
+ * contend for or collide on a key.  Keys left in a block
+ * when the process exits are skipped.
+ *
+ *   dbproject.ids.block            keys fetched per round trip (50)
+ *   dbproject.ids.<key>.block      the same for one key, e.g.
+ *                                  dbproject.ids.booking.block
+ */
+public class IdAllocator {
+
+   /**
+    * The generated keys, with their sequence and column.
+    */
+   public enum Key {
+      CUSTOMER ("CustomerIDs", "Customer", "customerID"),
+      COMPANY ("CompanyIDs", "MaintenanceCompany", "cmpID"),
+      REPAIR ("RepairIDs", "Repair", "rID"),
+      BOOKING ("BookingIDs", "Booking", "bID"),
+      ASSIGNED ("AssignedIDs", "Assigned", "asgID"),
+      REQUEST ("RequestIDs", "Request", "reqID");
+
+      public final String sequence, table, column;
+
+      Key (String sequence, String table, String column) {
+         this.sequence = sequence;
+         this.table = table;
+         this.column = column;
+      }//end Key
+
+      int blockSize () {
+         return Math.max(1, Integer.getInteger("dbproject.ids." + name().toLowerCase() + ".block",
+                                               Integer.getInteger("dbproject.ids.block", 50)));
+      }//end blockSize
+
+      /**
+       * @return SQL moving the sequence past the keys in the table, run
+       *         after a bulk load
+       */
+      public String resetSql () {
+         return "SELECT setval('" + this.sequence + "', COALESCE(MAX(" + this.column + "), 0) + 1, false) FROM " +
+                this.table;
+      }//end resetSql
+
+      /**
+       * @return the key whose table is the given one, or null
+       */
+      public static Key of (String table) {
+         for (Key k : values())
+            if (k.table.equalsIgnoreCase(table)) return k;
+         return null;
+      }//end of
+   }//end Key
+
+   /*
+    * The unused keys of one block, and those of the next once fetched.
+    * One fetch at a time, by the prefetcher or by a caller that found no
+    * key, runs without holding the monitor; callers are served meanwhile,
+    * or wait when no key is left.
+    */
+   private static class Block {
+      final Deque<Integer> free = new ArrayDeque<Integer>();
+      boolean fetching = false;
+      long served = 0, fetches = 0, failedPrefetches = 0;
+   }//end Block
+
+   private final DBProject _esql;
+   private final Map<Key, Block> _blocks = new EnumMap<Key, Block>(Key.class);
+   // keys whose next block the prefetcher is to fetch, guarded by this
+   private final Deque<Key> _wanted = new ArrayDeque<Key>();
+   private Thread _prefetcher = null;
+   private boolean _closed = false;
+
+   public IdAllocator (DBProject esql) {
+      this._esql = esql;
+      for (Key k : Key.values()) this._blocks.put(k, new Block());
+   }//end IdAllocator
+
+   /**
+    * @return a key never handed out before
+    * @throws java.sql.SQLException when a new block cannot be fetched
+    */
+   public int next (Key key) throws SQLException {
+      Block b = this._blocks.get(key);
+      while (true) {
+         synchronized (b) {
+            try {
+               while (b.free.isEmpty() && b.fetching) b.wait();
+            }catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SQLException("Interrupted waiting for keys from " + key.sequence);
+            }//end try
+            if (!b.free.isEmpty()) {
+               ++b.served;
+               int id = b.free.removeFirst();
+               // fetch the next block while the last quarter of this one is served
+               if (!b.fetching && b.free.size() <= key.blockSize() / 4) b.fetching = prefetch(key);
+               return id;
+            }//end if
+            b.fetching = true;
+         }//end synchronized
+         if (fetch(key).isEmpty()) throw new SQLException("Sequence " + key.sequence + " returned no keys");
+      }//end while
+   }//end next
+
+   /*
+    * Fetches a block of keys into the free ones, for a block marked as
+    * fetching.
+    */
+   private List<Integer> fetch (Key key) throws SQLException {
+      Block b = this._blocks.get(key);
+      List<Integer> fetched = new ArrayList<Integer>();
+      try {
+         ResultSinks.Collector c = ResultSinks.collect();
+         this._esql.streamQuery(Sql.NEXT_IDS, c, key.sequence, key.blockSize());
+         for (String[] r : c.rows()) fetched.add(Integer.valueOf(r[0].trim()));
+      }finally {
+         synchronized (b) {
+            b.fetching = false;
+            b.free.addAll(fetched);
+            if (!fetched.isEmpty()) ++b.fetches;
+            b.notifyAll();
+         }//end synchronized
+      }//end try
+      return fetched;
+   }//end fetch
+
+   /*
+    * Hands a block's next fetch to the prefetcher, starting it on the
+    * first call.  Caller holds the block's monitor.
+    *
+    * @return false when the allocator is closed
+    */
+   private synchronized boolean prefetch (Key key) {
+      if (this._closed) return false;
+      this._wanted.add(key);
+      if (this._prefetcher == null) {
+         this._prefetcher = new Thread(new Runnable() {
+            public void run () { prefetchLoop(); }
+         }, "dbproject-ids-prefetch");
+         this._prefetcher.setDaemon(true);
+         this._prefetcher.start();
+      }//end if
+      notifyAll();
+      return true;
+   }//end prefetch
+
+   private void prefetchLoop () {
+      while (true) {
+         Key key;
+         synchronized (this) {
+            try {
+               while (this._wanted.isEmpty() && !this._closed) wait();
+            }catch (InterruptedException e) {
+               return;
+            }//end try
+            if (this._closed) return;
+            key = this._wanted.removeFirst();
+         }//end synchronized
+         try {
+            fetch(key);
+         }catch (SQLException e) {
+            // the next caller to find the block empty fetches it
+            Block b = this._blocks.get(key);
+            synchronized (b) { ++b.failedPrefetches; }
+         }//end try
+      }//end while
+   }//end prefetchLoop
+
+   /**
+    * Stops the prefetcher; callers fetch their own blocks from then on.
+    */
+   public void close () {
+      List<Key> dropped;
+      synchronized (this) {
+         this._closed = true;
+         dropped = new ArrayList<Key>(this._wanted);
+         this._wanted.clear();
+         notifyAll();
+      }//end synchronized
+      for (Key key : dropped) {
+         Block b = this._blocks.get(key);
+         synchronized (b) {
+            b.fetching = false;
+            b.notifyAll();
+         }//end synchronized
+      }//end for
+   }//end close
+
+   public String stats () {
+      StringBuilder sb = new StringBuilder("key allocator:");
+      for (Map.Entry<Key, Block> e : this._blocks.entrySet()) {
+         Block b = e.getValue();
+         synchronized (b) {
+            sb.append(String.format("%n   %s: served=%d roundTrips=%d unused=%d failedPrefetches=%d",
+                                    e.getKey().table, b.served, b.fetches, b.free.size(), b.failedPrefetches));
+         }//end synchronized
+      }//end for
+      return sb.toString();
+   }//end stats
+
+}//end IdAllocator
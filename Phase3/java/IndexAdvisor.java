@@ -0,0 +1,602 @@
+/*
+ * Index Advisor
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Proposes the indexes the DBProject operations actually need, in place of
+ * an index on every column.
+ *
+ * The advisor captures the statements DBProject issues (through a
+ * {@link StatementListener}) while it runs a workload: a script in the
+ * ScriptRunner format, or else a few calls of every Benchmark operation.
+ * Each captured statement is replayed under EXPLAIN (ANALYZE, BUFFERS,
+ * VERBOSE) in a transaction that is rolled back.  A sequential scan over a
+ * large table becomes a composite index: the columns the scan filters on
+ * by equality, then one range column (or the join or sort column when it
+ * filters on nothing), then up to two more columns it returns, so the
+ * query can be answered from the index alone.  Indexes that are a prefix
+ * of another proposal or of an existing index are dropped.  Scans of the
+ * partitions of Booking and Repair count as scans of the partitioned table,
+ * where the index is proposed, created and dropped.
+ *
+ * Usage: java IndexAdvisor <dbname> <port> <user> [advise|apply|replace] [<script>]
+ *
+ *   advise    print the proposed indexes (default)
+ *   apply     create them and compare every statement before and after
+ *   replace   as apply, but first drop every index that does not back a
+ *             primary key or unique constraint
+ *
+ *   advisor.calls     calls of each Benchmark operation captured (10)
+ *   advisor.samples   parameter sets kept per statement (3)
+ *   advisor.repeat    runs per sample; the fastest is kept (3)
+ *   advisor.minRows   smallest table scan worth an index (500)
+ *
+ * The default workload inserts rows like Benchmark does; run the advisor
+ * on a scratch copy of the database.
+ */
+public class IndexAdvisor {
+
+   private static final int CALLS = Integer.getInteger("advisor.calls", 10);
+   private static final int SAMPLES = Integer.getInteger("advisor.samples", 3);
+   private static final int REPEAT = Math.max(1, Integer.getInteger("advisor.repeat", 3));
+   private static final long MIN_ROWS = Long.getLong("advisor.minRows", 500);
+
+   // replayed inserts get their key shifted past the captured row
+   private static final long KEY_OFFSET = 1000000000L;
+   private static final Map<Sql, Integer> KEY_PARAM = new EnumMap<Sql, Integer>(Sql.class);
+
+   static {
+      for (Sql op : Sql.values()) if (isWrite(op)) KEY_PARAM.put(op, 0);
+      KEY_PARAM.put(Sql.INSERT_ROOM, 1);
+   }//end static
+
+   // VERBOSE names the schema, as in "Seq Scan on public.booking_p2024_01 b_1"
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (?:\\w+\\.)?(\\w+)(?: (\\w+))?\\s+\\(");
+   private static final Pattern ACTUAL = Pattern.compile("actual time=[\\d.]+\\.\\.[\\d.]+ rows=(\\d+) loops=(\\d+)");
+   private static final Pattern REMOVED = Pattern.compile("Rows Removed by Filter: (\\d+)");
+   private static final Pattern ATOM = Pattern.compile("(?:(\\w+)\\.)?([a-z_]\\w*)\\)?(?:::[a-z ]+?)?\\s(=|>=|<=|<|>)\\s");
+   private static final Pattern JOIN = Pattern.compile("(\\w+)\\.(\\w+)\\)?(?:::[a-z ]+?)?\\s=\\s\\(?(\\w+)\\.(\\w+)");
+   private static final Pattern COLUMN = Pattern.compile("\\b([a-z_]\\w*)\\.([a-z_]\\w*)\\b");
+   private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+   private static final Pattern TIME = Pattern.compile("(?:Execution Time|Total runtime): ([\\d.]+) ms");
+
+   /*
+    * Parameter samples of every statement seen, in first-seen order.
+    */
+   static class Capture implements StatementListener {
+      final Map<Sql, List<Object[]>> samples = new LinkedHashMap<Sql, List<Object[]>>();
+
+      public synchronized void executed (Sql op, Object[] params, long nanos, int rows, long bytes, SQLException failure) {
+         if (failure != null) return;
+         List<Object[]> l = this.samples.get(op);
+         if (l == null) {
+            l = new ArrayList<Object[]>();
+            this.samples.put(op, l);
+         }//end if
+         if (l.size() < SAMPLES) l.add(params.clone());
+      }//end executed
+   }//end Capture
+
+   /*
+    * A sequential scan of one plan.
+    */
+   static class Scan {
+      String table;
+      final String alias;
+      final List<String> equality = new ArrayList<String>();
+      final List<String> range = new ArrayList<String>();
+      final Set<String> output = new LinkedHashSet<String>();
+      long rows, removed, loops = 1;
+
+      Scan (String table, String alias) {
+         this.table = table;
+         this.alias = alias;
+      }//end Scan
+   }//end Scan
+
+   /*
+    * What the advisor reads from one EXPLAIN ANALYZE.
+    */
+   static class Plan {
+      final List<Scan> scans = new ArrayList<Scan>();
+      final List<String[]> joins = new ArrayList<String[]>(); // alias, column
+      final List<String[]> sortKeys = new ArrayList<String[]>(); // alias, column
+      double millis;
+      long buffers = -1;
+   }//end Plan
+
+   /*
+    * A proposed index: key columns, then columns included for index-only
+    * scans.
+    */
+   static class Candidate {
+      final String table;
+      final List<String> keys;
+      final Set<String> include = new LinkedHashSet<String>();
+      final Set<Sql> ops = new LinkedHashSet<Sql>();
+
+      Candidate (String table, List<String> keys) {
+         this.table = table;
+         this.keys = keys;
+      }//end Candidate
+
+      List<String> columns () {
+         List<String> c = new ArrayList<String>(this.keys);
+         for (String i : this.include) if (!c.contains(i)) c.add(i);
+         return c;
+      }//end columns
+
+      // true when an index on these columns serves this candidate as well
+      boolean servedBy (List<String> index) {
+         return index.size() >= this.keys.size() && index.subList(0, this.keys.size()).equals(this.keys)
+            && index.containsAll(this.include);
+      }//end servedBy
+
+      String name () {
+         return this.table + "_" + String.join("_", this.keys) + "_adv";
+      }//end name
+
+      String ddl () {
+         return "CREATE INDEX " + name() + " ON " + this.table + " USING BTREE (" +
+                String.join(", ", columns()) + ");";
+      }//end ddl
+   }//end Candidate
+
+   /*
+    * An index already in the database.
+    */
+   static class Index {
+      final String table, name;
+      final List<String> columns = new ArrayList<String>();
+      boolean constraint;
+
+      Index (String table, String name) {
+         this.table = table;
+         this.name = name;
+      }//end Index
+   }//end Index
+
+   private IndexAdvisor () {
+   }//end IndexAdvisor
+
+   static boolean isWrite (Sql op) {
+      return op.name().startsWith("INSERT_");
+   }//end isWrite
+
+   /**
+    * Runs a statement under EXPLAIN ANALYZE and rolls its effects back.
+    */
+   static Plan explain (Connection conn, Sql op, Object[] params) throws SQLException {
+      Object[] p = params.clone();
+      Integer key = KEY_PARAM.get(op);
+      if (key != null && p[key] instanceof Number) p[key] = ((Number) p[key]).longValue() + KEY_OFFSET;
+
+      List<String> lines = new ArrayList<String>();
+      conn.setAutoCommit(false);
+      try {
+         PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS, VERBOSE) " + op.text);
+         try {
+            Sql.bind(stmt, p);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) lines.add(rs.getString(1));
+            rs.close();
+         }finally {
+            stmt.close();
+         }//end try
+      }finally {
+         conn.rollback();
+         conn.setAutoCommit(true);
+      }//end try
+      return parse(lines);
+   }//end explain
+
+   /**
+    * Reads the sequential scans, join and sort columns, time and buffers
+    * of a text plan.
+    */
+   static Plan parse (List<String> lines) {
+      Plan plan = new Plan();
+      Scan scan = null;
+      for (String line : lines) {
+         String t = line.trim();
+         if (t.indexOf("(cost=") >= 0) { // a plan node; the lines below it describe it
+            scan = null;
+            Matcher m = SEQ_SCAN.matcher(t);
+            if (m.find()) {
+               scan = new Scan(m.group(1), m.group(2) != null ? m.group(2) : m.group(1));
+               Matcher a = ACTUAL.matcher(t);
+               if (a.find()) {
+                  scan.loops = Long.parseLong(a.group(2));
+                  scan.rows = Long.parseLong(a.group(1)) * scan.loops;
+               }//end if
+               plan.scans.add(scan);
+            }//end if
+         }else if (t.startsWith("Filter:") && scan != null) {
+            Matcher m = ATOM.matcher(t);
+            while (m.find()) {
+               List<String> l = m.group(3).equals("=") ? scan.equality : scan.range;
+               if (!l.contains(m.group(2))) l.add(m.group(2));
+            }//end while
+         }else if (t.startsWith("Rows Removed by Filter:") && scan != null) {
+            Matcher m = REMOVED.matcher(t);
+            if (m.find()) scan.removed = Long.parseLong(m.group(1)) * scan.loops;
+         }else if (t.startsWith("Output:") && scan != null) {
+            Matcher m = COLUMN.matcher(t);
+            while (m.find()) if (m.group(1).equals(scan.alias)) scan.output.add(m.group(2));
+         }else if (t.startsWith("Hash Cond:") || t.startsWith("Merge Cond:") || t.startsWith("Join Filter:")) {
+            Matcher m = JOIN.matcher(t);
+            while (m.find()) {
+               plan.joins.add(new String[] { m.group(1), m.group(2) });
+               plan.joins.add(new String[] { m.group(3), m.group(4) });
+            }//end while
+         }else if (t.startsWith("Sort Key:")) {
+            Matcher m = COLUMN.matcher(t);
+            while (m.find()) plan.sortKeys.add(new String[] { m.group(1), m.group(2) });
+         }else if (t.startsWith("Buffers:") && plan.buffers < 0) {
+            Matcher m = BUFFERS.matcher(t);
+            if (m.find()) {
+               plan.buffers = (m.group(1) == null ? 0 : Long.parseLong(m.group(1))) +
+                              (m.group(2) == null ? 0 : Long.parseLong(m.group(2)));
+            }//end if
+         }else {
+            Matcher m = TIME.matcher(t);
+            if (m.find()) plan.millis = Double.parseDouble(m.group(1));
+         }//end if
+      }//end for
+      if (plan.buffers < 0) plan.buffers = 0;
+      return plan;
+   }//end parse
+
+   /**
+    * Names the partitioned table in place of each partition scanned.
+    *
+    * @param parents the parent of every partition, see {@link #parents(Connection)}
+    */
+   static void toParents (Plan plan, Map<String, String> parents) {
+      for (Scan s : plan.scans) {
+         String parent;
+         while ((parent = parents.get(s.table)) != null) s.table = parent;
+      }//end for
+   }//end toParents
+
+   /**
+    * Turns the large sequential scans of a plan into index candidates.  The
+    * partitions of a table scanned together count as one scan.
+    */
+   static List<Candidate> candidates (Sql op, Plan plan) {
+      Map<String, Long> tableRows = new LinkedHashMap<String, Long>();
+      for (Scan s : plan.scans) {
+         Long rows = tableRows.get(s.table);
+         tableRows.put(s.table, (rows == null ? 0 : rows) + s.rows + s.removed);
+      }//end for
+      List<Candidate> found = new ArrayList<Candidate>();
+      for (Scan s : plan.scans) {
+         if (tableRows.get(s.table) < MIN_ROWS) continue;
+         List<String> keys = new ArrayList<String>(s.equality);
+         if (!s.range.isEmpty() && !keys.contains(s.range.get(0))) keys.add(s.range.get(0));
+         if (keys.isEmpty()) {
+            for (String[] j : plan.joins)
+               if (j[0].equals(s.alias) && !keys.contains(j[1])) keys.add(j[1]);
+         }//end if
+         if (keys.isEmpty()) continue; // reads the whole table anyway
+         if (s.range.isEmpty()) {
+            for (String[] k : plan.sortKeys) {
+               if (k[0].equals(s.alias) && !keys.contains(k[1])) {
+                  keys.add(k[1]);
+                  break;
+               }//end if
+            }//end for
+         }//end if
+
+         Candidate c = new Candidate(s.table, keys);
+         List<String> extra = new ArrayList<String>(s.output);
+         extra.removeAll(keys);
+         if (extra.size() <= 2) c.include.addAll(extra);
+         c.ops.add(op);
+         found.add(c);
+      }//end for
+      return found;
+   }//end candidates
+
+   /**
+    * Merges candidates with the same key, then drops the ones another
+    * candidate or an existing index already serves.
+    */
+   static List<Candidate> reduce (List<Candidate> all, List<Index> existing, Map<Candidate, String> servedBy) {
+      Map<String, Candidate> byKey = new LinkedHashMap<String, Candidate>();
+      for (Candidate c : all) {
+         String k = c.table + c.keys;
+         Candidate m = byKey.get(k);
+         if (m == null) byKey.put(k, c);
+         else {
+            m.include.addAll(c.include);
+            m.ops.addAll(c.ops);
+         }//end if
+      }//end for
+      List<Candidate> merged = new ArrayList<Candidate>(byKey.values());
+
+      for (Iterator<Candidate> it = merged.iterator(); it.hasNext();) {
+         Candidate c = it.next();
+         for (Index i : existing) {
+            if (i.table.equals(c.table) && c.servedBy(i.columns)) {
+               servedBy.put(c, i.name);
+               it.remove();
+               break;
+            }//end if
+         }//end for
+      }//end for
+
+      List<Candidate> kept = new ArrayList<Candidate>();
+      for (Candidate c : merged) {
+         Candidate wider = null;
+         for (Candidate o : merged) {
+            if (o != c && o.table.equals(c.table) && c.servedBy(o.columns())
+                && (o.columns().size() > c.columns().size() || merged.indexOf(o) < merged.indexOf(c))) {
+               wider = o;
+               break;
+            }//end if
+         }//end for
+         if (wider == null) kept.add(c);
+         else {
+            wider.ops.addAll(c.ops);
+            servedBy.put(c, wider.name());
+         }//end if
+      }//end for
+      return kept;
+   }//end reduce
+
+   /**
+    * @return the table each partition of a public table belongs to
+    */
+   static Map<String, String> parents (Connection conn) throws SQLException {
+      Map<String, String> parents = new LinkedHashMap<String, String>();
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT c.relname, p.relname FROM pg_inherits h " +
+            "JOIN pg_class c ON c.oid = h.inhrelid JOIN pg_class p ON p.oid = h.inhparent " +
+            "JOIN pg_namespace n ON n.oid = p.relnamespace AND n.nspname = 'public' " +
+            "WHERE c.relkind IN ('r', 'p')");
+         while (rs.next()) parents.put(rs.getString(1), rs.getString(2));
+         rs.close();
+      }finally {
+         stmt.close();
+      }//end try
+      return parents;
+   }//end parents
+
+   /**
+    * Lists the indexes of the public tables.  The index of a partitioned
+    * table stands for the ones it created on the partitions, which are left
+    * out: they cannot be dropped on their own.
+    */
+   static List<Index> indexes (Connection conn) throws SQLException {
+      List<Index> list = new ArrayList<Index>();
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT t.relname, i.relname, a.attname, x.indisprimary OR x.indisunique " +
+            "FROM pg_index x JOIN pg_class t ON t.oid = x.indrelid JOIN pg_class i ON i.oid = x.indexrelid " +
+            "JOIN pg_namespace n ON n.oid = t.relnamespace AND n.nspname = 'public' " +
+            "CROSS JOIN generate_series(0, 31) k " +
+            "JOIN pg_attribute a ON a.attrelid = t.oid AND a.attnum = x.indkey[k] " +
+            "WHERE k < x.indnatts AND NOT EXISTS (SELECT 1 FROM pg_inherits h WHERE h.inhrelid = i.oid) " +
+            "ORDER BY t.relname, i.relname, k");
+         Index current = null;
+         while (rs.next()) {
+            if (current == null || !current.name.equals(rs.getString(2))) {
+               current = new Index(rs.getString(1), rs.getString(2));
+               current.constraint = rs.getBoolean(4);
+               list.add(current);
+            }//end if
+            current.columns.add(rs.getString(3));
+         }//end while
+         rs.close();
+      }finally {
+         stmt.close();
+      }//end try
+      return list;
+   }//end indexes
+
+   /**
+    * Total index size of the public tables and partitioned tables, in bytes.
+    */
+   static long indexBytes (Connection conn) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT COALESCE(SUM(pg_indexes_size(c.oid)), 0) FROM pg_class c " +
+            "JOIN pg_namespace n ON n.oid = c.relnamespace AND n.nspname = 'public' WHERE c.relkind IN ('r', 'p')");
+         rs.next();
+         long bytes = rs.getLong(1);
+         rs.close();
+         return bytes;
+      }finally {
+         stmt.close();
+      }//end try
+   }//end indexBytes
+
+   /**
+    * Replays every captured statement; the result per statement is the
+    * mean over its samples of the fastest run, with its buffer count.
+    */
+   static Map<Sql, double[]> measure (Connection conn, Capture capture, Map<Sql, List<Plan>> plans) throws SQLException {
+      Map<Sql, double[]> cost = new LinkedHashMap<Sql, double[]>();
+      for (Map.Entry<Sql, List<Object[]>> e : capture.samples.entrySet()) {
+         double millis = 0, buffers = 0;
+         int n = 0;
+         for (Object[] params : e.getValue()) {
+            Plan best = null;
+            try {
+               for (int r = 0; r < REPEAT; ++r) {
+                  Plan p = explain(conn, e.getKey(), params);
+                  if (best == null || p.millis < best.millis) best = p;
+               }//end for
+            }catch (SQLException x) {
+               System.err.println(e.getKey() + ": not replayable (" + String.valueOf(x.getMessage()).trim() + ")");
+               continue;
+            }//end try
+            if (plans != null) {
+               List<Plan> l = plans.get(e.getKey());
+               if (l == null) plans.put(e.getKey(), l = new ArrayList<Plan>());
+               l.add(best);
+            }//end if
+            millis += best.millis;
+            buffers += best.buffers;
+            ++n;
+         }//end for
+         if (n > 0) cost.put(e.getKey(), new double[] { millis / n, buffers / n });
+      }//end for
+      return cost;
+   }//end measure
+
+   static void execute (Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         stmt.executeUpdate(sql);
+      }finally {
+         stmt.close();
+      }//end try
+   }//end execute
+
+   /*
+    * Runs the workload with a listener capturing its statements.
+    */
+   private static Capture capture (DBProject esql, String script) throws Exception {
+      Capture capture = new Capture();
+      esql.addStatementListener(capture);
+      try {
+         if (script != null) {
+            new ScriptRunner(esql).runFile(script);
+         }else {
+            Benchmark.Workload w = Benchmark.sample(esql.pool());
+            Random rnd = new Random(42);
+            for (Map.Entry<String, Benchmark.Op> op : Benchmark.OPS.entrySet()) {
+               for (int i = 0; i < CALLS; ++i) {
+                  try {
+                     op.getValue().run(esql, w, rnd);
+                  }catch (Exception e) {
+                     System.err.println(op.getKey() + ": " + e.getMessage());
+                  }//end try
+               }//end for
+            }//end for
+         }//end if
+      }finally {
+         esql.removeStatementListener(capture);
+      }//end try
+      return capture;
+   }//end capture
+
+   private static void report (Map<Sql, double[]> before, Map<Sql, double[]> after, long bytesBefore, long bytesAfter) {
+      System.out.println(String.format("%-26s %11s %11s %8s %10s %10s",
+                                       "statement", "before ms", "after ms", "ratio", "buf before", "buf after"));
+      double[] read = new double[2], write = new double[2];
+      for (Map.Entry<Sql, double[]> e : before.entrySet()) {
+         double[] b = e.getValue();
+         double[] a = after.get(e.getKey());
+         if (a == null) continue;
+         double[] total = isWrite(e.getKey()) ? write : read;
+         total[0] += b[0];
+         total[1] += a[0];
+         System.out.println(String.format("%-26s %11.3f %11.3f %8.2f %10.0f %10.0f",
+            e.getKey(), b[0], a[0], a[0] == 0 ? 0 : b[0] / a[0], b[1], a[1]));
+      }//end for
+      System.out.println(String.format("reads:  %.3f ms -> %.3f ms (%.2fx faster)",
+                                       read[0], read[1], read[1] == 0 ? 0 : read[0] / read[1]));
+      System.out.println(String.format("writes: %.3f ms -> %.3f ms (%.2fx the cost)",
+                                       write[0], write[1], write[0] == 0 ? 0 : write[1] / write[0]));
+      System.out.println(String.format("index size: %d kB -> %d kB", bytesBefore / 1024, bytesAfter / 1024));
+   }//end report
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java IndexAdvisor <dbname> <port> <user> [advise|apply|replace] [<script>]");
+         return;
+      }//end if
+      String mode = args.length > 3 ? args[3] : "advise";
+      if (!mode.equals("advise") && !mode.equals("apply") && !mode.equals("replace"))
+         throw new IllegalArgumentException("Unknown mode " + mode);
+      String script = args.length > 4 ? args[4] : null;
+
+      // reads answered in memory never reach the database
+      System.setProperty("dbproject.availabilityIndex", "false");
+      Class.forName("org.postgresql.Driver");
+      DBProject esql = new DBProject(args[0], args[1], args[2], "");
+      ConnectionPool.PooledConnection pc = null;
+      SQLException failure = null;
+      try {
+         Capture capture = capture(esql, script);
+         System.out.println("Captured " + capture.samples.size() + " statements");
+
+         pc = esql.pool().borrow();
+         Connection conn = pc.connection();
+         execute(conn, "ANALYZE");
+         List<Index> existing = indexes(conn);
+         Map<String, String> parents = parents(conn);
+         long bytesBefore = indexBytes(conn);
+         Map<Sql, List<Plan>> plans = new LinkedHashMap<Sql, List<Plan>>();
+         Map<Sql, double[]> before = measure(conn, capture, plans);
+
+         List<Candidate> all = new ArrayList<Candidate>();
+         for (Map.Entry<Sql, List<Plan>> e : plans.entrySet())
+            for (Plan p : e.getValue()) {
+               toParents(p, parents);
+               all.addAll(candidates(e.getKey(), p));
+            }//end for
+         List<Index> kept = new ArrayList<Index>();
+         for (Index i : existing) if (i.constraint || !mode.equals("replace")) kept.add(i);
+         Map<Candidate, String> servedBy = new LinkedHashMap<Candidate, String>();
+         List<Candidate> proposed = reduce(all, kept, servedBy);
+
+         for (Map.Entry<Candidate, String> e : servedBy.entrySet())
+            System.out.println("-- " + e.getKey().table + e.getKey().columns() + " served by " + e.getValue());
+         for (Candidate c : proposed) System.out.println(c.ddl() + " -- " + c.ops);
+         if (mode.equals("advise")) return;
+
+         if (mode.equals("replace")) {
+            for (Index i : existing) {
+               if (i.constraint) continue;
+               System.out.println("DROP INDEX " + i.name + ";");
+               execute(conn, "DROP INDEX " + i.name);
+            }//end for
+         }//end if
+         for (Candidate c : proposed) execute(conn, c.ddl());
+         execute(conn, "ANALYZE");
+         Map<Sql, double[]> after = measure(conn, capture, null);
+         report(before, after, bytesBefore, indexBytes(conn));
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         esql.pool().release(pc, failure);
+         esql.cleanup();
+      }//end try
+   }//end main
+
+}//end IndexAdvisor
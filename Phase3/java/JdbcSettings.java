@@ -0,0 +1,121 @@
+/*
+ * JDBC Settings
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Builds the connection URL and the driver properties it carries.
+ *
+ * The bundled pg73jdbc3.jar predates every property below; with a current
+ * driver (postgresql-42.x.jar next to the sources, picked up by compile.sh
+ * and bench.sh) the URL asks it to
+ *
+ *   prepareThreshold       switch to a named server-side statement on the
+ *                          first execution, since the pooled connections
+ *                          cache and reuse their PreparedStatements
+ *                          (dbproject.jdbc.prepareThreshold, default 1)
+ *   binaryTransfer         read ints, dates and numerics in binary
+ *                          (dbproject.jdbc.binaryTransfer, default true)
+ *   reWriteBatchedInserts  send an INSERT batch as multi-row INSERTs
+ *                          (dbproject.jdbc.reWriteBatchedInserts, default true)
+ *   defaultRowFetchSize    fetch large results in chunks outside streamQuery
+ *                          (dbproject.jdbc.defaultRowFetchSize, default
+ *                          dbproject.fetchSize)
+ *
+ * Anything else goes in dbproject.jdbc.options as name=value&amp;...; with
+ * dbproject.jdbc.tune=false the driver keeps its own defaults.  The server
+ * is dbproject.host, localhost unless set.
+ */
+public final class JdbcSettings {
+
+   // URL property, system property, default
+   private static final String[][] PROPERTIES = {
+      { "prepareThreshold", "dbproject.jdbc.prepareThreshold", "1" },
+      { "binaryTransfer", "dbproject.jdbc.binaryTransfer", "true" },
+      { "reWriteBatchedInserts", "dbproject.jdbc.reWriteBatchedInserts", "true" },
+      { "defaultRowFetchSize", "dbproject.jdbc.defaultRowFetchSize",
+        String.valueOf(Integer.getInteger("dbproject.fetchSize", 1000)) },
+   };
+
+   private JdbcSettings () {
+   }//end JdbcSettings
+
+   /**
+    * @return the URL of a database on dbproject.host, with the driver
+    *         properties when the loaded driver understands them
+    */
+   public static String url (String dbname, String dbport) {
+      return url(System.getProperty("dbproject.host", "localhost"), dbport, dbname);
+   }//end url
+
+   public static String url (String host, String dbport, String dbname) {
+      StringBuilder url = new StringBuilder("jdbc:postgresql://")
+         .append(host).append(':').append(dbport).append('/').append(dbname);
+      if (!tuned()) return url.toString();
+      char sep = '?';
+      for (String[] p : PROPERTIES) {
+         String value = System.getProperty(p[1], p[2]);
+         if (value == null || value.length() == 0) continue;
+         url.append(sep).append(p[0]).append('=').append(value);
+         sep = '&';
+      }//end for
+      String extra = System.getProperty("dbproject.jdbc.options", "");
+      if (extra.length() > 0) url.append(sep).append(extra);
+      return url.toString();
+   }//end url
+
+   /**
+    * @return true when the URL carries the properties
+    */
+   public static boolean tuned () {
+      return modern() && Boolean.parseBoolean(System.getProperty("dbproject.jdbc.tune", "true"));
+   }//end tuned
+
+   /**
+    * @return true when INSERT batches are rewritten into multi-row INSERTs,
+    *         whose failures no longer point at the rejected row
+    */
+   public static boolean rewritesBatches () {
+      return tuned() && Boolean.parseBoolean(System.getProperty("dbproject.jdbc.reWriteBatchedInserts", "true"));
+   }//end rewritesBatches
+
+   /**
+    * @return true when the loaded driver is pgjdbc 42 or later
+    */
+   public static boolean modern () {
+      Driver d = driver();
+      return d != null && d.getMajorVersion() >= 42;
+   }//end modern
+
+   /**
+    * @return the version of the loaded driver, e.g. "42.7"
+    */
+   public static String driverVersion () {
+      Driver d = driver();
+      return d == null ? "none" : d.getMajorVersion() + "." + d.getMinorVersion();
+   }//end driverVersion
+
+   private static Driver driver () {
+      try {
+         Class.forName("org.postgresql.Driver");
+         return DriverManager.getDriver("jdbc:postgresql://localhost/");
+      }catch (ClassNotFoundException e) {
+         return null;
+      }catch (SQLException e) {
+         return null;
+      }//end try
+   }//end driver
+
+}//end JdbcSettings
@@ -0,0 +1,324 @@
+/*
+ * Partition Maintenance
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the date partitions of Booking (monthly) and Repair (yearly) that
+ * create.sql sets up.
+ *
+ *   create-ahead  creates the partitions up to some months from now, and
+ *                 one for every period with rows in a default partition,
+ *                 moving those rows into it
+ *   archive       detaches the partitions ending on or before a date and
+ *                 moves them to the archive schema, or drops them; the
+ *                 CustomerRevenue and CompanyRepairs aggregates forget
+ *                 their rows, Request rows keep pointing at archived
+ *                 repairs
+ *   status        lists the partitions with their estimated row counts
+ *
+ * Usage: java PartitionManager <dbname> <port> <user> status
+ *                                                      | create-ahead [<months>]
+ *                                                      | archive <MM/DD/YYYY> [drop]
+ */
+public class PartitionManager {
+
+   private static final Pattern RANGE = Pattern.compile("FROM \\('([0-9-]+)'\\) TO \\('([0-9-]+)'\\)");
+
+   /**
+    * A partitioned table and the period of its partitions.
+    */
+   public enum Scheme {
+      BOOKING ("Booking", "bookingDate", ChronoUnit.MONTHS,
+         "DELETE FROM CustomerRevenue WHERE day >= DATE '%2$s' AND day < DATE '%3$s'"),
+      REPAIR ("Repair", "repairDate", ChronoUnit.YEARS,
+         "UPDATE CompanyRepairs c SET repairs = c.repairs - x.n " +
+         "FROM (SELECT mCompany, COUNT(*) AS n FROM %1$s GROUP BY mCompany) x WHERE c.cmpID = x.mCompany");
+
+      public final String table, column;
+      final ChronoUnit period;
+      // removes a partition's rows (%1$s, from %2$s to %3$s) from the aggregates
+      private final String _forget;
+
+      Scheme (String table, String column, ChronoUnit period, String forget) {
+         this.table = table;
+         this.column = column;
+         this.period = period;
+         this._forget = forget;
+      }//end Scheme
+
+      /**
+       * @return the first day of the period holding the date
+       */
+      LocalDate start (LocalDate d) {
+         return this.period == ChronoUnit.YEARS ? d.withDayOfYear(1) : d.withDayOfMonth(1);
+      }//end start
+
+      String partitionName (LocalDate from) {
+         return this.period == ChronoUnit.YEARS ? String.format("%s_p%04d", this.table, from.getYear())
+                                                : String.format("%s_p%04d_%02d", this.table, from.getYear(),
+                                                                from.getMonthValue());
+      }//end partitionName
+
+      String defaultPartition () {
+         return this.table + "_default";
+      }//end defaultPartition
+   }//end Scheme
+
+   /**
+    * One partition; from and to are null for the default partition.
+    */
+   public static class Partition {
+      public final String name;
+      public final LocalDate from, to;
+      public final long estimatedRows;
+
+      Partition (String name, LocalDate from, LocalDate to, long estimatedRows) {
+         this.name = name;
+         this.from = from;
+         this.to = to;
+         this.estimatedRows = estimatedRows;
+      }//end Partition
+
+      public String toString () {
+         return String.format("%-24s %-26s %,12d", this.name,
+                              this.from == null ? "DEFAULT" : this.from + " .. " + this.to, this.estimatedRows);
+      }//end toString
+   }//end Partition
+
+   private final ConnectionPool _pool;
+
+   public PartitionManager (ConnectionPool pool) {
+      this._pool = pool;
+   }//end PartitionManager
+
+   /**
+    * @return the partitions of a table, the default one last
+    */
+   public List<Partition> partitions (Scheme s) throws SQLException {
+      List<Partition> parts = new ArrayList<Partition>();
+      Partition deflt = null;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(
+               "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid), c.reltuples FROM pg_inherits i " +
+               "JOIN pg_class c ON c.oid = i.inhrelid " +
+               "WHERE i.inhparent = CAST('" + s.table.toLowerCase() + "' AS regclass) ORDER BY 2");
+            while (rs.next()) {
+               Matcher m = RANGE.matcher(rs.getString(2));
+               long rows = Math.max(0, (long) rs.getDouble(3));
+               if (m.find()) parts.add(new Partition(rs.getString(1), LocalDate.parse(m.group(1)),
+                                                     LocalDate.parse(m.group(2)), rows));
+               else deflt = new Partition(rs.getString(1), null, null, rows);
+            }//end while
+            rs.close();
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         this._pool.release(pc, failure);
+      }//end try
+      if (deflt != null) parts.add(deflt);
+      return parts;
+   }//end partitions
+
+   /**
+    * Creates every missing partition from the last one up to the period
+    * holding the horizon, and one for each period with rows in the default
+    * partition.
+    *
+    * @return the number of partitions created
+    */
+   public int createAhead (LocalDate horizon) throws SQLException {
+      int created = 0;
+      for (Scheme s : Scheme.values()) {
+         TreeSet<LocalDate> have = new TreeSet<LocalDate>();
+         for (Partition p : partitions(s))
+            if (p.from != null) have.add(p.from);
+
+         TreeSet<LocalDate> wanted = new TreeSet<LocalDate>(defaultPeriods(s));
+         LocalDate last = s.start(horizon);
+         LocalDate from = have.isEmpty() ? s.start(LocalDate.now()) : have.last().plus(1, s.period);
+         for (LocalDate d = from; !d.isAfter(last); d = d.plus(1, s.period)) wanted.add(d);
+         wanted.removeAll(have);
+         for (LocalDate d : wanted) {
+            long moved = create(s, d);
+            ++created;
+            System.out.println("created " + s.partitionName(d) + (moved > 0 ? ", moved " + moved + " rows" : ""));
+         }//end for
+      }//end for
+      return created;
+   }//end createAhead
+
+   /*
+    * The periods of the rows in the default partition.
+    */
+   private List<LocalDate> defaultPeriods (Scheme s) throws SQLException {
+      List<LocalDate> periods = new ArrayList<LocalDate>();
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(
+               "SELECT DISTINCT CAST(date_trunc('" + (s.period == ChronoUnit.YEARS ? "year" : "month") + "', " +
+               s.column + ") AS DATE) FROM " + s.defaultPartition());
+            while (rs.next()) periods.add(rs.getDate(1).toLocalDate());
+            rs.close();
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         this._pool.release(pc, failure);
+      }//end try
+      return periods;
+   }//end defaultPeriods
+
+   /*
+    * Creates the partition of one period in one transaction, moving its
+    * rows out of the default partition.  Writes to the default partition
+    * wait meanwhile; the create.sql triggers skip the moved rows.
+    *
+    * @return the number of rows moved
+    */
+   private long create (Scheme s, LocalDate from) throws SQLException {
+      LocalDate to = from.plus(1, s.period);
+      String range = s.column + " >= DATE '" + from + "' AND " + s.column + " < DATE '" + to + "'";
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      Connection conn = pc.connection();
+      SQLException failure = null;
+      try {
+         conn.setAutoCommit(false);
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.execute("SET LOCAL dbproject.partition_move = 'on'");
+            stmt.execute("LOCK TABLE " + s.defaultPartition() + " IN SHARE ROW EXCLUSIVE MODE");
+            stmt.execute("CREATE TEMP TABLE partition_rows ON COMMIT DROP AS " +
+                         "SELECT * FROM " + s.defaultPartition() + " WHERE " + range);
+            long moved = stmt.executeUpdate("DELETE FROM " + s.defaultPartition() + " WHERE " + range);
+            stmt.execute("CREATE TABLE " + s.partitionName(from) + " PARTITION OF " + s.table +
+                         " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            stmt.execute("INSERT INTO " + s.table + " SELECT * FROM partition_rows");
+            conn.commit();
+            return moved;
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         this._pool.release(pc, failure);
+      }//end try
+   }//end create
+
+   /**
+    * Detaches every partition ending on or before a date, each in its own
+    * transaction, and moves it to the archive schema or drops it.
+    *
+    * @return the number of partitions archived
+    */
+   public int archive (LocalDate before, boolean drop) throws SQLException {
+      int archived = 0;
+      for (Scheme s : Scheme.values()) {
+         for (Partition p : partitions(s)) {
+            if (p.to == null || p.to.isAfter(before)) continue;
+            detach(s, p, drop);
+            ++archived;
+            System.out.println((drop ? "dropped " : "archived ") + p.name);
+         }//end for
+      }//end for
+      return archived;
+   }//end archive
+
+   private void detach (Scheme s, Partition p, boolean drop) throws SQLException {
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      Connection conn = pc.connection();
+      SQLException failure = null;
+      try {
+         conn.setAutoCommit(false);
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.execute("LOCK TABLE " + p.name + " IN SHARE MODE");
+            stmt.executeUpdate(String.format(s._forget, p.name, p.from, p.to));
+            stmt.execute("ALTER TABLE " + s.table + " DETACH PARTITION " + p.name);
+            if (drop) {
+               stmt.execute("DROP TABLE " + p.name);
+            }else {
+               stmt.execute("CREATE SCHEMA IF NOT EXISTS archive");
+               stmt.execute("ALTER TABLE " + p.name + " SET SCHEMA archive");
+            }//end if
+            conn.commit();
+         }finally {
+            stmt.close();
+         }//end try
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         this._pool.release(pc, failure);
+      }//end try
+   }//end detach
+
+   public static void main (String[] args) throws Exception {
+      String command = args.length > 3 ? args[3] : "status";
+      if (args.length < 3 || (command.equals("archive") && args.length < 5)) {
+         System.err.println("Usage: java PartitionManager <dbname> <port> <user> status | create-ahead [<months>] | " +
+                            "archive <MM/DD/YYYY> [drop]");
+         return;
+      }//end if
+      Class.forName("org.postgresql.Driver");
+      DBProject esql = new DBProject(args[0], args[1], args[2], "");
+      try {
+         PartitionManager pm = new PartitionManager(esql.pool());
+         if (command.equals("create-ahead")) {
+            int months = args.length > 4 ? Integer.parseInt(args[4]) : 12;
+            System.out.println(pm.createAhead(LocalDate.now().plusMonths(months)) + " partitions created");
+         }else if (command.equals("archive")) {
+            LocalDate before = LocalDate.parse(args[4], Dates.USER);
+            boolean drop = args.length > 5 && args[5].equals("drop");
+            System.out.println(pm.archive(before, drop) + " partitions " + (drop ? "dropped" : "archived"));
+         }else if (command.equals("status")) {
+            for (Scheme s : Scheme.values()) {
+               List<Partition> parts = pm.partitions(s);
+               System.out.println(s.table + ": " + parts.size() + " partitions (estimated rows)");
+               for (Partition p : parts) System.out.println("   " + p);
+            }//end for
+         }else {
+            System.err.println("Unknown command " + command);
+         }//end if
+      }finally {
+         esql.cleanup();
+      }//end try
+   }//end main
+
+}//end PartitionManager
@@ -0,0 +1,349 @@
+/*
+ * Query Metrics
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms, row and byte counts and error counts of every named
+ * statement DBProject executes, plus a log of the slow and failed ones with
+ * their parameters.
+ *
+ * The metrics can be dumped periodically as text or JSON lines, and served
+ * in the Prometheus text format on a local port.  They are enabled by
+ * -Ddbproject.metrics=true or by setting a dump interval or port:
+ *   dbproject.metrics.slowMillis     statements at least this slow are logged (200)
+ *   dbproject.metrics.slowLog        slow or failed statements kept (100)
+ *   dbproject.metrics.dumpInterval   seconds between dumps, 0 for none (0)
+ *   dbproject.metrics.dumpFile       file the dumps are appended to (stderr)
+ *   dbproject.metrics.format         text or json (text)
+ *   dbproject.metrics.port           serve http://localhost:port/metrics, 0 for none (0)
+ */
+public class QueryMetrics implements StatementListener {
+
+   /**
+    * A log-linear latency histogram in microseconds, in the style of
+    * HdrHistogram: 16 buckets per power of two, so any recorded value is
+    * reported within about 6%.  Recording is lock free.
+    */
+   public static class Histogram {
+      private static final int SUB_BITS = 4;
+      private static final int SUB = 1 << SUB_BITS;
+      private final AtomicLongArray _counts = new AtomicLongArray((65 - SUB_BITS) * SUB);
+
+      static int index (long micros) {
+         if (micros < SUB) return (int) Math.max(0, micros);
+         int msb = 63 - Long.numberOfLeadingZeros(micros);
+         int sub = (int) (micros >>> (msb - SUB_BITS));
+         return (msb - SUB_BITS + 1) * SUB + sub - SUB;
+      }//end index
+
+      // the largest value recorded in a bucket
+      static long upper (int index) {
+         if (index < SUB) return index;
+         int shift = index / SUB - 1;
+         long lower = (long) (index % SUB + SUB) << shift;
+         return lower + (1L << shift) - 1;
+      }//end upper
+
+      public void record (long micros) {
+         this._counts.incrementAndGet(index(micros));
+      }//end record
+
+      public long count () {
+         long n = 0;
+         for (int i = 0; i < this._counts.length(); ++i) n += this._counts.get(i);
+         return n;
+      }//end count
+
+      /**
+       * @param p the percentile, 0 to 100
+       * @return the latency in microseconds at that percentile
+       */
+      public long percentile (double p) {
+         long[] c = snapshot();
+         long total = 0;
+         for (long v : c) total += v;
+         if (total == 0) return 0;
+         long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+         long seen = 0;
+         for (int i = 0; i < c.length; ++i) {
+            seen += c[i];
+            if (seen >= rank) return upper(i);
+         }//end for
+         return upper(c.length - 1);
+      }//end percentile
+
+      /**
+       * @return how many recorded values are at most the given latency
+       */
+      public long countAtMost (long micros) {
+         long[] c = snapshot();
+         long n = 0;
+         for (int i = 0; i < c.length && upper(i) <= micros; ++i) n += c[i];
+         return n;
+      }//end countAtMost
+
+      private long[] snapshot () {
+         long[] c = new long[this._counts.length()];
+         for (int i = 0; i < c.length; ++i) c[i] = this._counts.get(i);
+         return c;
+      }//end snapshot
+   }//end Histogram
+
+   /*
+    * Everything recorded for one statement.
+    */
+   private static class OpStats {
+      final Histogram latency = new Histogram();
+      final LongAdder calls = new LongAdder();
+      final LongAdder errors = new LongAdder();
+      final LongAdder rows = new LongAdder();
+      final LongAdder bytes = new LongAdder();
+      final LongAdder micros = new LongAdder();
+   }//end OpStats
+
+   // Prometheus histogram bounds, in seconds
+   private static final double[] BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+                                            0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+   private final Map<Sql, OpStats> _ops = new EnumMap<Sql, OpStats>(Sql.class);
+   private final long _slowMicros;
+   private final int _slowLogSize;
+   private final Deque<String> _slowLog = new ArrayDeque<String>(); // guarded by itself
+   private Thread _dumper = null;
+   private HttpServer _server = null;
+
+   public QueryMetrics () {
+      for (Sql op : Sql.values()) this._ops.put(op, new OpStats());
+      this._slowMicros = Long.getLong("dbproject.metrics.slowMillis", 200) * 1000;
+      this._slowLogSize = Math.max(1, Integer.getInteger("dbproject.metrics.slowLog", 100));
+   }//end QueryMetrics
+
+   /**
+    * @return true when the system properties ask for metrics
+    */
+   public static boolean enabled () {
+      return Boolean.getBoolean("dbproject.metrics")
+         || Integer.getInteger("dbproject.metrics.dumpInterval", 0) > 0
+         || Integer.getInteger("dbproject.metrics.port", 0) > 0;
+   }//end enabled
+
+   public void executed (Sql op, Object[] params, long nanos, int rows, long bytes, SQLException failure) {
+      OpStats s = this._ops.get(op);
+      long micros = nanos / 1000;
+      s.latency.record(micros);
+      s.calls.increment();
+      s.micros.add(micros);
+      s.rows.add(rows);
+      s.bytes.add(bytes);
+      if (failure != null) s.errors.increment();
+      if (failure != null || micros >= this._slowMicros) {
+         String entry = String.format("%s %s %.3fms rows=%d params=%s%s", LocalDateTime.now(), op,
+                                      micros / 1000.0, rows, Arrays.toString(params),
+                                      failure == null ? "" : " error=" + String.valueOf(failure.getMessage()).trim());
+         synchronized (this._slowLog) {
+            if (this._slowLog.size() == this._slowLogSize) this._slowLog.removeFirst();
+            this._slowLog.addLast(entry);
+         }//end synchronized
+      }//end if
+   }//end executed
+
+   /**
+    * @return the slow and failed statements, oldest first
+    */
+   public List<String> slowLog () {
+      synchronized (this._slowLog) {
+         return new ArrayList<String>(this._slowLog);
+      }//end synchronized
+   }//end slowLog
+
+   /**
+    * A table of every statement executed so far, followed by the slow log.
+    */
+   public String toText () {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%-26s %8s %6s %9s %9s %9s %9s %10s %12s%n", "statement", "calls", "errors",
+                              "mean ms", "p50 ms", "p99 ms", "max ms", "rows", "bytes"));
+      for (Map.Entry<Sql, OpStats> e : this._ops.entrySet()) {
+         OpStats s = e.getValue();
+         long calls = s.calls.sum();
+         if (calls == 0) continue;
+         sb.append(String.format("%-26s %8d %6d %9.3f %9.3f %9.3f %9.3f %10d %12d%n", e.getKey(), calls,
+                                 s.errors.sum(), s.micros.sum() / 1000.0 / calls,
+                                 s.latency.percentile(50) / 1000.0, s.latency.percentile(99) / 1000.0,
+                                 s.latency.percentile(100) / 1000.0, s.rows.sum(), s.bytes.sum()));
+      }//end for
+      for (String slow : slowLog()) sb.append("slow: ").append(slow).append('\n');
+      return sb.toString();
+   }//end toText
+
+   /**
+    * One JSON object with a member per statement executed so far.
+    */
+   public String toJson () {
+      StringBuilder sb = new StringBuilder("{\"time\":\"").append(LocalDateTime.now()).append("\",\"statements\":{");
+      boolean first = true;
+      for (Map.Entry<Sql, OpStats> e : this._ops.entrySet()) {
+         OpStats s = e.getValue();
+         long calls = s.calls.sum();
+         if (calls == 0) continue;
+         if (!first) sb.append(',');
+         first = false;
+         sb.append(String.format("\"%s\":{\"calls\":%d,\"errors\":%d,\"rows\":%d,\"bytes\":%d,\"totalMs\":%.3f," +
+                                 "\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                                 e.getKey(), calls, s.errors.sum(), s.rows.sum(), s.bytes.sum(),
+                                 s.micros.sum() / 1000.0, s.latency.percentile(50) / 1000.0,
+                                 s.latency.percentile(90) / 1000.0, s.latency.percentile(99) / 1000.0,
+                                 s.latency.percentile(100) / 1000.0));
+      }//end for
+      sb.append("},\"slow\":[");
+      first = true;
+      for (String slow : slowLog()) {
+         if (!first) sb.append(',');
+         first = false;
+         sb.append(ResultSinks.quote(slow));
+      }//end for
+      return sb.append("]}").toString();
+   }//end toJson
+
+   /**
+    * The metrics in the Prometheus text exposition format.
+    */
+   public String toPrometheus () {
+      StringBuilder sb = new StringBuilder();
+      sb.append("# HELP dbproject_statement_seconds Statement latency, including borrowing a connection.\n");
+      sb.append("# TYPE dbproject_statement_seconds histogram\n");
+      for (Map.Entry<Sql, OpStats> e : this._ops.entrySet()) {
+         OpStats s = e.getValue();
+         String op = "op=\"" + e.getKey() + "\"";
+         for (double b : BOUNDS) {
+            sb.append("dbproject_statement_seconds_bucket{").append(op).append(",le=\"").append(b).append("\"} ")
+              .append(s.latency.countAtMost((long) (b * 1e6))).append('\n');
+         }//end for
+         long calls = s.calls.sum();
+         sb.append("dbproject_statement_seconds_bucket{").append(op).append(",le=\"+Inf\"} ").append(calls).append('\n');
+         sb.append("dbproject_statement_seconds_sum{").append(op).append("} ").append(s.micros.sum() / 1e6).append('\n');
+         sb.append("dbproject_statement_seconds_count{").append(op).append("} ").append(calls).append('\n');
+      }//end for
+      counter(sb, "dbproject_statement_errors_total", "Statements that raised an error.", 0);
+      counter(sb, "dbproject_statement_rows_total", "Rows returned or affected.", 1);
+      counter(sb, "dbproject_statement_bytes_total", "Characters of the values fetched.", 2);
+      return sb.toString();
+   }//end toPrometheus
+
+   private void counter (StringBuilder sb, String name, String help, int which) {
+      sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      sb.append("# TYPE ").append(name).append(" counter\n");
+      for (Map.Entry<Sql, OpStats> e : this._ops.entrySet()) {
+         OpStats s = e.getValue();
+         LongAdder v = which == 0 ? s.errors : which == 1 ? s.rows : s.bytes;
+         sb.append(name).append("{op=\"").append(e.getKey()).append("\"} ").append(v.sum()).append('\n');
+      }//end for
+   }//end counter
+
+   /**
+    * Starts the periodic dump and the Prometheus endpoint the system
+    * properties ask for.
+    */
+   public synchronized void start () throws IOException {
+      int port = Integer.getInteger("dbproject.metrics.port", 0);
+      if (port > 0 && this._server == null) {
+         this._server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+         this._server.createContext("/metrics", new HttpHandler() {
+            public void handle (HttpExchange exchange) throws IOException {
+               byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+               exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+               exchange.sendResponseHeaders(200, body.length);
+               OutputStream out = exchange.getResponseBody();
+               out.write(body);
+               out.close();
+            }
+         });
+         this._server.start();
+      }//end if
+
+      final long interval = Integer.getInteger("dbproject.metrics.dumpInterval", 0) * 1000L;
+      if (interval > 0 && this._dumper == null) {
+         this._dumper = new Thread(new Runnable() {
+            public void run () {
+               try {
+                  while (true) {
+                     Thread.sleep(interval);
+                     dump();
+                  }//end while
+               }catch (InterruptedException e) {
+                  // closed.
+               }//end try
+            }
+         }, "dbproject-metrics");
+         this._dumper.setDaemon(true);
+         this._dumper.start();
+      }//end if
+   }//end start
+
+   /**
+    * Writes the metrics once, in the configured format, to the configured
+    * file or standard error.
+    */
+   public void dump () {
+      String text = System.getProperty("dbproject.metrics.format", "text").equals("json") ? toJson() + "\n" : toText();
+      String file = System.getProperty("dbproject.metrics.dumpFile");
+      if (file == null) {
+         System.err.print(text);
+         return;
+      }//end if
+      try {
+         PrintWriter w = new PrintWriter(new FileWriter(file, true));
+         w.print(text);
+         w.close();
+      }catch (IOException e) {
+         System.err.println("Unable to write metrics to " + file + ": " + e.getMessage());
+      }//end try
+   }//end dump
+
+   /**
+    * Stops the dump thread and the endpoint, and dumps a last time.
+    */
+   public synchronized void close () {
+      if (this._dumper != null) {
+         this._dumper.interrupt();
+         this._dumper = null;
+      }//end if
+      if (this._server != null) {
+         this._server.stop(0);
+         this._server = null;
+      }//end if
+      dump();
+   }//end close
+
+}//end QueryMetrics
@@ -0,0 +1,132 @@
+/*
+ * Fixed-Width Record File
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One table of the {@link EmbeddedStore}: records of a fixed size stored
+ * one after the other in a memory-mapped file, so record n is at a known
+ * offset and reading it is a memory access.
+ *
+ * The file starts with a header of the magic number, the record size and
+ * the number of records.  The mapping doubles when it fills up.  Writes go
+ * to the mapping only; the store logs them first and {@link #force()}s
+ * the file at a checkpoint.  Callers serialize writers and keep readers
+ * out while a write may grow the mapping.
+ */
+public class RecordFile {
+
+   private static final int MAGIC = 0x48444231; // HDB1
+   static final int HEADER = 16;
+
+   private final File _file;
+   private final RandomAccessFile _raf;
+   private final FileChannel _channel;
+   private final int _recordSize;
+   private MappedByteBuffer _map;
+   private int _count;
+
+   /**
+    * Opens the file, creating it when it does not exist.
+    *
+    * @throws java.io.IOException when the file cannot be mapped or holds
+    *         records of another size
+    */
+   public RecordFile (File file, int recordSize) throws IOException {
+      this._file = file;
+      this._recordSize = recordSize;
+      boolean created = !file.exists() || file.length() < HEADER;
+      this._raf = new RandomAccessFile(file, "rw");
+      this._channel = this._raf.getChannel();
+      long size = Math.max(this._channel.size(), HEADER + 64L * recordSize);
+      this._map = this._channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      if (created) {
+         this._map.putInt(0, MAGIC);
+         this._map.putInt(4, recordSize);
+         this._map.putInt(8, 0);
+      }else if (this._map.getInt(0) != MAGIC || this._map.getInt(4) != recordSize) {
+         close();
+         throw new IOException(file + " is not a table of " + recordSize + " byte records");
+      }//end if
+      this._count = this._map.getInt(8);
+   }//end RecordFile
+
+   /**
+    * @return the number of records
+    */
+   public int count () {
+      return this._count;
+   }//end count
+
+   public int recordSize () {
+      return this._recordSize;
+   }//end recordSize
+
+   /**
+    * @return the mapping; record n starts at {@link #offset(int)}
+    */
+   public MappedByteBuffer buffer () {
+      return this._map;
+   }//end buffer
+
+   public int offset (int slot) {
+      return HEADER + slot * this._recordSize;
+   }//end offset
+
+   /**
+    * Writes a record at a slot, past the last one to add it.
+    */
+   public void write (int slot, byte[] record) throws IOException {
+      if (record.length != this._recordSize)
+         throw new IOException("record of " + record.length + " bytes for " + this._file);
+      long end = HEADER + (long) (slot + 1) * this._recordSize;
+      if (end > Integer.MAX_VALUE) throw new IOException(this._file + " is full");
+      if (end > this._map.capacity()) {
+         long size = Math.min(Integer.MAX_VALUE, Math.max(end, 2L * this._map.capacity()));
+         this._map = this._channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }//end if
+      int at = offset(slot);
+      for (int i = 0; i < record.length; ++i) this._map.put(at + i, record[i]);
+      if (slot >= this._count) {
+         this._count = slot + 1;
+         this._map.putInt(8, this._count);
+      }//end if
+   }//end write
+
+   /**
+    * Copies a record out of the mapping.
+    */
+   public byte[] read (int slot) {
+      byte[] record = new byte[this._recordSize];
+      int at = offset(slot);
+      for (int i = 0; i < record.length; ++i) record[i] = this._map.get(at + i);
+      return record;
+   }//end read
+
+   /**
+    * Writes the mapped pages back to the file.
+    */
+   public void force () {
+      this._map.force();
+   }//end force
+
+   public void close () throws IOException {
+      this._channel.close();
+      this._raf.close();
+   }//end close
+
+}//end RecordFile
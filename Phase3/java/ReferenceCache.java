@@ -0,0 +1,351 @@
+/*
+ * Reference Table Cache
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Read-through cache of the small, rarely changing reference tables
+ * (Hotel, Room, MaintenanceCompany, Staff), so that foreign keys can be
+ * resolved and checked without a round trip.
+ *
+ * Every table is an LRU map bounded in size whose entries expire after a
+ * while.  Only rows that exist are cached: a key that is not found is
+ * looked up again next time, so a row added elsewhere is never reported
+ * missing.  The DBProject add operations invalidate what they change, and
+ * with dbproject.cache.listen the cache also LISTENs for the notifications
+ * the create.sql triggers send when another session changes a table.  The
+ * bundled driver cannot read notification payloads, so a notification
+ * clears the whole table.
+ *
+ * Enabled with -Ddbproject.cache=true:
+ *   dbproject.cache.size             entries kept per table (10000)
+ *   dbproject.cache.ttl              seconds an entry is trusted (300)
+ *   dbproject.cache.listen           invalidate on NOTIFY from the server (false)
+ *   dbproject.cache.listenInterval   ms between notification polls (1000)
+ */
+public class ReferenceCache {
+
+   /*
+    * One table: an access-ordered map that drops its eldest entry when full
+    * and ignores entries older than the time to live.
+    */
+   static class Table<K, V> {
+      private static class Entry<V> {
+         final V value;
+         final long loaded;
+
+         Entry (V value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+         }//end Entry
+      }//end Entry
+
+      final String name;
+      private final int _maxSize;
+      private final long _ttlMillis;
+      private final LinkedHashMap<K, Entry<V>> _map;
+      long hits, misses, evictions, expirations, invalidations;
+
+      Table (String name, int maxSize, long ttlMillis) {
+         this.name = name;
+         this._maxSize = maxSize;
+         this._ttlMillis = ttlMillis;
+         this._map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry (Map.Entry<K, Entry<V>> eldest) {
+               if (size() <= Table.this._maxSize) return false;
+               ++Table.this.evictions;
+               return true;
+            }
+         };
+      }//end Table
+
+      synchronized V get (K key) {
+         Entry<V> e = this._map.get(key);
+         if (e != null && System.currentTimeMillis() - e.loaded > this._ttlMillis) {
+            this._map.remove(key);
+            ++this.expirations;
+            e = null;
+         }//end if
+         if (e == null) {
+            ++this.misses;
+            return null;
+         }//end if
+         ++this.hits;
+         return e.value;
+      }//end get
+
+      synchronized void put (K key, V value) {
+         this._map.put(key, new Entry<V>(value, System.currentTimeMillis()));
+      }//end put
+
+      synchronized void remove (K key) {
+         if (this._map.remove(key) != null) ++this.invalidations;
+      }//end remove
+
+      synchronized void clear () {
+         this.invalidations += this._map.size();
+         this._map.clear();
+      }//end clear
+
+      synchronized String stats () {
+         long lookups = this.hits + this.misses;
+         return String.format("%s: size=%d hits=%d misses=%d hitRatio=%.1f%% evicted=%d expired=%d invalidated=%d",
+                              this.name, this._map.size(), this.hits, this.misses,
+                              lookups == 0 ? 0.0 : 100.0 * this.hits / lookups,
+                              this.evictions, this.expirations, this.invalidations);
+      }//end stats
+   }//end Table
+
+   private final DBProject _esql;
+   private final Table<Integer, String[]> _hotels;
+   private final Table<List<Integer>, String[]> _rooms;
+   private final Table<Integer, String[]> _companies;
+   private final Table<String, List<Integer>> _companyNames;
+   private final Table<Integer, String[]> _staff;
+   private Thread _listener = null;
+   private volatile boolean _closed = false;
+
+   public ReferenceCache (DBProject esql) {
+      this._esql = esql;
+      int size = Math.max(1, Integer.getInteger("dbproject.cache.size", 10000));
+      long ttl = Integer.getInteger("dbproject.cache.ttl", 300) * 1000L;
+      this._hotels = new Table<Integer, String[]>("hotel", size, ttl);
+      this._rooms = new Table<List<Integer>, String[]>("room", size, ttl);
+      this._companies = new Table<Integer, String[]>("maintenanceCompany", size, ttl);
+      this._companyNames = new Table<String, List<Integer>>("maintenanceCompany names", size, ttl);
+      this._staff = new Table<Integer, String[]>("staff", size, ttl);
+      if (Boolean.getBoolean("dbproject.cache.listen")) startListener();
+   }//end ReferenceCache
+
+   /**
+    * @return hotelID, address, manager; or null when there is no such hotel
+    */
+   public String[] hotel (int hotelID) throws SQLException {
+      String[] row = this._hotels.get(hotelID);
+      if (row == null) {
+         row = first(Sql.HOTEL_BY_ID, hotelID);
+         if (row != null) this._hotels.put(hotelID, row);
+      }//end if
+      return row;
+   }//end hotel
+
+   /**
+    * @return hotelID, roomNo, roomType; or null when there is no such room
+    */
+   public String[] room (int hotelID, int roomNo) throws SQLException {
+      List<Integer> key = Arrays.asList(hotelID, roomNo);
+      String[] row = this._rooms.get(key);
+      if (row == null) {
+         row = first(Sql.ROOM_BY_KEY, hotelID, roomNo);
+         if (row != null) this._rooms.put(key, row);
+      }//end if
+      return row;
+   }//end room
+
+   /**
+    * @return cmpID, name, address, isCertified; or null when there is no
+    *         such company
+    */
+   public String[] company (int cmpID) throws SQLException {
+      String[] row = this._companies.get(cmpID);
+      if (row == null) {
+         row = first(Sql.COMPANY_BY_ID, cmpID);
+         if (row != null) this._companies.put(cmpID, row);
+      }//end if
+      return row;
+   }//end company
+
+   /**
+    * Resolves a company name to its ids; names are not unique.
+    *
+    * @return the ids, empty when no company has that name
+    */
+   public List<Integer> companyIDs (String name) throws SQLException {
+      String key = name.trim();
+      List<Integer> ids = this._companyNames.get(key);
+      if (ids == null) {
+         ResultSinks.Collector c = ResultSinks.collect();
+         this._esql.streamQuery(Sql.COMPANY_IDS_BY_NAME, c, key);
+         ids = new ArrayList<Integer>();
+         for (String[] r : c.rows()) ids.add(Integer.valueOf(r[0].trim()));
+         if (!ids.isEmpty()) this._companyNames.put(key, ids);
+      }//end if
+      return ids;
+   }//end companyIDs
+
+   /**
+    * @return SSN, fName, lName, address, role, employerID; or null when
+    *         there is no such employee
+    */
+   public String[] staff (int ssn) throws SQLException {
+      String[] row = this._staff.get(ssn);
+      if (row == null) {
+         row = first(Sql.STAFF_BY_SSN, ssn);
+         if (row != null) this._staff.put(ssn, row);
+      }//end if
+      return row;
+   }//end staff
+
+   /*
+    * Input checks for the DBProject operations, made before the insert is
+    * sent.
+    */
+
+   public void requireHotel (int hotelID) throws SQLException {
+      if (hotel(hotelID) == null) throw new SQLException("Hotel " + hotelID + " does not exist");
+   }//end requireHotel
+
+   public void requireRoom (int hotelID, int roomNo) throws SQLException {
+      if (room(hotelID, roomNo) == null)
+         throw new SQLException("Room " + roomNo + " of hotel " + hotelID + " does not exist");
+   }//end requireRoom
+
+   public void requireCompany (int cmpID) throws SQLException {
+      if (company(cmpID) == null) throw new SQLException("Maintenance company " + cmpID + " does not exist");
+   }//end requireCompany
+
+   public void requireStaff (int ssn) throws SQLException {
+      if (staff(ssn) == null) throw new SQLException("Staff member " + ssn + " does not exist");
+   }//end requireStaff
+
+   /*
+    * Invalidation by the DBProject add operations.
+    */
+
+   public void roomAdded (int hotelID, int roomNo) {
+      this._rooms.remove(Arrays.asList(hotelID, roomNo));
+   }//end roomAdded
+
+   public void companyAdded (int cmpID, String name) {
+      this._companies.remove(cmpID);
+      if (name != null) this._companyNames.remove(name.trim());
+   }//end companyAdded
+
+   /**
+    * Forgets every cached row, e.g. after a bulk load.
+    */
+   public void invalidateAll () {
+      this._hotels.clear();
+      this._rooms.clear();
+      this._companies.clear();
+      this._companyNames.clear();
+      this._staff.clear();
+   }//end invalidateAll
+
+   public String stats () {
+      return "reference cache:\n   " + this._hotels.stats() + "\n   " + this._rooms.stats() + "\n   " +
+             this._companies.stats() + "\n   " + this._companyNames.stats() + "\n   " + this._staff.stats();
+   }//end stats
+
+   /**
+    * Stops listening for notifications.
+    */
+   public void close () {
+      this._closed = true;
+      if (this._listener != null) {
+         this._listener.interrupt();
+         try {
+            this._listener.join(5000);
+         }catch (InterruptedException e) {
+            // ignored.
+         }//end try
+         this._listener = null;
+      }//end if
+   }//end close
+
+   private String[] first (Sql op, Object... params) throws SQLException {
+      ResultSinks.Collector c = ResultSinks.collect();
+      this._esql.streamQuery(op, c, params);
+      return c.rows().isEmpty() ? null : c.rows().get(0);
+   }//end first
+
+   /*
+    * Clears a table on each notification from its create.sql trigger.
+    */
+   private void notified (String channel) {
+      if (channel.equals("hotel_changed")) this._hotels.clear();
+      else if (channel.equals("room_changed")) this._rooms.clear();
+      else if (channel.equals("staff_changed")) this._staff.clear();
+      else if (channel.equals("maintenancecompany_changed")) {
+         this._companies.clear();
+         this._companyNames.clear();
+      }//end if
+   }//end notified
+
+   /*
+    * Keeps one pooled connection LISTENing and polls it.  When the
+    * connection is lost, notifications may have been missed, so the whole
+    * cache is cleared before listening again.
+    */
+   private void startListener () {
+      final long interval = Math.max(10, Integer.getInteger("dbproject.cache.listenInterval", 1000));
+      final ConnectionPool pool = this._esql.pool();
+      this._listener = new Thread(new Runnable() {
+         public void run () {
+            while (!_closed) {
+               ConnectionPool.PooledConnection pc = null;
+               SQLException failure = null;
+               try {
+                  pc = pool.borrow();
+                  Statement stmt = pc.connection().createStatement();
+                  try {
+                     for (String channel : new String[] { "hotel_changed", "room_changed",
+                                                          "maintenancecompany_changed", "staff_changed" })
+                        stmt.execute("LISTEN " + channel);
+                     invalidateAll();
+                     while (!_closed) {
+                        Thread.sleep(interval);
+                        // the driver only reads notifications when a query runs
+                        stmt.executeQuery("SELECT 1").close();
+                        PGNotification[] n = ((PGConnection) pc.connection()).getNotifications();
+                        for (int i = 0; n != null && i < n.length; ++i) notified(n[i].getName());
+                     }//end while
+                  }finally {
+                     try {
+                        stmt.execute("UNLISTEN *");
+                     }catch (SQLException e) {
+                        // the pool validates the connection.
+                     }//end try
+                     stmt.close();
+                  }//end try
+               }catch (SQLException e) {
+                  failure = e;
+               }catch (InterruptedException e) {
+                  // closing.
+               }finally {
+                  pool.release(pc, failure);
+               }//end try
+               if (failure != null && !_closed) {
+                  try {
+                     Thread.sleep(interval);
+                  }catch (InterruptedException e) {
+                     // closing.
+                  }//end try
+               }//end if
+            }//end while
+         }
+      }, "dbproject-cache-listener");
+      this._listener.setDaemon(true);
+      this._listener.start();
+   }//end startListener
+
+}//end ReferenceCache
@@ -0,0 +1,136 @@
+/*
+ * Replica Routing Check
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+/**
+ * Checks the report routing against a primary and a streaming replica,
+ * the two servers started by startPostgreSQL.sh and startReplica.sh.
+ *
+ * Usage: java -Ddbproject.replicas=localhost:<replica port> ReplicaCheck <dbname> <port> <user>
+ *
+ * Waits for the replica to answer a report, then books a night at a time
+ * and reads the night back right away: every read has to see its booking,
+ * wherever it was sent.  Finally waits for the replica to replay the last
+ * booking and checks that the reports go back to it.
+ *
+ *   check.rounds    bookings written and read back (50)
+ *   check.seconds   how long to wait for the replica (10)
+ *
+ * The nights are in 2400, past the loaded data and BookingStress's nights;
+ * any bookings left there by an earlier run are deleted first.
+ */
+public class ReplicaCheck {
+
+   private static final LocalDate FIRST_NIGHT = LocalDate.of(2400, 1, 1);
+
+   public static void main (String[] args) throws Exception {
+      if (args.length < 3 || System.getProperty("dbproject.replicas", "").length() == 0) {
+         System.err.println("Usage: java -Ddbproject.replicas=localhost:<replica port> ReplicaCheck <dbname> <port> <user>");
+         return;
+      }//end if
+      int rounds = Math.max(1, Integer.getInteger("check.rounds", 50));
+      long wait = (long) (Double.parseDouble(System.getProperty("check.seconds", "10")) * 1000);
+
+      Class.forName("org.postgresql.Driver");
+      DBProject esql = new DBProject(args[0], args[1], args[2], "");
+      ReplicaRouter replicas = esql.replicas();
+      boolean passed = false;
+      try {
+         Benchmark.Workload w = Benchmark.sample(esql.pool());
+         int[] room = w.rooms.get(0);
+         LocalDate end = FIRST_NIGHT.plusDays(rounds);
+         deleteNights(esql, end);
+
+         // the delete is this thread's write; wait until the replica has it
+         boolean caughtUp = untilReplicaReads(esql, end, wait);
+         System.out.println("replica answering: " + caughtUp);
+
+         long replicaBefore = replicas.replicaReads();
+         int booked = 0, missed = 0;
+         for (int n = 0; n < rounds; ++n) {
+            LocalDate night = FIRST_NIGHT.plusDays(n);
+            int bID = esql.bookRoom(1, room[0], room[1], night.format(Dates.USER), 1, 100);
+            if (bID == BookingEngine.TAKEN) continue;
+            ++booked;
+            if (!sees(esql, night, room)) ++missed;
+         }//end for
+         long fromReplica = replicas.replicaReads() - replicaBefore;
+         System.out.println(String.format("read back %d bookings: missed=%d, %d read from a replica",
+                                          booked, missed, fromReplica));
+
+         // once the replica replays the last booking, reports go back to it
+         boolean returned = untilReplicaReads(esql, end, wait);
+         System.out.println("reports back on the replica: " + returned);
+         System.out.println(replicas.stats());
+         passed = caughtUp && booked == rounds && missed == 0 && returned;
+         System.out.println(passed ? "PASS" : "FAIL");
+         deleteNights(esql, end);
+      }finally {
+         esql.cleanup();
+      }//end try
+      if (!passed) System.exit(1);
+   }//end main
+
+   /*
+    * Whether the bookings of a night include the room's.
+    */
+   private static boolean sees (DBProject esql, LocalDate night, int[] room) throws SQLException {
+      ResultSinks.Collector rows = ResultSinks.collect();
+      DateRange d = DateRange.days(night, 1);
+      esql.streamQuery(Sql.BOOKINGS_IN_RANGE, rows, d.from(), d.until());
+      for (String[] r : rows.rows())
+         if (Integer.parseInt(r[0]) == room[0] && Integer.parseInt(r[1]) == room[1]) return true;
+      return false;
+   }//end sees
+
+   /*
+    * Runs a report over the test nights until a replica answers one, or
+    * the time is up.
+    */
+   private static boolean untilReplicaReads (DBProject esql, LocalDate end, long millis) throws Exception {
+      ReplicaRouter replicas = esql.replicas();
+      DateRange nights = DateRange.of(FIRST_NIGHT, end);
+      long deadline = System.currentTimeMillis() + millis;
+      while (true) {
+         long before = replicas.replicaReads();
+         esql.streamQuery(Sql.BOOKINGS_IN_RANGE, ResultSinks.discard(), nights.from(), nights.until());
+         if (replicas.replicaReads() > before) return true;
+         if (System.currentTimeMillis() > deadline) return false;
+         Thread.sleep(100);
+      }//end while
+   }//end untilReplicaReads
+
+   private static void deleteNights (DBProject esql, LocalDate end) throws SQLException {
+      ConnectionPool.PooledConnection pc = esql.pool().borrow();
+      SQLException failure = null;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            stmt.executeUpdate("DELETE FROM Booking WHERE bookingDate >= DATE '" + FIRST_NIGHT +
+                               "' AND bookingDate < DATE '" + end + "'");
+         }finally {
+            stmt.close();
+         }//end try
+         esql.replicas().wrote(pc.connection());
+      }catch (SQLException e) {
+         failure = e;
+         throw e;
+      }finally {
+         esql.pool().release(pc, failure);
+      }//end try
+   }//end deleteNights
+
+}//end ReplicaCheck
@@ -0,0 +1,367 @@
+/*
+ * Replica Routing
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sends the report queries ({@link Sql#readOnly()}) to streaming replicas
+ * of the database, keeping the writes and the lookups behind them on the
+ * primary.
+ *
+ * Positions in the write-ahead log (LSNs) decide where a report may go.
+ * A write notes the primary's current LSN for the calling thread, and a
+ * thread probes the primary's LSN and every replica's replay LSN each
+ * dbproject.replicas.checkInterval ms.  A replica's lag is how long ago
+ * the primary was at the LSN the replica has replayed, so a replica that
+ * stopped receiving falls behind as soon as the primary moves on.  A
+ * report goes to the next replica, in turn, that answered the last probe,
+ * lags by at most dbproject.replicas.maxLag ms and has replayed the
+ * calling thread's last write, so a caller reads its own bookings;
+ * otherwise it goes to the primary.  A replica that fails a query is left
+ * out until it answers a probe again, and the query is retried on the
+ * primary.
+ *
+ *   dbproject.replicas               host:port[,host:port...] of the replicas,
+ *                                    with the primary's database and user
+ *   dbproject.replicas.maxLag        ms a replica may be behind (1000)
+ *   dbproject.replicas.checkInterval ms between probes (500)
+ *
+ * "java ReplicaCheck" tests the routing against a replica started by
+ * ../postgresql/startReplica.sh.
+ */
+public class ReplicaRouter {
+
+   private static final String PRIMARY_LSN = "SELECT pg_current_wal_lsn()";
+   private static final String REPLICA_PROBE = "SELECT pg_is_in_recovery(), pg_last_wal_replay_lsn()";
+
+   // primary positions kept to date the replicas' replay, at most
+   private static final int HISTORY = 1024;
+
+   /*
+    * One replica and what the last probe saw.
+    */
+   private static class Replica {
+      final String name;
+      final ConnectionPool pool;
+      boolean up = false;
+      long replayed = 0;
+      long lagMillis = -1;
+      long reads = 0;
+      String error = "not probed yet";
+
+      Replica (String name, ConnectionPool pool) {
+         this.name = name;
+         this.pool = pool;
+      }//end Replica
+   }//end Replica
+
+   // the primary's LSN after each thread's last write; 0 before any
+   private final ThreadLocal<long[]> _lastWrite = new ThreadLocal<long[]>() {
+      protected long[] initialValue () { return new long[1]; }
+   };
+
+   private final ConnectionPool _primary;
+   private final List<Replica> _replicas = new ArrayList<Replica>();
+   // { probe time in ms, primary LSN } of the recent probes, oldest first
+   private final Deque<long[]> _history = new ArrayDeque<long[]>();
+   private final long _maxLagMillis, _checkMillis;
+   private final Thread _prober;
+   private volatile boolean _closed = false;
+   private int _next = 0;
+   private long _primaryReads = 0, _behindWrites = 0, _failovers = 0, _probes = 0;
+   private String _primaryError = null;
+
+   /**
+    * Opens a pool per replica and starts probing them.  A replica that
+    * cannot be reached is skipped until it can.
+    *
+    * @param primary the pool of the primary, for its LSN
+    */
+   public ReplicaRouter (ConnectionPool primary, String replicas, String dbname, String user, String passwd) {
+      this._primary = primary;
+      this._maxLagMillis = Math.max(0, Integer.getInteger("dbproject.replicas.maxLag", 1000));
+      this._checkMillis = Math.max(10, Integer.getInteger("dbproject.replicas.checkInterval", 500));
+      for (String r : replicas.split(",")) {
+         r = r.trim();
+         if (r.length() == 0) continue;
+         int colon = r.lastIndexOf(':');
+         String host = colon < 0 ? "localhost" : r.substring(0, colon);
+         String port = colon < 0 ? r : r.substring(colon + 1);
+         this._replicas.add(new Replica(host + ":" + port,
+                                        new ConnectionPool(JdbcSettings.url(host, port, dbname), user, passwd)));
+      }//end for
+      probeAll();
+      this._prober = new Thread(new Runnable() {
+         public void run () {
+            while (!_closed) {
+               try {
+                  Thread.sleep(_checkMillis);
+               }catch (InterruptedException e) {
+                  return;
+               }//end try
+               probeAll();
+            }//end while
+         }
+      }, "dbproject-replica-probe");
+      this._prober.setDaemon(true);
+      this._prober.start();
+   }//end ReplicaRouter
+
+   /**
+    * @return an LSN such as 0/16B3748 as one number
+    */
+   static long lsn (String text) {
+      if (text == null) return 0;
+      int slash = text.indexOf('/');
+      return (Long.parseLong(text.substring(0, slash), 16) << 32) | Long.parseLong(text.substring(slash + 1), 16);
+   }//end lsn
+
+   private static long currentLsn (Connection conn) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(PRIMARY_LSN);
+         rs.next();
+         return lsn(rs.getString(1));
+      }finally {
+         stmt.close();
+      }//end try
+   }//end currentLsn
+
+   /*
+    * Reads the primary's LSN, then every replica's replay LSN; a replica
+    * is as far behind as the primary was when it was at that LSN.
+    */
+   private void probeAll () {
+      long now = System.currentTimeMillis();
+      ConnectionPool.PooledConnection pc = null;
+      SQLException failure = null;
+      try {
+         pc = this._primary.borrow();
+         long at = currentLsn(pc.connection());
+         synchronized (this) {
+            if (this._history.isEmpty() || this._history.peekLast()[1] != at)
+               this._history.addLast(new long[] { now, at });
+            while (this._history.size() > HISTORY) this._history.removeFirst();
+            this._primaryError = null;
+         }//end synchronized
+      }catch (SQLException e) {
+         failure = e;
+         synchronized (this) { this._primaryError = e.getMessage(); }
+      }finally {
+         this._primary.release(pc, failure);
+      }//end try
+      for (Replica r : this._replicas) probe(r, now);
+   }//end probeAll
+
+   private void probe (Replica r, long now) {
+      ConnectionPool.PooledConnection pc = null;
+      SQLException failure = null;
+      boolean up = false;
+      long replayed = 0;
+      String error = null;
+      try {
+         // one connect attempt while the replica is down, not the pool's backoff
+         if (!r.up) r.pool.prime();
+         pc = r.pool.borrow();
+         Statement stmt = pc.connection().createStatement();
+         ResultSet rs = stmt.executeQuery(REPLICA_PROBE);
+         rs.next();
+         up = rs.getBoolean(1);
+         replayed = lsn(rs.getString(2));
+         rs.close();
+         stmt.close();
+         if (!up) error = "not in recovery, so not a replica";
+      }catch (SQLException e) {
+         failure = e;
+         error = e.getMessage();
+      }finally {
+         r.pool.release(pc, failure);
+      }//end try
+      synchronized (this) {
+         ++this._probes;
+         r.up = up && this._primaryError == null;
+         r.replayed = replayed;
+         r.lagMillis = up ? lagMillis(replayed, now) : -1;
+         r.error = error != null ? error : this._primaryError;
+      }//end synchronized
+   }//end probe
+
+   /*
+    * How long ago the primary was past an LSN: 0 when the newest primary
+    * position is replayed, else the age of the oldest position that is
+    * not, or unknown (MAX_VALUE) when that is older than the history.
+    */
+   private long lagMillis (long replayed, long now) {
+      long[] behind = null;
+      for (Iterator<long[]> it = this._history.descendingIterator(); it.hasNext(); ) {
+         long[] h = it.next();
+         if (h[1] <= replayed) break;
+         behind = h;
+      }//end for
+      if (behind == null) return this._history.isEmpty() ? Long.MAX_VALUE : 0;
+      if (behind == this._history.peekFirst() && this._history.size() == HISTORY) return Long.MAX_VALUE;
+      return Math.max(0, now - behind[0]);
+   }//end lagMillis
+
+   /**
+    * Notes that the calling thread wrote to the primary through a
+    * connection; its reports stay there until a replica has replayed the
+    * primary's current LSN.
+    */
+   public void wrote (Connection conn) {
+      try {
+         wrote(currentLsn(conn));
+      }catch (SQLException e) {
+         // the write's position is unknown; read the primary until the next write
+         wrote(Long.MAX_VALUE);
+      }//end try
+   }//end wrote
+
+   /**
+    * The same, for a write committed on a connection the caller no longer
+    * holds.
+    */
+   public void wrote () {
+      ConnectionPool.PooledConnection pc = null;
+      SQLException failure = null;
+      try {
+         pc = this._primary.borrow();
+         wrote(pc.connection());
+      }catch (SQLException e) {
+         failure = e;
+         wrote(Long.MAX_VALUE);
+      }finally {
+         this._primary.release(pc, failure);
+      }//end try
+   }//end wrote
+
+   private void wrote (long lsn) {
+      this._lastWrite.get()[0] = lsn;
+   }//end wrote
+
+   /**
+    * @return the LSN of the calling thread's last write, for {@link #inherit(long)}
+    */
+   public long lastWrite () {
+      return this._lastWrite.get()[0];
+   }//end lastWrite
+
+   /**
+    * Holds the calling thread to another thread's last write, for work
+    * handed to a pool thread (see AsyncDBProject).
+    */
+   public void inherit (long lastWrite) {
+      long[] mine = this._lastWrite.get();
+      mine[0] = Math.max(mine[0], lastWrite);
+   }//end inherit
+
+   /**
+    * Keeps the calling thread's reads on the primary, or lets them go to
+    * the replicas again.
+    */
+   public void pin (boolean primary) {
+      wrote(primary ? Long.MAX_VALUE : 0);
+   }//end pin
+
+   /**
+    * @return the pool of the replica to run a report on, or null for the
+    *         primary
+    */
+   public synchronized ConnectionPool route () {
+      long lastWrite = this._lastWrite.get()[0];
+      boolean behind = false;
+      for (int i = 0; i < this._replicas.size(); ++i) {
+         Replica r = this._replicas.get((this._next + i) % this._replicas.size());
+         if (!r.up || r.lagMillis > this._maxLagMillis) continue;
+         if (r.replayed < lastWrite) {
+            behind = true;
+            continue;
+         }//end if
+         this._next = (this._next + i + 1) % this._replicas.size();
+         ++r.reads;
+         return r.pool;
+      }//end for
+      ++this._primaryReads;
+      if (behind) ++this._behindWrites;
+      return null;
+   }//end route
+
+   /**
+    * Takes a replica out of the rotation after a failed query, when the
+    * failure was the replica's.
+    *
+    * @return true when the query should be retried on the primary
+    */
+   public boolean failed (ConnectionPool pool, SQLException e) {
+      String state = e.getSQLState();
+      // 40001 is also a query cancelled by a conflict with replay
+      boolean replica = state == null || state.startsWith("08") || state.startsWith("53")
+                        || state.startsWith("57") || state.equals("40001");
+      if (!replica) return false;
+      synchronized (this) {
+         ++this._failovers;
+         for (Replica r : this._replicas) {
+            if (r.pool != pool) continue;
+            r.up = false;
+            r.error = e.getMessage();
+         }//end for
+      }//end synchronized
+      return true;
+   }//end failed
+
+   /**
+    * @return the reports the replicas answered
+    */
+   public synchronized long replicaReads () {
+      long reads = 0;
+      for (Replica r : this._replicas) reads += r.reads;
+      return reads;
+   }//end replicaReads
+
+   /**
+    * @return the reports the primary answered because no replica was
+    *         up, close enough, or past the caller's write
+    */
+   public synchronized long primaryReads () {
+      return this._primaryReads;
+   }//end primaryReads
+
+   public synchronized String stats () {
+      StringBuilder sb = new StringBuilder(String.format(
+         "replicas: primaryReads=%d (behind own writes %d) failovers=%d probes=%d",
+         this._primaryReads, this._behindWrites, this._failovers, this._probes));
+      for (Replica r : this._replicas) {
+         sb.append(String.format("%n   %s %s replayed=%X/%X lag=%s reads=%d", r.name, r.up ? "up" : "down",
+                                 r.replayed >>> 32, r.replayed & 0xFFFFFFFFL,
+                                 r.lagMillis < 0 ? "?" : r.lagMillis == Long.MAX_VALUE ? "unknown" : r.lagMillis + "ms",
+                                 r.reads));
+         if (r.error != null) sb.append(" (").append(r.error).append(')');
+      }//end for
+      return sb.toString();
+   }//end stats
+
+   public void close () {
+      this._closed = true;
+      this._prober.interrupt();
+      for (Replica r : this._replicas) r.pool.close();
+   }//end close
+
+}//end ReplicaRouter
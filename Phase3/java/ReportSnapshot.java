@@ -0,0 +1,777 @@
+/*
+ * Reporting Snapshot
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+
+/**
+ * Answers the reports of the menu from an in-process, column-wise copy of
+ * Booking, Repair, Room and MaintenanceCompany, so reporting does not
+ * compete with bookings for the database.
+ *
+ * Each table is held as primitive arrays, one per column used: keys as
+ * ints, dates as epoch days, prices as cents, and roomType, repairType and
+ * description as codes into a dictionary of their distinct values.  A
+ * report scans the arrays in parallel on the common fork-join pool, in
+ * slices of dbproject.snapshot.grain rows, and writes its rows in the shape
+ * of the SQL result.  topKHighestPriceBookingsForACustomer needs Customer
+ * and still runs in the database.
+ *
+ * A report after a write through DBProject to one of the tables waits
+ * for a refresh that includes it, so a booking shows in the next report.
+ * Otherwise a report finding the copy older than
+ * dbproject.snapshot.refresh milliseconds asks a background thread to
+ * refresh it and is answered from the copy last published.  A refresh
+ * reads Room and MaintenanceCompany whole, and only the Booking and Repair
+ * rows with keys above the highest loaded one less
+ * dbproject.snapshot.lookback, skipping keys already held; rows with older
+ * keys, updates and deletes (an archived partition) are only seen after
+ * {@link #rebuild()}.
+ *
+ * Enabled with -Ddbproject.snapshot=true.
+ */
+public class ReportSnapshot {
+
+   private static final int GRAIN = Math.max(1024, Integer.getInteger("dbproject.snapshot.grain", 1 << 15));
+   private static final long REFRESH_MILLIS = Long.getLong("dbproject.snapshot.refresh", 1000);
+   private static final int LOOKBACK = Math.max(0, Integer.getInteger("dbproject.snapshot.lookback", 10000));
+
+   /*
+    * Distinct strings, each under a small code; null is code -1.
+    */
+   private static class Dictionary {
+      final Map<String, Integer> codes = new HashMap<String, Integer>();
+      final List<String> values = new ArrayList<String>();
+
+      int encode (String v) {
+         if (v == null) return -1;
+         Integer code = this.codes.get(v);
+         if (code == null) {
+            code = this.values.size();
+            this.codes.put(v, code);
+            this.values.add(v);
+         }//end if
+         return code;
+      }//end encode
+
+      String[] published () {
+         return this.values.toArray(new String[this.values.size()]);
+      }//end published
+   }//end Dictionary
+
+   /*
+    * Booking columns; rows [0, size) are filled.  The loader appends past
+    * size while reports read a published copy of the header.
+    */
+   private static class Bookings {
+      int[] bID = new int[1024], customer = new int[1024], hotelID = new int[1024], roomNo = new int[1024],
+            day = new int[1024];
+      long[] cents = new long[1024];
+      int size = 0;
+
+      void add (int id, int cust, int hotel, int room, int d, long price) {
+         if (this.size == this.bID.length) {
+            int n = this.size * 2;
+            this.bID = Arrays.copyOf(this.bID, n);
+            this.customer = Arrays.copyOf(this.customer, n);
+            this.hotelID = Arrays.copyOf(this.hotelID, n);
+            this.roomNo = Arrays.copyOf(this.roomNo, n);
+            this.day = Arrays.copyOf(this.day, n);
+            this.cents = Arrays.copyOf(this.cents, n);
+         }//end if
+         int i = this.size;
+         this.bID[i] = id;
+         this.customer[i] = cust;
+         this.hotelID[i] = hotel;
+         this.roomNo[i] = room;
+         this.day[i] = d;
+         this.cents[i] = price;
+         this.size = i + 1;
+      }//end add
+
+      Bookings published () {
+         Bookings b = new Bookings();
+         b.bID = this.bID; b.customer = this.customer; b.hotelID = this.hotelID; b.roomNo = this.roomNo;
+         b.day = this.day; b.cents = this.cents; b.size = this.size;
+         return b;
+      }//end published
+   }//end Bookings
+
+   /*
+    * Repair columns, kept as Bookings.
+    */
+   private static class Repairs {
+      int[] rID = new int[1024], hotelID = new int[1024], roomNo = new int[1024], company = new int[1024],
+            day = new int[1024], type = new int[1024], description = new int[1024];
+      int size = 0, maxCompany = 0;
+
+      void add (int id, int hotel, int room, int cmp, int d, int t, int desc) {
+         if (this.size == this.rID.length) {
+            int n = this.size * 2;
+            this.rID = Arrays.copyOf(this.rID, n);
+            this.hotelID = Arrays.copyOf(this.hotelID, n);
+            this.roomNo = Arrays.copyOf(this.roomNo, n);
+            this.company = Arrays.copyOf(this.company, n);
+            this.day = Arrays.copyOf(this.day, n);
+            this.type = Arrays.copyOf(this.type, n);
+            this.description = Arrays.copyOf(this.description, n);
+         }//end if
+         int i = this.size;
+         this.rID[i] = id;
+         this.hotelID[i] = hotel;
+         this.roomNo[i] = room;
+         this.company[i] = cmp;
+         this.day[i] = d;
+         this.type[i] = t;
+         this.description[i] = desc;
+         this.maxCompany = Math.max(this.maxCompany, cmp);
+         this.size = i + 1;
+      }//end add
+
+      Repairs published () {
+         Repairs r = new Repairs();
+         r.rID = this.rID; r.hotelID = this.hotelID; r.roomNo = this.roomNo; r.company = this.company;
+         r.day = this.day; r.type = this.type; r.description = this.description;
+         r.size = this.size; r.maxCompany = this.maxCompany;
+         return r;
+      }//end published
+   }//end Repairs
+
+   /*
+    * Room and MaintenanceCompany, read whole on every refresh.  Rooms are
+    * ordered by hotel, so a hotel's rooms are one slice.
+    */
+   private static class References {
+      int[] hotelID = new int[0], roomNo = new int[0], roomType = new int[0];
+      final Map<Integer, int[]> hotelSlice = new HashMap<Integer, int[]>(); // hotelID -> [from, to)
+      final Set<Long> roomKeys = new HashSet<Long>();
+      final Map<Integer, String> companyName = new HashMap<Integer, String>();
+   }//end References
+
+   /*
+    * What the reports read: never changed once published.
+    */
+   private static class State {
+      final Bookings bookings;
+      final Repairs repairs;
+      final References refs;
+      final String[] roomTypes, repairTypes, descriptions;
+
+      State (Bookings bookings, Repairs repairs, References refs, String[] roomTypes, String[] repairTypes,
+             String[] descriptions) {
+         this.bookings = bookings;
+         this.repairs = repairs;
+         this.refs = refs;
+         this.roomTypes = roomTypes;
+         this.repairTypes = repairTypes;
+         this.descriptions = descriptions;
+      }//end State
+   }//end State
+
+   /*
+    * One slice of a parallel scan.
+    */
+   private interface Leaf<R> {
+      R scan (int from, int to);
+   }//end Leaf
+
+   private static class Scan<R> extends RecursiveTask<R> {
+      private static final long serialVersionUID = 1L;
+
+      private final int _from, _to;
+      private final Leaf<R> _leaf;
+      private final BinaryOperator<R> _combine;
+
+      Scan (int from, int to, Leaf<R> leaf, BinaryOperator<R> combine) {
+         this._from = from;
+         this._to = to;
+         this._leaf = leaf;
+         this._combine = combine;
+      }//end Scan
+
+      protected R compute () {
+         if (this._to - this._from <= GRAIN) return this._leaf.scan(this._from, this._to);
+         int mid = (this._from + this._to) >>> 1;
+         Scan<R> left = new Scan<R>(this._from, mid, this._leaf, this._combine);
+         left.fork();
+         R right = new Scan<R>(mid, this._to, this._leaf, this._combine).compute();
+         return this._combine.apply(left.join(), right);
+      }//end compute
+   }//end Scan
+
+   /*
+    * Scans rows [0, rows) slice by slice and combines the answers of the
+    * slices left to right.
+    */
+   private static <R> R scan (int rows, Leaf<R> leaf, BinaryOperator<R> combine) {
+      if (rows <= GRAIN) return leaf.scan(0, rows);
+      return ForkJoinPool.commonPool().invoke(new Scan<R>(0, rows, leaf, combine));
+   }//end scan
+
+   private final DBProject _esql;
+
+   // held by refresh and rebuild, never by a report
+   private final Object _loading = new Object();
+
+   // written by refresh only, under _loading
+   private Bookings _bookings;
+   private Repairs _repairs;
+   private BitSet _bookingIDs, _repairIDs;
+   private int _maxBookingID, _maxRepairID;
+   private final Dictionary _roomTypes = new Dictionary(), _repairTypes = new Dictionary(),
+                            _descriptions = new Dictionary();
+
+   private volatile State _state = null;
+   private volatile long _refreshedAt = 0;
+   // writes recorded, and the ones the published state includes
+   private final AtomicLong _writes = new AtomicLong();
+   private volatile long _publishedWrites = 0;
+
+   // the background refresh, guarded by this
+   private Thread _refresher = null;
+   private boolean _refreshWanted = false;
+   private boolean _closed = false;
+
+   // metrics, guarded by this
+   private long _reports = 0;
+   private long _refreshes = 0;
+   private long _rebuilds = 0;
+   private long _appended = 0;
+   private long _staleReports = 0;
+   private long _failedRefreshes = 0;
+   private String _lastError = null;
+   private double _lastRefreshMillis = 0;
+   private double _totalRefreshMillis = 0;
+
+   public ReportSnapshot (DBProject esql) {
+      this._esql = esql;
+   }//end ReportSnapshot
+
+   /**
+    * Reloads every table.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void rebuild () throws SQLException {
+      synchronized (this._loading) {
+         this._bookings = new Bookings();
+         this._repairs = new Repairs();
+         this._bookingIDs = new BitSet();
+         this._repairIDs = new BitSet();
+         this._maxBookingID = 0;
+         this._maxRepairID = 0;
+         synchronized (this) { ++this._rebuilds; }
+         refresh();
+      }//end synchronized
+   }//end rebuild
+
+   /**
+    * Reads the rows added since the last refresh.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void refresh () throws SQLException {
+      synchronized (this._loading) {
+         if (this._bookings == null) {
+            rebuild();
+            return;
+         }//end if
+         long start = System.nanoTime();
+         long writes = this._writes.get();
+         final References refs = new References();
+         final List<int[]> rooms = new ArrayList<int[]>();
+         this._esql.streamQuery(Sql.ALL_ROOMS, new ResultSink() {
+            public void begin (String[] columns) {}
+            public void row (String[] v) {
+               rooms.add(new int[] { integer(v[0]), integer(v[1]), _roomTypes.encode(v[2]) });
+            }
+            public void end (int rowCount) {}
+         });
+         refs.hotelID = new int[rooms.size()];
+         refs.roomNo = new int[rooms.size()];
+         refs.roomType = new int[rooms.size()];
+         for (int i = 0; i < rooms.size(); ++i) {
+            int[] r = rooms.get(i);
+            refs.hotelID[i] = r[0];
+            refs.roomNo[i] = r[1];
+            refs.roomType[i] = r[2];
+            refs.roomKeys.add(roomKey(r[0], r[1]));
+            int[] slice = refs.hotelSlice.get(r[0]);
+            if (slice == null) refs.hotelSlice.put(r[0], new int[] { i, i + 1 });
+            else slice[1] = i + 1;
+         }//end for
+         this._esql.streamQuery(Sql.ALL_COMPANIES, new ResultSink() {
+            public void begin (String[] columns) {}
+            public void row (String[] v) {
+               refs.companyName.put(integer(v[0]), v[1]);
+            }
+            public void end (int rowCount) {}
+         });
+
+         final long[] added = new long[1];
+         final Bookings bookings = this._bookings;
+         final BitSet bookingIDs = this._bookingIDs;
+         this._esql.streamQuery(Sql.SNAPSHOT_BOOKINGS, new ResultSink() {
+            public void begin (String[] columns) {}
+            public void row (String[] v) {
+               int id = integer(v[0]);
+               if (bookingIDs.get(id)) return;
+               bookingIDs.set(id);
+               bookings.add(id, integer(v[1]), integer(v[2]), integer(v[3]), day(v[4]), cents(v[5]));
+               ++added[0];
+            }
+            public void end (int rowCount) {}
+         }, Math.max(0, this._maxBookingID - LOOKBACK));
+         this._maxBookingID = Math.max(this._maxBookingID, bookingIDs.length() - 1);
+
+         final Repairs repairs = this._repairs;
+         final BitSet repairIDs = this._repairIDs;
+         this._esql.streamQuery(Sql.SNAPSHOT_REPAIRS, new ResultSink() {
+            public void begin (String[] columns) {}
+            public void row (String[] v) {
+               int id = integer(v[0]);
+               if (repairIDs.get(id)) return;
+               repairIDs.set(id);
+               repairs.add(id, integer(v[1]), integer(v[2]), integer(v[3]), day(v[4]), _repairTypes.encode(v[5]),
+                           _descriptions.encode(v[6]));
+               ++added[0];
+            }
+            public void end (int rowCount) {}
+         }, Math.max(0, this._maxRepairID - LOOKBACK));
+         this._maxRepairID = Math.max(this._maxRepairID, repairIDs.length() - 1);
+
+         this._state = new State(bookings.published(), repairs.published(), refs, this._roomTypes.published(),
+                                 this._repairTypes.published(), this._descriptions.published());
+         this._refreshedAt = System.currentTimeMillis();
+         this._publishedWrites = writes;
+         double millis = (System.nanoTime() - start) / 1e6;
+         synchronized (this) {
+            ++this._refreshes;
+            this._appended += added[0];
+            this._lastRefreshMillis = millis;
+            this._totalRefreshMillis += millis;
+         }//end synchronized
+      }//end synchronized
+   }//end refresh
+
+   /**
+    * Records a write through DBProject to one of the tables, so the next
+    * report refreshes first.
+    */
+   public void written () {
+      this._writes.incrementAndGet();
+   }//end written
+
+   /*
+    * The state to report from: refreshed first when it misses a write,
+    * else the one last published, with a refresh asked for when it is
+    * old.  Loads the first one.
+    */
+   private State current () throws SQLException {
+      long writes = this._writes.get();
+      if (this._state == null || this._publishedWrites < writes) {
+         synchronized (this._loading) {
+            // a refresh that finished meanwhile may already have them
+            if (this._state == null || this._publishedWrites < writes) refresh();
+         }//end synchronized
+      }//end if
+      State s = this._state;
+      boolean stale = System.currentTimeMillis() - this._refreshedAt > REFRESH_MILLIS;
+      synchronized (this) {
+         ++this._reports;
+         if (stale) {
+            ++this._staleReports;
+            requestRefresh();
+         }//end if
+      }//end synchronized
+      return s;
+   }//end current
+
+   /*
+    * Wakes the refresher, starting it on the first call.  Caller holds
+    * this.
+    */
+   private void requestRefresh () {
+      if (this._closed) return;
+      this._refreshWanted = true;
+      if (this._refresher == null) {
+         this._refresher = new Thread(new Runnable() {
+            public void run () { refreshLoop(); }
+         }, "dbproject-snapshot-refresh");
+         this._refresher.setDaemon(true);
+         this._refresher.start();
+      }//end if
+      notifyAll();
+   }//end requestRefresh
+
+   private void refreshLoop () {
+      while (true) {
+         synchronized (this) {
+            try {
+               while (!this._refreshWanted && !this._closed) wait();
+            }catch (InterruptedException e) {
+               return;
+            }//end try
+            if (this._closed) return;
+            this._refreshWanted = false;
+         }//end synchronized
+         try {
+            refresh();
+         }catch (SQLException e) {
+            // the reports keep the last state; the next stale one asks again
+            synchronized (this) {
+               ++this._failedRefreshes;
+               this._lastError = e.getMessage();
+            }//end synchronized
+         }//end try
+      }//end while
+   }//end refreshLoop
+
+   /**
+    * Stops the background refresh.
+    */
+   public synchronized void close () {
+      this._closed = true;
+      notifyAll();
+   }//end close
+
+   /**
+    * The rooms of a hotel never booked, as {@link Sql#AVAILABLE_ROOMS}.
+    */
+   public int availableRooms (final int hotelID, ResultSink sink) throws SQLException {
+      State s = current();
+      BitSet booked = bookedRoomNos(s, hotelID, Integer.MIN_VALUE, Integer.MAX_VALUE);
+      int count = 0;
+      int[] slice = s.refs.hotelSlice.get(hotelID);
+      for (int i = slice == null ? 0 : slice[0]; slice != null && i < slice[1]; ++i)
+         if (s.refs.roomNo[i] < 0 || !booked.get(s.refs.roomNo[i])) ++count;
+      List<String[]> rows = new ArrayList<String[]>();
+      rows.add(new String[] { String.valueOf(count) });
+      return write(sink, new String[] { "count" }, rows);
+   }//end availableRooms
+
+   /**
+    * The bookings of a hotel, as {@link Sql#BOOKED_ROOMS}.
+    */
+   public int bookedRooms (final int hotelID, ResultSink sink) throws SQLException {
+      State s = current();
+      final Bookings b = s.bookings;
+      long count = scan(b.size, (from, to) -> {
+         long n = 0;
+         for (int i = from; i < to; ++i)
+            if (b.hotelID[i] == hotelID) ++n;
+         return n;
+      }, Long::sum);
+      List<String[]> rows = new ArrayList<String[]>();
+      if (count > 0) rows.add(new String[] { String.valueOf(hotelID), String.valueOf(count) });
+      return write(sink, new String[] { "hotelid", "count" }, rows);
+   }//end bookedRooms
+
+   /**
+    * The rooms of a hotel with no booking in the range, as
+    * {@link Sql#AVAILABLE_ROOMS_FOR_WEEK}.
+    */
+   public int freeRooms (int hotelID, DateRange range, ResultSink sink) throws SQLException {
+      State s = current();
+      BitSet booked = bookedRoomNos(s, hotelID, (int) range.first.toEpochDay(), (int) range.last.toEpochDay());
+      List<String[]> rows = new ArrayList<String[]>();
+      int[] slice = s.refs.hotelSlice.get(hotelID);
+      for (int i = slice == null ? 0 : slice[0]; slice != null && i < slice[1]; ++i) {
+         int roomNo = s.refs.roomNo[i];
+         if (roomNo >= 0 && booked.get(roomNo)) continue;
+         rows.add(new String[] { String.valueOf(hotelID), String.valueOf(roomNo), decode(s.roomTypes, s.refs.roomType[i]) });
+      }//end for
+      return write(sink, new String[] { "hotelid", "roomno", "roomtype" }, rows);
+   }//end freeRooms
+
+   /*
+    * The room numbers of a hotel booked on a day in [first, last].
+    */
+   private static BitSet bookedRoomNos (State s, final int hotelID, final int first, final int last) {
+      final Bookings b = s.bookings;
+      return scan(b.size, (from, to) -> {
+         BitSet rooms = new BitSet();
+         for (int i = from; i < to; ++i)
+            if (b.hotelID[i] == hotelID && b.day[i] >= first && b.day[i] <= last && b.roomNo[i] >= 0)
+               rooms.set(b.roomNo[i]);
+         return rooms;
+      }, (x, y) -> { x.or(y); return x; });
+   }//end bookedRoomNos
+
+   /**
+    * The k rooms with the highest priced booking in the range, as
+    * {@link Sql#TOP_K_ROOM_PRICE}.
+    */
+   public int topKRoomPrice (DateRange range, final int k, ResultSink sink) throws SQLException {
+      State s = current();
+      final Bookings b = s.bookings;
+      final int first = (int) range.first.toEpochDay(), last = (int) range.last.toEpochDay();
+      final Comparator<Integer> byPrice = (x, y) -> Long.compare(b.cents[x], b.cents[y]);
+      final BinaryOperator<Integer> higher = (x, y) -> b.cents[y] > b.cents[x] ? y : x;
+      // each room's highest priced booking
+      Map<Long, Integer> best = scan(b.size, (from, to) -> {
+         Map<Long, Integer> m = new HashMap<Long, Integer>();
+         for (int i = from; i < to; ++i)
+            if (b.day[i] >= first && b.day[i] <= last) m.merge(roomKey(b.hotelID[i], b.roomNo[i]), i, higher);
+         return m;
+      }, (x, y) -> {
+         for (Map.Entry<Long, Integer> e : y.entrySet()) x.merge(e.getKey(), e.getValue(), higher);
+         return x;
+      });
+      TopK<Integer> top = new TopK<Integer>(k, byPrice);
+      for (int i : best.values()) top.offer(i);
+      List<String[]> rows = new ArrayList<String[]>();
+      for (int i : top.sorted())
+         rows.add(new String[] { String.valueOf(b.hotelID[i]), String.valueOf(b.roomNo[i]), money(b.cents[i]) });
+      return write(sink, new String[] { "hotelid", "roomno", "price" }, rows);
+   }//end topKRoomPrice
+
+   /**
+    * What a customer paid a hotel for the nights in the range, as
+    * {@link Sql#CUSTOMER_TOTAL_COST}.
+    */
+   public int totalCost (final int hotelID, final int customerID, DateRange range,
+                         ResultSink sink) throws SQLException {
+      State s = current();
+      final Bookings b = s.bookings;
+      final int first = (int) range.first.toEpochDay(), last = (int) range.last.toEpochDay();
+      long[] total = scan(b.size, (from, to) -> {
+         long[] t = new long[2]; // cents, bookings
+         for (int i = from; i < to; ++i) {
+            if (b.customer[i] == customerID && b.hotelID[i] == hotelID && b.day[i] >= first && b.day[i] <= last) {
+               t[0] += b.cents[i];
+               ++t[1];
+            }//end if
+         }//end for
+         return t;
+      }, (x, y) -> { x[0] += y[0]; x[1] += y[1]; return x; });
+      List<String[]> rows = new ArrayList<String[]>();
+      if (total[1] > 0) rows.add(new String[] { String.valueOf(customerID), money(total[0]) });
+      return write(sink, new String[] { "customerid", "sum" }, rows);
+   }//end totalCost
+
+   /**
+    * The repairs of the companies of a name, as
+    * {@link Sql#REPAIRS_BY_COMPANY}.
+    */
+   public int repairsMade (String companyName, ResultSink sink) throws SQLException {
+      final State s = current();
+      final Repairs r = s.repairs;
+      final BitSet companies = new BitSet();
+      for (Map.Entry<Integer, String> e : s.refs.companyName.entrySet())
+         if (e.getKey() >= 0 && e.getValue().trim().equals(companyName.trim())) companies.set(e.getKey());
+      List<Integer> found = scan(r.size, (from, to) -> {
+         List<Integer> rows = new ArrayList<Integer>();
+         for (int i = from; i < to; ++i)
+            if (r.company[i] >= 0 && companies.get(r.company[i])
+                && s.refs.roomKeys.contains(roomKey(r.hotelID[i], r.roomNo[i]))) rows.add(i);
+         return rows;
+      }, (x, y) -> { x.addAll(y); return x; });
+      List<String[]> rows = new ArrayList<String[]>();
+      for (int i : found)
+         rows.add(new String[] { decode(s.descriptions, r.description[i]), decode(s.repairTypes, r.type[i]),
+                                 String.valueOf(r.hotelID[i]), String.valueOf(r.roomNo[i]) });
+      return write(sink, new String[] { "description", "repairtype", "hotelid", "roomno" }, rows);
+   }//end repairsMade
+
+   /**
+    * The k company names with the most repairs, as
+    * {@link Sql#TOP_K_MAINTENANCE_COMPANY}.
+    */
+   public int topKMaintenanceCompany (int k, ResultSink sink) throws SQLException {
+      State s = current();
+      final Repairs r = s.repairs;
+      final int companies = r.maxCompany + 1;
+      long[] counts = scan(r.size, (from, to) -> {
+         long[] c = new long[companies];
+         for (int i = from; i < to; ++i)
+            if (r.company[i] >= 0) ++c[r.company[i]];
+         return c;
+      }, (x, y) -> { for (int i = 0; i < x.length; ++i) x[i] += y[i]; return x; });
+      final Map<String, Long> byName = new HashMap<String, Long>();
+      for (Map.Entry<Integer, String> e : s.refs.companyName.entrySet()) {
+         int id = e.getKey();
+         if (id < 0 || id >= companies || counts[id] == 0) continue;
+         Long n = byName.get(e.getValue());
+         byName.put(e.getValue(), (n == null ? 0 : n) + counts[id]);
+      }//end for
+      TopK<String> top = new TopK<String>(k, (x, y) -> Long.compare(byName.get(x), byName.get(y)));
+      for (String name : byName.keySet()) top.offer(name);
+      List<String[]> rows = new ArrayList<String[]>();
+      for (String name : top.sorted()) rows.add(new String[] { name, String.valueOf(byName.get(name)) });
+      return write(sink, new String[] { "name", "count" }, rows);
+   }//end topKMaintenanceCompany
+
+   /**
+    * The repairs of a room per year, fewest first, as
+    * {@link Sql#REPAIRS_PER_YEAR}.
+    */
+   public int repairsPerYear (final int hotelID, final int roomNo, ResultSink sink) throws SQLException {
+      State s = current();
+      final Repairs r = s.repairs;
+      Map<Integer, Long> years = scan(r.size, (from, to) -> {
+         Map<Integer, Long> y = new HashMap<Integer, Long>();
+         for (int i = from; i < to; ++i) {
+            if (r.hotelID[i] != hotelID || r.roomNo[i] != roomNo) continue;
+            int year = LocalDate.ofEpochDay(r.day[i]).getYear();
+            Long n = y.get(year);
+            y.put(year, n == null ? 1 : n + 1);
+         }//end for
+         return y;
+      }, (x, y) -> {
+         for (Map.Entry<Integer, Long> e : y.entrySet()) x.merge(e.getKey(), e.getValue(), Long::sum);
+         return x;
+      });
+      List<Map.Entry<Integer, Long>> counts = new ArrayList<Map.Entry<Integer, Long>>(years.entrySet());
+      Collections.sort(counts, (x, y) -> Long.compare(x.getValue(), y.getValue()));
+      List<String[]> rows = new ArrayList<String[]>();
+      for (Map.Entry<Integer, Long> e : counts)
+         rows.add(new String[] { String.valueOf(e.getKey()), String.valueOf(e.getValue()) });
+      return write(sink, new String[] { "Year", "count" }, rows);
+   }//end repairsPerYear
+
+   /**
+    * Compares the snapshot with the SQL answers of the hotel reports for
+    * every hotel, of the week report for each of the given dates, and of
+    * the top-k reports.  Rows tied at a top-k cut may differ; their values
+    * may not.
+    *
+    * @return the number of mismatching answers (0 when consistent)
+    */
+   public int verify (List<LocalDate> weekStarts, int k) throws SQLException {
+      rebuild();
+      int mismatches = 0;
+      List<Integer> hotelIDs = new ArrayList<Integer>(this._state.refs.hotelSlice.keySet());
+      Collections.sort(hotelIDs);
+      for (int hotelID : hotelIDs) {
+         ResultSinks.Collector sql = ResultSinks.collect(), local = ResultSinks.collect();
+         this._esql.streamQuery(Sql.AVAILABLE_ROOMS, sql, hotelID, hotelID);
+         availableRooms(hotelID, local);
+         mismatches += compare("hotel " + hotelID + " available rooms", sql, local, false);
+         sql = ResultSinks.collect();
+         local = ResultSinks.collect();
+         this._esql.streamQuery(Sql.BOOKED_ROOMS, sql, hotelID);
+         bookedRooms(hotelID, local);
+         mismatches += compare("hotel " + hotelID + " booked rooms", sql, local, false);
+         for (LocalDate from : weekStarts) {
+            DateRange week = DateRange.days(from, 7);
+            sql = ResultSinks.collect();
+            local = ResultSinks.collect();
+            this._esql.streamQuery(Sql.AVAILABLE_ROOMS_FOR_WEEK, sql, hotelID, hotelID, week.from(), week.until());
+            freeRooms(hotelID, week, local);
+            mismatches += compare("hotel " + hotelID + " free rooms " + week, sql, local, false);
+         }//end for
+      }//end for
+      for (LocalDate from : weekStarts) {
+         DateRange range = DateRange.days(from, 31);
+         ResultSinks.Collector sql = ResultSinks.collect(), local = ResultSinks.collect();
+         this._esql.streamQuery(Sql.TOP_K_ROOM_PRICE, sql, range.from(), range.until(), k);
+         topKRoomPrice(range, k, local);
+         mismatches += compare("top " + k + " room prices " + range, sql, local, true);
+      }//end for
+      ResultSinks.Collector sql = ResultSinks.collect(), local = ResultSinks.collect();
+      this._esql.streamQuery(Sql.TOP_K_MAINTENANCE_COMPANY, sql, k);
+      topKMaintenanceCompany(k, local);
+      mismatches += compare("top " + k + " maintenance companies", sql, local, true);
+      return mismatches;
+   }//end verify
+
+   /*
+    * 1 when two answers differ: as sets of rows, or for a ranking by their
+    * last column in order.
+    */
+   private static int compare (String what, ResultSinks.Collector sql, ResultSinks.Collector local, boolean ranking) {
+      List<String> expected = normalized(sql.rows(), ranking), actual = normalized(local.rows(), ranking);
+      if (expected.equals(actual)) return 0;
+      System.out.println(what + ": sql=" + expected + " snapshot=" + actual);
+      return 1;
+   }//end compare
+
+   private static List<String> normalized (List<String[]> rows, boolean ranking) {
+      List<String> values = new ArrayList<String>();
+      for (String[] r : rows) {
+         if (ranking) {
+            values.add(new BigDecimal(r[r.length - 1].trim()).stripTrailingZeros().toPlainString());
+            continue;
+         }//end if
+         StringBuilder sb = new StringBuilder();
+         for (String v : r) sb.append(v == null ? "null" : v.trim()).append('|');
+         values.add(sb.toString());
+      }//end for
+      if (!ranking) Collections.sort(values);
+      return values;
+   }//end normalized
+
+   public synchronized String stats () {
+      State s = this._state;
+      return String.format(
+         "report snapshot: bookings=%d repairs=%d rooms=%d companies=%d reports=%d refreshes=%d rebuilds=%d " +
+         "appended=%d lastRefresh=%.1fms totalRefresh=%.1fms staleReports=%d failedRefreshes=%d%s",
+         s == null ? 0 : s.bookings.size, s == null ? 0 : s.repairs.size, s == null ? 0 : s.refs.roomNo.length,
+         s == null ? 0 : s.refs.companyName.size(), _reports, _refreshes, _rebuilds, _appended,
+         _lastRefreshMillis, _totalRefreshMillis, _staleReports, _failedRefreshes,
+         _lastError == null ? "" : " (" + _lastError + ")");
+   }//end stats
+
+   private static int write (ResultSink sink, String[] columns, List<String[]> rows) throws SQLException {
+      try {
+         sink.begin(columns);
+         for (String[] r : rows) sink.row(r);
+         sink.end(rows.size());
+         return rows.size();
+      }catch (IOException e) {
+         throw new SQLException("Unable to write query output: " + e.getMessage());
+      }//end try
+   }//end write
+
+   private static int integer (String v) {
+      return Integer.parseInt(v.trim());
+   }//end integer
+
+   private static int day (String v) {
+      return (int) LocalDate.parse(v.trim()).toEpochDay();
+   }//end day
+
+   private static long cents (String v) {
+      return new BigDecimal(v.trim()).setScale(2).unscaledValue().longValue();
+   }//end cents
+
+   private static String money (long cents) {
+      return BigDecimal.valueOf(cents, 2).toPlainString();
+   }//end money
+
+   private static String decode (String[] dictionary, int code) {
+      return code < 0 ? null : dictionary[code];
+   }//end decode
+
+   private static long roomKey (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end roomKey
+
+}//end ReportSnapshot
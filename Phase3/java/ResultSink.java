@@ -0,0 +1,44 @@
+/*
+ * Result Sink
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a query one at a time as they are fetched, so a
+ * result never has to be held in memory as a whole.  See
+ * {@link ResultSinks} for the output formats.
+ */
+public interface ResultSink {
+
+   /**
+    * Called once before the first row.
+    *
+    * @param columns the column labels of the result
+    */
+   void begin (String[] columns) throws IOException;
+
+   /**
+    * Called for every row.  The array may be reused for the next row.
+    *
+    * @param values the row's values as text, null for SQL NULL
+    */
+   void row (String[] values) throws IOException;
+
+   /**
+    * Called once after the last row.
+    *
+    * @param rowCount the number of rows delivered
+    */
+   void end (int rowCount) throws IOException;
+
+}//end ResultSink
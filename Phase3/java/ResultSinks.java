@@ -0,0 +1,234 @@
+/*
+ * Result Sinks
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text output formats for query results.  Every sink writes through a
+ * buffered writer and flushes once at the end of the result, instead of
+ * one System.out call per cell.
+ *
+ *   dbproject.output   tsv (the menu's format), csv or json (json lines)
+ */
+public class ResultSinks {
+
+   private static final int BUFFER_SIZE = 65536;
+
+   private ResultSinks () {
+   }//end ResultSinks
+
+   /**
+    * @return a sink printing to standard out in the configured format
+    */
+   public static ResultSink stdout () {
+      return forFormat(System.getProperty("dbproject.output", "tsv"),
+                       new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE));
+   }//end stdout
+
+   /**
+    * @param format tsv, csv or json
+    * @param out where to write; flushed but not closed at the end of a result
+    * @return a sink writing the format
+    */
+   public static ResultSink forFormat (String format, Writer out) {
+      if (format.equalsIgnoreCase("csv")) return new Csv(out);
+      if (format.equalsIgnoreCase("json")) return new JsonLines(out);
+      if (format.equalsIgnoreCase("tsv")) return new Tsv(out);
+      throw new IllegalArgumentException("Unknown output format: " + format);
+   }//end forFormat
+
+   /**
+    * A sink that discards everything; used when only the row count matters.
+    */
+   public static ResultSink discard () {
+      return new ResultSink() {
+         public void begin (String[] columns) {}
+         public void row (String[] values) {}
+         public void end (int rowCount) {}
+      };
+   }//end discard
+
+   /**
+    * @return a sink that keeps every row in memory, for callers that need
+    *         the values rather than output
+    */
+   public static Collector collect () {
+      return new Collector();
+   }//end collect
+
+   /**
+    * Keeps the rows of a (small) result.
+    */
+   public static class Collector implements ResultSink {
+      private String[] _columns = new String[0];
+      private final List<String[]> _rows = new ArrayList<String[]>();
+
+      public void begin (String[] columns) {
+         this._columns = columns.clone();
+      }//end begin
+
+      public void row (String[] values) {
+         this._rows.add(values.clone());
+      }//end row
+
+      public void end (int rowCount) {
+      }//end end
+
+      public String[] columns () {
+         return this._columns;
+      }//end columns
+
+      public List<String[]> rows () {
+         return this._rows;
+      }//end rows
+   }//end Collector
+
+   /**
+    * Tab separated values with a trailing tab per cell and the header only
+    * when there are rows, the format the menu has always printed.
+    */
+   public static class Tsv implements ResultSink {
+      private final Writer _out;
+      private String[] _columns;
+      private boolean _headerDone = false;
+
+      public Tsv (Writer out) {
+         this._out = out;
+      }//end Tsv
+
+      public void begin (String[] columns) {
+         this._columns = columns;
+         this._headerDone = false;
+      }//end begin
+
+      public void row (String[] values) throws IOException {
+         if (!this._headerDone) {
+            writeLine(this._columns);
+            this._headerDone = true;
+         }//end if
+         writeLine(values);
+      }//end row
+
+      public void end (int rowCount) throws IOException {
+         this._out.flush();
+      }//end end
+
+      private void writeLine (String[] cells) throws IOException {
+         for (String c : cells) {
+            this._out.write(String.valueOf(c));
+            this._out.write('\t');
+         }//end for
+         this._out.write('\n');
+      }//end writeLine
+   }//end Tsv
+
+   /**
+    * RFC 4180 comma separated values with a header line; NULL is an empty
+    * field.
+    */
+   public static class Csv implements ResultSink {
+      private final Writer _out;
+
+      public Csv (Writer out) {
+         this._out = out;
+      }//end Csv
+
+      public void begin (String[] columns) throws IOException {
+         writeLine(columns);
+      }//end begin
+
+      public void row (String[] values) throws IOException {
+         writeLine(values);
+      }//end row
+
+      public void end (int rowCount) throws IOException {
+         this._out.flush();
+      }//end end
+
+      private void writeLine (String[] cells) throws IOException {
+         for (int i = 0; i < cells.length; ++i) {
+            if (i > 0) this._out.write(',');
+            String c = cells[i];
+            if (c == null) continue;
+            if (c.indexOf(',') < 0 && c.indexOf('"') < 0 && c.indexOf('\n') < 0 && c.indexOf('\r') < 0) {
+               this._out.write(c);
+            }else {
+               this._out.write('"');
+               this._out.write(c.replace("\"", "\"\""));
+               this._out.write('"');
+            }//end if
+         }//end for
+         this._out.write("\r\n");
+      }//end writeLine
+   }//end Csv
+
+   /**
+    * One JSON object per row, keyed by column label; values are strings
+    * or null.
+    */
+   public static class JsonLines implements ResultSink {
+      private final Writer _out;
+      private String[] _keys;
+
+      public JsonLines (Writer out) {
+         this._out = out;
+      }//end JsonLines
+
+      public void begin (String[] columns) {
+         this._keys = new String[columns.length];
+         for (int i = 0; i < columns.length; ++i) this._keys[i] = quote(columns[i]);
+      }//end begin
+
+      public void row (String[] values) throws IOException {
+         this._out.write('{');
+         for (int i = 0; i < values.length; ++i) {
+            if (i > 0) this._out.write(',');
+            this._out.write(this._keys[i]);
+            this._out.write(':');
+            this._out.write(values[i] == null ? "null" : quote(values[i]));
+         }//end for
+         this._out.write("}\n");
+      }//end row
+
+      public void end (int rowCount) throws IOException {
+         this._out.flush();
+      }//end end
+   }//end JsonLines
+
+   /**
+    * @return s as a JSON string literal
+    */
+   static String quote (String s) {
+      StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+               if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+               else sb.append(c);
+         }//end switch
+      }//end for
+      return sb.append('"').toString();
+   }//end quote
+
+}//end ResultSinks
@@ -0,0 +1,382 @@
+/*
+ * Script Runner
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the menu operations without prompts, one command per line:
+ *
+ *   bookRoom bID=9001 customer=12 hotelID=3 roomNo=4 bookingDate=5/12/2015 noOfPeople=2 price=150
+ *   listRepairsMade name="iqcq"
+ *   # comments and blank lines are ignored
+ *
+ * Every command is timed; the time of each is reported on standard error
+ * and a per-command summary is printed at the end, so results on standard
+ * out stay clean.  Parameter names are the ones used by the menu prompts
+ * (see {@link #usage()}).  The commands run on any {@link HotelStore};
+ * the generated keys, bookRooms and repairsPerYear need the PostgreSQL
+ * one.
+ *
+ *   dbproject.script.stopOnError   stop at the first failing command (false)
+ *   dbproject.script.quiet         do not report each command's time (false)
+ */
+public class ScriptRunner {
+
+
+   /*
+    * The parameters of one command.
+    */
+   static class Params {
+      private final String _command;
+      private final Map<String, String> _values;
+
+      Params (String command, Map<String, String> values) {
+         this._command = command;
+         this._values = values;
+      }//end Params
+
+      boolean has (String name) {
+         return this._values.containsKey(name);
+      }//end has
+
+      String str (String name) {
+         String v = this._values.get(name);
+         if (v == null) throw new IllegalArgumentException(this._command + ": missing parameter " + name);
+         return v;
+      }//end str
+
+      int integer (String name) {
+         return Integer.parseInt(str(name));
+      }//end integer
+
+      long longValue (String name) {
+         return Long.parseLong(str(name));
+      }//end longValue
+
+      double dbl (String name) {
+         return Double.parseDouble(str(name));
+      }//end dbl
+
+      boolean bool (String name) {
+         String v = str(name);
+         if (v.equalsIgnoreCase("TRUE")) return true;
+         if (v.equalsIgnoreCase("FALSE")) return false;
+         throw new IllegalArgumentException(this._command + ": " + name + " must be TRUE or FALSE");
+      }//end bool
+
+      java.sql.Date date (String name) {
+         return java.sql.Date.valueOf(LocalDate.parse(str(name), Dates.USER));
+      }//end date
+   }//end Params
+
+   /*
+    * One scriptable operation.
+    */
+   interface Command {
+      void run (HotelStore esql, Params p, ResultSink out) throws Exception;
+   }//end Command
+
+   // command name -> operation, in menu order
+   static final Map<String, Command> COMMANDS = new LinkedHashMap<String, Command>();
+   // command name -> parameter names, for usage
+   static final Map<String, String> PARAMETERS = new LinkedHashMap<String, String>();
+
+   static {
+      // a key left out is generated and reported on standard error
+      define("addCustomer", "[customerID] fName lName address phNo dob gender", (esql, p, out) -> {
+         if (p.has("customerID"))
+            esql.addCustomer(p.integer("customerID"), p.str("fName"), p.str("lName"), p.str("address"),
+                             p.longValue("phNo"), p.str("dob"), p.str("gender"));
+         else
+            System.err.println("customerID=" + DBProject.server(esql, "a generated customerID")
+               .addCustomer(p.str("fName"), p.str("lName"), p.str("address"), p.longValue("phNo"), p.str("dob"),
+                            p.str("gender")));
+      });
+      define("addRoom", "hotelID roomNo roomType", (esql, p, out) ->
+         esql.addRoom(p.integer("hotelID"), p.integer("roomNo"), p.str("roomType")));
+      define("addMaintenanceCompany", "[cmpID] name address isCertified", (esql, p, out) -> {
+         if (p.has("cmpID"))
+            esql.addMaintenanceCompany(p.integer("cmpID"), p.str("name"), p.str("address"), p.bool("isCertified"));
+         else
+            System.err.println("cmpID=" + DBProject.server(esql, "a generated cmpID")
+               .addMaintenanceCompany(p.str("name"), p.str("address"), p.bool("isCertified")));
+      });
+      define("addRepair", "[rID] hotelID roomNo mCompany repairDate description repairType", (esql, p, out) -> {
+         if (p.has("rID"))
+            esql.addRepair(p.integer("rID"), p.integer("hotelID"), p.integer("roomNo"), p.integer("mCompany"),
+                           p.date("repairDate"), p.str("description"), p.str("repairType"));
+         else
+            System.err.println("rID=" + DBProject.server(esql, "a generated rID")
+               .addRepair(p.integer("hotelID"), p.integer("roomNo"), p.integer("mCompany"), p.date("repairDate"),
+                          p.str("description"), p.str("repairType")));
+      });
+      define("bookRoom", "[bID] customer hotelID roomNo bookingDate noOfPeople price", (esql, p, out) -> {
+         if (p.has("bID")) {
+            esql.bookRoom(new BookingRequest(p.integer("bID"), p.integer("customer"), p.integer("hotelID"),
+                                             p.integer("roomNo"), p.str("bookingDate"), p.integer("noOfPeople"),
+                                             p.dbl("price")));
+            return;
+         }//end if
+         // the booking engine skips a sold room-night rather than failing
+         int bID = DBProject.server(esql, "a generated bID")
+            .bookRoom(p.integer("customer"), p.integer("hotelID"), p.integer("roomNo"), p.str("bookingDate"),
+                      p.integer("noOfPeople"), p.dbl("price"));
+         System.err.println(bID == BookingEngine.TAKEN ? "room already booked on " + p.str("bookingDate")
+                                                       : "bID=" + bID);
+      });
+      define("bookRooms", "file [batchSize]", (esql, p, out) -> {
+         BookingBatchResult r = DBProject.server(esql, "bookRooms").bookRooms(readBookings(new File(p.str("file"))),
+            p.has("batchSize") ? p.integer("batchSize")
+                               : Integer.getInteger("dbproject.booking.batchSize", 500));
+         System.err.println(r);
+         for (BookingBatchResult.Failure f : r.failures()) System.err.println("  rejected " + f);
+      });
+      define("assignHouseCleaningToRoom", "[asgID] staffID hotelID roomNo", (esql, p, out) -> {
+         if (p.has("asgID"))
+            esql.assignHouseCleaningToRoom(p.integer("asgID"), p.integer("staffID"), p.integer("hotelID"),
+                                           p.integer("roomNo"));
+         else
+            System.err.println("asgID=" + DBProject.server(esql, "a generated asgID")
+               .assignHouseCleaningToRoom(p.integer("staffID"), p.integer("hotelID"), p.integer("roomNo")));
+      });
+      define("repairRequest", "[reqID] managerID repairID requestDate description", (esql, p, out) -> {
+         if (p.has("reqID"))
+            esql.repairRequest(p.integer("reqID"), p.integer("managerID"), p.integer("repairID"),
+                               p.str("requestDate"), p.str("description"));
+         else
+            System.err.println("reqID=" + DBProject.server(esql, "a generated reqID")
+               .repairRequest(p.integer("managerID"), p.integer("repairID"), p.str("requestDate"),
+                              p.str("description")));
+      });
+      define("numberOfAvailableRooms", "hotelID", (esql, p, out) ->
+         esql.numberOfAvailableRooms(p.integer("hotelID"), out));
+      define("numberOfBookedRooms", "hotelID", (esql, p, out) ->
+         esql.numberOfBookedRooms(p.integer("hotelID"), out));
+      define("listHotelRoomBookingsForAWeek", "hotelID date", (esql, p, out) ->
+         esql.listHotelRoomBookingsForAWeek(p.integer("hotelID"), p.date("date").toLocalDate(), out));
+      define("topKHighestRoomPriceForADateRange", "firstDate secondDate k", (esql, p, out) ->
+         esql.topKHighestRoomPriceForADateRange(DateRange.parse(p.str("firstDate"), p.str("secondDate")),
+                                                p.integer("k"), out));
+      define("topKHighestPriceBookingsForACustomer", "fName lName k", (esql, p, out) ->
+         esql.topKHighestPriceBookingsForACustomer(p.str("fName"), p.str("lName"), p.integer("k"), out));
+      define("totalCostForCustomer", "hotelID customerID firstDate secondDate", (esql, p, out) ->
+         esql.totalCostForCustomer(p.integer("hotelID"), p.integer("customerID"),
+                                   DateRange.parse(p.str("firstDate"), p.str("secondDate")), out));
+      define("listRepairsMade", "name", (esql, p, out) ->
+         esql.listRepairsMade(p.str("name"), out));
+      define("topKMaintenanceCompany", "k", (esql, p, out) ->
+         esql.topKMaintenanceCompany(p.integer("k"), out));
+      define("repairsPerYear", "[hotelID]", (esql, p, out) -> {
+         DBProject db = DBProject.server(esql, "repairsPerYear");
+         if (p.has("hotelID")) db.repairsPerYearForHotel(p.integer("hotelID"), out);
+         else db.repairsPerYearForAllRooms(out);
+      });
+      define("numberOfRepairsForEachRoomPerYear", "hotelID roomNo", (esql, p, out) ->
+         esql.numberOfRepairsForEachRoomPerYear(p.integer("hotelID"), p.integer("roomNo"), out));
+   }//end static
+
+   private static void define (String name, String params, Command command) {
+      COMMANDS.put(name, command);
+      PARAMETERS.put(name, params);
+   }//end define
+
+   /*
+    * Running totals for one command name.
+    */
+   private static class Timing {
+      long count, failures;
+      double totalMillis, maxMillis;
+   }//end Timing
+
+   private final HotelStore _esql;
+   private final ResultSink _out;
+   private final boolean _stopOnError;
+   private final boolean _quiet;
+   private final Map<String, Timing> _timings = new LinkedHashMap<String, Timing>();
+
+   public ScriptRunner (HotelStore esql) {
+      this._esql = esql;
+      this._out = ResultSinks.stdout();
+      this._stopOnError = Boolean.getBoolean("dbproject.script.stopOnError");
+      this._quiet = Boolean.getBoolean("dbproject.script.quiet");
+   }//end ScriptRunner
+
+   /**
+    * Runs every command of a script file, or of standard input for "-".
+    *
+    * @return the number of failed commands
+    */
+   public int runFile (String path) throws IOException {
+      Reader r = path.equals("-") ? new InputStreamReader(System.in) : new FileReader(path);
+      BufferedReader in = new BufferedReader(r);
+      int failures = 0;
+      long start = System.nanoTime();
+      try {
+         String line;
+         int lineNo = 0;
+         while ((line = in.readLine()) != null) {
+            ++lineNo;
+            String trimmed = line.trim();
+            if (trimmed.length() == 0 || trimmed.startsWith("#")) continue;
+            if (!run(lineNo, tokenize(trimmed))) {
+               ++failures;
+               if (this._stopOnError) break;
+            }//end if
+         }//end while
+      }finally {
+         in.close();
+      }//end try
+      printSummary((System.nanoTime() - start) / 1e6);
+      return failures;
+   }//end runFile
+
+   /**
+    * Runs a single command given as separate words, e.g. from the command
+    * line.
+    *
+    * @return true when the command succeeded
+    */
+   public boolean runCommand (List<String> words) {
+      return run(0, words);
+   }//end runCommand
+
+   private boolean run (int lineNo, List<String> words) {
+      String name = words.get(0);
+      Command command = COMMANDS.get(name);
+      String where = lineNo > 0 ? "line " + lineNo + ": " : "";
+      if (command == null) {
+         System.err.println(where + "unknown command " + name + "\n" + usage());
+         return false;
+      }//end if
+
+      Map<String, String> values = new HashMap<String, String>();
+      for (int i = 1; i < words.size(); ++i) {
+         String w = words.get(i);
+         int eq = w.indexOf('=');
+         if (eq <= 0) {
+            System.err.println(where + name + ": expected name=value, got " + w);
+            return false;
+         }//end if
+         values.put(w.substring(0, eq), w.substring(eq + 1));
+      }//end for
+
+      long start = System.nanoTime();
+      boolean ok = true;
+      String error = null;
+      try {
+         command.run(this._esql, new Params(name, values), this._out);
+      }catch (Exception e) {
+         ok = false;
+         error = e.getMessage();
+      }//end try
+      double millis = (System.nanoTime() - start) / 1e6;
+
+      Timing t = this._timings.get(name);
+      if (t == null) {
+         t = new Timing();
+         this._timings.put(name, t);
+      }//end if
+      ++t.count;
+      if (!ok) ++t.failures;
+      t.totalMillis += millis;
+      t.maxMillis = Math.max(t.maxMillis, millis);
+
+      if (!ok) System.err.println(String.format("-- %s%s failed (%.2f ms): %s", where, name, millis, error));
+      else if (!this._quiet) System.err.println(String.format("-- %s%s ok (%.2f ms)", where, name, millis));
+      return ok;
+   }//end run
+
+   private void printSummary (double elapsedMillis) {
+      long total = 0;
+      System.err.println(String.format("%-38s %8s %8s %10s %10s", "command", "count", "failed", "avg ms", "max ms"));
+      for (Map.Entry<String, Timing> e : this._timings.entrySet()) {
+         Timing t = e.getValue();
+         total += t.count;
+         System.err.println(String.format("%-38s %8d %8d %10.2f %10.2f", e.getKey(), t.count, t.failures,
+                                          t.totalMillis / t.count, t.maxMillis));
+      }//end for
+      System.err.println(String.format("%d command(s) in %.1f ms (%.1f/s)", total, elapsedMillis,
+                                       elapsedMillis > 0 ? total * 1000.0 / elapsedMillis : 0.0));
+   }//end printSummary
+
+   /**
+    * @return the commands and their parameters
+    */
+   public static String usage () {
+      StringBuilder sb = new StringBuilder("Commands:\n");
+      for (Map.Entry<String, String> e : PARAMETERS.entrySet())
+         sb.append("  ").append(e.getKey()).append(' ').append(e.getValue().replaceAll("(\\w+)", "$1=...")).append('\n');
+      return sb.toString();
+   }//end usage
+
+   /*
+    * Splits a line on blanks; double quotes group words, as in
+    * name="Acme Repairs".
+    */
+   static List<String> tokenize (String line) {
+      List<String> words = new ArrayList<String>();
+      StringBuilder sb = new StringBuilder();
+      boolean quoted = false, any = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (c == '"') {
+            quoted = !quoted;
+            any = true;
+         }else if (!quoted && Character.isWhitespace(c)) {
+            if (any) words.add(sb.toString());
+            sb.setLength(0);
+            any = false;
+         }else {
+            sb.append(c);
+            any = true;
+         }//end if
+      }//end for
+      if (any) words.add(sb.toString());
+      return words;
+   }//end tokenize
+
+   /*
+    * Reads bookings in the layout of data/booking.csv:
+    * bID,customer,hotelID,roomNo,bookingDate,noOfPeople,price
+    */
+   static List<BookingRequest> readBookings (File file) throws IOException {
+      List<BookingRequest> bookings = new ArrayList<BookingRequest>();
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      try {
+         String line;
+         while ((line = in.readLine()) != null) {
+            if (line.trim().length() == 0) continue;
+            String[] f = line.split(",");
+            bookings.add(new BookingRequest(Integer.parseInt(f[0].trim()), Integer.parseInt(f[1].trim()),
+                                            Integer.parseInt(f[2].trim()), Integer.parseInt(f[3].trim()),
+                                            f[4].trim(), Integer.parseInt(f[5].trim()),
+                                            Double.parseDouble(f[6].trim())));
+         }//end while
+      }finally {
+         in.close();
+      }//end try
+      return bookings;
+   }//end readBookings
+
+}//end ScriptRunner
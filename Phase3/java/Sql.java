@@ -0,0 +1,228 @@
+/*
+ * Named SQL operations
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * The fixed set of statements issued by the DBProject operations.  Every
+ * statement takes bound parameters, so each pooled connection prepares it
+ * once (see {@link StatementCache}) and user input never becomes SQL text.
+ *
+ * Date ranges are bound as dates, first day included and end excluded
+ * (see {@link DateRange}); the inserts still cast MM/DD/YYYY text on the
+ * server.
+ */
+public enum Sql {
+
+   INSERT_CUSTOMER (
+      "INSERT INTO Customer(customerID, fName, lName, Address, phNo, DOB, gender) " +
+      "VALUES (?, ?, ?, ?, ?, CAST(? AS DATE), CAST(? AS GenderType))"),
+
+   INSERT_ROOM (
+      "INSERT INTO Room(hotelID, roomNo, roomType) VALUES (?, ?, ?)"),
+
+   INSERT_MAINTENANCE_COMPANY (
+      "INSERT INTO MaintenanceCompany(cmpID, name, address, isCertified) VALUES (?, ?, ?, ?)"),
+
+   INSERT_REPAIR (
+      "INSERT INTO Repair(rID, hotelID, roomNo, mCompany, repairDate, description, repairType) " +
+      "VALUES (?, ?, ?, ?, ?, ?, ?)"),
+
+   INSERT_BOOKING (
+      "INSERT INTO Booking(bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) " +
+      "VALUES (?, ?, ?, ?, CAST(? AS DATE), ?, ?)"),
+
+   // a booking that does nothing when the room-night is already sold
+   INSERT_BOOKING_IF_FREE (
+      "INSERT INTO Booking(bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) " +
+      "VALUES (?, ?, ?, ?, CAST(? AS DATE), ?, ?) ON CONFLICT (hotelID, roomNo, bookingDate) DO NOTHING"),
+
+   // a block of keys from a create.sql sequence (IdAllocator)
+   NEXT_IDS (
+      "SELECT nextval(CAST(? AS regclass)) FROM generate_series(1, ?)"),
+
+   INSERT_ASSIGNED (
+      "INSERT INTO Assigned(asgID, staffID, hotelID, roomNo) VALUES (?, ?, ?, ?)"),
+
+   INSERT_REQUEST (
+      "INSERT INTO Request(reqID, managerID, repairID, requestDate, description) " +
+      "VALUES (?, ?, ?, CAST(? AS DATE), ?)"),
+
+   // the write-behind deliveries (WriteBehindQueue), which may repeat after a crash
+   INSERT_ASSIGNED_IF_ABSENT (
+      "INSERT INTO Assigned(asgID, staffID, hotelID, roomNo) VALUES (?, ?, ?, ?) " +
+      "ON CONFLICT (asgID) DO NOTHING"),
+
+   INSERT_REQUEST_IF_ABSENT (
+      "INSERT INTO Request(reqID, managerID, repairID, requestDate, description) " +
+      "VALUES (?, ?, ?, CAST(? AS DATE), ?) ON CONFLICT (reqID) DO NOTHING"),
+
+   // the keys of a write-behind batch already delivered, looked up when a
+   // rewritten batch reports no row counts
+   ASSIGNED_IDS_BETWEEN (
+      "SELECT asgID FROM Assigned WHERE asgID BETWEEN ? AND ?"),
+
+   REQUEST_IDS_BETWEEN (
+      "SELECT reqID FROM Request WHERE reqID BETWEEN ? AND ?"),
+
+   AVAILABLE_ROOMS (
+      "SELECT COUNT(*) FROM Room r WHERE r.hotelID = ? AND r.roomNo NOT IN " +
+      "(SELECT b.roomNo FROM Booking b WHERE b.hotelID = ?)"),
+
+   BOOKED_ROOMS (
+      "SELECT B.hotelID, COUNT(B.roomNo) FROM Booking B WHERE B.hotelID = ? GROUP BY B.hotelID"),
+
+   AVAILABLE_ROOMS_FOR_WEEK (
+      "SELECT * FROM Room r WHERE r.hotelID = ? AND r.roomNo NOT IN " +
+      "(SELECT b.roomNo FROM Booking b WHERE b.hotelID = ? AND b.bookingDate >= ? AND b.bookingDate < ?)"),
+
+   // Date bounds on the partition column, half open, so only the Booking
+   // partitions of the range are planned and read; a room ranks by its
+   // highest price in the range, so it takes one place
+   TOP_K_ROOM_PRICE (
+      "SELECT B.hotelID, B.roomNo, MAX(B.price) AS price FROM Booking B " +
+      "WHERE B.bookingDate >= ? AND B.bookingDate < ? " +
+      "GROUP BY B.hotelID, B.roomNo ORDER BY MAX(B.price) DESC LIMIT ?"),
+
+   BOOKINGS_IN_RANGE (
+      "SELECT hotelID, roomNo, price FROM Booking " +
+      "WHERE bookingDate >= ? AND bookingDate < ?"),
+
+   // walks Booking(customer, price) backwards per matching customer
+   TOP_K_CUSTOMER_BOOKINGS (
+      "SELECT b.price FROM Booking b WHERE b.customer IN " +
+      "(SELECT c.customerID FROM Customer c WHERE c.fName = ? AND c.lName = ?) " +
+      "ORDER BY b.price DESC LIMIT ?"),
+
+   // reads one aggregate row per day booked, not every booking
+   CUSTOMER_TOTAL_COST (
+      "SELECT r.customer AS customerID, SUM(r.total) FROM CustomerRevenue r " +
+      "WHERE r.customer = ? AND r.hotelID = ? " +
+      "AND r.day >= ? AND r.day < ? " +
+      "GROUP BY r.customer"),
+
+   REPAIRS_BY_COMPANY (
+      "SELECT r.description, r.repairType, o.hotelID, o.roomNo " +
+      "FROM Repair r, Room o, MaintenanceCompany m WHERE m.name = ? " +
+      "AND r.mCompany = m.cmpID AND r.roomNo = o.roomNo AND r.hotelID = o.hotelID"),
+
+   // reads the CompanyRepairs leaderboard, one row per company
+   TOP_K_MAINTENANCE_COMPANY (
+      "SELECT M.name, SUM(L.repairs) AS count FROM MaintenanceCompany M, CompanyRepairs L " +
+      "WHERE M.cmpID = L.cmpID AND L.repairs > 0 GROUP BY M.name ORDER BY 2 DESC LIMIT ?"),
+
+   ALL_COMPANIES (
+      "SELECT cmpID, name FROM MaintenanceCompany"),
+
+   REPAIR_COMPANIES (
+      "SELECT mCompany FROM Repair"),
+
+   REPAIRS_BY_COMPANY_ID (
+      "SELECT r.description, r.repairType, r.hotelID, r.roomNo FROM Repair r WHERE r.mCompany = ?"),
+
+   HOTEL_BY_ID (
+      "SELECT hotelID, address, manager FROM Hotel WHERE hotelID = ?"),
+
+   ROOM_BY_KEY (
+      "SELECT hotelID, roomNo, roomType FROM Room WHERE hotelID = ? AND roomNo = ?"),
+
+   COMPANY_BY_ID (
+      "SELECT cmpID, name, address, isCertified FROM MaintenanceCompany WHERE cmpID = ?"),
+
+   COMPANY_IDS_BY_NAME (
+      "SELECT cmpID FROM MaintenanceCompany WHERE name = ? ORDER BY cmpID"),
+
+   STAFF_BY_SSN (
+      "SELECT SSN, fName, lName, address, role, employerID FROM Staff WHERE SSN = ?"),
+
+   ALL_ROOMS (
+      "SELECT hotelID, roomNo, roomType FROM Room ORDER BY hotelID, roomNo"),
+
+   ALL_BOOKING_NIGHTS (
+      "SELECT hotelID, roomNo, bookingDate FROM Booking"),
+
+   REPAIRS_PER_YEAR (
+      "SELECT EXTRACT(year FROM r.repairDate) AS \"Year\", COUNT(r.rID) FROM Repair r " +
+      "WHERE r.hotelID = ? AND r.roomNo = ? GROUP BY \"Year\" ORDER BY COUNT(r.rID) ASC"),
+
+   // repairs per room and year in one grouped scan, for all rooms or one hotel's
+   REPAIRS_PER_YEAR_ALL_ROOMS (
+      "SELECT r.hotelID, r.roomNo, CAST(EXTRACT(year FROM r.repairDate) AS INTEGER) AS \"Year\", " +
+      "COUNT(*) AS repairs FROM Repair r GROUP BY 1, 2, 3 ORDER BY 1, 2, 3"),
+
+   REPAIRS_PER_YEAR_HOTEL_ROOMS (
+      "SELECT r.hotelID, r.roomNo, CAST(EXTRACT(year FROM r.repairDate) AS INTEGER) AS \"Year\", " +
+      "COUNT(*) AS repairs FROM Repair r WHERE r.hotelID = ? GROUP BY 1, 2, 3 ORDER BY 1, 2, 3"),
+
+   HOTEL_IDS (
+      "SELECT hotelID FROM Hotel ORDER BY hotelID"),
+
+   // the rows a ReportSnapshot refresh appends, by key
+   SNAPSHOT_BOOKINGS (
+      "SELECT bID, customer, hotelID, roomNo, bookingDate, price FROM Booking WHERE bID > ?"),
+
+   SNAPSHOT_REPAIRS (
+      "SELECT rID, hotelID, roomNo, mCompany, repairDate, repairType, description FROM Repair WHERE rID > ?");
+
+   // the statement text with '?' placeholders
+   public final String text;
+
+   Sql (String text) {
+      this.text = text;
+   }//end Sql
+
+   /**
+    * @return true for the report queries, which only read and may be
+    *         answered by a replica (see {@link ReplicaRouter}); the inserts,
+    *         NEXT_IDS and the lookups that check or index the writes are
+    *         run on the primary
+    */
+   public boolean readOnly () {
+      switch (this) {
+         case AVAILABLE_ROOMS: case BOOKED_ROOMS: case AVAILABLE_ROOMS_FOR_WEEK:
+         case TOP_K_ROOM_PRICE: case BOOKINGS_IN_RANGE: case TOP_K_CUSTOMER_BOOKINGS:
+         case CUSTOMER_TOTAL_COST: case REPAIRS_BY_COMPANY: case REPAIRS_BY_COMPANY_ID:
+         case TOP_K_MAINTENANCE_COMPANY: case REPAIRS_PER_YEAR: case REPAIRS_PER_YEAR_ALL_ROOMS:
+         case REPAIRS_PER_YEAR_HOTEL_ROOMS: case HOTEL_IDS:
+            return true;
+         default:
+            return false;
+      }//end switch
+   }//end readOnly
+
+   /**
+    * Binds the parameters of a prepared statement in order.  Supported
+    * types are the ones the operations read from the user.
+    *
+    * @param stmt the prepared statement
+    * @param params the values for the '?' placeholders
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   public static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object p = params[i];
+         int idx = i + 1;
+         if (p == null) stmt.setNull(idx, Types.VARCHAR);
+         else if (p instanceof Integer) stmt.setInt(idx, ((Integer) p).intValue());
+         else if (p instanceof Long) stmt.setLong(idx, ((Long) p).longValue());
+         else if (p instanceof Double) stmt.setDouble(idx, ((Double) p).doubleValue());
+         else if (p instanceof Boolean) stmt.setBoolean(idx, ((Boolean) p).booleanValue());
+         else if (p instanceof java.sql.Date) stmt.setDate(idx, (java.sql.Date) p);
+         else if (p instanceof String) stmt.setString(idx, (String) p);
+         else throw new SQLException("Unsupported parameter type " + p.getClass().getName());
+      }//end for
+   }//end bind
+
+}//end Sql
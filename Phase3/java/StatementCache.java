@@ -0,0 +1,97 @@
+/*
+ * Prepared Statement Cache
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * Per-connection LRU cache of prepared statements keyed by {@link Sql}
+ * operation.  Statements are asked to use server-side prepared plans, so
+ * PostgreSQL parses and plans each operation once per connection.
+ *
+ * Not thread safe; a connection is only ever used by the thread that
+ * borrowed it from the {@link ConnectionPool}.
+ *
+ *   dbproject.statementCache.size   cached statements per connection (32)
+ *   dbproject.serverPrepare         use server-side prepared plans (true)
+ */
+public class StatementCache {
+
+   private static final int CAPACITY =
+      Math.max(1, Integer.getInteger("dbproject.statementCache.size", 32));
+   private static final boolean SERVER_PREPARE =
+      Boolean.parseBoolean(System.getProperty("dbproject.serverPrepare", "true"));
+
+   private final Connection _connection;
+   private final LinkedHashMap<Sql, PreparedStatement> _statements;
+   private long _hits = 0;
+   private long _misses = 0;
+
+   public StatementCache (Connection connection) {
+      this._connection = connection;
+      // access order turns the map into an LRU list
+      this._statements = new LinkedHashMap<Sql, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<Sql, PreparedStatement> eldest) {
+            if (size() <= CAPACITY) return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the prepared statement for an operation, preparing it on the
+    * first use.  The caller must not close it.
+    *
+    * @param op the operation
+    * @return a prepared statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (Sql op) throws SQLException {
+      PreparedStatement stmt = this._statements.get(op);
+      if (stmt != null) {
+         ++this._hits;
+         stmt.clearParameters();
+         return stmt;
+      }//end if
+      ++this._misses;
+      stmt = this._connection.prepareStatement(op.text);
+      if (SERVER_PREPARE && stmt instanceof PGStatement) {
+         ((PGStatement) stmt).setUseServerPrepare(true);
+      }//end if
+      this._statements.put(op, stmt);
+      return stmt;
+   }//end prepare
+
+   public long hits () {
+      return this._hits;
+   }//end hits
+
+   public long misses () {
+      return this._misses;
+   }//end misses
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      try {
+         stmt.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
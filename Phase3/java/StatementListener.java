@@ -0,0 +1,34 @@
+/*
+ * Statement Listener
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+/**
+ * Told about every named statement DBProject executes, after it finishes.
+ * Listeners run on the calling thread and must be quick and thread safe.
+ *
+ * @see DBProject#addStatementListener(StatementListener)
+ */
+public interface StatementListener {
+
+   /**
+    * @param op the statement that ran
+    * @param params the values bound to it (for a batch, those of its last row)
+    * @param nanos how long it took, including borrowing a connection
+    * @param rows rows returned or affected
+    * @param bytes characters of the values fetched (0 for updates)
+    * @param failure the error it raised, or null
+    */
+   void executed (Sql op, Object[] params, long nanos, int rows, long bytes, SQLException failure);
+
+}//end StatementListener
@@ -0,0 +1,343 @@
+/*
+ * Storage Conformance
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs every operation against the PostgreSQL database and an
+ * {@link EmbeddedStore} loaded from the same data files, and reports the
+ * answers that differ: rows compared as sets, rankings by their values in
+ * order (rows tied at the cut may differ), and writes by whether both
+ * accept or both reject them.
+ *
+ * The database must hold Phase3/data as loaded by load.sql or "DBProject
+ * ... load"; use a scratch database.  The writes use keys from
+ * conformance.base (900000) up, and rows left there by an earlier run are
+ * deleted before and after.  The embedded store is built in a new
+ * temporary directory unless one is given.
+ *
+ * It first checks, on a scratch store, that writes made after a torn log
+ * tail are replayed; "java StoreConformance recovery" runs only that
+ * check and needs no server.
+ *
+ * Usage: java StoreConformance <dbname> <port> <user> [<data dir>] [<store dir>]
+ */
+public class StoreConformance {
+
+   /**
+    * One operation, run the same way on both stores.
+    */
+   private interface Operation {
+      void run (HotelStore store, ResultSink out) throws SQLException;
+   }//end Operation
+
+   private static class Case {
+      final String name;
+      final boolean ranking;
+      final Operation op;
+
+      Case (String name, boolean ranking, Operation op) {
+         this.name = name;
+         this.ranking = ranking;
+         this.op = op;
+      }//end Case
+   }//end Case
+
+   private final List<Case> _cases = new ArrayList<Case>();
+   private long _postgresNanos = 0, _embeddedNanos = 0;
+
+   private void query (String name, Operation op) {
+      this._cases.add(new Case(name, false, op));
+   }//end query
+
+   private void ranking (String name, Operation op) {
+      this._cases.add(new Case(name, true, op));
+   }//end ranking
+
+   private void write (String name, Operation op) {
+      this._cases.add(new Case(name, false, op));
+   }//end write
+
+   /*
+    * The cases: the reports over the loaded data, then writes under new
+    * keys (accepted and rejected ones) and the reports they change.
+    */
+   private void define (File data, final int base) throws IOException, SQLException {
+      final List<String[]> hotels = head(new File(data, "hotel.csv"), 10);
+      final List<String[]> customers = head(new File(data, "customer.csv"), 5);
+      final List<String[]> bookings = head(new File(data, "booking.csv"), 10);
+      final List<String[]> companies = head(new File(data, "maintenanceCompany.csv"), Integer.MAX_VALUE);
+      final List<String[]> repairs = head(new File(data, "repair.csv"), 10);
+      final List<String[]> staff = head(new File(data, "staff.csv"), 1);
+
+      for (String[] h : hotels) {
+         final int hotelID = Integer.parseInt(h[0]);
+         query("numberOfAvailableRooms " + hotelID, (s, out) -> s.numberOfAvailableRooms(hotelID, out));
+         query("numberOfBookedRooms " + hotelID, (s, out) -> s.numberOfBookedRooms(hotelID, out));
+      }//end for
+      for (String[] b : bookings) {
+         final int hotelID = Integer.parseInt(b[2]), customer = Integer.parseInt(b[1]);
+         final LocalDate day = Dates.parse(b[4]);
+         query("listHotelRoomBookingsForAWeek " + hotelID + " " + day,
+               (s, out) -> s.listHotelRoomBookingsForAWeek(hotelID, day.minusDays(3), out));
+         query("totalCostForCustomer " + hotelID + " " + customer,
+               (s, out) -> s.totalCostForCustomer(hotelID, customer, DateRange.of(day.minusYears(1), day), out));
+      }//end for
+      for (int year = 2000; year <= 2020; year += 4) {
+         final DateRange range = DateRange.of(LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 6, 30));
+         ranking("topKHighestRoomPriceForADateRange " + range,
+                 (s, out) -> s.topKHighestRoomPriceForADateRange(range, 10, out));
+      }//end for
+      for (String[] c : customers) {
+         final String fName = c[1], lName = c[2];
+         ranking("topKHighestPriceBookingsForACustomer " + fName + " " + lName,
+                 (s, out) -> s.topKHighestPriceBookingsForACustomer(fName, lName, 5, out));
+      }//end for
+      for (String[] c : companies) {
+         final String name = c[1];
+         query("listRepairsMade " + name, (s, out) -> s.listRepairsMade(name, out));
+      }//end for
+      for (final int k : new int[] { 1, 5, 100 })
+         ranking("topKMaintenanceCompany " + k, (s, out) -> s.topKMaintenanceCompany(k, out));
+      for (String[] r : repairs) {
+         final int hotelID = Integer.parseInt(r[1]), roomNo = Integer.parseInt(r[2]);
+         query("numberOfRepairsForEachRoomPerYear " + hotelID + " " + roomNo,
+               (s, out) -> s.numberOfRepairsForEachRoomPerYear(hotelID, roomNo, out));
+      }//end for
+
+      final int hotelID = Integer.parseInt(hotels.get(0)[0]);
+      final int staffID = Integer.parseInt(staff.get(0)[0]);
+      final java.sql.Date repairDay = Dates.sql(LocalDate.of(2031, 3, 4));
+      write("addCustomer", (s, out) -> s.addCustomer(base, "conf", "ormance", "1 Main St", 9515551234L, "1/2/1990", "Other"));
+      write("addCustomer duplicate", (s, out) -> s.addCustomer(base, "conf", "ormance", null, 0, null, "Other"));
+      write("addCustomer bad gender", (s, out) -> s.addCustomer(base + 1, "conf", "ormance", null, 0, null, "None"));
+      write("addRoom", (s, out) -> s.addRoom(hotelID, base, "Suite"));
+      write("addRoom unknown hotel", (s, out) -> s.addRoom(base, 1, "Suite"));
+      write("addMaintenanceCompany", (s, out) -> s.addMaintenanceCompany(base, "conformanceco", "2 Main St", true));
+      write("addRepair", (s, out) -> s.addRepair(base, hotelID, base, base, repairDay, "conformance", "Small"));
+      write("addRepair unknown room", (s, out) -> s.addRepair(base + 1, hotelID, base + 1, base, repairDay, "x", "Small"));
+      write("bookRoom", (s, out) -> s.bookRoom(new BookingRequest(base, base, hotelID, base, "3/4/2031", 2, 120.5)));
+      write("bookRoom same night", (s, out) -> s.bookRoom(new BookingRequest(base + 1, base, hotelID, base, "3/4/2031", 1, 99)));
+      write("bookRoom next night", (s, out) -> s.bookRoom(new BookingRequest(base + 2, base, hotelID, base, "3/5/2031", 1, 99.99)));
+      write("bookRoom unknown customer", (s, out) -> s.bookRoom(new BookingRequest(base + 3, base + 9, hotelID, base, "3/6/2031", 1, 99)));
+      write("assignHouseCleaningToRoom", (s, out) -> s.assignHouseCleaningToRoom(base, staffID, hotelID, base));
+      write("assignHouseCleaningToRoom unknown staff", (s, out) -> s.assignHouseCleaningToRoom(base + 1, base, hotelID, base));
+      write("repairRequest", (s, out) -> s.repairRequest(base, staffID, base, "3/5/2031", "conformance"));
+      write("repairRequest unknown repair", (s, out) -> s.repairRequest(base + 1, staffID, base + 7, "3/5/2031", "x"));
+
+      final LocalDate week = LocalDate.of(2031, 3, 1);
+      final DateRange range = DateRange.of(LocalDate.of(2031, 1, 1), LocalDate.of(2031, 12, 31));
+      query("numberOfAvailableRooms after writes", (s, out) -> s.numberOfAvailableRooms(hotelID, out));
+      query("numberOfBookedRooms after writes", (s, out) -> s.numberOfBookedRooms(hotelID, out));
+      query("listHotelRoomBookingsForAWeek after writes", (s, out) -> s.listHotelRoomBookingsForAWeek(hotelID, week, out));
+      ranking("topKHighestRoomPriceForADateRange after writes", (s, out) -> s.topKHighestRoomPriceForADateRange(range, 5, out));
+      ranking("topKHighestPriceBookingsForACustomer after writes",
+              (s, out) -> s.topKHighestPriceBookingsForACustomer("conf", "ormance", 5, out));
+      query("totalCostForCustomer after writes", (s, out) -> s.totalCostForCustomer(hotelID, base, range, out));
+      query("listRepairsMade after writes", (s, out) -> s.listRepairsMade("conformanceco", out));
+      ranking("topKMaintenanceCompany after writes", (s, out) -> s.topKMaintenanceCompany(30, out));
+      query("numberOfRepairsForEachRoomPerYear after writes",
+            (s, out) -> s.numberOfRepairsForEachRoomPerYear(hotelID, base, out));
+   }//end define
+
+   /*
+    * The first rows of a data file, split at the commas.
+    */
+   private static List<String[]> head (File file, int rows) throws IOException {
+      List<String[]> values = new ArrayList<String[]>();
+      BufferedReader in = new BufferedReader(new FileReader(file));
+      try {
+         String line;
+         while (values.size() < rows && (line = in.readLine()) != null)
+            if (!line.trim().isEmpty()) values.add(line.split(",", -1));
+      }finally {
+         in.close();
+      }//end try
+      return values;
+   }//end head
+
+   /*
+    * The answer of one store: its normalized rows, or its error.
+    */
+   private String answer (Case c, HotelStore store, boolean postgres) {
+      ResultSinks.Collector out = ResultSinks.collect();
+      long start = System.nanoTime();
+      try {
+         c.op.run(store, out);
+         return normalized(out.rows(), c.ranking).toString();
+      }catch (SQLException e) {
+         return "error";
+      }finally {
+         if (postgres) this._postgresNanos += System.nanoTime() - start;
+         else this._embeddedNanos += System.nanoTime() - start;
+      }//end try
+   }//end answer
+
+   /*
+    * Rows as trimmed cells with numbers in a canonical form, sorted; for
+    * a ranking only its last column, in order.
+    */
+   private static List<String> normalized (List<String[]> rows, boolean ranking) {
+      List<String> values = new ArrayList<String>();
+      for (String[] r : rows) {
+         if (ranking) {
+            values.add(cell(r[r.length - 1]));
+            continue;
+         }//end if
+         StringBuilder sb = new StringBuilder();
+         for (String v : r) sb.append(cell(v)).append('|');
+         values.add(sb.toString());
+      }//end for
+      if (!ranking) Collections.sort(values);
+      return values;
+   }//end normalized
+
+   private static String cell (String v) {
+      if (v == null) return "null";
+      v = v.trim();
+      try {
+         return new BigDecimal(v).stripTrailingZeros().toPlainString();
+      }catch (NumberFormatException e) {
+         return v;
+      }//end try
+   }//end cell
+
+   /**
+    * @return the number of cases whose answers differ
+    */
+   public int run (HotelStore postgres, HotelStore embedded) {
+      int mismatches = 0;
+      for (Case c : this._cases) {
+         String expected = answer(c, postgres, true), actual = answer(c, embedded, false);
+         if (expected.equals(actual)) continue;
+         ++mismatches;
+         System.out.println(c.name + ": postgres=" + expected + " embedded=" + actual);
+      }//end for
+      System.out.println(String.format("%d operations: postgres %.1f ms, embedded %.1f ms", this._cases.size(),
+                                       this._postgresNanos / 1e6, this._embeddedNanos / 1e6));
+      return mismatches;
+   }//end run
+
+   /*
+    * Deletes the rows the writes may have left in the database.
+    */
+   private static void clean (DBProject esql, int base) throws SQLException {
+      esql.executeUpdate("DELETE FROM Request WHERE reqID >= " + base);
+      esql.executeUpdate("DELETE FROM Assigned WHERE asgID >= " + base);
+      esql.executeUpdate("DELETE FROM Booking WHERE bID >= " + base);
+      esql.executeUpdate("DELETE FROM Repair WHERE rID >= " + base);
+      esql.executeUpdate("DELETE FROM Room WHERE roomNo >= " + base);
+      esql.executeUpdate("DELETE FROM Customer WHERE customerID >= " + base);
+      esql.executeUpdate("DELETE FROM MaintenanceCompany WHERE cmpID >= " + base);
+   }//end clean
+
+   /**
+    * Opens a store over a log with a torn tail, writes, and checks that the
+    * write can be replayed from the log, as after a crash before the next
+    * checkpoint.
+    *
+    * @return true when it can
+    */
+   static boolean tornTailRecovers () throws IOException, SQLException {
+      File dir = Files.createTempDirectory("hotelstore-recovery").toFile();
+      File wal = new File(dir, "wal.log");
+      try {
+         new EmbeddedStore(dir).close();
+         FileOutputStream out = new FileOutputStream(wal, true);
+         try {
+            out.write(new byte[] { 0, 0, 0, 42, 7, 7 });
+         }finally {
+            out.close();
+         }//end try
+         EmbeddedStore store = new EmbeddedStore(dir);
+         WriteAheadLog log = null;
+         try {
+            store.addCustomer(1, "Torn", "Tail", "1 Log Lane", 5555555555L, "1/2/1990", "Other");
+            // the store is still open, so the write is only in the log
+            log = new WriteAheadLog(wal, false);
+            return log.entries().size() == 1;
+         }finally {
+            if (log != null) log.close();
+            store.close();
+         }//end try
+      }finally {
+         File[] files = dir.listFiles();
+         for (int i = 0; files != null && i < files.length; ++i) files[i].delete();
+         dir.delete();
+      }//end try
+   }//end tornTailRecovers
+
+   public static void main (String[] args) throws Exception {
+      if (args.length == 1 && args[0].equals("recovery")) {
+         boolean recovers = tornTailRecovers();
+         System.out.println(recovers ? "torn log tail: PASS" : "torn log tail: FAIL");
+         if (!recovers) System.exit(1);
+         return;
+      }//end if
+      if (args.length < 3) {
+         System.err.println("Usage: java StoreConformance <dbname> <port> <user> [<data dir>] [<store dir>]" +
+                            " | recovery");
+         return;
+      }//end if
+      File data = new File(args.length > 3 ? args[3] : "../data");
+      File dir = args.length > 4 ? new File(args[4]) : Files.createTempDirectory("hotelstore").toFile();
+      String[] existing = dir.list();
+      if (existing != null && existing.length > 0) {
+         System.err.println(dir + " is not empty");
+         return;
+      }//end if
+      int base = Integer.getInteger("conformance.base", 900000);
+
+      Class.forName("org.postgresql.Driver");
+      DBProject esql = new DBProject(args[0], args[1], args[2], "");
+      EmbeddedStore embedded = null;
+      boolean passed = false;
+      try {
+         if (!tornTailRecovers()) {
+            System.out.println("FAIL: writes after a torn log tail are not replayed");
+            return;
+         }//end if
+         embedded = new EmbeddedStore(dir);
+         long start = System.nanoTime();
+         long rows = embedded.load(data);
+         System.out.println(String.format("%d rows loaded in %.1f ms", rows, (System.nanoTime() - start) / 1e6));
+         embedded.close();
+         embedded = new EmbeddedStore(dir);
+         System.out.println(embedded.stats());
+
+         clean(esql, base);
+         StoreConformance conformance = new StoreConformance();
+         conformance.define(data, base);
+         int mismatches = conformance.run(esql, embedded);
+         passed = mismatches == 0;
+         System.out.println(passed ? "PASS" : "FAIL: " + mismatches + " answer(s) differ");
+         clean(esql, base);
+      }finally {
+         if (embedded != null) embedded.close();
+         esql.cleanup();
+      }//end try
+      if (!passed) System.exit(1);
+   }//end main
+
+}//end StoreConformance
@@ -0,0 +1,207 @@
+/*
+ * Streaming Top-K
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the k greatest of a stream of items in a bounded min-heap, so a
+ * ranking over a cursor needs O(k) memory and O(n log k) time whatever the
+ * size of the input.  Of equal items the first offered is kept.
+ *
+ * {@link Sink} applies it to query results, for rankings the SQL cannot
+ * push down, and {@link #verify(DBProject, int, List)} checks the top-k
+ * reports against it.
+ */
+public class TopK<T> {
+
+   private final int _k;
+   private final Comparator<? super T> _order;
+   private final PriorityQueue<T> _heap; // the smallest kept item first
+   private long _offered = 0;
+
+   /**
+    * @param k how many items to keep
+    * @param order the ranking; the greatest items are kept
+    */
+   public TopK (int k, Comparator<? super T> order) {
+      this._k = Math.max(0, k);
+      this._order = order;
+      this._heap = new PriorityQueue<T>(Math.max(1, this._k), order);
+   }//end TopK
+
+   public void offer (T item) {
+      ++this._offered;
+      if (this._heap.size() < this._k) this._heap.add(item);
+      else if (this._k > 0 && this._order.compare(item, this._heap.peek()) > 0) {
+         this._heap.poll();
+         this._heap.add(item);
+      }//end if
+   }//end offer
+
+   /**
+    * @return how many items were offered so far
+    */
+   public long offered () {
+      return this._offered;
+   }//end offered
+
+   /**
+    * @return the kept items, greatest first
+    */
+   public List<T> sorted () {
+      List<T> items = new ArrayList<T>(this._heap);
+      Collections.sort(items, Collections.reverseOrder(this._order));
+      return items;
+   }//end sorted
+
+   /**
+    * A sink keeping the k rows with the highest numeric value in one
+    * column, which it writes to another sink once the result has been
+    * read.
+    */
+   public static class Sink implements ResultSink {
+      private final int _column;
+      private final ResultSink _out;
+      private final TopK<Object[]> _top;
+      private String[] _columns;
+      private long _seq = 0;
+
+      /**
+       * @param column the index of the ranking column, from 0
+       * @param k how many rows to keep
+       * @param out the sink receiving the k rows, highest first
+       */
+      public Sink (int column, int k, ResultSink out) {
+         this._column = column;
+         this._out = out;
+         // rank by value, then earlier rows first
+         this._top = new TopK<Object[]>(k, new Comparator<Object[]>() {
+            public int compare (Object[] a, Object[] b) {
+               int c = Double.compare((Double) a[0], (Double) b[0]);
+               return c != 0 ? c : Long.compare((Long) b[1], (Long) a[1]);
+            }
+         });
+      }//end Sink
+
+      public void begin (String[] columns) {
+         this._columns = columns.clone();
+      }//end begin
+
+      public void row (String[] values) {
+         String v = values[this._column];
+         if (v == null) return;
+         this._top.offer(new Object[] { Double.valueOf(v.trim()), this._seq++, values.clone() });
+      }//end row
+
+      public void end (int rowCount) throws IOException {
+         List<Object[]> rows = this._top.sorted();
+         this._out.begin(this._columns);
+         for (Object[] r : rows) this._out.row((String[]) r[2]);
+         this._out.end(rows.size());
+      }//end end
+   }//end Sink
+
+   /**
+    * Checks the two top-k reports against an in-process ranking of their
+    * base rows: topKHighestRoomPriceForADateRange, each room at its highest
+    * price, for the 31 days from each date, and topKMaintenanceCompany,
+    * which reads the CompanyRepairs leaderboard.  Rows tied at the cut may
+    * differ; their values may not.
+    *
+    * @return the number of answers that differ
+    */
+   public static int verify (DBProject esql, int k, List<LocalDate> from) throws SQLException {
+      int mismatches = 0;
+      for (LocalDate d : from) {
+         DateRange range = DateRange.days(d, 31);
+         ResultSinks.Collector sql = ResultSinks.collect();
+         esql.topKHighestRoomPriceForADateRange(range, k, sql);
+         // the highest price of each room booked in the range
+         final Map<String, String[]> highest = new HashMap<String, String[]>();
+         esql.streamQuery(Sql.BOOKINGS_IN_RANGE, new ResultSink() {
+            public void begin (String[] columns) {}
+            public void row (String[] v) {
+               String room = v[0].trim() + "/" + v[1].trim();
+               String[] h = highest.get(room);
+               if (h == null || Double.parseDouble(v[2].trim()) > Double.parseDouble(h[2].trim()))
+                  highest.put(room, v.clone());
+            }
+            public void end (int rowCount) {}
+         }, range.from(), range.until());
+         TopK<String[]> rooms = new TopK<String[]>(k, new Comparator<String[]>() {
+            public int compare (String[] a, String[] b) {
+               return Double.compare(Double.parseDouble(a[2].trim()), Double.parseDouble(b[2].trim()));
+            }
+         });
+         for (String[] r : highest.values()) rooms.offer(r);
+         List<Double> expected = column(rooms.sorted(), 2), actual = column(sql.rows(), 2);
+         if (!expected.equals(actual)) {
+            ++mismatches;
+            System.out.println("top " + k + " room prices " + range + ": sql=" + actual +
+                               " heap=" + expected);
+         }//end if
+      }//end for
+
+      // repairs per company name, counted from Repair
+      final Map<String, String> names = new HashMap<String, String>();
+      ResultSinks.Collector companies = ResultSinks.collect();
+      esql.streamQuery(Sql.ALL_COMPANIES, companies);
+      for (String[] r : companies.rows()) names.put(r[0].trim(), r[1].trim());
+      final Map<String, Long> counts = new HashMap<String, Long>();
+      esql.streamQuery(Sql.REPAIR_COMPANIES, new ResultSink() {
+         public void begin (String[] columns) {}
+         public void row (String[] v) {
+            String name = names.get(v[0].trim());
+            if (name != null) counts.put(name, counts.containsKey(name) ? counts.get(name) + 1 : 1L);
+         }
+         public void end (int rowCount) {}
+      });
+      TopK<Map.Entry<String, Long>> top = new TopK<Map.Entry<String, Long>>(k, new Comparator<Map.Entry<String, Long>>() {
+         public int compare (Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+            return Long.compare(a.getValue(), b.getValue());
+         }
+      });
+      for (Map.Entry<String, Long> e : counts.entrySet()) top.offer(e);
+      List<Double> expected = new ArrayList<Double>();
+      for (Map.Entry<String, Long> e : top.sorted()) expected.add(e.getValue().doubleValue());
+
+      ResultSinks.Collector sql = ResultSinks.collect();
+      esql.topKMaintenanceCompany(k, sql);
+      boolean same = expected.equals(column(sql.rows(), 1));
+      for (String[] r : sql.rows()) {
+         Long c = counts.get(r[0].trim());
+         same &= c != null && c.doubleValue() == Double.parseDouble(r[1].trim());
+      }//end for
+      if (!same) {
+         ++mismatches;
+         System.out.println("top " + k + " maintenance companies: sql=" + column(sql.rows(), 1) + " heap=" + expected);
+      }//end if
+      return mismatches;
+   }//end verify
+
+   private static List<Double> column (List<String[]> rows, int column) {
+      List<Double> values = new ArrayList<Double>();
+      for (String[] r : rows) values.add(Double.valueOf(r[column].trim()));
+      return values;
+   }//end column
+
+}//end TopK
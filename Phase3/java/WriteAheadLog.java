@@ -0,0 +1,153 @@
+/*
+ * Write-Ahead Log
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The redo log of the {@link EmbeddedStore}.  Every record written to a
+ * table is appended here, and the log forced to disk, before the mapped
+ * table file is touched; after a crash the store writes the logged records
+ * again.  A checkpoint forces the table files and empties the log.
+ *
+ * An entry is its length, a CRC32 of the rest, the table number, the slot
+ * and the record.  Replay stops at the first torn or corrupt entry, which
+ * was never acknowledged, and cuts it off so later entries are appended
+ * where replay can read them.
+ */
+public class WriteAheadLog {
+
+   /**
+    * One logged record write.
+    */
+   public static class Entry {
+      public final int table, slot;
+      public final byte[] record;
+
+      Entry (int table, int slot, byte[] record) {
+         this.table = table;
+         this.slot = slot;
+         this.record = record;
+      }//end Entry
+   }//end Entry
+
+   private final RandomAccessFile _raf;
+   private final FileChannel _channel;
+   private final boolean _sync;
+   private long _appended = 0, _forces = 0;
+
+   /**
+    * @param sync force the log at every commit; without it a crash may
+    *        lose the last writes, never the consistency of the files
+    */
+   public WriteAheadLog (File file, boolean sync) throws IOException {
+      this._raf = new RandomAccessFile(file, "rw");
+      this._channel = this._raf.getChannel();
+      this._sync = sync;
+   }//end WriteAheadLog
+
+   /**
+    * Reads the log, cutting off a torn or corrupt tail.
+    *
+    * @return the complete entries in the log, in order
+    */
+   public List<Entry> entries () throws IOException {
+      List<Entry> entries = new ArrayList<Entry>();
+      ByteBuffer head = ByteBuffer.allocate(8);
+      long pos = 0, size = this._channel.size();
+      while (pos + 8 <= size) {
+         head.clear();
+         this._channel.read(head, pos);
+         int length = head.getInt(0);
+         if (length < 8 || pos + 8 + length > size) break;
+         ByteBuffer body = ByteBuffer.allocate(length);
+         this._channel.read(body, pos + 8);
+         CRC32 crc = new CRC32();
+         crc.update(body.array(), 0, length);
+         if ((int) crc.getValue() != head.getInt(4)) break;
+         byte[] record = new byte[length - 8];
+         body.position(8);
+         body.get(record);
+         entries.add(new Entry(body.getInt(0), body.getInt(4), record));
+         pos += 8 + length;
+      }//end while
+      if (pos < size) {
+         this._channel.truncate(pos);
+         this._channel.force(true);
+      }//end if
+      return entries;
+   }//end entries
+
+   /**
+    * Appends the writes of one operation and, unless the log was opened
+    * without sync or force is false, forces them to disk.
+    */
+   public void commit (List<Entry> writes, boolean force) throws IOException {
+      int bytes = 0;
+      for (Entry e : writes) bytes += 16 + e.record.length;
+      ByteBuffer buf = ByteBuffer.allocate(bytes);
+      for (Entry e : writes) {
+         int length = 8 + e.record.length;
+         CRC32 crc = new CRC32();
+         ByteBuffer body = ByteBuffer.allocate(length);
+         body.putInt(e.table).putInt(e.slot).put(e.record);
+         crc.update(body.array(), 0, length);
+         buf.putInt(length).putInt((int) crc.getValue()).put(body.array());
+      }//end for
+      buf.flip();
+      long pos = this._channel.size();
+      while (buf.hasRemaining()) pos += this._channel.write(buf, pos);
+      this._appended += writes.size();
+      if (force) force();
+   }//end commit
+
+   /**
+    * Forces the appended entries to disk.
+    */
+   public void force () throws IOException {
+      if (!this._sync) return;
+      this._channel.force(false);
+      ++this._forces;
+   }//end force
+
+   /**
+    * @return the bytes in the log
+    */
+   public long size () throws IOException {
+      return this._channel.size();
+   }//end size
+
+   /**
+    * Empties the log once the tables hold its writes.
+    */
+   public void truncate () throws IOException {
+      this._channel.truncate(0);
+      this._channel.force(true);
+   }//end truncate
+
+   public String stats () {
+      return String.format("wal: appended=%d forces=%d", this._appended, this._forces);
+   }//end stats
+
+   public void close () throws IOException {
+      this._channel.close();
+      this._raf.close();
+   }//end close
+
+}//end WriteAheadLog
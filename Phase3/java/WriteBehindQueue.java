@@ -0,0 +1,554 @@
+/*
+ * Write-Behind Queue
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Takes repair requests and house-cleaning assignments off the caller's
+ * path.  A write is appended to a local log and forced to disk, which
+ * acknowledges it; a background flusher drains the log to Request and
+ * Assigned in batches, one transaction per batch, so a slow or unreachable
+ * server delays the rows, not the staff terminal.
+ *
+ * Delivery is at least once.  A write leaves the queue only after the
+ * batch holding it commits, and the log is replayed at the next start, so
+ * a write may reach the server twice; the inserts skip a reqID or asgID
+ * already present.  Under reWriteBatchedInserts (see JdbcSettings) a
+ * batch reports no row counts, so the keys already present are looked up
+ * in the batch's transaction before it is inserted.  A row the server refuses (an unknown manager, room or
+ * repair) is set aside in rejected.txt and the rest of its batch delivered.
+ * When the server cannot be reached the flusher retries with backoff.
+ *
+ * The log is a series of segment files of {@link WriteAheadLog} entries;
+ * a segment is deleted once every write in it is delivered.  When the
+ * queue is full a caller waits for room, then fails.
+ *
+ *   dbproject.writeBehind.dir          log directory (writebehind)
+ *   dbproject.writeBehind.sync         force each write to disk (true)
+ *   dbproject.writeBehind.batch        rows per transaction (500)
+ *   dbproject.writeBehind.linger       ms waited to fill a batch (20)
+ *   dbproject.writeBehind.capacity     writes waiting at most (10000)
+ *   dbproject.writeBehind.block        ms a caller waits for room (5000)
+ *   dbproject.writeBehind.drain        ms close waits to deliver (5000)
+ *   dbproject.writeBehind.segmentBytes bytes per segment file (4 MB)
+ */
+public class WriteBehindQueue {
+
+   static final int REQUEST = 0, ASSIGNMENT = 1;
+
+   private static final long MIN_BACKOFF_MILLIS = 100, MAX_BACKOFF_MILLIS = 10000;
+
+   /*
+    * One log file and the number of its writes not yet delivered.
+    */
+   private static class Segment {
+      final File file;
+      final WriteAheadLog log;
+      int outstanding = 0;
+
+      Segment (File file, boolean sync) throws IOException {
+         this.file = file;
+         this.log = new WriteAheadLog(file, sync);
+      }//end Segment
+   }//end Segment
+
+   /*
+    * A write waiting for delivery.
+    */
+   private static class Pending {
+      final WriteAheadLog.Entry entry;
+      final Segment segment;
+      final boolean recovered;
+      // set by the flusher: sent in a delivery that failed, so maybe on the
+      // server; inserted (or set aside) on its own, so not sent again
+      boolean attempted = false, done = false;
+
+      Pending (WriteAheadLog.Entry entry, Segment segment, boolean recovered) {
+         this.entry = entry;
+         this.segment = segment;
+         this.recovered = recovered;
+      }//end Pending
+   }//end Pending
+
+   private final ConnectionPool _pool;
+   private final File _dir;
+   private final boolean _sync;
+   private final int _batchSize, _capacity;
+   private final long _lingerMillis, _blockMillis, _drainMillis, _segmentBytes;
+
+   private final Deque<Pending> _queue = new ArrayDeque<Pending>();
+   private final List<Segment> _segments = new ArrayList<Segment>();
+   private Segment _current;
+   private long _nextSegment = 0;
+   private boolean _closed = false;
+   private final Thread _flusher;
+
+   private long _appended = 0, _delivered = 0, _batches = 0, _duplicates = 0, _rejected = 0,
+                _retries = 0, _refused = 0;
+   private String _lastError = null;
+
+   /**
+    * Opens the log, queues the writes a previous run left undelivered and
+    * starts the flusher.
+    */
+   public WriteBehindQueue (ConnectionPool pool) throws IOException {
+      this._pool = pool;
+      this._dir = new File(System.getProperty("dbproject.writeBehind.dir", "writebehind"));
+      this._sync = Boolean.parseBoolean(System.getProperty("dbproject.writeBehind.sync", "true"));
+      this._batchSize = Math.max(1, Integer.getInteger("dbproject.writeBehind.batch", 500));
+      this._capacity = Math.max(1, Integer.getInteger("dbproject.writeBehind.capacity", 10000));
+      this._lingerMillis = Math.max(0, Integer.getInteger("dbproject.writeBehind.linger", 20));
+      this._blockMillis = Math.max(0, Integer.getInteger("dbproject.writeBehind.block", 5000));
+      this._drainMillis = Math.max(0, Integer.getInteger("dbproject.writeBehind.drain", 5000));
+      this._segmentBytes = Math.max(4096, Integer.getInteger("dbproject.writeBehind.segmentBytes", 4 << 20));
+      if (!this._dir.isDirectory() && !this._dir.mkdirs())
+         throw new IOException("Cannot create " + this._dir);
+      recover();
+      // appends never follow a torn entry of the previous run
+      this._current = openSegment();
+      this._flusher = new Thread(new Runnable() {
+         public void run () { flushLoop(); }
+      }, "dbproject-write-behind");
+      this._flusher.setDaemon(true);
+      this._flusher.start();
+   }//end WriteBehindQueue
+
+   /*
+    * Queues the entries of the segments already in the directory.
+    */
+   private void recover () throws IOException {
+      File[] files = this._dir.listFiles();
+      if (files == null) return;
+      List<String> names = new ArrayList<String>();
+      for (File f : files)
+         if (f.getName().startsWith("segment-") && f.getName().endsWith(".log")) names.add(f.getName());
+      Collections.sort(names);
+      for (String name : names) {
+         long n = Long.parseLong(name.substring(8, name.length() - 4));
+         this._nextSegment = Math.max(this._nextSegment, n + 1);
+         Segment s = new Segment(new File(this._dir, name), this._sync);
+         List<WriteAheadLog.Entry> entries = s.log.entries();
+         if (entries.isEmpty()) {
+            s.log.close();
+            s.file.delete();
+            continue;
+         }//end if
+         for (WriteAheadLog.Entry e : entries) this._queue.add(new Pending(e, s, true));
+         s.outstanding = entries.size();
+         this._segments.add(s);
+      }//end for
+   }//end recover
+
+   private Segment openSegment () throws IOException {
+      Segment s = new Segment(new File(this._dir, String.format("segment-%012d.log", this._nextSegment++)), this._sync);
+      this._segments.add(s);
+      return s;
+   }//end openSegment
+
+   /**
+    * Queues a repair request.
+    *
+    * @throws java.sql.SQLException when the server would not read the date
+    *         (see {@link Dates#cast(String)}), the log
+    *         cannot be written or the queue stayed full
+    */
+   public void request (int reqID, int managerID, int repairID, String requestDate, String description)
+      throws SQLException {
+      if (Dates.cast(requestDate) == null) throw new SQLException("null value in column \"requestdate\"");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         out.writeInt(managerID);
+         out.writeInt(repairID);
+         writeString(out, requestDate);
+         writeString(out, description);
+      }catch (IOException e) {
+         throw new SQLException(e.getMessage());
+      }//end try
+      append(new WriteAheadLog.Entry(REQUEST, reqID, bytes.toByteArray()));
+   }//end request
+
+   /**
+    * Queues a house-cleaning assignment.
+    *
+    * @throws java.sql.SQLException when the log cannot be written or the
+    *         queue stayed full
+    */
+   public void assign (int asgID, int staffID, int hotelID, int roomNo) throws SQLException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         out.writeInt(staffID);
+         out.writeInt(hotelID);
+         out.writeInt(roomNo);
+      }catch (IOException e) {
+         throw new SQLException(e.getMessage());
+      }//end try
+      append(new WriteAheadLog.Entry(ASSIGNMENT, asgID, bytes.toByteArray()));
+   }//end assign
+
+   private static void writeString (DataOutputStream out, String s) throws IOException {
+      if (s == null) {
+         out.writeInt(-1);
+         return;
+      }//end if
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(b.length);
+      out.write(b);
+   }//end writeString
+
+   private static String readString (DataInputStream in) throws IOException {
+      int n = in.readInt();
+      if (n < 0) return null;
+      byte[] b = new byte[n];
+      in.readFully(b);
+      return new String(b, StandardCharsets.UTF_8);
+   }//end readString
+
+   /*
+    * Logs a write and queues it, waiting while the queue is full.  The log
+    * is appended under the queue's lock so its order is the queue's.
+    */
+   private synchronized void append (WriteAheadLog.Entry entry) throws SQLException {
+      long deadline = System.currentTimeMillis() + this._blockMillis;
+      while (this._queue.size() >= this._capacity && !this._closed) {
+         long left = deadline - System.currentTimeMillis();
+         if (left <= 0) {
+            ++this._refused;
+            throw new SQLException("Write-behind queue full: " + this._queue.size() + " writes waiting" +
+                                   (this._lastError == null ? "" : ", last error: " + this._lastError));
+         }//end if
+         try {
+            wait(left);
+         }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the write-behind queue");
+         }//end try
+      }//end while
+      if (this._closed) throw new SQLException("Write-behind queue is closed");
+      try {
+         if (this._current.log.size() >= this._segmentBytes) {
+            if (this._current.outstanding == 0) this._current.log.truncate();
+            else this._current = openSegment();
+         }//end if
+         this._current.log.commit(Collections.singletonList(entry), true);
+      }catch (IOException e) {
+         throw new SQLException("Write-behind log " + this._current.file + ": " + e.getMessage());
+      }//end try
+      ++this._current.outstanding;
+      this._queue.add(new Pending(entry, this._current, false));
+      ++this._appended;
+      notifyAll();
+   }//end append
+
+   /*
+    * Takes the head of the queue a batch at a time and delivers it; the
+    * writes leave the queue once their transaction commits.
+    */
+   private void flushLoop () {
+      long backoff = MIN_BACKOFF_MILLIS;
+      while (true) {
+         List<Pending> batch = new ArrayList<Pending>();
+         synchronized (this) {
+            try {
+               while (this._queue.isEmpty() && !this._closed) wait();
+               long until = System.currentTimeMillis() + this._lingerMillis;
+               for (long left = this._lingerMillis; this._queue.size() < this._batchSize && !this._closed && left > 0;
+                    left = until - System.currentTimeMillis())
+                  wait(left);
+            }catch (InterruptedException e) {
+               return;
+            }//end try
+            if (this._closed) return;
+            Iterator<Pending> it = this._queue.iterator();
+            while (it.hasNext() && batch.size() < this._batchSize) batch.add(it.next());
+         }//end synchronized
+
+         try {
+            deliver(batch);
+            backoff = MIN_BACKOFF_MILLIS;
+         }catch (SQLException e) {
+            synchronized (this) {
+               ++this._retries;
+               this._lastError = e.getMessage();
+            }//end synchronized
+            try {
+               Thread.sleep(backoff);
+            }catch (InterruptedException ie) {
+               return;
+            }//end try
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+            continue;
+         }//end try
+
+         synchronized (this) {
+            for (int i = 0; i < batch.size(); ++i) {
+               Pending p = this._queue.poll();
+               --p.segment.outstanding;
+            }//end for
+            this._delivered += batch.size();
+            ++this._batches;
+            this._lastError = null;
+            retire();
+            notifyAll();
+         }//end synchronized
+      }//end while
+   }//end flushLoop
+
+   /*
+    * Deletes the segments, other than the one appended to, whose writes
+    * are all delivered.
+    */
+   private void retire () {
+      Iterator<Segment> it = this._segments.iterator();
+      while (it.hasNext()) {
+         Segment s = it.next();
+         if (s == this._current || s.outstanding > 0) continue;
+         try {
+            s.log.close();
+         }catch (IOException e) {
+            // deleted anyway.
+         }//end try
+         s.file.delete();
+         it.remove();
+      }//end while
+   }//end retire
+
+   /*
+    * Inserts a batch in one transaction.  When the server refuses a row the
+    * batch is rolled back and its rows inserted one at a time, setting the
+    * refused ones aside; a retry of the batch skips the rows so inserted.
+    *
+    * @throws java.sql.SQLException when the server could not be reached;
+    *         the whole batch is then tried again
+    */
+   private void deliver (List<Pending> batch) throws SQLException {
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      SQLException failure = null;
+      try {
+         Connection conn = pc.connection();
+         PreparedStatement[] stmts = {
+            pc.statements().prepare(Sql.INSERT_REQUEST_IF_ABSENT),
+            pc.statements().prepare(Sql.INSERT_ASSIGNED_IF_ABSENT)
+         };
+         Sql[] present = { Sql.REQUEST_IDS_BETWEEN, Sql.ASSIGNED_IDS_BETWEEN };
+         boolean rewritten = JdbcSettings.rewritesBatches();
+         List<List<Pending>> byKind = Arrays.asList(new ArrayList<Pending>(), new ArrayList<Pending>());
+         for (Pending p : batch) if (!p.done) byKind.get(p.entry.table).add(p);
+         conn.setAutoCommit(false);
+         try {
+            for (int k = 0; k < stmts.length; ++k) {
+               List<Pending> rows = byKind.get(k);
+               if (rows.isEmpty()) continue;
+               Set<Integer> found = rewritten ? presentKeys(pc, present[k], rows) : null;
+               for (Pending p : rows) {
+                  Sql.bind(stmts[k], params(p.entry));
+                  stmts[k].addBatch();
+               }//end for
+               int[] counts = stmts[k].executeBatch();
+               for (int i = 0; i < counts.length; ++i) {
+                  boolean skipped = counts[i] == PreparedStatement.SUCCESS_NO_INFO && found != null
+                                    ? found.contains(rows.get(i).entry.slot) : counts[i] == 0;
+                  if (skipped) duplicate(rows.get(i));
+               }//end for
+            }//end for
+            conn.commit();
+            return;
+         }catch (SQLException e) {
+            for (PreparedStatement stmt : stmts) stmt.clearBatch();
+            conn.rollback();
+            if (!refused(e)) throw e;
+         }//end try
+
+         conn.setAutoCommit(true);
+         for (Pending p : batch) {
+            if (p.done) continue;
+            PreparedStatement stmt = stmts[p.entry.table];
+            try {
+               Sql.bind(stmt, params(p.entry));
+               if (stmt.executeUpdate() == 0) duplicate(p);
+            }catch (SQLException e) {
+               if (!refused(e)) throw e;
+               reject(p, e.getMessage());
+            }//end try
+            p.done = true;
+         }//end for
+      }catch (SQLException e) {
+         failure = e;
+         for (Pending p : batch) p.attempted = true;
+         throw e;
+      }finally {
+         this._pool.release(pc, failure);
+      }//end try
+   }//end deliver
+
+   /*
+    * @return the keys of some rows that are already in their table, read
+    *         over the span of the rows' keys
+    */
+   private static Set<Integer> presentKeys (ConnectionPool.PooledConnection pc, Sql query, List<Pending> rows)
+      throws SQLException {
+      int low = Integer.MAX_VALUE, high = Integer.MIN_VALUE;
+      for (Pending p : rows) {
+         low = Math.min(low, p.entry.slot);
+         high = Math.max(high, p.entry.slot);
+      }//end for
+      Set<Integer> found = new HashSet<Integer>();
+      PreparedStatement stmt = pc.statements().prepare(query);
+      Sql.bind(stmt, low, high);
+      ResultSet rs = stmt.executeQuery();
+      try {
+         while (rs.next()) found.add(rs.getInt(1));
+      }finally {
+         rs.close();
+      }//end try
+      return found;
+   }//end presentKeys
+
+   /*
+    * @return true when the server refused the data, as opposed to failing
+    */
+   private static boolean refused (SQLException e) {
+      for (SQLException x = e; x != null; x = x.getNextException()) {
+         String state = x.getSQLState(), m = x.getMessage();
+         if (state != null && (state.startsWith("22") || state.startsWith("23"))) return true;
+         if (m != null && (m.indexOf("violates") >= 0 || m.indexOf("invalid input") >= 0)) return true;
+      }//end for
+      return false;
+   }//end refused
+
+   /*
+    * A key already present is a redelivery, of a write replayed from the
+    * log or resent after a failed delivery, unless the write is new to this
+    * run, when it clashed with another row and is reported.
+    */
+   private synchronized void duplicate (Pending p) {
+      ++this._duplicates;
+      if (!p.recovered && !p.attempted) report(p, "key already present");
+   }//end duplicate
+
+   private synchronized void reject (Pending p, String message) {
+      ++this._rejected;
+      report(p, message);
+   }//end reject
+
+   private void report (Pending p, String message) {
+      StringBuilder line = new StringBuilder(p.entry.table == REQUEST ? "Request" : "Assigned");
+      try {
+         for (Object v : params(p.entry)) line.append('\t').append(v);
+      }catch (SQLException e) {
+         line.append("\t?");
+      }//end try
+      line.append('\t').append(message == null ? "" : message.replace('\n', ' '));
+      PrintWriter out = null;
+      try {
+         out = new PrintWriter(new FileWriter(new File(this._dir, "rejected.txt"), true));
+         out.println(line);
+      }catch (IOException e) {
+         System.err.println("write-behind: " + line);
+      }finally {
+         if (out != null) out.close();
+      }//end try
+   }//end report
+
+   /*
+    * @return the insert's parameters for a logged write
+    */
+   private static Object[] params (WriteAheadLog.Entry e) throws SQLException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(e.record));
+      try {
+         if (e.table == REQUEST)
+            return new Object[] { e.slot, in.readInt(), in.readInt(), readString(in), readString(in) };
+         return new Object[] { e.slot, in.readInt(), in.readInt(), in.readInt() };
+      }catch (IOException x) {
+         throw new SQLException("Corrupt write-behind entry " + e.slot);
+      }//end try
+   }//end params
+
+   /**
+    * @return the writes not yet delivered
+    */
+   public synchronized int size () {
+      return this._queue.size();
+   }//end size
+
+   public synchronized String stats () {
+      return String.format("write-behind: queued=%d appended=%d delivered=%d batches=%d duplicates=%d " +
+                           "rejected=%d retries=%d refused=%d segments=%d%s",
+                           this._queue.size(), this._appended, this._delivered, this._batches, this._duplicates,
+                           this._rejected, this._retries, this._refused, this._segments.size(),
+                           this._lastError == null ? "" : " lastError=" + this._lastError);
+   }//end stats
+
+   /**
+    * Waits up to dbproject.writeBehind.drain ms for the queue to empty and
+    * stops the flusher.  Writes still queued stay in the log for the next
+    * start.
+    */
+   public void close () {
+      synchronized (this) {
+         if (this._closed) return;
+         long deadline = System.currentTimeMillis() + this._drainMillis;
+         try {
+            for (long left = this._drainMillis; !this._queue.isEmpty() && left > 0;
+                 left = deadline - System.currentTimeMillis())
+               wait(left);
+         }catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }//end try
+         this._closed = true;
+         notifyAll();
+      }//end synchronized
+      this._flusher.interrupt();
+      try {
+         this._flusher.join(this._drainMillis);
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+      synchronized (this) {
+         if (!this._queue.isEmpty())
+            System.err.println(this._queue.size() + " writes left in " + this._dir + " for the next start");
+         for (Segment s : this._segments) {
+            try {
+               s.log.close();
+            }catch (IOException e) {
+               // the entries are already on disk.
+            }//end try
+            if (s.outstanding == 0) s.file.delete();
+         }//end for
+         this._segments.clear();
+      }//end synchronized
+   }//end close
+
+}//end WriteBehindQueue
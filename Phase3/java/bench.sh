@@ -0,0 +1,57 @@
+#!/bin/bash
+# Benchmarks every DBProject operation at each scale factor given
+# (default 1 10 100). Each run recreates the tables and loads data/
+# multiplied by the factor. Start the database with ../postgresql/*.sh first.
+# Extra JVM options can be passed in BENCH_OPTS, e.g.
+#   BENCH_OPTS="-Dbench.threads=8 -Dbench.measure=10" ./bench.sh 1 10
+# With BENCH_OPTS="-Dbench.history=true" the copies go back in time instead,
+# e.g. ./bench.sh 1 5 10 shows the date-range reports staying flat over
+# 19, 95 and 190 years of partitioned history.
+# The newest postgresql-*.jar next to the sources is used when there is one
+# (or DRIVER_JAR). "./bench.sh drivers [scale]" compares bookRoom and
+# listRepairsMade on pg73jdbc3.jar, on that driver with its own defaults
+# and on it with the JdbcSettings properties.
+# "./bench.sh group-commit" times the add* inserts at 1, 16 and 128
+# writers, each committing on its own and with -Ddbproject.groupCommit=true.
+MODERN_JAR=${DRIVER_JAR:-`ls postgresql-*.jar 2>/dev/null | sort -V | tail -1`}
+DRIVER_JAR=${MODERN_JAR:-pg73jdbc3.jar}
+export CLASSPATH=$CLASSPATH:$PWD/$DRIVER_JAR
+DB_NAME=$USER"_DB"
+
+javac *.java || exit 1
+
+if [ "$1" = "drivers" ]; then
+   if [ -z "$MODERN_JAR" ]; then
+      echo "Copy a postgresql-42.x.jar next to the sources (or set DRIVER_JAR) first" >&2
+      exit 1
+   fi
+   scale=${2:-1}
+   for run in "pg73jdbc3.jar" "$MODERN_JAR -Ddbproject.jdbc.tune=false" "$MODERN_JAR"; do
+      jar=${run%% *}
+      opts=${run#$jar}
+      echo "=== $run ==="
+      psql -h localhost -p $PGPORT $DB_NAME < ../sql/create.sql > /dev/null
+      java -cp "$PWD:$PWD/$jar" $BENCH_OPTS $opts -Dbench.scale=$scale Benchmark $DB_NAME $PGPORT $USER \
+         bookRoom listRepairsMade
+   done
+   exit
+fi
+
+if [ "$1" = "group-commit" ]; then
+   psql -h localhost -p $PGPORT $DB_NAME < ../sql/create.sql > /dev/null
+   java DBProject $DB_NAME $PGPORT $USER load ../data > /dev/null || exit 1
+   for writers in 1 16 128; do
+      for group in false true; do
+         echo "=== writers=$writers groupCommit=$group ==="
+         java $BENCH_OPTS -Dbench.threads=$writers -Ddbproject.groupCommit=$group Benchmark \
+            $DB_NAME $PGPORT $USER addCustomer addMaintenanceCompany addRoom addRepair
+      done
+   done
+   exit
+fi
+
+for scale in ${@:-1 10 100}; do
+   echo "=== scale x$scale ==="
+   psql -h localhost -p $PGPORT $DB_NAME < ../sql/create.sql > /dev/null
+   java $BENCH_OPTS -Dbench.scale=$scale Benchmark $DB_NAME $PGPORT $USER
+done
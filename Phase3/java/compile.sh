@@ -3,11 +3,14 @@
 export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
 export PATH=$JAVA_HOME/bin:$PATH
 
-# Export classpath with the postgressql driver
-export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
+# Export classpath with the postgressql driver: the newest postgresql-*.jar
+# copied next to the sources if there is one, else the bundled 7.3 driver
+DRIVER_JAR=${DRIVER_JAR:-`ls postgresql-*.jar 2>/dev/null | sort -V | tail -1`}
+DRIVER_JAR=${DRIVER_JAR:-pg73jdbc3.jar}
+export CLASSPATH=$CLASSPATH:$PWD/$DRIVER_JAR
 
 # compile the java program
-javac DBProject.java
+javac *.java
 
 #run the java program
 #Use your database name, port number and login
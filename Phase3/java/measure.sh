@@ -1,5 +1,6 @@
 #!/bin/bash
 psql -h localhost -p $PGPORT $USER" _DB" < create.sql > /dev/null
+psql -h localhost -p $PGPORT $USER" _DB" < load.sql > /dev/null
 sleep 5
 
 echo "Query time without indexes"
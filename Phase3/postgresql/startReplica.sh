@@ -0,0 +1,19 @@
+#! /bin/bash
+# Starts a streaming replica of the database started by startPostgreSQL.sh,
+# on port $PGPORT + 1 unless REPLICA_PORT is set.  Point DBProject at it with
+#   java -Ddbproject.replicas=localhost:$REPLICA_PORT DBProject ...
+# and check the routing with
+#   java -Ddbproject.replicas=localhost:$REPLICA_PORT ReplicaCheck <dbname> $PGPORT <user>
+folder=/tmp/$USER
+replica=$folder/myReplica
+REPLICA_PORT=${REPLICA_PORT:-$((PGPORT + 1))}
+
+#Clear folder
+rm -rf $replica
+mkdir -p $replica/sockets
+
+#Copy the primary and configure the copy to follow it
+pg_basebackup -h localhost -p $PGPORT -D $replica/data -R -X stream || exit 1
+
+#Start replica
+pg_ctl -o "-c unix_socket_directories=$replica/sockets -p $REPLICA_PORT" -D $replica/data -l $folder/replica.log start
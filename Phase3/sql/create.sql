@@ -7,8 +7,18 @@ DROP TABLE IF EXISTS MaintenanceCompany CASCADE;
 
 DROP TABLE IF EXISTS Booking CASCADE;
 DROP TABLE IF EXISTS Repair CASCADE;
+DROP TABLE IF EXISTS BookingKeys CASCADE;
+DROP TABLE IF EXISTS RepairKeys CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
 DROP TABLE IF EXISTS Assigned CASCADE;
+DROP TABLE IF EXISTS CustomerRevenue CASCADE;
+DROP TABLE IF EXISTS CompanyRepairs CASCADE;
+DROP SEQUENCE IF EXISTS CustomerIDs CASCADE;
+DROP SEQUENCE IF EXISTS CompanyIDs CASCADE;
+DROP SEQUENCE IF EXISTS BookingIDs CASCADE;
+DROP SEQUENCE IF EXISTS RepairIDs CASCADE;
+DROP SEQUENCE IF EXISTS RequestIDs CASCADE;
+DROP SEQUENCE IF EXISTS AssignedIDs CASCADE;
 
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
@@ -17,6 +27,15 @@ DROP TYPE IF EXISTS GenderType CASCADE;
 CREATE TYPE StaffRole AS ENUM('Receptionist','HouseCleaning','Manager'); -- enum for staffRoles
 CREATE TYPE GenderType AS ENUM('Male', 'Female', 'Other'); -- enum for gender
 
+-- The below statements create the key sequences.  Inserts that leave the key
+-- out get the next value; the java IdAllocator takes them a block at a time.
+CREATE SEQUENCE CustomerIDs;
+CREATE SEQUENCE CompanyIDs;
+CREATE SEQUENCE BookingIDs;
+CREATE SEQUENCE RepairIDs;
+CREATE SEQUENCE RequestIDs;
+CREATE SEQUENCE AssignedIDs;
+
 -- The below statements create necessary tables 
 CREATE TABLE Hotel( hotelID Numeric NOT NULL, 
                     address Text, 
@@ -36,7 +55,7 @@ CREATE TABLE Room( hotelID Numeric NOT NULL,
 				   roomType CHAR(10) NOT NULL,
 				   PRIMARY KEY(hotelID, roomNo));
 
-CREATE TABLE Customer( customerID Numeric NOT NULL,
+CREATE TABLE Customer( customerID Numeric NOT NULL DEFAULT nextval('CustomerIDs'),
 					   fName CHAR(30) NOT NULL,
 					   lName CHAR(30) NOT NULL,
 					   Address TEXT,
@@ -45,42 +64,122 @@ CREATE TABLE Customer( customerID Numeric NOT NULL,
 					   gender GenderType,
 					   PRIMARY KEY(customerID));
 
-CREATE TABLE MaintenanceCompany( cmpID Numeric NOT NULL,
+CREATE TABLE MaintenanceCompany( cmpID Numeric NOT NULL DEFAULT nextval('CompanyIDs'),
 								 name CHAR(30) NOT NULL,
 								 address TEXT,
 								 isCertified Boolean NOT NULL,
 								 PRIMARY KEY(cmpID));
-CREATE TABLE Booking( bID Numeric NOT NULL,
+-- Booking and Repair are partitioned by date (see the partitions below).  A
+-- key of a partitioned table must hold the partition column, so their keys
+-- include the date; BookingKeys and RepairKeys (below) keep bID and rID unique
+-- across the partitions, for the IDs callers supply as well.
+CREATE TABLE Booking( bID Numeric NOT NULL DEFAULT nextval('BookingIDs'),
 					  customer Numeric NOT NULL DEFAULT 0,
 					  hotelID Numeric NOT NULL DEFAULT 0,
 					  roomNo Numeric NOT NULL DEFAULT 0,
 					  bookingDate Date NOT NULL,
 					  noOfPeople Numeric,
 					  price Numeric(6,2) NOT NULL,
-					  PRIMARY KEY(bID));
+					  PRIMARY KEY(bID, bookingDate))
+PARTITION BY RANGE (bookingDate);
 					  
-CREATE TABLE Repair( rID Numeric NOT NULL,
+CREATE TABLE Repair( rID Numeric NOT NULL DEFAULT nextval('RepairIDs'),
 					 hotelID Numeric NOT NULL DEFAULT 0,
 					 roomNo Numeric NOT NULL DEFAULT 0,
 					 mCompany Numeric NOT NULL DEFAULT 0,
 					 repairDate Date NOT NULL,
 					 description TEXT,
 					 repairType CHAR(10),
-					 PRIMARY KEY(rID));
+					 PRIMARY KEY(rID, repairDate))
+PARTITION BY RANGE (repairDate);
 					 
-CREATE TABLE Request( reqID Numeric NOT NULL,
+CREATE TABLE Request( reqID Numeric NOT NULL DEFAULT nextval('RequestIDs'),
 					  managerID Numeric NOT NULL DEFAULT 0,
 					  repairID Numeric NOT NULL DEFAULT 0,
 					  requestDate Date NOT NULL,
 					  description TEXT,
 					  PRIMARY KEY(reqID));
 					  
-CREATE TABLE Assigned( asgID Numeric NOT NULL,
+CREATE TABLE Assigned( asgID Numeric NOT NULL DEFAULT nextval('AssignedIDs'),
 					   staffID Numeric NOT NULL DEFAULT 0,
 					   hotelID Numeric NOT NULL DEFAULT 0,
 					   roomNo Numeric NOT NULL DEFAULT 0,
 					   PRIMARY KEY(asgID));
 
+-- The below statements create the partitions: Booking by month and Repair by
+-- year, from 2000 to a year ahead, plus a default partition for other dates.
+-- "java PartitionManager <dbname> <port> <user> create-ahead" adds the later
+-- ones and moves rows out of the default partitions; "archive" detaches old ones.
+DO $$
+DECLARE
+	m Date;
+BEGIN
+	FOR m IN SELECT generate_series(DATE '2000-01-01', date_trunc('month', now()) + INTERVAL '12 months',
+									INTERVAL '1 month')::date LOOP
+		EXECUTE format('CREATE TABLE Booking_p%s PARTITION OF Booking FOR VALUES FROM (%L) TO (%L)',
+					   to_char(m, 'YYYY_MM'), m, (m + INTERVAL '1 month')::date);
+	END LOOP;
+	FOR m IN SELECT generate_series(DATE '2000-01-01', date_trunc('year', now()) + INTERVAL '1 year',
+									INTERVAL '1 year')::date LOOP
+		EXECUTE format('CREATE TABLE Repair_p%s PARTITION OF Repair FOR VALUES FROM (%L) TO (%L)',
+					   to_char(m, 'YYYY'), m, (m + INTERVAL '1 year')::date);
+	END LOOP;
+END;
+$$;
+
+CREATE TABLE Booking_default PARTITION OF Booking DEFAULT;
+CREATE TABLE Repair_default PARTITION OF Repair DEFAULT;
+
+-- The below statements hold every bID and rID in use in an unpartitioned key
+-- table, so an insert or update reusing one fails with a unique violation on
+-- bookingkeys_pkey or repairkeys_pkey, whatever its date.  The keys of
+-- archived partitions stay, so their IDs are never handed out again.
+CREATE TABLE BookingKeys( bID Numeric NOT NULL,
+						  PRIMARY KEY(bID));
+
+CREATE TABLE RepairKeys( rID Numeric NOT NULL,
+						 PRIMARY KEY(rID));
+
+CREATE OR REPLACE FUNCTION claimBookingKey() RETURNS trigger AS $$
+BEGIN
+	-- rows PartitionManager moves between partitions are neither new nor gone
+	IF current_setting('dbproject.partition_move', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO BookingKeys(bID) VALUES (NEW.bID);
+	ELSIF TG_OP = 'DELETE' THEN
+		DELETE FROM BookingKeys WHERE bID = OLD.bID;
+	ELSIF NEW.bID <> OLD.bID THEN
+		UPDATE BookingKeys SET bID = NEW.bID WHERE bID = OLD.bID;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER bookingKey AFTER INSERT OR UPDATE OF bID OR DELETE ON Booking
+FOR EACH ROW EXECUTE PROCEDURE claimBookingKey();
+
+CREATE OR REPLACE FUNCTION claimRepairKey() RETURNS trigger AS $$
+BEGIN
+	-- rows PartitionManager moves between partitions are neither new nor gone
+	IF current_setting('dbproject.partition_move', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO RepairKeys(rID) VALUES (NEW.rID);
+	ELSIF TG_OP = 'DELETE' THEN
+		DELETE FROM RepairKeys WHERE rID = OLD.rID;
+	ELSIF NEW.rID <> OLD.rID THEN
+		UPDATE RepairKeys SET rID = NEW.rID WHERE rID = OLD.rID;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairKey AFTER INSERT OR UPDATE OF rID OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE claimRepairKey();
+
 -- The below sql statments creates necessary Foreign Key Constraints on the above created tables
 ALTER TABLE Hotel
 ADD CONSTRAINT managerConstraint
@@ -113,6 +212,12 @@ FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT;	
 
+-- a room is booked at most once a night; the booking engine claims a night by
+-- inserting ON CONFLICT DO NOTHING against this constraint
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomNight
+UNIQUE(hotelID, roomNo, bookingDate);
+
 ALTER TABLE Repair
 ADD CONSTRAINT repairMcmpConstraint
 FOREIGN KEY(mCompany)
@@ -131,11 +236,37 @@ FOREIGN KEY(managerID)
 REFERENCES Staff(SSN)
 ON DELETE SET DEFAULT;
 
-ALTER TABLE Request
-ADD CONSTRAINT requestRepairConstraint
-FOREIGN KEY(repairID)
-REFERENCES Repair(rID)
-ON DELETE SET DEFAULT;
+-- No foreign key can reference rID alone now that Repair is partitioned, so
+-- the below triggers give Request.repairID the same checks.  Archiving a Repair
+-- partition (PartitionManager) keeps the requests that point into it.
+CREATE OR REPLACE FUNCTION checkRequestRepair() RETURNS trigger AS $$
+BEGIN
+	PERFORM 1 FROM Repair WHERE rID = NEW.repairID FOR KEY SHARE;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'insert or update on table "request" violates foreign key constraint "requestrepairconstraint"'
+		USING ERRCODE = 'foreign_key_violation',
+			  DETAIL = format('Key (repairID)=(%s) is not present in table "repair".', NEW.repairID);
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER requestRepairConstraint BEFORE INSERT OR UPDATE OF repairID ON Request
+FOR EACH ROW EXECUTE PROCEDURE checkRequestRepair();
+
+CREATE OR REPLACE FUNCTION releaseRequestRepair() RETURNS trigger AS $$
+BEGIN
+	-- rows PartitionManager moves between partitions are neither new nor gone
+	IF current_setting('dbproject.partition_move', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	UPDATE Request SET repairID = DEFAULT WHERE repairID = OLD.rID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairDeleted AFTER DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE releaseRequestRepair();
 
 ALTER TABLE Assigned
 ADD CONSTRAINT assgndStaffConstraint
@@ -148,84 +279,91 @@ ADD CONSTRAINT assgndRoomConstraint
 FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT; 
--- data copy				 
-COPY Hotel(	hotelID,			 
-			address,	   
-            manager)
-FROM 'hotel.csv'
-WITH DELIMITER ',';
-
-COPY Staff(SSN, 
-			fName, 
-			lName, 
-			address,
-			role,
-			employerID)
-FROM 'staff.csv'
-WITH DELIMITER ',';	
-
-UPDATE hotel 
-SET manager = Staff.ssn
-FROM Staff
-WHERE hotel.hotelID = Staff.employerID AND Staff.role = 'Manager'; 
-
-
-COPY Room(	hotelID,
-		    roomNo,
-			roomType)
-FROM 'room.csv'
-WITH DELIMITER ',';	
-
-COPY Customer(	customerID,
-			    fName,
-			    lName,
-			    Address,
-				phNo,
-				DOB,
-			    gender)
-FROM 'customer.csv'
-WITH DELIMITER ',';	
-
-
-COPY MaintenanceCompany(cmpID,
-						name,
-						address,
-						isCertified)
-FROM 'maintenanceCompany.csv'
-WITH DELIMITER ',';	
-
-COPY Booking( bID,
-			  customer,
-			  hotelID,
-			  roomNo,
-			  bookingDate,
-			  noOfPeople,
-			  price)
-FROM 'booking.csv'
-WITH DELIMITER ',';	
-
-COPY Repair( rID,
-			 hotelID,
-			 roomNo,
-			 mCompany,
-			 repairDate,
-			 description,
-			 repairType)
-FROM 'repair.csv'
-WITH DELIMITER ',';	
-
-COPY Request(reqID,
-			 managerID,
-			 repairID,
-			 requestDate,
-			 description)
-FROM 'request.csv'
-WITH DELIMITER ',';		
-
-COPY Assigned(asgID,
-			  staffID,
-			  hotelID,
-			  roomNo)
-FROM 'assigned.csv'
-WITH DELIMITER ',';		
-	
\ No newline at end of file
+
+-- The below statements notify listening clients (see ReferenceCache.java) when a
+-- reference table changes, on channels hotel_changed, room_changed,
+-- maintenancecompany_changed and staff_changed
+CREATE OR REPLACE FUNCTION notifyReferenceChange() RETURNS trigger AS $$
+BEGIN
+	EXECUTE 'NOTIFY ' || TG_TABLE_NAME || '_changed';
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER hotelChanged AFTER INSERT OR UPDATE OR DELETE ON Hotel
+FOR EACH STATEMENT EXECUTE PROCEDURE notifyReferenceChange();
+
+CREATE TRIGGER roomChanged AFTER INSERT OR UPDATE OR DELETE ON Room
+FOR EACH STATEMENT EXECUTE PROCEDURE notifyReferenceChange();
+
+CREATE TRIGGER maintenanceCompanyChanged AFTER INSERT OR UPDATE OR DELETE ON MaintenanceCompany
+FOR EACH STATEMENT EXECUTE PROCEDURE notifyReferenceChange();
+
+CREATE TRIGGER staffChanged AFTER INSERT OR UPDATE OR DELETE ON Staff
+FOR EACH STATEMENT EXECUTE PROCEDURE notifyReferenceChange();
+
+-- The below statements keep CustomerRevenue, the booking total and count per
+-- customer, hotel and day, current on every change to Booking.  It answers
+-- totalCostForCustomer; "java DBProject <dbname> <port> <user> revenue rebuild"
+-- recomputes it and "revenue check" compares it with Booking.
+CREATE TABLE CustomerRevenue( customer Numeric NOT NULL,
+							  hotelID Numeric NOT NULL,
+							  day Date NOT NULL,
+							  total Numeric(14,2) NOT NULL,
+							  bookings Integer NOT NULL,
+							  PRIMARY KEY(customer, hotelID, day));
+
+CREATE OR REPLACE FUNCTION maintainCustomerRevenue() RETURNS trigger AS $$
+BEGIN
+	-- rows PartitionManager moves between partitions are neither new nor gone
+	IF current_setting('dbproject.partition_move', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE CustomerRevenue
+		SET total = total - OLD.price, bookings = bookings - 1
+		WHERE customer = OLD.customer AND hotelID = OLD.hotelID AND day = OLD.bookingDate;
+		DELETE FROM CustomerRevenue
+		WHERE customer = OLD.customer AND hotelID = OLD.hotelID AND day = OLD.bookingDate
+		AND bookings <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO CustomerRevenue(customer, hotelID, day, total, bookings)
+		VALUES (NEW.customer, NEW.hotelID, NEW.bookingDate, NEW.price, 1)
+		ON CONFLICT (customer, hotelID, day) DO UPDATE
+		SET total = CustomerRevenue.total + EXCLUDED.total,
+			bookings = CustomerRevenue.bookings + 1;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER bookingRevenue AFTER INSERT OR UPDATE OR DELETE ON Booking
+FOR EACH ROW EXECUTE PROCEDURE maintainCustomerRevenue();
+
+-- The below statements keep CompanyRepairs, the number of repairs per maintenance
+-- company, current on every change to Repair.  It is the leaderboard read by
+-- topKMaintenanceCompany; "leaderboard rebuild|check" maintains it like "revenue".
+CREATE TABLE CompanyRepairs( cmpID Numeric NOT NULL,
+							 repairs Integer NOT NULL,
+							 PRIMARY KEY(cmpID));
+
+CREATE OR REPLACE FUNCTION maintainCompanyRepairs() RETURNS trigger AS $$
+BEGIN
+	-- rows PartitionManager moves between partitions are neither new nor gone
+	IF current_setting('dbproject.partition_move', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE CompanyRepairs SET repairs = repairs - 1 WHERE cmpID = OLD.mCompany;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO CompanyRepairs(cmpID, repairs) VALUES (NEW.mCompany, 1)
+		ON CONFLICT (cmpID) DO UPDATE SET repairs = CompanyRepairs.repairs + 1;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairLeaderboard AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE maintainCompanyRepairs();
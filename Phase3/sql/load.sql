@@ -0,0 +1,90 @@
+-- Server-side data copy. The csv files must be in the DB temp folder;
+-- "java DBProject <dbname> <port> <user> load" streams them from the client instead.
+-- data copy				 
+COPY Hotel(	hotelID,			 
+			address,	   
+            manager)
+FROM 'hotel.csv'
+WITH DELIMITER ',';
+
+COPY Staff(SSN, 
+			fName, 
+			lName, 
+			address,
+			role,
+			employerID)
+FROM 'staff.csv'
+WITH DELIMITER ',';	
+
+UPDATE hotel 
+SET manager = Staff.ssn
+FROM Staff
+WHERE hotel.hotelID = Staff.employerID AND Staff.role = 'Manager'; 
+
+
+COPY Room(	hotelID,
+		    roomNo,
+			roomType)
+FROM 'room.csv'
+WITH DELIMITER ',';	
+
+COPY Customer(	customerID,
+			    fName,
+			    lName,
+			    Address,
+				phNo,
+				DOB,
+			    gender)
+FROM 'customer.csv'
+WITH DELIMITER ',';	
+
+
+COPY MaintenanceCompany(cmpID,
+						name,
+						address,
+						isCertified)
+FROM 'maintenanceCompany.csv'
+WITH DELIMITER ',';	
+
+COPY Booking( bID,
+			  customer,
+			  hotelID,
+			  roomNo,
+			  bookingDate,
+			  noOfPeople,
+			  price)
+FROM 'booking.csv'
+WITH DELIMITER ',';	
+
+COPY Repair( rID,
+			 hotelID,
+			 roomNo,
+			 mCompany,
+			 repairDate,
+			 description,
+			 repairType)
+FROM 'repair.csv'
+WITH DELIMITER ',';	
+
+COPY Request(reqID,
+			 managerID,
+			 repairID,
+			 requestDate,
+			 description)
+FROM 'request.csv'
+WITH DELIMITER ',';		
+
+COPY Assigned(asgID,
+			  staffID,
+			  hotelID,
+			  roomNo)
+FROM 'assigned.csv'
+WITH DELIMITER ',';
+
+-- generated keys continue after the loaded ones
+SELECT setval('CustomerIDs', COALESCE(MAX(customerID), 0) + 1, false) FROM Customer;
+SELECT setval('CompanyIDs', COALESCE(MAX(cmpID), 0) + 1, false) FROM MaintenanceCompany;
+SELECT setval('BookingIDs', COALESCE(MAX(bID), 0) + 1, false) FROM Booking;
+SELECT setval('RepairIDs', COALESCE(MAX(rID), 0) + 1, false) FROM Repair;
+SELECT setval('RequestIDs', COALESCE(MAX(reqID), 0) + 1, false) FROM Request;
+SELECT setval('AssignedIDs', COALESCE(MAX(asgID), 0) + 1, false) FROM Assigned;